@@ -0,0 +1,69 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.profile.LinuxPerfAsmProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the benchmarks matching the given JMH command line with the gc profiler, once for each thread count from 1 up to the number of available processors,
+ * doubling each time. Results of each thread count are written to {@code jmh-result-<threads>-threads.json}. Any JMH option may be given, and giving {@code
+ * -t} runs only that thread count.
+ * <p>
+ * Set the {@code jacoio.benchmark.perfasm} system property to true to also run the perfasm profiler, which requires Linux perf and the hsdis disassembler.
+ * <p>
+ * Usage: java -jar jacoio-benchmarks/target/benchmarks.jar [JMH options] [benchmark regex]
+ *
+ * @author Eric Thill
+ */
+public class BenchmarkRunner {
+
+  public static void main(String[] args) throws Exception {
+    final CommandLineOptions commandLine = new CommandLineOptions(args);
+    if(commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams() || commandLine.shouldListProfilers()
+            || commandLine.shouldListResultFormats()) {
+      // let JMH handle informational options
+      org.openjdk.jmh.Main.main(args);
+      return;
+    }
+
+    final List<Integer> threadCounts = new ArrayList<>();
+    if(commandLine.getThreads().hasValue()) {
+      threadCounts.add(commandLine.getThreads().get());
+    } else {
+      for(int threads = 1; threads < Runtime.getRuntime().availableProcessors(); threads <<= 1)
+        threadCounts.add(threads);
+      threadCounts.add(Runtime.getRuntime().availableProcessors());
+    }
+
+    for(int threads : threadCounts) {
+      final ChainedOptionsBuilder options = new OptionsBuilder()
+              .parent(commandLine)
+              .threads(threads)
+              .addProfiler(GCProfiler.class);
+      if(Boolean.getBoolean("jacoio.benchmark.perfasm"))
+        options.addProfiler(LinuxPerfAsmProfiler.class);
+      if(!commandLine.getResult().hasValue())
+        options.result("jmh-result-" + threads + "-threads.json").resultFormat(ResultFormatType.JSON);
+      new Runner(options.build()).run();
+    }
+  }
+
+}
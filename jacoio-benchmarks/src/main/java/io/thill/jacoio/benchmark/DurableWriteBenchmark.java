@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import io.thill.jacoio.mapper.DurableWrite;
+import io.thill.jacoio.mapper.Durability;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the latency of every writeDurable method on a rolling {@link Durability#GROUP_COMMIT} file, from the write until it has been forced to the device.
+ * More threads share each force, so latency should grow much slower than the thread count.
+ *
+ * @author Eric Thill
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class DurableWriteBenchmark extends FileBenchmark {
+
+  private static final WriteFunction WRITE_FUNCTION = (buffer, offset, length) -> buffer.setMemory(offset, length, (byte)'x');
+  private static final ParametizedWriteFunction<byte[]> PARAMETIZED_WRITE_FUNCTION =
+          (buffer, offset, length, bytes) -> buffer.putBytes(offset, bytes, 0, length);
+
+  @Setup
+  public void setup() throws IOException {
+    file = rollingMapper("durable").durability(Durability.GROUP_COMMIT).map();
+  }
+
+  @TearDown
+  public void tearDown() throws IOException {
+    close();
+  }
+
+  private static int await(final int offset, final DurableWrite durableWrite) throws IOException {
+    durableWrite.await();
+    return offset;
+  }
+
+  @Benchmark
+  public int writeDurableBytes(final WriterState writer) throws IOException {
+    return await(file.writeDurable(writer.bytes, 0, writer.bytes.length, writer.durableWrite), writer.durableWrite);
+  }
+
+  @Benchmark
+  public int writeDurableDirectBuffer(final WriterState writer) throws IOException {
+    return await(file.writeDurable(writer.directBuffer, 0, writer.directBuffer.capacity(), writer.durableWrite), writer.durableWrite);
+  }
+
+  @Benchmark
+  public int writeDurableByteBuffer(final WriterState writer) throws IOException {
+    return await(file.writeDurable(writer.byteBuffer(), writer.durableWrite), writer.durableWrite);
+  }
+
+  @Benchmark
+  public int writeDurableFunction(final WriterState writer) throws IOException {
+    return await(file.writeDurable(writer.bytes.length, WRITE_FUNCTION, writer.durableWrite), writer.durableWrite);
+  }
+
+  @Benchmark
+  public int writeDurableParametizedFunction(final WriterState writer) throws IOException {
+    return await(file.writeDurable(writer.bytes.length, writer.bytes, PARAMETIZED_WRITE_FUNCTION, writer.durableWrite), writer.durableWrite);
+  }
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.mapper.ConcurrentFileMapper;
+import org.agrona.IoUtil;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The {@link ConcurrentFile} shared by all threads of a benchmark, mapped for every combination of single/multi-process, unframed/framed, and record size.
+ * Files are placed in the directory given by the {@code jacoio.benchmark.dir} system property, which defaults to {@code target/benchmark}. Point it at the
+ * device being measured, since a tmpfs directory measures memory instead.
+ *
+ * @author Eric Thill
+ */
+@State(Scope.Benchmark)
+@Fork(1)
+public abstract class FileBenchmark {
+
+  static final File DIRECTORY = new File(System.getProperty("jacoio.benchmark.dir", "target/benchmark"));
+  static final int ROLLING_CAPACITY = 64 * 1024 * 1024;
+
+  @Param({"false", "true"})
+  boolean multiProcess;
+
+  @Param({"false", "true"})
+  boolean framed;
+
+  @Param({"32", "256", "4096"})
+  int recordSize;
+
+  ConcurrentFile file;
+  private File location;
+
+  /**
+   * Get a mapper for a file at the given location with the parameters of this benchmark
+   *
+   * @param location the file, or directory for rolling files
+   * @param capacity the capacity of the file
+   * @return the mapper
+   */
+  ConcurrentFileMapper mapper(final File location, final int capacity) {
+    this.location = location;
+    IoUtil.delete(location, true);
+    location.getAbsoluteFile().getParentFile().mkdirs();
+    return ConcurrentFile.map()
+            .location(location)
+            .capacity(capacity)
+            .multiProcess(multiProcess)
+            .framed(framed)
+            .fillWithZeros(true);
+  }
+
+  /**
+   * Get a mapper for a rolling file with the parameters of this benchmark. Files are preallocated and closed asynchronously, like a latency-sensitive
+   * deployment would, and are deleted once closed so long runs do not fill the device.
+   *
+   * @param name the name of the directory for the rolling files
+   * @return the mapper
+   */
+  ConcurrentFileMapper rollingMapper(final String name) {
+    return mapper(new File(DIRECTORY, name), ROLLING_CAPACITY)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .preallocate(true)
+                    .asyncClose(true)
+                    .fileNamePrefix("benchmark-")
+                    .fileNameSuffix(".bin")
+                    .fileClosedListener(File::delete)
+            );
+  }
+
+  void close() throws IOException {
+    if(file != null) {
+      file.close();
+      file = null;
+    }
+    IoUtil.delete(location, true);
+  }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every write method on a non-rolling file. A non-rolling file stops accepting writes once it is full, so each iteration maps a new file sized for
+ * exactly one batch of writes per thread and times the whole batch.
+ *
+ * @author Eric Thill
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 10, batchSize = FixedWriteBenchmark.BATCH_SIZE)
+@Measurement(iterations = 20, batchSize = FixedWriteBenchmark.BATCH_SIZE)
+public class FixedWriteBenchmark extends WriteBenchmark {
+
+  static final int BATCH_SIZE = 10_000;
+  // room for the largest frame header and alignment of each write
+  private static final int WRITE_OVERHEAD = 64;
+
+  @Setup(Level.Iteration)
+  public void setup(final BenchmarkParams params) throws IOException {
+    final long batchSize = Math.max(params.getWarmup().getBatchSize(), params.getMeasurement().getBatchSize());
+    final long capacity = params.getThreads() * batchSize * (recordSize + WRITE_OVERHEAD);
+    if(capacity > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("threads * batchSize * (recordSize + " + WRITE_OVERHEAD + ") must fit in an int file capacity");
+    file = mapper(new File(DIRECTORY, "fixed.bin"), (int)capacity).map();
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() throws IOException {
+    close();
+  }
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks every non-durable {@link ConcurrentFile} write method. Every method writes {@code recordSize} bytes, except for writeLong and writeLongs, which
+ * always write 8 to 32 bytes. Each method returns the offset of the write, so it can not be eliminated as dead code.
+ *
+ * @author Eric Thill
+ */
+public abstract class WriteBenchmark extends FileBenchmark {
+
+  private static final long TRY_WRITE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private static final WriteFunction WRITE_FUNCTION = (buffer, offset, length) -> buffer.setMemory(offset, length, (byte)'x');
+  private static final ParametizedWriteFunction<byte[]> PARAMETIZED_WRITE_FUNCTION =
+          (buffer, offset, length, bytes) -> buffer.putBytes(offset, bytes, 0, length);
+  private static final BiParametizedWriteFunction<byte[], DirectBuffer> BI_PARAMETIZED_WRITE_FUNCTION = (buffer, offset, length, bytes, directBuffer) -> {
+    final int half = length >> 1;
+    buffer.putBytes(offset, bytes, 0, half);
+    buffer.putBytes(offset + half, directBuffer, half, length - half);
+  };
+  private static final TriParametizedWriteFunction<byte[], DirectBuffer, byte[]> TRI_PARAMETIZED_WRITE_FUNCTION =
+          (buffer, offset, length, bytes1, directBuffer, bytes2) -> {
+            final int third = length / 3;
+            buffer.putBytes(offset, bytes1, 0, third);
+            buffer.putBytes(offset + third, directBuffer, third, third);
+            buffer.putBytes(offset + 2 * third, bytes2, 2 * third, length - 2 * third);
+          };
+
+  @Benchmark
+  public int writeBytes(final WriterState writer) throws IOException {
+    return file.write(writer.bytes, 0, writer.bytes.length);
+  }
+
+  @Benchmark
+  public int writeDirectBuffer(final WriterState writer) throws IOException {
+    return file.write(writer.directBuffer, 0, writer.directBuffer.capacity());
+  }
+
+  @Benchmark
+  public int writeByteBuffer(final WriterState writer) throws IOException {
+    return file.write(writer.byteBuffer());
+  }
+
+  @Benchmark
+  public int writeAscii(final WriterState writer) throws IOException {
+    return file.writeAscii(writer.ascii);
+  }
+
+  @Benchmark
+  public int writeChars(final WriterState writer) throws IOException {
+    return file.writeChars(writer.chars, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Benchmark
+  public int writeFunction(final WriterState writer) throws IOException {
+    return file.write(writer.bytes.length, WRITE_FUNCTION);
+  }
+
+  @Benchmark
+  public int writeParametizedFunction(final WriterState writer) throws IOException {
+    return file.write(writer.bytes.length, writer.bytes, PARAMETIZED_WRITE_FUNCTION);
+  }
+
+  @Benchmark
+  public int writeBiParametizedFunction(final WriterState writer) throws IOException {
+    return file.write(writer.bytes.length, writer.bytes, writer.directBuffer, BI_PARAMETIZED_WRITE_FUNCTION);
+  }
+
+  @Benchmark
+  public int writeTriParametizedFunction(final WriterState writer) throws IOException {
+    return file.write(writer.bytes.length, writer.bytes, writer.directBuffer, writer.bytes, TRI_PARAMETIZED_WRITE_FUNCTION);
+  }
+
+  @Benchmark
+  public int writeLong(final WriterState writer) throws IOException {
+    return file.writeLong(writer.value++, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Benchmark
+  public int writeLongs2(final WriterState writer) throws IOException {
+    return file.writeLongs(writer.value++, writer.value, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Benchmark
+  public int writeLongs3(final WriterState writer) throws IOException {
+    return file.writeLongs(writer.value++, writer.value, writer.value, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Benchmark
+  public int writeLongs4(final WriterState writer) throws IOException {
+    return file.writeLongs(writer.value++, writer.value, writer.value, writer.value, ByteOrder.LITTLE_ENDIAN);
+  }
+
+  @Benchmark
+  public int tryWriteBytes(final WriterState writer) throws IOException {
+    return file.tryWrite(writer.bytes, 0, writer.bytes.length, System.nanoTime() + TRY_WRITE_TIMEOUT_NANOS);
+  }
+
+  @Benchmark
+  public int tryWriteDirectBuffer(final WriterState writer) throws IOException {
+    return file.tryWrite(writer.directBuffer, 0, writer.directBuffer.capacity(), System.nanoTime() + TRY_WRITE_TIMEOUT_NANOS);
+  }
+
+  @Benchmark
+  public int tryWriteByteBuffer(final WriterState writer) throws IOException {
+    return file.tryWrite(writer.byteBuffer(), System.nanoTime() + TRY_WRITE_TIMEOUT_NANOS);
+  }
+
+  @Benchmark
+  public int tryWriteFunction(final WriterState writer) throws IOException {
+    return file.tryWrite(writer.bytes.length, WRITE_FUNCTION, System.nanoTime() + TRY_WRITE_TIMEOUT_NANOS);
+  }
+}
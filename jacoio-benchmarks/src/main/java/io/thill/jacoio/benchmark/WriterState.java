@@ -0,0 +1,67 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.mapper.DurableWrite;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * The per-thread source data for a write of {@code recordSize} bytes using each kind of source a {@link io.thill.jacoio.ConcurrentFile} write
+ * method accepts. Every source writes the same number of bytes, so results are comparable across methods.
+ *
+ * @author Eric Thill
+ */
+@State(Scope.Thread)
+public class WriterState {
+
+  byte[] bytes;
+  UnsafeBuffer directBuffer;
+  ByteBuffer byteBuffer;
+  CharSequence ascii;
+  CharSequence chars;
+  long value;
+  DurableWrite durableWrite;
+
+  @Setup
+  public void setup(final BenchmarkParams params) {
+    final int recordSize = Integer.parseInt(params.getParam("recordSize"));
+    bytes = new byte[recordSize];
+    new Random().nextBytes(bytes);
+    directBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(recordSize));
+    directBuffer.putBytes(0, bytes);
+    byteBuffer = ByteBuffer.allocateDirect(recordSize);
+    final char[] characters = new char[recordSize];
+    Arrays.fill(characters, 'x');
+    ascii = new String(characters);
+    // writeChars writes 2 bytes per char
+    chars = new String(characters, 0, Math.max(1, recordSize / 2));
+    durableWrite = new DurableWrite();
+  }
+
+  /**
+   * Get the byte buffer ready to be written again, since writing it consumes its remaining bytes
+   *
+   * @return the byte buffer
+   */
+  ByteBuffer byteBuffer() {
+    byteBuffer.clear();
+    return byteBuffer;
+  }
+}
@@ -12,6 +12,7 @@ public class JacoioLogger extends MarkerIgnoringBase {
   public static final String SYSKEY_LOG_TIMESTAMP_FORMAT = "slf4j.log.timestamp";
   public static final String SYSKEY_LOG_SIZE = "slf4j.log.size";
   public static final String SYSKEY_LOG_PREALLOCATE = "slf4j.log.preallocate";
+  public static final String SYSKEY_LOG_JMX = "slf4j.log.jmx";
 
   private final LogWriter logWriter;
 
@@ -4,7 +4,10 @@ import io.thill.jacoio.ConcurrentFile;
 import org.slf4j.ILoggerFactory;
 import org.slf4j.Logger;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.text.SimpleDateFormat;
 
 import static io.thill.jacoio.slf4j.JacoioLogger.*;
@@ -19,6 +22,8 @@ public class JacoioLoggerFactory implements ILoggerFactory {
   private static final String DEFAULT_LOG_TIMESTAMP_FORMAT = "yyyy/MM/dd HH:mm:ss.SSS";
   private static final String DEFAULT_LOG_SIZE = Integer.toString(128 * 1024 * 1024);
   private static final String DEFAULT_LOG_PREALLOCATE = Boolean.FALSE.toString();
+  private static final String DEFAULT_LOG_JMX = Boolean.TRUE.toString();
+  private static final String JMX_NAME = "slf4j";
 
   private final LogWriter logWriter;
 
@@ -33,6 +38,7 @@ public class JacoioLoggerFactory implements ILoggerFactory {
       final String filenameSuffix = System.getProperty(SYSKEY_LOG_FILENAME_SUFFIX, DEFAULT_LOG_FILENAME_SUFFIX);
       final String filenameTimestampFormat = System.getProperty(SYSKEY_LOG_FILENAME_TIMESTAMP_FORMAT, DEFAULT_LOG_FILENAME_TIMESTAMP_FORMAT);
       final String logTimestampFormat = System.getProperty(SYSKEY_LOG_TIMESTAMP_FORMAT, DEFAULT_LOG_TIMESTAMP_FORMAT);
+      final boolean jmx = Boolean.parseBoolean(System.getProperty(SYSKEY_LOG_JMX, DEFAULT_LOG_JMX));
 
       final StringBuilder stderr = new StringBuilder("Jacoio Logger:")
               .append("\n  Level: ").append(logLevel)
@@ -42,11 +48,17 @@ public class JacoioLoggerFactory implements ILoggerFactory {
               .append("\n  Filename Prefix: ").append(filenamePrefix)
               .append("\n  Filename Suffix: ").append(filenameSuffix)
               .append("\n  Filename Timestamp Format: ").append(filenameTimestampFormat)
-              .append("\n  Log Timestamp Format: ").append(logTimestampFormat);
+              .append("\n  Log Timestamp Format: ").append(logTimestampFormat)
+              .append("\n  JMX: ").append(jmx);
       System.err.println(stderr.toString());
 
       location.mkdirs();
 
+      // another logger factory in this JVM may have already registered its file, which must not stop this one from logging
+      final MBeanServer mbeanServer = jmx ? ManagementFactory.getPlatformMBeanServer() : null;
+      final ObjectName fileObjectName = new ObjectName("io.thill.jacoio:type=ConcurrentFile,name=" + ObjectName.quote(JMX_NAME));
+      final boolean registerFile = jmx && !mbeanServer.isRegistered(fileObjectName);
+
       final ConcurrentFile concurrentFile = ConcurrentFile.map()
               .location(location)
               .capacity(logSize)
@@ -60,8 +72,12 @@ public class JacoioLoggerFactory implements ILoggerFactory {
                       .fileNamePrefix(filenamePrefix)
                       .fileNameSuffix(filenameSuffix)
                       .dateFormat(filenameTimestampFormat)
-              ).map();
+              )
+              .jmxName(registerFile ? JMX_NAME : null)
+              .map();
       logWriter = new LogWriter(logLevel, concurrentFile, new SimpleDateFormat(logTimestampFormat));
+      if(jmx)
+        registerMBean(mbeanServer, new LoggerMonitor(mbeanServer, fileObjectName, logWriter, location, logSize, preallocate));
     } catch(Throwable t) {
       System.err.println("Could not initialize Jacoio Logger");
       t.printStackTrace();
@@ -70,6 +86,15 @@ public class JacoioLoggerFactory implements ILoggerFactory {
     this.logWriter = logWriter;
   }
 
+  private static void registerMBean(MBeanServer mbeanServer, LoggerMonitor loggerMonitor) {
+    try {
+      mbeanServer.registerMBean(loggerMonitor, new ObjectName("io.thill.jacoio:type=Logger"));
+    } catch(Throwable t) {
+      System.err.println("Could not register Jacoio Logger MBean");
+      t.printStackTrace();
+    }
+  }
+
   @Override
   public Logger getLogger(String name) {
     return new JacoioLogger(name, logWriter);
@@ -0,0 +1,33 @@
+package io.thill.jacoio.slf4j;
+
+/**
+ * The configuration of the SLF4J binding and the live state of its rolling log file, registered with the platform MBean server under {@code
+ * io.thill.jacoio:type=Logger} unless the {@code slf4j.log.jmx} system property is false. File attributes are read from the {@link
+ * io.thill.jacoio.mapper.ConcurrentFileMXBean} of the log file, and are null or zero if it is not registered.
+ */
+public interface JacoioLoggerMXBean {
+
+  String getLevel();
+
+  String getLocation();
+
+  int getLogSize();
+
+  boolean isPreallocate();
+
+  long getMessagesWritten();
+
+  long getWriteErrors();
+
+  String getCurrentFile();
+
+  double getFillPercentage();
+
+  boolean isPendingWrites();
+
+  boolean isPreallocatedFileReady();
+
+  long getRollCount();
+
+  double getRollsPerMinute();
+}
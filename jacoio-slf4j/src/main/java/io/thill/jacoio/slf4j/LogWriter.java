@@ -7,12 +7,15 @@ import org.slf4j.helpers.MessageFormatter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.DateFormat;
+import java.util.concurrent.atomic.LongAdder;
 
 class LogWriter {
 
   private final LogLevel logLevel;
   private final ConcurrentFile concurrentFile;
   private final DateFormat dateFormat;
+  private final LongAdder messagesWritten = new LongAdder();
+  private final LongAdder writeErrors = new LongAdder();
 
   LogWriter(LogLevel logLevel, ConcurrentFile concurrentFile, DateFormat dateFormat) {
     this.logLevel = logLevel;
@@ -49,12 +52,26 @@ class LogWriter {
 
       try {
         concurrentFile.writeAscii(sb);
+        messagesWritten.increment();
       } catch (Throwable caught) {
+        writeErrors.increment();
         caught.printStackTrace();
       }
     }
   }
 
+  LogLevel getLogLevel() {
+    return logLevel;
+  }
+
+  long getMessagesWritten() {
+    return messagesWritten.sum();
+  }
+
+  long getWriteErrors() {
+    return writeErrors.sum();
+  }
+
   public boolean isTraceEnabled() {
     return LogLevel.TRACE.isEnabled(logLevel);
   }
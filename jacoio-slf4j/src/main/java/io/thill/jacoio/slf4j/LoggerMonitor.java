@@ -0,0 +1,96 @@
+package io.thill.jacoio.slf4j;
+
+import io.thill.jacoio.mapper.ConcurrentFileMXBean;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.function.Function;
+
+class LoggerMonitor implements JacoioLoggerMXBean {
+
+  private final ConcurrentFileMXBean file;
+  private final LogWriter logWriter;
+  private final File location;
+  private final int logSize;
+  private final boolean preallocate;
+
+  LoggerMonitor(MBeanServer mbeanServer, ObjectName fileObjectName, LogWriter logWriter, File location, int logSize, boolean preallocate) {
+    this.file = JMX.newMXBeanProxy(mbeanServer, fileObjectName, ConcurrentFileMXBean.class);
+    this.logWriter = logWriter;
+    this.location = location;
+    this.logSize = logSize;
+    this.preallocate = preallocate;
+  }
+
+  private <T> T readFile(Function<ConcurrentFileMXBean, T> reader, T defaultValue) {
+    try {
+      return reader.apply(file);
+    } catch(UndeclaredThrowableException e) {
+      // the log file is not registered if its name was already taken
+      return defaultValue;
+    }
+  }
+
+  @Override
+  public String getLevel() {
+    return logWriter.getLogLevel().toString();
+  }
+
+  @Override
+  public String getLocation() {
+    return location.getAbsolutePath();
+  }
+
+  @Override
+  public int getLogSize() {
+    return logSize;
+  }
+
+  @Override
+  public boolean isPreallocate() {
+    return preallocate;
+  }
+
+  @Override
+  public long getMessagesWritten() {
+    return logWriter.getMessagesWritten();
+  }
+
+  @Override
+  public long getWriteErrors() {
+    return logWriter.getWriteErrors();
+  }
+
+  @Override
+  public String getCurrentFile() {
+    return readFile(ConcurrentFileMXBean::getCurrentFile, null);
+  }
+
+  @Override
+  public double getFillPercentage() {
+    return readFile(ConcurrentFileMXBean::getFillPercentage, 0.0);
+  }
+
+  @Override
+  public boolean isPendingWrites() {
+    return readFile(ConcurrentFileMXBean::isPendingWrites, false);
+  }
+
+  @Override
+  public boolean isPreallocatedFileReady() {
+    return readFile(ConcurrentFileMXBean::isPreallocatedFileReady, false);
+  }
+
+  @Override
+  public long getRollCount() {
+    return readFile(ConcurrentFileMXBean::getRollCount, 0L);
+  }
+
+  @Override
+  public double getRollsPerMinute() {
+    return readFile(ConcurrentFileMXBean::getRollsPerMinute, 0.0);
+  }
+}
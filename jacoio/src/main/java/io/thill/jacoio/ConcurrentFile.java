@@ -13,6 +13,7 @@ package io.thill.jacoio;
 
 import io.thill.jacoio.function.*;
 import io.thill.jacoio.mapper.ConcurrentFileMapper;
+import io.thill.jacoio.mapper.DurableWrite;
 import org.agrona.DirectBuffer;
 
 import java.io.File;
@@ -59,6 +60,22 @@ public interface ConcurrentFile extends AutoCloseable {
    */
   File getFile();
 
+  /**
+   * Force all completed writes that are not yet durable to the underlying storage device. Only the range between {@link ConcurrentFile#durablePosition()} and
+   * the last completed write is forced. Does nothing when the file was mapped with {@link io.thill.jacoio.mapper.Durability#NONE}, which is the default.
+   */
+  default void flush() throws IOException {
+  }
+
+  /**
+   * Get the offset in the underlying file up to which all writes are known to have been forced to the underlying storage device
+   *
+   * @return the durable position, or -1 if it is not tracked, which is the default
+   */
+  default long durablePosition() {
+    return -1;
+  }
+
   /**
    * Write the given bytes from the given offset to the given length
    *
@@ -189,6 +206,124 @@ public interface ConcurrentFile extends AutoCloseable {
    */
   int writeLongs(long value1, long value2, long value3, long value4, ByteOrder byteOrder) throws IOException;
 
+  /**
+   * Write the given bytes from the given offset to the given length, and complete the given {@link DurableWrite} once the write has been forced to the
+   * underlying storage device. Many concurrent calls are batched into a single force. Requires a {@link io.thill.jacoio.mapper.Durability} other than NONE.
+   * Implementations that cannot make writes durable throw {@link UnsupportedOperationException}, which is the default for every writeDurable method.
+   *
+   * @param srcBytes     the source byte array
+   * @param srcOffset    the offset in the source byte array
+   * @param length       the number of bytes to write
+   * @param durableWrite the handle to complete. Must not be pending.
+   * @return the offset at which the bytes were written, -1 if it could not fit
+   */
+  default int writeDurable(byte[] srcBytes, int srcOffset, int length, DurableWrite durableWrite) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Write the given buffer from the given offset to the given length, and complete the given {@link DurableWrite} once the write has been forced to the
+   * underlying storage device. Requires a {@link io.thill.jacoio.mapper.Durability} other than NONE.
+   *
+   * @param srcBuffer    the source buffer
+   * @param srcOffset    the offset in the source buffer
+   * @param length       the number of bytes to write
+   * @param durableWrite the handle to complete. Must not be pending.
+   * @return the offset at which the bytes were written, -1 if it could not fit
+   */
+  default int writeDurable(DirectBuffer srcBuffer, int srcOffset, int length, DurableWrite durableWrite) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Write the given ByteBuffer from {@link ByteBuffer#position()} with length={@link ByteBuffer#remaining()}, and complete the given {@link DurableWrite} once
+   * the write has been forced to the underlying storage device. Requires a {@link io.thill.jacoio.mapper.Durability} other than NONE.
+   *
+   * @param srcByteBuffer the source byte buffer
+   * @param durableWrite  the handle to complete. Must not be pending.
+   * @return the offset at which the bytes were written, -1 if it could not fit
+   */
+  default int writeDurable(ByteBuffer srcByteBuffer, DurableWrite durableWrite) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Write to the underlying buffer using the given {@link WriteFunction}, and complete the given {@link DurableWrite} once the write has been forced to the
+   * underlying storage device. Requires a {@link io.thill.jacoio.mapper.Durability} other than NONE.
+   *
+   * @param length        the total number of bytes that will be written by the {@link WriteFunction}
+   * @param writeFunction the write function
+   * @param durableWrite  the handle to complete. Must not be pending.
+   * @return the offset at which the bytes were written, -1 if it could not fit
+   */
+  default int writeDurable(int length, WriteFunction writeFunction, DurableWrite durableWrite) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Write to the underlying buffer using the given {@link ParametizedWriteFunction}, and complete the given {@link DurableWrite} once the write has been forced
+   * to the underlying storage device. Requires a {@link io.thill.jacoio.mapper.Durability} other than NONE.
+   *
+   * @param length        the total number of bytes that will be written by the {@link WriteFunction}
+   * @param parameter     the parameter to pass through to the write function
+   * @param writeFunction the write function
+   * @param durableWrite  the handle to complete. Must not be pending.
+   * @return the offset at which the bytes were written, -1 if it could not fit
+   */
+  default <P> int writeDurable(int length, P parameter, ParametizedWriteFunction<P> writeFunction, DurableWrite durableWrite) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Write the given bytes like {@link ConcurrentFile#write(byte[], int, int)}, but give up instead of waiting past the given deadline. Only a rolling file ever
+   * waits to write, when the current file is full and another thread is rolling to the next one, so this is the same as a regular write for other files.
+   *
+   * @param srcBytes      the source byte array
+   * @param srcOffset     the offset in the source byte array
+   * @param length        the number of bytes to write
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the offset at which the bytes were written, -1 if it could not fit or the deadline passed
+   */
+  default int tryWrite(byte[] srcBytes, int srcOffset, int length, long deadlineNanos) throws IOException {
+    return write(srcBytes, srcOffset, length);
+  }
+
+  /**
+   * Write the given buffer like {@link ConcurrentFile#write(DirectBuffer, int, int)}, but give up instead of waiting past the given deadline.
+   *
+   * @param srcBuffer     the source buffer
+   * @param srcOffset     the offset in the source buffer
+   * @param length        the number of bytes to write
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the offset at which the bytes were written, -1 if it could not fit or the deadline passed
+   */
+  default int tryWrite(DirectBuffer srcBuffer, int srcOffset, int length, long deadlineNanos) throws IOException {
+    return write(srcBuffer, srcOffset, length);
+  }
+
+  /**
+   * Write the given ByteBuffer like {@link ConcurrentFile#write(ByteBuffer)}, but give up instead of waiting past the given deadline.
+   *
+   * @param srcByteBuffer the source byte buffer
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the offset at which the bytes were written, -1 if it could not fit or the deadline passed
+   */
+  default int tryWrite(ByteBuffer srcByteBuffer, long deadlineNanos) throws IOException {
+    return write(srcByteBuffer);
+  }
+
+  /**
+   * Write using the given {@link WriteFunction} like {@link ConcurrentFile#write(int, WriteFunction)}, but give up instead of waiting past the given deadline.
+   *
+   * @param length        the total number of bytes that will be written by the {@link WriteFunction}
+   * @param writeFunction the write function
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the offset at which the bytes were written, -1 if it could not fit or the deadline passed
+   */
+  default int tryWrite(int length, WriteFunction writeFunction, long deadlineNanos) throws IOException {
+    return write(length, writeFunction);
+  }
+
   @Override
   void close() throws IOException;
 
@@ -2,7 +2,11 @@ package io.thill.jacoio.function;
 
 import java.io.File;
 import java.text.DateFormat;
+import java.text.ParsePosition;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.List;
 
 public class DefaultFileProvider implements FileProvider {
 
@@ -30,4 +34,70 @@ public class DefaultFileProvider implements FileProvider {
     } while(file.exists());
     return file;
   }
+
+  @Override
+  public File lastFile() {
+    // match the string concatenation used by nextFile, which also applies to null affixes
+    final String prefix = String.valueOf(namePrefix);
+    final String suffix = String.valueOf(nameSuffix);
+    final File[] files = directory.listFiles(f -> f.isFile() && f.getName().startsWith(prefix) && f.getName().endsWith(suffix));
+    if(files == null)
+      return null;
+    // modification times are not reliably updated by writes through a mapping, so files are ordered by the time and index in their names
+    final DateFormat parser = dateFormat == null ? null : (DateFormat)dateFormat.clone();
+    final List<NamedFile> namedFiles = new ArrayList<>();
+    for(File file : files) {
+      final NamedFile namedFile = parse(file, prefix, suffix, parser);
+      if(namedFile != null)
+        namedFiles.add(namedFile);
+    }
+    if(namedFiles.isEmpty())
+      return null;
+    namedFiles.sort(Comparator.comparingLong((NamedFile f) -> f.time).thenComparingInt(f -> f.idx).reversed());
+    // a file preallocated just before an unclean shutdown is newer than the file that was being written, but was never written itself
+    for(NamedFile namedFile : namedFiles) {
+      if(!UnwrittenFiles.isUnwritten(namedFile.file))
+        return namedFile.file;
+    }
+    return namedFiles.get(0).file;
+  }
+
+  private static NamedFile parse(final File file, final String prefix, final String suffix, final DateFormat parser) {
+    final String name = file.getName();
+    if(name.length() < prefix.length() + suffix.length())
+      return null;
+    final String middle = name.substring(prefix.length(), name.length() - suffix.length());
+    long time = 0;
+    int idxStart = 0;
+    if(parser != null) {
+      final ParsePosition position = new ParsePosition(0);
+      final Date date = parser.parse(middle, position);
+      if(date == null)
+        return null;
+      time = date.getTime();
+      idxStart = position.getIndex();
+    }
+    if(idxStart == middle.length())
+      return new NamedFile(file, time, 0);
+    if(middle.charAt(idxStart) != '-')
+      return null;
+    try {
+      return new NamedFile(file, time, Integer.parseInt(middle.substring(idxStart + 1)));
+    } catch(NumberFormatException e) {
+      // not a name returned by nextFile
+      return null;
+    }
+  }
+
+  private static final class NamedFile {
+    private final File file;
+    private final long time;
+    private final int idx;
+
+    private NamedFile(final File file, final long time, final int idx) {
+      this.file = file;
+      this.time = time;
+      this.idx = idx;
+    }
+  }
 }
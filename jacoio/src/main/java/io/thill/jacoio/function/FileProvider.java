@@ -5,4 +5,14 @@ import java.io.File;
 @FunctionalInterface
 public interface FileProvider {
   File nextFile();
+
+  /**
+   * Find the most recent file previously returned by {@link FileProvider#nextFile()} that was written to, so it can be resumed after a restart. A newer file
+   * that only holds zeros was preallocated but never used, and should be skipped.
+   *
+   * @return the last file, or null if it cannot be determined
+   */
+  default File lastFile() {
+    return null;
+  }
 }
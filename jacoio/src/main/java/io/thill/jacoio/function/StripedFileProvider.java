@@ -0,0 +1,150 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of the
+ * License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.function;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * A {@link FileProvider} that spreads files over many directories, which may be on different devices, so rolling files are not limited by the bandwidth of a
+ * single device. Every file handed out is appended to a placement file, one absolute path per line, so readers can find every file in the order it was
+ * created with {@link StripedFileProvider#readPlacement(File)}. Files that were preallocated but never used are deleted, so readers should skip paths that no
+ * longer exist.
+ *
+ * @author Eric Thill
+ */
+public class StripedFileProvider implements FileProvider {
+
+  /**
+   * The name of the placement file written by a {@link StripedFileProvider} created by the mapper
+   */
+  public static final String PLACEMENT_FILE_NAME = "placement.log";
+
+  public enum Placement {
+    /**
+     * Use each directory in turn
+     */
+    ROUND_ROBIN,
+    /**
+     * Use the directory with the most usable space
+     */
+    LEAST_FULL
+  }
+
+  private final File[] directories;
+  private final String namePrefix;
+  private final DateFormat dateFormat;
+  private final String nameSuffix;
+  private final Placement placement;
+  private final File placementFile;
+  private int nextDirectory;
+
+  public StripedFileProvider(File[] directories, String namePrefix, DateFormat dateFormat, String nameSuffix, Placement placement, File placementFile) {
+    if(directories.length == 0)
+      throw new IllegalArgumentException("directories cannot be empty");
+    this.directories = directories.clone();
+    this.namePrefix = namePrefix;
+    this.dateFormat = dateFormat;
+    this.nameSuffix = nameSuffix;
+    this.placement = placement;
+    this.placementFile = placementFile;
+    for(File directory : this.directories)
+      directory.mkdirs();
+    placementFile.getParentFile().mkdirs();
+  }
+
+  @Override
+  public synchronized File nextFile() {
+    final File directory = nextDirectory();
+    int idx = 0;
+    File file;
+    do {
+      String name = namePrefix + (dateFormat == null ? "" : dateFormat.format(new Date(System.currentTimeMillis()))) + (idx == 0 ? "" : "-" + idx) + nameSuffix;
+      file = new File(directory, name);
+      idx++;
+    } while(file.exists());
+
+    // record the placement before the file is used, so readers never miss a file
+    try(FileOutputStream out = new FileOutputStream(placementFile, true)) {
+      out.write((file.getAbsolutePath() + "\n").getBytes(StandardCharsets.UTF_8));
+    } catch(IOException e) {
+      throw new UncheckedIOException("Could not record placement of " + file.getAbsolutePath(), e);
+    }
+    return file;
+  }
+
+  private File nextDirectory() {
+    if(placement == Placement.LEAST_FULL) {
+      File leastFull = directories[0];
+      long mostUsableSpace = leastFull.getUsableSpace();
+      for(int i = 1; i < directories.length; i++) {
+        final long usableSpace = directories[i].getUsableSpace();
+        if(usableSpace > mostUsableSpace) {
+          leastFull = directories[i];
+          mostUsableSpace = usableSpace;
+        }
+      }
+      return leastFull;
+    }
+    final File directory = directories[nextDirectory];
+    nextDirectory = (nextDirectory + 1) % directories.length;
+    return directory;
+  }
+
+  @Override
+  public File lastFile() {
+    try {
+      final List<File> files = readPlacement(placementFile);
+      // a file preallocated just before an unclean shutdown is placed after the file that was being written, but was never written itself
+      File lastExisting = null;
+      for(int i = files.size() - 1; i >= 0; i--) {
+        final File file = files.get(i);
+        if(!file.exists())
+          continue;
+        if(!UnwrittenFiles.isUnwritten(file))
+          return file;
+        if(lastExisting == null)
+          lastExisting = file;
+      }
+      return lastExisting;
+    } catch(IOException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Read every file recorded in a placement file that still exists, in the order the files were created
+   *
+   * @param placementFile the placement file
+   * @return the files, or an empty list if the placement file does not exist
+   * @throws IOException if the placement file could not be read
+   */
+  public static List<File> readPlacement(File placementFile) throws IOException {
+    final List<File> files = new ArrayList<>();
+    if(!placementFile.exists())
+      return files;
+    for(String line : Files.readAllLines(placementFile.toPath(), StandardCharsets.UTF_8)) {
+      final File file = new File(line);
+      if(!line.isEmpty() && file.exists())
+        files.add(file);
+    }
+    return files;
+  }
+}
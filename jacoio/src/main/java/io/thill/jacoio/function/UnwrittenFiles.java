@@ -0,0 +1,59 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.function;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Detects files that were handed out by a {@link FileProvider} but never written, such as a file that was preallocated just before an unclean shutdown
+ *
+ * @author Eric Thill
+ */
+final class UnwrittenFiles {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+
+  private UnwrittenFiles() {
+  }
+
+  /**
+   * Check if every byte of the given file is zero
+   *
+   * @param file the file to check
+   * @return true if the file only holds zeros, false if it holds data or could not be read
+   */
+  static boolean isUnwritten(final File file) {
+    try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      final ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+      while(channel.read(chunk) >= 0) {
+        chunk.flip();
+        while(chunk.remaining() >= 8) {
+          if(chunk.getLong() != 0)
+            return false;
+        }
+        while(chunk.hasRemaining()) {
+          if(chunk.get() != 0)
+            return false;
+        }
+        chunk.clear();
+      }
+      return true;
+    } catch(IOException e) {
+      // resuming in a file that was written is safe, so an unreadable file is treated as written
+      return false;
+    }
+  }
+}
@@ -0,0 +1,373 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.collections.IntArrayList;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.MessageHandler;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An implementation of {@link ConcurrentFile} that hands writes off to a drainer thread, so callers never touch the underlying file. Each write is copied
+ * into an off-heap {@link ManyToOneRingBuffer}, and a single drainer thread moves records into the underlying {@link ConcurrentFile}. When coalescing, records
+ * are copied into a batch that is written with one reservation, falling back to one write per record when the batch does not fit. Framed files are not
+ * coalesced, since a reader must never see a frame header before its frame is written.
+ * <p>
+ * Since the offset of a record is not known until it is drained, writes return 0 when the record was accepted, or {@link ConcurrentFile#NULL_OFFSET} when the
+ * ring is full, the file is closed, or the underlying file was full. A record larger than {@link AsyncConcurrentFile#maxRecordLength()} throws an {@link
+ * IOException}. {@link AsyncConcurrentFile#flush()} waits for every record accepted before it was called to be drained before flushing the underlying file.
+ * {@link DurableWrite} handles are not supported.
+ *
+ * @author Eric Thill
+ */
+class AsyncConcurrentFile implements ConcurrentFile {
+
+  static final int DEFAULT_RING_CAPACITY = 1024 * 1024;
+  static final int MAX_BATCH_SIZE = 256 * 1024;
+  private static final int RECORD_MSG_TYPE_ID = 1;
+  private static final int MAX_POOLED_STAGING_CAPACITY = 1024 * 1024;
+  private static final int INITIAL_STAGING_CAPACITY = 4096;
+  private static final ThreadLocal<Staging> STAGING = ThreadLocal.withInitial(Staging::new);
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+
+  /**
+   * Get the size of each coalesced batch for a file of the given capacity. Batches are kept to a fraction of the capacity, since a batch that does not fit
+   * at the end of a rolling file is written to the next file.
+   *
+   * @param fileCapacity the capacity of each underlying file
+   * @return the batch size
+   */
+  static int batchSize(final int fileCapacity) {
+    return Math.max(1, Math.min(MAX_BATCH_SIZE, fileCapacity / 16));
+  }
+
+  private final AtomicLong drainedPosition = new AtomicLong();
+  private final AtomicLong droppedRecords = new AtomicLong();
+  private final MessageHandler drainHandler = this::onRecord;
+  private final IntArrayList batchLengths = new IntArrayList();
+  private final ConcurrentFile underlyingFile;
+  private final ManyToOneRingBuffer ringBuffer;
+  private final UnsafeBuffer batchBuffer;
+  private final int maxRecordLength;
+  private final boolean coalesce;
+  private final Thread drainerThread;
+  private volatile boolean closed;
+  private volatile boolean full;
+  private int batchLength;
+
+  AsyncConcurrentFile(final ConcurrentFile underlyingFile, final int ringCapacity, final int fileCapacity, final int frameHeaderSize, final boolean coalesce) {
+    if(!BitUtil.isPowerOfTwo(ringCapacity))
+      throw new IllegalArgumentException("ringCapacity must be a power of 2");
+    this.underlyingFile = underlyingFile;
+    this.ringBuffer = new ManyToOneRingBuffer(new UnsafeBuffer(
+            BufferUtil.allocateDirectAligned(ringCapacity + RingBufferDescriptor.TRAILER_LENGTH, BitUtil.CACHE_LINE_LENGTH)));
+    this.batchBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(coalesce ? batchSize(fileCapacity) : 0));
+    // a record that cannot fit in an empty file along with its frame header would stall the drainer forever
+    this.maxRecordLength = Math.min(ringBuffer.maxMsgLength(), fileCapacity - frameHeaderSize);
+    this.coalesce = coalesce;
+    this.drainerThread = new Thread(this::drainLoop, getClass().getSimpleName() + "-Drainer-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.drainerThread.start();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if(closed)
+      return;
+    closed = true;
+    boolean interrupted = false;
+    while(drainerThread.isAlive()) {
+      try {
+        drainerThread.join();
+      } catch(InterruptedException e) {
+        // records that were already accepted must still be drained
+        interrupted = true;
+      }
+    }
+    if(interrupted)
+      Thread.currentThread().interrupt();
+    underlyingFile.close();
+  }
+
+  @Override
+  public boolean isPending() {
+    return drainedPosition.get() < ringBuffer.producerPosition() || underlyingFile.isPending();
+  }
+
+  @Override
+  public boolean isFinished() {
+    return underlyingFile.isFinished();
+  }
+
+  @Override
+  public void finish() {
+    underlyingFile.finish();
+  }
+
+  @Override
+  public File getFile() {
+    return underlyingFile.getFile();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    final long position = ringBuffer.producerPosition();
+    while(drainedPosition.get() < position && drainerThread.isAlive())
+      Thread.yield();
+    underlyingFile.flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return underlyingFile.durablePosition();
+  }
+
+  /**
+   * Get the largest record that may be written, which is limited by both the ring and the capacity of the underlying file
+   *
+   * @return the maximum record length
+   */
+  int maxRecordLength() {
+    return maxRecordLength;
+  }
+
+  /**
+   * Get the number of accepted records that could not be written to the underlying file
+   *
+   * @return the number of dropped records
+   */
+  long droppedRecords() {
+    return droppedRecords.get();
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    checkLength(length);
+    final UnsafeBuffer buffer = STAGING.get().wrapper;
+    buffer.wrap(srcBytes, srcOffset, length);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    checkLength(length);
+    return offer(srcBuffer, srcOffset, length);
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    final int length = srcByteBuffer.remaining();
+    checkLength(length);
+    final UnsafeBuffer buffer = STAGING.get().wrapper;
+    buffer.wrap(srcByteBuffer, srcByteBuffer.position(), length);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    final int length = srcCharSequence.length();
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    for(int i = 0; i < srcCharSequence.length(); i++) {
+      final char c = srcCharSequence.charAt(i);
+      buffer.putByte(i, c > 127 ? (byte)'?' : (byte)c);
+    }
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, final ByteOrder byteOrder) throws IOException {
+    final int length = srcCharSequence.length() * 2;
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    for(int i = 0; i < srcCharSequence.length(); i++) {
+      buffer.putChar((i * 2), srcCharSequence.charAt(i), byteOrder);
+    }
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    writeFunction.write(buffer, 0, length);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    writeFunction.write(buffer, 0, length, parameter);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    writeFunction.write(buffer, 0, length, parameter1, parameter2);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, final P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    checkLength(length);
+    final AtomicBuffer buffer = STAGING.get().open(length);
+    writeFunction.write(buffer, 0, length, parameter1, parameter2, parameter3);
+    return offer(buffer, 0, length);
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    final AtomicBuffer buffer = STAGING.get().open(8);
+    buffer.putLong(0, value, byteOrder);
+    return offer(buffer, 0, 8);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    final AtomicBuffer buffer = STAGING.get().open(16);
+    buffer.putLong(0, value1, byteOrder);
+    buffer.putLong(8, value2, byteOrder);
+    return offer(buffer, 0, 16);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    final AtomicBuffer buffer = STAGING.get().open(24);
+    buffer.putLong(0, value1, byteOrder);
+    buffer.putLong(8, value2, byteOrder);
+    buffer.putLong(16, value3, byteOrder);
+    return offer(buffer, 0, 24);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    final AtomicBuffer buffer = STAGING.get().open(32);
+    buffer.putLong(0, value1, byteOrder);
+    buffer.putLong(8, value2, byteOrder);
+    buffer.putLong(16, value3, byteOrder);
+    buffer.putLong(24, value4, byteOrder);
+    return offer(buffer, 0, 32);
+  }
+
+  private void checkLength(final int length) throws IOException {
+    if(length > maxRecordLength)
+      throw new IOException("length=" + length + " exceeds maxRecordLength=" + maxRecordLength);
+  }
+
+  private int offer(final DirectBuffer srcBuffer, final int srcOffset, final int length) {
+    if(closed || full)
+      return NULL_OFFSET;
+    return ringBuffer.write(RECORD_MSG_TYPE_ID, srcBuffer, srcOffset, length) ? 0 : NULL_OFFSET;
+  }
+
+  private void drainLoop() {
+    final IdleStrategy idleStrategy = new BackoffIdleStrategy(100, 10, TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1));
+    while(true) {
+      // closed is read before draining, so every record accepted before close is drained by the final pass
+      final boolean closed = this.closed;
+      final int numRecords = ringBuffer.read(drainHandler);
+      writeBatch();
+      drainedPosition.lazySet(ringBuffer.consumerPosition());
+      if(numRecords == 0 && closed)
+        return;
+      idleStrategy.idle(numRecords);
+    }
+  }
+
+  private void onRecord(final int msgTypeId, final MutableDirectBuffer buffer, final int index, final int length) {
+    if(!coalesce || length > batchBuffer.capacity()) {
+      writeBatch();
+      writeRecord(buffer, index, length);
+      return;
+    }
+    if(batchLength + length > batchBuffer.capacity())
+      writeBatch();
+    batchBuffer.putBytes(batchLength, buffer, index, length);
+    batchLengths.addInt(length);
+    batchLength += length;
+  }
+
+  private void writeBatch() {
+    if(batchLength == 0)
+      return;
+    try {
+      if(batchLengths.size() > 1 && underlyingFile.write(batchBuffer, 0, batchLength) != NULL_OFFSET)
+        return;
+      // write one record at a time, so the records that still fit at the end of the file are kept
+      int offset = 0;
+      for(int i = 0; i < batchLengths.size(); i++) {
+        final int length = batchLengths.getInt(i);
+        writeRecord(batchBuffer, offset, length);
+        offset += length;
+      }
+    } catch(Throwable t) {
+      droppedRecords.addAndGet(batchLengths.size());
+      t.printStackTrace();
+    } finally {
+      batchLengths.clear();
+      batchLength = 0;
+    }
+  }
+
+  private void writeRecord(final DirectBuffer buffer, final int index, final int length) {
+    try {
+      if(underlyingFile.write(buffer, index, length) == NULL_OFFSET) {
+        // the underlying file is full, so no further records will be accepted
+        full = true;
+        droppedRecords.incrementAndGet();
+      }
+    } catch(Throwable t) {
+      droppedRecords.incrementAndGet();
+      t.printStackTrace();
+    }
+  }
+
+  private static final class Staging {
+    private final UnsafeBuffer wrapper = new UnsafeBuffer(new byte[0]);
+    private final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(INITIAL_STAGING_CAPACITY));
+    private ByteBuffer pooledByteBuffer = buffer.byteBuffer();
+
+    AtomicBuffer open(final int length) {
+      if(length > MAX_POOLED_STAGING_CAPACITY) {
+        // an oversized buffer is only used for this write, so one large write does not pin its memory to the thread
+        buffer.wrap(ByteBuffer.allocateDirect(length));
+      } else {
+        if(pooledByteBuffer.capacity() < length)
+          pooledByteBuffer = ByteBuffer.allocateDirect(Math.min(MAX_POOLED_STAGING_CAPACITY, Math.max(length, pooledByteBuffer.capacity() * 2)));
+        buffer.wrap(pooledByteBuffer);
+      }
+      return buffer;
+    }
+  }
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+/**
+ * Determines how a file's memory is mapped and accessed
+ *
+ * @author Eric Thill
+ */
+public enum Backend {
+  /**
+   * Files are mapped and unmapped using Agrona's {@link org.agrona.IoUtil}, and header fields are accessed through {@link org.agrona.concurrent.UnsafeBuffer}.
+   */
+  MMAP,
+  /**
+   * Files are mapped into a {@link java.lang.foreign.MemorySegment} owned by a shared {@link java.lang.foreign.Arena}, which unmaps them deterministically when
+   * the file is closed, and header fields are accessed through {@link java.lang.invoke.VarHandle} atomics on the segment. Writes still use an
+   * {@link org.agrona.concurrent.UnsafeBuffer} over the segment's address. Requires JDK 22 or later.
+   */
+  SEGMENT,
+  /**
+   * Files are not mapped. Writes are staged in pooled direct buffers and written with positional {@link java.nio.channels.FileChannel} writes, so writers never
+   * take page faults. Only supported for unframed single-process files.
+   */
+  PWRITE,
+  /**
+   * Files are not mapped. Writes are staged in block-aligned direct buffers, which background flushers write with direct I/O, bypassing the page cache. Files
+   * are never filled with zeros. Only supported for unframed single-process files, and requires JDK 10 or later.
+   */
+  DIRECT
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+/**
+ * The live state of a file mapped with {@link ConcurrentFileMapper#jmxName(String)}, registered with the platform MBean server under {@code
+ * io.thill.jacoio:type=ConcurrentFile,name=<jmxName>}. Shards and partitions are registered separately, with an additional {@code part} key naming their
+ * subdirectory. For rolling files, every attribute describes the current file.
+ *
+ * @author Eric Thill
+ */
+public interface ConcurrentFileMXBean {
+
+  /**
+   * Get the absolute path of the file currently being written to
+   *
+   * @return the current file
+   */
+  String getCurrentFile();
+
+  /**
+   * Get the capacity of the current file
+   *
+   * @return the capacity in bytes
+   */
+  long getCapacity();
+
+  /**
+   * Get the offset the next write to the current file will be reserved at, which is never more than the capacity
+   *
+   * @return the next write offset
+   */
+  long getNextWriteOffset();
+
+  /**
+   * Get how full the current file is, as {@link ConcurrentFileMXBean#getNextWriteOffset()} / {@link ConcurrentFileMXBean#getCapacity()}
+   *
+   * @return the fill percentage, from 0 to 100
+   */
+  double getFillPercentage();
+
+  /**
+   * Check if the current file has writes that have been reserved but not yet completed
+   *
+   * @return true if writes are pending
+   */
+  boolean isPendingWrites();
+
+  /**
+   * Check if the next file of a rolling file has already been preallocated, so the next roll will not need to wait to create and map it. Always false for
+   * files that are not rolling or do not preallocate.
+   *
+   * @return true if the next file is ready
+   */
+  boolean isPreallocatedFileReady();
+
+  /**
+   * Get the number of times this process rolled to a new file since the file was mapped
+   *
+   * @return the roll count
+   */
+  long getRollCount();
+
+  /**
+   * Get the number of times this process rolled to a new file over the last minute. When files roll faster than rolls are remembered, the rate is
+   * extrapolated from the most recent rolls.
+   *
+   * @return the rolls per minute
+   */
+  double getRollsPerMinute();
+}
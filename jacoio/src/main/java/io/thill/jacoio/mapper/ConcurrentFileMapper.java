@@ -13,11 +13,17 @@ package io.thill.jacoio.mapper;
 
 import io.thill.jacoio.ConcurrentFile;
 import io.thill.jacoio.function.*;
+import org.agrona.BitUtil;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
 
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.function.Supplier;
 
 /**
  * Factory to map ConcurrentFile
@@ -27,6 +33,7 @@ import java.text.SimpleDateFormat;
 public class ConcurrentFileMapper {
 
   private static final DateFormat DEFAULT_DATE_FORMAT = new SimpleDateFormat("yyyyMMdd_HHmmss_SSS");
+  private static final int MIN_WINDOW_SIZE = 4096;
 
   private final RollParameters roll = new RollParameters();
   private File location;
@@ -34,6 +41,22 @@ public class ConcurrentFileMapper {
   private boolean fillWithZeros = true;
   private boolean multiProcess = false;
   private boolean framed = false;
+  private int hugePageSize = 0;
+  private PageToucher pageToucher;
+  private Durability durability = Durability.NONE;
+  private long flushIntervalMillis = 1000;
+  private long recoveryTimeoutMillis = 0;
+  private boolean resume = false;
+  private int windowSize = 0;
+  private boolean growable = false;
+  private Backend backend = Backend.MMAP;
+  private boolean async = false;
+  private int asyncRingCapacity = AsyncConcurrentFile.DEFAULT_RING_CAPACITY;
+  private int shards = 1;
+  private File mirrorLocation;
+  private CountersFile counters;
+  private WriteLatency latency;
+  private String jmxName;
 
   /**
    * Set the location of the {@link ConcurrentFile}. When rolling is enabled and {@link RollParameters#fileProvider(FileProvider)} is null, this will be used as
@@ -92,6 +115,228 @@ public class ConcurrentFileMapper {
     return this;
   }
 
+  /**
+   * Set the huge page size of the hugetlbfs mount that {@link ConcurrentFileMapper#location(File)} resides on. When set, file sizes (including the
+   * multi-process header) are aligned up to a multiple of the huge page size, files are never filled with zeros, and files are not truncated on close. Defaults
+   * to 0, meaning the location is on a regular filesystem.
+   *
+   * @param hugePageSize
+   * @return
+   */
+  public ConcurrentFileMapper hugePageSize(int hugePageSize) {
+    this.hugePageSize = hugePageSize;
+    return this;
+  }
+
+  /**
+   * Set the {@link PageToucher} used to touch pages ahead of the write cursor, so writers do not take page faults on fresh mappings. A single {@link
+   * PageToucher} may be shared by many files. Only supported for single-process files, since another process may truncate a multi-process file while pages are
+   * being touched. Defaults to null, meaning pages are faulted in by writers.
+   *
+   * @param pageToucher
+   * @return
+   */
+  public ConcurrentFileMapper pageToucher(PageToucher pageToucher) {
+    this.pageToucher = pageToucher;
+    return this;
+  }
+
+  /**
+   * Set the {@link Durability} mode, which determines when completed writes are forced to the storage device. Defaults to {@link Durability#NONE}, meaning the
+   * operating system decides when to write back dirty pages.
+   *
+   * @param durability
+   * @return
+   */
+  public ConcurrentFileMapper durability(Durability durability) {
+    this.durability = durability;
+    return this;
+  }
+
+  /**
+   * Set the interval at which completed writes are forced when using {@link Durability#PERIODIC} or {@link Durability#GROUP_COMMIT}. Defaults to 1000.
+   *
+   * @param flushIntervalMillis
+   * @return
+   */
+  public ConcurrentFileMapper flushIntervalMillis(long flushIntervalMillis) {
+    this.flushIntervalMillis = flushIntervalMillis;
+    return this;
+  }
+
+  /**
+   * Set the time that a multi-process file's writes must be stalled before they are assumed to belong to a process that died in the middle of a write. Stalled
+   * writes are then recovered, marking them as padding in framed files, so the file can be finished. Recovery is checked when the file is mapped, flushed, or
+   * checked with {@link ConcurrentFile#isFinished()}. A recovered file is finished, and accepts no more writes. This must be much longer than any write could
+   * take in a live process: a writer that is only stalled, for example by a long GC pause, is recovered as if it were dead. When it resumes, its write is not
+   * counted, but its bytes still land in the recovered space, which is left as uncounted data in an unframed file, and may replace the padding or tear the
+   * frames after it in a framed file. Defaults to 0, meaning stalled writes are never recovered.
+   *
+   * @param recoveryTimeoutMillis
+   * @return
+   */
+  public ConcurrentFileMapper recoveryTimeoutMillis(long recoveryTimeoutMillis) {
+    this.recoveryTimeoutMillis = recoveryTimeoutMillis;
+    return this;
+  }
+
+  /**
+   * Flag to continue appending to an existing single-process file instead of failing because it exists. When rolling, the last file returned by the {@link
+   * FileProvider} is resumed before any new file is created. The append position is taken from the file length when it was truncated on close, and otherwise
+   * found by scanning frames when {@link ConcurrentFileMapper#framed(boolean)} is set, or scanning backwards over trailing zeros when it is not. Multi-process
+   * files always resume from their header. Defaults to false.
+   *
+   * @param resume
+   * @return
+   */
+  public ConcurrentFileMapper resume(boolean resume) {
+    this.resume = resume;
+    return this;
+  }
+
+  /**
+   * Map single-process files in windows of the given size instead of mapping their entire capacity up front. A window is mapped the first time a write
+   * reaches it, and unmapped once every byte in it has been written, so mapped memory is bounded by the windows with writes in flight rather than by the
+   * capacity. The window size must be a power of 2 of at least 4096 bytes. Windowed files do not support framing, durability, huge pages, page touching, or
+   * resuming. Defaults to 0, meaning the entire file is mapped.
+   *
+   * @param windowSize
+   * @return
+   */
+  public ConcurrentFileMapper windowSize(int windowSize) {
+    this.windowSize = windowSize;
+    return this;
+  }
+
+  /**
+   * Flag to extend a non-rolling single-process file instead of failing writes once its capacity is exceeded. The capacity becomes the initial size of the
+   * file, and the file is mapped in windows of {@link ConcurrentFileMapper#windowSize(int)}, or of the capacity rounded up to a power of 2 when no window size
+   * is set. Reservations never wait for the file to grow, and the file is truncated to the bytes that were written when it is closed. Since write offsets are
+   * ints, a growable file is full at 2GB. Not supported with rolling, framing, durability, huge pages, page touching, or resuming. Defaults to false.
+   *
+   * @param growable
+   * @return
+   */
+  public ConcurrentFileMapper growable(boolean growable) {
+    this.growable = growable;
+    return this;
+  }
+
+  /**
+   * Set the {@link Backend} used to map files. {@link Backend#SEGMENT} maps files into memory segments that are unmapped deterministically on close, and
+   * requires running on JDK 22 or later. {@link Backend#PWRITE} and {@link Backend#DIRECT} do not map files at all, writing through positional or direct
+   * I/O file channel writes instead, and only support unframed single-process files without durability or resume. {@link Backend#DIRECT} requires running on
+   * JDK 10 or later. None are supported with windowed or growable files. Defaults to {@link Backend#MMAP}.
+   *
+   * @param backend
+   * @return
+   */
+  public ConcurrentFileMapper backend(Backend backend) {
+    this.backend = backend;
+    return this;
+  }
+
+  /**
+   * Flag to hand writes off to a drainer thread, so callers never touch a mapped page or take a page fault. Writes are copied into an off-heap ring of {@link
+   * ConcurrentFileMapper#asyncRingCapacity(int)} bytes and return 0 once accepted instead of their offset, or -1 when the ring is full. The drainer moves records
+   * into the file in batched writes, except for framed files, which are written one record at a time. {@link ConcurrentFile#flush()} first waits for every
+   * accepted record to be drained. Not supported with durability, since durable writes cannot be handed off to the drainer. Defaults to false.
+   *
+   * @param async
+   * @return
+   */
+  public ConcurrentFileMapper async(boolean async) {
+    this.async = async;
+    return this;
+  }
+
+  /**
+   * Set the capacity of the ring used by {@link ConcurrentFileMapper#async(boolean)} files, which must be a power of 2. A single record may be at most an
+   * eighth of the ring capacity. Defaults to 1MB.
+   *
+   * @param asyncRingCapacity
+   * @return
+   */
+  public ConcurrentFileMapper asyncRingCapacity(int asyncRingCapacity) {
+    this.asyncRingCapacity = asyncRingCapacity;
+    return this;
+  }
+
+  /**
+   * Spread writers over the given number of rolling files, so they do not share a single write offset. Each shard rolls independently in a {@code shard-N}
+   * subdirectory of {@link ConcurrentFileMapper#location(File)}, and each writing thread is assigned a shard the first time it writes. Offsets returned by
+   * writes are offsets in the current file of the writing thread's shard. Sharded files are always framed, and every frame header includes a timestamp, so
+   * the shards can be merged back into a single view with a {@link ShardedFileReader}. That view keeps each thread's frames in the order they were written,
+   * but is only strictly time-ordered when there are no more writing threads than shards, since threads sharing a shard are kept in reservation order. Only
+   * supported for rolling single-process files using {@link Backend#MMAP}, without async, windowSize, or a {@link FileProvider}. Defaults to 1, meaning
+   * writes are not sharded.
+   *
+   * @param shards
+   * @return
+   */
+  public ConcurrentFileMapper shards(int shards) {
+    this.shards = shards;
+    return this;
+  }
+
+  /**
+   * Keep a byte-identical copy of every file at the given location, typically on another device. Each write makes a single reservation and runs its encoding
+   * once, and the written bytes are then copied to the same offset of the mirror. When rolling is enabled, this is the directory in which each rolled file is
+   * mirrored under the same name, and sharded and partitioned files use the matching subdirectory. Only supported for single-process files using {@link
+   * Backend#MMAP}, without hugePageSize, windowSize, growable, resume, stripeLocations, or durability, since a durable write could not wait for both copies.
+   * Defaults to null, meaning files are not mirrored.
+   *
+   * @param mirrorLocation
+   * @return
+   */
+  public ConcurrentFileMapper mirrorLocation(File mirrorLocation) {
+    this.mirrorLocation = mirrorLocation;
+    return this;
+  }
+
+  /**
+   * Publish counters for the file to the given {@link CountersFile}, so another process can observe writes, bytes written, {@link ConcurrentFile#NULL_OFFSET}
+   * returns, failed reservation attempts, rolls, time writers spent waiting for rolls, preallocation misses, and rolled files waiting to be closed. Each writing
+   * thread gets its own counters, so counting adds no contention to the write path. Shards and partitions each get their own counters, and all counters are
+   * freed when the file is closed. The {@link CountersFile} must not be closed before the file. Defaults to null, meaning nothing is counted.
+   *
+   * @param counters
+   * @return
+   */
+  public ConcurrentFileMapper counters(CountersFile counters) {
+    this.counters = counters;
+    return this;
+  }
+
+  /**
+   * Record write latency histograms for the file in the given {@link WriteLatency}: the end-to-end latency of every write method including roll stalls, the
+   * latency from reserving space until the write is complete, and the time writers spent waiting for rolls. Each recording thread gets its own recorders, which
+   * are merged when a histogram is snapshot. Shards and partitions all record to the same histograms. Defaults to null, meaning nothing is recorded and
+   * writers pay nothing.
+   *
+   * @param latency
+   * @return
+   */
+  public ConcurrentFileMapper latency(WriteLatency latency) {
+    this.latency = latency;
+    return this;
+  }
+
+  /**
+   * Register a {@link ConcurrentFileMXBean} for the file with the platform MBean server under {@code io.thill.jacoio:type=ConcurrentFile,name=<jmxName>},
+   * exposing the current file, how full it is, pending writes, preallocated file readiness, and roll count and rate. Shards and partitions are each registered
+   * with an additional {@code part} key naming their subdirectory. The MBean is unregistered when the file is closed, and mapping fails if the name is already
+   * registered. Attributes of a rolling file are read while holding off rolls, so reading them adds no cost to writes but may briefly delay a roll. Defaults
+   * to null, meaning no MBean is registered.
+   *
+   * @param jmxName
+   * @return
+   */
+  public ConcurrentFileMapper jmxName(String jmxName) {
+    this.jmxName = jmxName;
+    return this;
+  }
+
   /**
    * Get the underlying {@link RollParameters} to set prior to creating the file
    *
@@ -113,39 +358,227 @@ public class ConcurrentFileMapper {
   }
 
   public ConcurrentFile map() throws IOException {
+    validate();
+
+    if(shards > 1) {
+      final ConcurrentFile[] files = new ConcurrentFile[shards];
+      try {
+        for(int i = 0; i < shards; i++)
+          files[i] = mapFile(new File(location, "shard-" + i), true, true, null);
+      } catch(IOException | RuntimeException e) {
+        for(ConcurrentFile file : files) {
+          if(file != null)
+            file.close();
+        }
+        throw e;
+      }
+      return instrument(new ShardedConcurrentFile(files));
+    }
+
+    final ConcurrentFile file = mapFile(location, framed, false, null);
+    return instrument(async ? new AsyncConcurrentFile(file, asyncRingCapacity, capacity, framed ? Frames.HEADER_SIZE : 0, !framed) : file);
+  }
+
+  /**
+   * Map a {@link PartitionedConcurrentFile} that routes writes to one of the given number of rolling files by key. Every partition uses the parameters of this
+   * mapper, rolling independently in a {@code partition-N} subdirectory of {@link ConcurrentFileMapper#location(File)}. When preallocation is enabled, all
+   * partitions share a single preallocation thread. Only supported for rolling single-process files, without async, shards, or a {@link FileProvider}.
+   *
+   * @param numPartitions the number of partitions
+   * @return the partitioned file
+   * @throws IOException if a partition could not be mapped
+   */
+  public PartitionedConcurrentFile mapPartitioned(int numPartitions) throws IOException {
+    validate();
+    if(numPartitions < 1)
+      throw new IllegalArgumentException("numPartitions must be positive");
+    if(!roll.enabled || multiProcess || async || shards > 1 || roll.fileProvider != null)
+      throw new IllegalArgumentException("partitions are only supported for rolling single-process files, without async, shards, or a fileProvider");
+
+    final Preallocator preallocator = roll.preallocate ? new Preallocator(roll.preallocateCheckMillis) : null;
+    final ConcurrentFile[] partitions = new ConcurrentFile[numPartitions];
+    try {
+      for(int i = 0; i < numPartitions; i++)
+        partitions[i] = instrument(mapFile(new File(location, PartitionedConcurrentFile.PARTITION_DIRECTORY_PREFIX + i), framed, false, preallocator));
+    } catch(IOException | RuntimeException e) {
+      for(ConcurrentFile partition : partitions) {
+        if(partition != null)
+          partition.close();
+      }
+      if(preallocator != null)
+        preallocator.close();
+      throw e;
+    }
+    return new PartitionedConcurrentFile(partitions, preallocator);
+  }
+
+  private ConcurrentFile instrument(final ConcurrentFile file) {
+    return latency == null ? file : new LatencyConcurrentFile(file, latency.write());
+  }
+
+  private void validate() {
     if(location == null)
       throw new IllegalArgumentException("location cannot be null");
     if(capacity <= 0)
       throw new IllegalArgumentException("capacity must be non-zero");
+    if(hugePageSize < 0 || (hugePageSize > 0 && !BitUtil.isPowerOfTwo(hugePageSize)))
+      throw new IllegalArgumentException("hugePageSize must be 0 or a power of 2");
+    if(pageToucher != null && multiProcess)
+      throw new IllegalArgumentException("pageToucher is not supported for multiProcess files");
+    if(durability == null)
+      throw new IllegalArgumentException("durability cannot be null");
+    if(durability != Durability.NONE && hugePageSize > 0)
+      throw new IllegalArgumentException("durability is not supported for hugetlbfs files");
+    if((durability == Durability.PERIODIC || durability == Durability.GROUP_COMMIT) && flushIntervalMillis <= 0)
+      throw new IllegalArgumentException("flushIntervalMillis must be positive");
+    if(recoveryTimeoutMillis < 0)
+      throw new IllegalArgumentException("recoveryTimeoutMillis cannot be negative");
+    if(recoveryTimeoutMillis > 0 && !multiProcess)
+      throw new IllegalArgumentException("recoveryTimeoutMillis is only supported for multiProcess files");
+
+    if(resume && multiProcess)
+      throw new IllegalArgumentException("resume is not supported for multiProcess files, which always resume from their header");
+    if(resume && hugePageSize > 0)
+      throw new IllegalArgumentException("resume is not supported for hugetlbfs files");
+    if(windowSize < 0 || (windowSize > 0 && (windowSize < MIN_WINDOW_SIZE || !BitUtil.isPowerOfTwo(windowSize))))
+      throw new IllegalArgumentException("windowSize must be 0 or a power of 2 of at least " + MIN_WINDOW_SIZE);
+    if(windowSize > 0 && (multiProcess || framed || hugePageSize > 0 || pageToucher != null || durability != Durability.NONE || resume))
+      throw new IllegalArgumentException("windowSize is only supported for unframed single-process files without hugePageSize, pageToucher, durability, or resume");
+    if(growable && (roll.enabled || multiProcess || framed || hugePageSize > 0 || pageToucher != null || durability != Durability.NONE || resume))
+      throw new IllegalArgumentException("growable is only supported for non-rolling unframed single-process files without hugePageSize, pageToucher, durability, "
+              + "or resume");
+    if(backend == null)
+      throw new IllegalArgumentException("backend cannot be null");
+    if(backend == Backend.SEGMENT && !MappedRegion.isSegmentSupported())
+      throw new IllegalArgumentException("backend " + backend + " requires JDK 22 or later");
+    if(backend != Backend.MMAP && (windowSize > 0 || growable))
+      throw new IllegalArgumentException("backend " + backend + " is not supported with windowSize or growable");
+    if(backend == Backend.DIRECT && !DirectConcurrentFile.isSupported())
+      throw new IllegalArgumentException("backend " + backend + " requires JDK 10 or later");
+    if((backend == Backend.PWRITE || backend == Backend.DIRECT) && (multiProcess || framed || hugePageSize > 0 || pageToucher != null || durability != Durability.NONE || resume))
+      throw new IllegalArgumentException("backend " + backend + " is only supported for unframed single-process files without hugePageSize, pageToucher, "
+              + "durability, or resume");
+    if(roll.leaderPreallocation && (!multiProcess || !roll.preallocate))
+      throw new IllegalArgumentException("leaderPreallocation requires multiProcess and preallocate");
+    if(roll.leaderPreallocation && roll.preallocateCheckMillis >= roll.coordinationLeaseTimeoutMillis)
+      throw new IllegalArgumentException("preallocateCheckMillis must be less than coordinationLeaseTimeoutMillis when using leaderPreallocation");
+    if(roll.stripeLocations != null && (roll.stripeLocations.length == 0 || roll.stripePlacement == null))
+      throw new IllegalArgumentException("stripeLocations cannot be empty and stripePlacement cannot be null");
+    if(roll.stripeLocations != null && multiProcess)
+      throw new IllegalArgumentException("stripeLocations are not supported for multiProcess files");
+    if(mirrorLocation != null && (multiProcess || backend != Backend.MMAP || hugePageSize > 0 || windowSize > 0 || growable || resume
+            || roll.stripeLocations != null || durability != Durability.NONE))
+      throw new IllegalArgumentException("mirrorLocation is only supported for single-process files using the MMAP backend, without hugePageSize, windowSize, "
+              + "growable, resume, stripeLocations, or durability");
+    if(async && durability != Durability.NONE)
+      throw new IllegalArgumentException("async is not supported with durability, since durable writes cannot be handed off to the drainer");
+    if(async && (asyncRingCapacity < 1024 || !BitUtil.isPowerOfTwo(asyncRingCapacity)))
+      throw new IllegalArgumentException("asyncRingCapacity must be a power of 2 of at least 1024");
+
+    if(shards < 1)
+      throw new IllegalArgumentException("shards must be positive");
+    if(shards > 1 && (!roll.enabled || multiProcess || async || windowSize > 0 || backend != Backend.MMAP || roll.fileProvider != null))
+      throw new IllegalArgumentException("shards is only supported for rolling single-process files using the MMAP backend, without async, windowSize, or a "
+              + "fileProvider");
+  }
 
+  private ConcurrentFile mapFile(final File location, final boolean framed, final boolean timestampFrames, final Preallocator preallocator) throws IOException {
+    if(this.counters == null)
+      return mapFile(location, framed, timestampFrames, preallocator, null);
+    final WriteCounters counters = new WriteCounters(this.counters, location);
+    try {
+      return new CountingConcurrentFile(mapFile(location, framed, timestampFrames, preallocator, counters), counters);
+    } catch(IOException | RuntimeException e) {
+      counters.close();
+      throw e;
+    }
+  }
+
+  private ConcurrentFile mapFile(final File location, final boolean framed, final boolean timestampFrames, final Preallocator preallocator,
+                                 final WriteCounters counters) throws IOException {
     if(roll.enabled) {
-      if(roll.fileProvider == null)
-        roll.fileProvider = new DefaultFileProvider(location, roll.fileNamePrefix, roll.dateFormat, roll.fileNameSuffix);
+      final FileProvider fileProvider;
+      if(roll.fileProvider != null)
+        fileProvider = roll.fileProvider;
+      else if(roll.stripeLocations != null)
+        fileProvider = new StripedFileProvider(stripeDirectories(location), roll.fileNamePrefix, roll.dateFormat, roll.fileNameSuffix, roll.stripePlacement,
+                new File(location, StripedFileProvider.PLACEMENT_FILE_NAME));
+      else
+        fileProvider = new DefaultFileProvider(location, roll.fileNamePrefix, roll.dateFormat, roll.fileNameSuffix);
       MappedFileProvider mappedFileProvider;
       if(multiProcess) {
-        if(roll.coordinationFile == null)
-          roll.coordinationFile = new File(location, "roll.coordinator");
-        mappedFileProvider = new MultiProcessMappedFileProvider(roll.coordinationFile, capacity, fillWithZeros, roll.fileProvider,
-                roll.yieldOnAllocateContention, roll.preallocate, roll.preallocateCheckMillis, roll.fileCreatedListener);
+        final File coordinationFile = roll.coordinationFile != null ? roll.coordinationFile : new File(location, "roll.coordinator");
+        mappedFileProvider = new MultiProcessMappedFileProvider(coordinationFile, capacity, fillWithZeros, hugePageSize, framed,
+                fileProvider, roll.idleStrategySupplier(), roll.parkVirtualThreads, roll.preallocate, roll.preallocateCheckMillis,
+                roll.leaderPreallocation, roll.fileCreatedListener, durability, flushIntervalMillis, recoveryTimeoutMillis,
+                roll.coordinationLeaseTimeoutMillis, backend, counters, latency);
       } else {
-        mappedFileProvider = new SingleProcessMappedFileProvider(capacity, fillWithZeros, roll.fileProvider, roll.yieldOnAllocateContention, roll.preallocate,
-                roll.preallocateCheckMillis, roll.fileCreatedListener);
+        mappedFileProvider = new SingleProcessMappedFileProvider(capacity, fillWithZeros, hugePageSize, framed, timestampFrames, fileProvider,
+                roll.idleStrategySupplier(), roll.parkVirtualThreads, roll.preallocate, roll.preallocateCheckMillis, preallocator,
+                roll.fileCreatedListener, pageToucher, durability, flushIntervalMillis, resume, windowSize, backend,
+                mirrorLocation == null ? null : subdirectory(mirrorLocation, location), counters, latency);
       }
-      final RollingCoordinator rollingCoordinator = new RollingCoordinator(mappedFileProvider, roll.yieldOnAllocateContention, roll.asyncClose,
-              roll.fileMappedListener, roll.fileCompleteListener, roll.fileClosedListener);
-      return new RollingConcurrentFile(rollingCoordinator);
+      final RollingCoordinator rollingCoordinator = new RollingCoordinator(mappedFileProvider, roll.idleStrategySupplier(), roll.parkVirtualThreads,
+              roll.asyncClose, roll.fileMappedListener, roll.fileCompleteListener, roll.fileClosedListener, counters, latency);
+      final ConcurrentFile file = new RollingConcurrentFile(rollingCoordinator);
+      return jmxName == null ? file : manage(file, new ConcurrentFileMonitor(rollingCoordinator), location);
     } else {
+      final LatencyHistogram reserveToCommit = latency == null ? null : latency.reserveToCommit();
       MappedConcurrentFile file;
       if(multiProcess)
-        file = MultiProcessConcurrentFile.map(location, capacity, fillWithZeros);
+        file = MultiProcessConcurrentFile.map(location, capacity, fillWithZeros, framed, hugePageSize, durability, flushIntervalMillis,
+                recoveryTimeoutMillis, backend).counters(counters).latency(reserveToCommit);
+      else if(growable)
+        file = WindowedConcurrentFile.map(location, capacity, fillWithZeros, windowSize > 0 ? windowSize : growableWindowSize(capacity), true);
+      else if(windowSize > 0)
+        file = WindowedConcurrentFile.map(location, capacity, fillWithZeros, windowSize, false);
+      else if(backend == Backend.PWRITE)
+        file = PositionalConcurrentFile.map(location, capacity, fillWithZeros);
+      else if(backend == Backend.DIRECT)
+        file = DirectConcurrentFile.map(location, capacity);
+      else if(resume && location.exists())
+        file = SingleProcessConcurrentFile.resume(location, capacity, fillWithZeros, framed, pageToucher, durability, flushIntervalMillis, backend)
+                .counters(counters).latency(reserveToCommit);
       else
-        file = SingleProcessConcurrentFile.map(location, capacity, fillWithZeros);
+        file = SingleProcessConcurrentFile.map(location, capacity, fillWithZeros, framed, hugePageSize, pageToucher, durability, flushIntervalMillis,
+                backend).counters(counters).latency(reserveToCommit);
+      if(mirrorLocation != null)
+        file = MirroredConcurrentFile.map(file, mirrorLocation, fillWithZeros);
 
       if(framed)
-        file = new FramedConcurrentFile(file);
+        file = new FramedConcurrentFile(file, timestampFrames);
+
+      return jmxName == null ? file : manage(file, new ConcurrentFileMonitor(file), location);
+    }
+  }
 
-      return file;
+  private ConcurrentFile manage(final ConcurrentFile file, final ConcurrentFileMonitor monitor, final File location) throws IOException {
+    // shards and partitions are subdirectories of the location, named by an additional key
+    final ObjectName objectName = ConcurrentFileMonitor.objectName(jmxName, location.equals(this.location) ? null : location.getName());
+    try {
+      monitor.register(objectName);
+    } catch(RuntimeException e) {
+      file.close();
+      throw e;
     }
+    return new ManagedConcurrentFile(file, objectName);
+  }
+
+  private File[] stripeDirectories(final File location) {
+    final File[] directories = new File[roll.stripeLocations.length];
+    for(int i = 0; i < directories.length; i++)
+      directories[i] = subdirectory(roll.stripeLocations[i], location);
+    return directories;
+  }
+
+  private File subdirectory(final File directory, final File location) {
+    // shards and partitions are direct subdirectories of the location, and use the same subdirectory of other directories
+    return location.equals(this.location) ? directory : new File(directory, location.getName());
+  }
+
+  private static int growableWindowSize(int capacity) {
+    // the capacity is the growth increment, but windows must be a power of 2 that fits in an int
+    return Math.max(MIN_WINDOW_SIZE, BitUtil.findNextPositivePowerOfTwo(Math.min(capacity, 1 << 30)));
   }
 
   @FunctionalInterface
@@ -160,14 +593,20 @@ public class ConcurrentFileMapper {
     private String fileNameSuffix;
     private DateFormat dateFormat = DEFAULT_DATE_FORMAT;
     private boolean yieldOnAllocateContention = true;
+    private Supplier<IdleStrategy> idleStrategySupplier;
+    private boolean parkVirtualThreads = false;
     private boolean asyncClose = false;
     private boolean preallocate = false;
     private long preallocateCheckMillis = 100;
+    private boolean leaderPreallocation = false;
     private FileCreatedListener fileCreatedListener;
     private FileMappedListener fileMappedListener;
     private FileCompleteListener fileCompleteListener;
     private FileClosedListener fileClosedListener;
     private File coordinationFile;
+    private long coordinationLeaseTimeoutMillis = CoordinationFile.DEFAULT_LEASE_TIMEOUT_MILLIS;
+    private File[] stripeLocations;
+    private StripedFileProvider.Placement stripePlacement = StripedFileProvider.Placement.ROUND_ROBIN;
 
     /**
      * Set true to enable automatic file rolling, false otherwise
@@ -250,6 +689,44 @@ public class ConcurrentFileMapper {
       return this;
     }
 
+    /**
+     * Set the supplier of the {@link IdleStrategy} used by every wait during a roll: threads waiting for another thread to roll, waiting for a preallocated
+     * file, waiting for the multi-process coordination lease, and waiting for writes to complete before closing a file. A strategy is requested from the
+     * supplier for each contended wait, so stateful strategies such as {@link org.agrona.concurrent.BackoffIdleStrategy} must be returned as new instances.
+     * Overrides {@link RollParameters#yieldOnAllocateContention(boolean)}. Defaults to null, meaning a {@link YieldingIdleStrategy} when yielding on
+     * contention, and a {@link BusySpinIdleStrategy} otherwise.
+     *
+     * @param idleStrategySupplier
+     * @return
+     */
+    public RollParameters idleStrategy(Supplier<IdleStrategy> idleStrategySupplier) {
+      this.idleStrategySupplier = idleStrategySupplier;
+      return this;
+    }
+
+    /**
+     * Park virtual threads while they wait during a roll instead of using the configured {@link IdleStrategy}, so they do not keep their carrier threads busy.
+     * Threads waiting for another thread to roll or for a preallocated file park until that thread hands off to them. Waits that cannot be signaled from
+     * this process, such as the multi-process coordination lease, park with a backoff instead. Platform threads are not affected. Defaults to false.
+     *
+     * @param parkVirtualThreads
+     * @return
+     */
+    public RollParameters parkVirtualThreads(boolean parkVirtualThreads) {
+      this.parkVirtualThreads = parkVirtualThreads;
+      return this;
+    }
+
+    private Supplier<IdleStrategy> idleStrategySupplier() {
+      Supplier<IdleStrategy> supplier = idleStrategySupplier;
+      if(supplier == null) {
+        // the default strategies are stateless, so a single instance is shared by every wait
+        final IdleStrategy idleStrategy = yieldOnAllocateContention ? new YieldingIdleStrategy() : new BusySpinIdleStrategy();
+        supplier = () -> idleStrategy;
+      }
+      return parkVirtualThreads ? RollHandoff.parkVirtualThreads(supplier) : supplier;
+    }
+
     /**
      * Flag to close files asynchronously. This will result in a new thread being created to close individual underlying {@link ConcurrentFile}s. False will
      * close them inline. Defaults to false.
@@ -287,6 +764,20 @@ public class ConcurrentFileMapper {
       return this;
     }
 
+    /**
+     * Flag to elect a single preallocation leader across processes. Only used for multi-process rolling with {@link RollParameters#preallocate(boolean)}. The
+     * leader holds a lease in the coordination file, advances it on every roll, and creates the next file ahead of time. Every other process only maps the
+     * files the leader has announced, so the work done on a roll stays the same regardless of the number of writer processes. If the leader stops checking in
+     * for {@link RollParameters#coordinationLeaseTimeoutMillis(long)}, another process takes over. Defaults to false.
+     *
+     * @param leaderPreallocation
+     * @return
+     */
+    public RollParameters leaderPreallocation(boolean leaderPreallocation) {
+      this.leaderPreallocation = leaderPreallocation;
+      return this;
+    }
+
 
     /**
      * Optional function to run on every file after it has been created, but before it is cycled in for use. Called from the thread that
@@ -347,6 +838,43 @@ public class ConcurrentFileMapper {
       return this;
     }
 
+    /**
+     * The time, measured in milliseconds, that a process holding the multi-process coordination lease may stop making progress before it is assumed to be dead
+     * and the lease is reclaimed by another process. Not used for single-process rolling. Defaults to 10000.
+     *
+     * @param coordinationLeaseTimeoutMillis
+     * @return
+     */
+    public RollParameters coordinationLeaseTimeoutMillis(long coordinationLeaseTimeoutMillis) {
+      this.coordinationLeaseTimeoutMillis = coordinationLeaseTimeoutMillis;
+      return this;
+    }
+
+    /**
+     * Spread created files over the given directories, which may be on different devices, using a {@link StripedFileProvider}. Each file's path is recorded in
+     * a "placement.log" file inside of the directory indicated by {@link ConcurrentFileMapper#location(File)}, which readers can load with {@link
+     * StripedFileProvider#readPlacement(File)}. Sharded and partitioned files use the matching subdirectory of each stripe location. Only used when {@link
+     * RollParameters#fileProvider} is null. Not supported for multi-process rolling.
+     *
+     * @param stripeLocations
+     * @return
+     */
+    public RollParameters stripeLocations(File... stripeLocations) {
+      this.stripeLocations = stripeLocations;
+      return this;
+    }
+
+    /**
+     * Set how {@link RollParameters#stripeLocations(File...)} are chosen for each new file. Defaults to {@link StripedFileProvider.Placement#ROUND_ROBIN}.
+     *
+     * @param stripePlacement
+     * @return
+     */
+    public RollParameters stripePlacement(StripedFileProvider.Placement stripePlacement) {
+      this.stripePlacement = stripePlacement;
+      return this;
+    }
+
     /**
      * Return the parent {@link ConcurrentFileMapper}
      *
@@ -0,0 +1,134 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+/**
+ * The {@link ConcurrentFileMXBean} of a mapped file. A rolling file is read through its {@link RollingCoordinator}, which holds off rolls during each read so
+ * the current file is never read after it has been closed.
+ *
+ * @author Eric Thill
+ */
+class ConcurrentFileMonitor implements ConcurrentFileMXBean {
+
+  static final String DOMAIN = "io.thill.jacoio";
+
+  private final MappedConcurrentFile file;
+  private final RollingCoordinator rollingCoordinator;
+
+  ConcurrentFileMonitor(final MappedConcurrentFile file) {
+    this.file = file;
+    this.rollingCoordinator = null;
+  }
+
+  ConcurrentFileMonitor(final RollingCoordinator rollingCoordinator) {
+    this.file = null;
+    this.rollingCoordinator = rollingCoordinator;
+  }
+
+  /**
+   * Get the name to register the {@link ConcurrentFileMXBean} of a file under
+   *
+   * @param jmxName the name given to {@link ConcurrentFileMapper#jmxName(String)}
+   * @param part    the name of the shard or partition, or null
+   * @return the object name
+   */
+  static ObjectName objectName(final String jmxName, final String part) {
+    try {
+      return new ObjectName(DOMAIN + ":type=ConcurrentFile,name=" + ObjectName.quote(jmxName) + (part == null ? "" : ",part=" + ObjectName.quote(part)));
+    } catch(MalformedObjectNameException e) {
+      throw new IllegalArgumentException("Invalid jmxName: " + jmxName, e);
+    }
+  }
+
+  /**
+   * Register this {@link ConcurrentFileMXBean} with the platform MBean server
+   *
+   * @param objectName the name to register under
+   * @throws IllegalArgumentException if the name is already registered
+   */
+  void register(final ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+    } catch(InstanceAlreadyExistsException e) {
+      throw new IllegalArgumentException(objectName + " is already registered", e);
+    } catch(JMException e) {
+      throw new IllegalStateException("Could not register " + objectName, e);
+    }
+  }
+
+  /**
+   * Unregister a {@link ConcurrentFileMXBean} from the platform MBean server, ignoring names that are no longer registered
+   *
+   * @param objectName the name it was registered under
+   */
+  static void unregister(final ObjectName objectName) {
+    try {
+      ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+    } catch(InstanceNotFoundException e) {
+      // already unregistered
+    } catch(JMException e) {
+      e.printStackTrace();
+    }
+  }
+
+  private <T> T read(final Function<MappedConcurrentFile, T> reader) {
+    return rollingCoordinator == null ? reader.apply(file) : rollingCoordinator.readCurrentFile(reader);
+  }
+
+  @Override
+  public String getCurrentFile() {
+    return read(f -> f.getFile().getAbsolutePath());
+  }
+
+  @Override
+  public long getCapacity() {
+    return read(f -> (long)f.capacity());
+  }
+
+  @Override
+  public long getNextWriteOffset() {
+    return read(f -> Math.min(f.nextWriteOffset(), f.capacity()));
+  }
+
+  @Override
+  public double getFillPercentage() {
+    return read(f -> 100.0 * Math.min(f.nextWriteOffset(), f.capacity()) / f.capacity());
+  }
+
+  @Override
+  public boolean isPendingWrites() {
+    return read(MappedConcurrentFile::isPending);
+  }
+
+  @Override
+  public boolean isPreallocatedFileReady() {
+    return rollingCoordinator != null && rollingCoordinator.isNextFilePreallocated();
+  }
+
+  @Override
+  public long getRollCount() {
+    return rollingCoordinator == null ? 0 : rollingCoordinator.rollCount();
+  }
+
+  @Override
+  public double getRollsPerMinute() {
+    return rollingCoordinator == null ? 0 : rollingCoordinator.rollsPerMinute();
+  }
+}
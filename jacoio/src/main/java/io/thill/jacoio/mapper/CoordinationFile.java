@@ -12,71 +12,125 @@
 package io.thill.jacoio.mapper;
 
 import io.thill.jacoio.function.FileProvider;
+import org.agrona.BitUtil;
 import org.agrona.IoUtil;
 import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.IdleStrategy;
 import org.agrona.concurrent.UnsafeBuffer;
 
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 /**
- * Used for multi-process rolling file coordination
+ * Used for multi-process rolling file coordination. The file is a fixed binary layout:
+ * <pre>
+ *   0: int  magic
+ *   4: int  version
+ *   8: long lease owner: the pid in the upper 32 bits and a random instance id in the lower 32 bits, or 0 when unlocked
+ *  16: long lease heartbeat: incremented by the lease owner while it makes progress
+ *  24: long generation: incremented every time the current file changes
+ *  32: long current file id
+ *  40: long preallocated file id, or 0 for none
+ *  48: long last allocated file id
+ *  56: long preallocator lease owner, in the same format as the lease owner, or 0 when there is no preallocation leader
+ *  64: long preallocator lease heartbeat: incremented by the preallocation leader every time it checks for work
+ *  72: long ready file id: the last file created and announced by the preallocation leader
+ *  80: long roll requested: the last generation whose current file a process has rolled away from
+ * 128: path slots: NUM_PATH_SLOTS slots of PATH_SLOT_SIZE bytes, each a 4-byte length followed by a UTF-8 path. File ids map to slot (id % NUM_PATH_SLOTS).
+ * </pre>
+ * Checking if another process has already rolled only compares the generation number, so the path of a file is only decoded once, when this process first
+ * needs to map it. A process that dies while holding the lease is detected by its heartbeat not changing for the lease timeout, after which the lease is
+ * reclaimed. Files written by the previous string-based format are reinitialized once their lease times out.
+ * <p>
+ * When leader-elected preallocation is used, only the process holding the preallocator lease calls {@link CoordinationFile#next(Generation)}. Every other
+ * process reads generations with {@link CoordinationFile#read()}, which does not take the lease, and requests rolls with {@link
+ * CoordinationFile#requestRoll(Generation)}. While a generation is being advanced its number is negated, so readers can detect and retry a torn read.
  *
  * @author Eric Thill
  */
 class CoordinationFile implements AutoCloseable {
 
-
-  public static File curFile(String contents) {
-    return new File(contents.split(DELIMITER_SPLIT)[0]);
-  }
-
-  public static File preallocatedFile(String contents) {
-    final String[] contentsArr = contents.split(DELIMITER_SPLIT);
-    return contentsArr.length > 1 ? new File(contentsArr[1]) : null;
-  }
+  static final long DEFAULT_LEASE_TIMEOUT_MILLIS = 10000;
 
   private static final int NEW_COORDINATOR_FILE_SIZE = 1024 * 256;
-  private static final int LOCK_OFFSET = 0;
-  private static final int CONTENTS_OFFSET = 8;
-  private static final int UNLOCKED = 0;
-  private static final int LOCKED = 0;
-  private static final byte NULL_TERMINATOR = 0;
-  private static final String DELIMITER = "|";
-  private static final String DELIMITER_SPLIT = "\\|";
+  private static final int MAGIC = 0x4A43494F; // "JCIO"
+  private static final int VERSION = 1;
+  private static final int MAGIC_OFFSET = 0;
+  private static final int VERSION_OFFSET = 4;
+  private static final int LEASE_OWNER_OFFSET = 8;
+  private static final int LEASE_HEARTBEAT_OFFSET = 16;
+  private static final int GENERATION_OFFSET = 24;
+  private static final int CUR_FILE_ID_OFFSET = 32;
+  private static final int PREALLOCATED_FILE_ID_OFFSET = 40;
+  private static final int LAST_FILE_ID_OFFSET = 48;
+  private static final int PREALLOCATOR_OWNER_OFFSET = 56;
+  private static final int PREALLOCATOR_HEARTBEAT_OFFSET = 64;
+  private static final int READY_FILE_ID_OFFSET = 72;
+  private static final int ROLL_REQUESTED_OFFSET = 80;
+  private static final int PATH_SLOTS_OFFSET = 128;
+  private static final int PATH_SLOT_SIZE = 4096;
+  private static final int NUM_PATH_SLOTS = 4;
+  private static final long UNLOCKED = 0;
+  private static final long NULL_FILE_ID = 0;
 
+  private final File file;
   private final FileProvider underlyingFileProvider;
   private final boolean preallocate;
-  private final boolean yieldOnFileContention;
+  private final Supplier<IdleStrategy> idleStrategySupplier;
+  private final long leaseTimeoutNanos;
+  private final long leaseOwner;
   private final FileChannel coordinationFileChannel;
   private final AtomicBuffer coordinationBuffer;
   private final int coordinationFileSize;
+  private volatile Generation lastGeneration;
+  private long observedPreallocatorOwner = UNLOCKED;
+  private long observedPreallocatorHeartbeat;
+  private long observedPreallocatorSinceNanos;
 
   CoordinationFile(final File coordinationFile,
                    final FileProvider underlyingFileProvider,
                    final boolean preallocate,
-                   final boolean yieldOnFileContention) throws IOException {
+                   final Supplier<IdleStrategy> idleStrategySupplier,
+                   final int hugePageSize,
+                   final long leaseTimeoutMillis) throws IOException {
+    this.file = coordinationFile;
     this.underlyingFileProvider = underlyingFileProvider;
     this.preallocate = preallocate;
-    this.yieldOnFileContention = yieldOnFileContention;
+    this.idleStrategySupplier = idleStrategySupplier;
+    this.leaseTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(leaseTimeoutMillis);
+    this.leaseOwner = newLeaseOwner();
     if(coordinationFile.exists()) {
       coordinationFileChannel = FileChannel.open(coordinationFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
       coordinationFileSize = (int)coordinationFileChannel.size();
       final long address = IoUtil.map(coordinationFileChannel, MapMode.READ_WRITE, 0, coordinationFileSize);
       coordinationBuffer = new UnsafeBuffer();
       coordinationBuffer.wrap(address, coordinationFileSize);
+      checkFormat(coordinationFile);
     } else {
-      coordinationFileSize = NEW_COORDINATOR_FILE_SIZE;
-      coordinationFileChannel = IoUtil.createEmptyFile(coordinationFile, coordinationFileSize, true);
+      // hugetlbfs requires aligned file sizes and does not support write(2)
+      coordinationFileSize = hugePageSize > 0 ? BitUtil.align(NEW_COORDINATOR_FILE_SIZE, hugePageSize) : NEW_COORDINATOR_FILE_SIZE;
+      coordinationFileChannel = IoUtil.createEmptyFile(coordinationFile, coordinationFileSize, hugePageSize == 0);
       final long address = IoUtil.map(coordinationFileChannel, MapMode.READ_WRITE, 0, coordinationFileSize);
       coordinationBuffer = new UnsafeBuffer();
       coordinationBuffer.wrap(address, coordinationFileSize);
     }
   }
 
+  private void checkFormat(final File coordinationFile) throws IOException {
+    // a zero magic is a file that is not yet initialized, including files written by the previous string-based format
+    final int magic = coordinationBuffer.getIntVolatile(MAGIC_OFFSET);
+    if(magic != 0 && (magic != MAGIC || coordinationBuffer.getIntVolatile(VERSION_OFFSET) != VERSION))
+      throw new IOException("Unsupported coordination file format in " + coordinationFile.getAbsolutePath());
+  }
+
   @Override
   public void close() throws IOException {
     coordinationFileChannel.close();
@@ -86,85 +140,288 @@ class CoordinationFile implements AutoCloseable {
   /**
    * Advance to next file
    *
-   * @param localContents The last contents read from the file locally. Used to determine who wins the race to update.
-   * @return New contents of coordination file. This can be parsed using the static utility methods of this class.
+   * @param localGeneration The last generation read from the file locally, or null if none has been read yet. Used to determine who wins the race to update.
+   * @return The current generation of the coordination file
    */
-  public String next(String localContents) {
+  public Generation next(final Generation localGeneration) {
     lockFile();
     try {
-      final String readContents = readContents();
-      if("".equals(readContents)) {
-        // the coordination file is brand new -> initialize it
-        String newContents;
-        if(preallocate) {
-          final File curFile = underlyingFileProvider.nextFile();
-          final File preallocatedFile = underlyingFileProvider.nextFile();
-          newContents = curFile.getAbsolutePath() + DELIMITER + preallocatedFile.getAbsolutePath();
-        } else {
-          final File curFile = underlyingFileProvider.nextFile();
-          newContents = curFile.getAbsolutePath();
-        }
-        writeContents(newContents);
-        return newContents;
-      } else if(readContents.equals(localContents)) {
-        // file contents matches our internal state -> we need to update the coordination file
-
-        // create the next file to use
-        final File nextFile = underlyingFileProvider.nextFile();
-        String newContents;
-        if(preallocate) {
-          final String readContentsArr[] = readContents.split(DELIMITER_SPLIT);
-          final String readPreallocatedFilepath = readContentsArr.length > 1 ? readContentsArr[1] : "";
-          if(readContentsArr.length > 1) {
-            // preallocation is configured and preallocated file exists -> rotate preallocated file to curFile, and set preallocated file to nextFile
-            newContents = readPreallocatedFilepath + DELIMITER + nextFile.getAbsolutePath();
-          } else {
-            // preallocation is configured and preallocated file does not exist -> use nextFile as curFile and create a new preallocatedFile
-            newContents = nextFile.getAbsolutePath() + DELIMITER + underlyingFileProvider.nextFile();
-          }
-        } else {
+      if(coordinationBuffer.getIntVolatile(MAGIC_OFFSET) == 0) {
+        // the coordination file is brand new -> initialize every field, since a file in the previous format contains arbitrary bytes
+        coordinationBuffer.putIntVolatile(VERSION_OFFSET, VERSION);
+        coordinationBuffer.putLongVolatile(LAST_FILE_ID_OFFSET, NULL_FILE_ID);
+        coordinationBuffer.putLongVolatile(READY_FILE_ID_OFFSET, NULL_FILE_ID);
+        coordinationBuffer.putLongVolatile(ROLL_REQUESTED_OFFSET, 0);
+        coordinationBuffer.putLongVolatile(CUR_FILE_ID_OFFSET, allocateFileId(underlyingFileProvider.nextFile()));
+        coordinationBuffer.putLongVolatile(PREALLOCATED_FILE_ID_OFFSET, preallocate ? allocateFileId(underlyingFileProvider.nextFile()) : NULL_FILE_ID);
+        coordinationBuffer.putLongVolatile(GENERATION_OFFSET, 1);
+        coordinationBuffer.putIntVolatile(MAGIC_OFFSET, MAGIC);
+      } else if(localGeneration != null && coordinationBuffer.getLongVolatile(GENERATION_OFFSET) == localGeneration.number()) {
+        // file generation matches our internal state -> we need to update the coordination file. Readers retry while the generation is negative.
+        coordinationBuffer.putLongVolatile(GENERATION_OFFSET, -(localGeneration.number() + 1));
+        final long readPreallocatedFileId = coordinationBuffer.getLongVolatile(PREALLOCATED_FILE_ID_OFFSET);
+        final long curFileId;
+        final long preallocatedFileId;
+        if(!preallocate) {
           // preallocation is disabled -> set the nextFile as curFile
-          newContents = nextFile.getAbsolutePath();
+          curFileId = allocateFileId(underlyingFileProvider.nextFile());
+          preallocatedFileId = NULL_FILE_ID;
+        } else if(readPreallocatedFileId != NULL_FILE_ID) {
+          // preallocation is configured and preallocated file exists -> rotate preallocated file to curFile, and set preallocated file to nextFile
+          curFileId = readPreallocatedFileId;
+          preallocatedFileId = allocateFileId(underlyingFileProvider.nextFile());
+        } else {
+          // preallocation is configured and preallocated file does not exist -> use nextFile as curFile and create a new preallocatedFile
+          curFileId = allocateFileId(underlyingFileProvider.nextFile());
+          preallocatedFileId = allocateFileId(underlyingFileProvider.nextFile());
         }
-
-        writeContents(newContents);
-        return newContents;
-      } else {
-        // file contents do not match our internal state -> we should update our internal state with the coordination file contents
-        return readContents;
+        coordinationBuffer.putLongVolatile(CUR_FILE_ID_OFFSET, curFileId);
+        coordinationBuffer.putLongVolatile(PREALLOCATED_FILE_ID_OFFSET, preallocatedFileId);
+        coordinationBuffer.putLongVolatile(GENERATION_OFFSET, localGeneration.number() + 1);
       }
+      // otherwise the file generation does not match our internal state -> we should update our internal state with the coordination file contents
+      return readGeneration();
     } finally {
       unlockFile();
     }
   }
 
-  private String readContents() {
-    final StringBuilder sb = new StringBuilder();
-    int offset = CONTENTS_OFFSET;
-    char curChar;
-    while((curChar = (char)coordinationBuffer.getByteVolatile(offset)) != NULL_TERMINATOR) {
-      sb.append(curChar);
-      offset++;
+  /**
+   * Read the current generation without taking the lease. The coordination file must have already been initialized by {@link
+   * CoordinationFile#next(Generation)}.
+   *
+   * @return The current generation of the coordination file
+   */
+  public Generation read() {
+    IdleStrategy idleStrategy = null;
+    while(true) {
+      final long number = coordinationBuffer.getLongVolatile(GENERATION_OFFSET);
+      if(number > 0) {
+        final Generation generation = lastGeneration;
+        if(generation != null && generation.number() == number)
+          return generation;
+        final long curFileId = coordinationBuffer.getLongVolatile(CUR_FILE_ID_OFFSET);
+        final long preallocatedFileId = coordinationBuffer.getLongVolatile(PREALLOCATED_FILE_ID_OFFSET);
+        final File curFile = readPath(curFileId);
+        final File preallocatedFile = readPath(preallocatedFileId);
+        // an unchanged generation means no path slot was rewritten while it was being read
+        if(coordinationBuffer.getLongVolatile(GENERATION_OFFSET) == number)
+          return lastGeneration = new Generation(number, curFileId, curFile, preallocatedFileId, preallocatedFile);
+      }
+      idleStrategy = idle(idleStrategy);
+    }
+  }
+
+  private Generation readGeneration() {
+    final long number = coordinationBuffer.getLongVolatile(GENERATION_OFFSET);
+    Generation generation = lastGeneration;
+    if(generation == null || generation.number() != number) {
+      final long curFileId = coordinationBuffer.getLongVolatile(CUR_FILE_ID_OFFSET);
+      final long preallocatedFileId = coordinationBuffer.getLongVolatile(PREALLOCATED_FILE_ID_OFFSET);
+      generation = new Generation(number, curFileId, readPath(curFileId), preallocatedFileId, readPath(preallocatedFileId));
+      lastGeneration = generation;
     }
-    return sb.toString();
+    return generation;
   }
 
-  private void writeContents(final String contents) {
-    for(int i = 0; i < contents.length(); i++) {
-      coordinationBuffer.putByteVolatile(CONTENTS_OFFSET + i, (byte)contents.charAt(i));
+  /**
+   * Try to become, or remain, the preallocation leader. The leader must call this more often than the lease timeout, since every call is its heartbeat.
+   *
+   * @return true if this process is the preallocation leader
+   */
+  public boolean tryAcquirePreallocatorLease() {
+    final long owner = coordinationBuffer.getLongVolatile(PREALLOCATOR_OWNER_OFFSET);
+    if(owner == leaseOwner || (owner == UNLOCKED && coordinationBuffer.compareAndSetLong(PREALLOCATOR_OWNER_OFFSET, UNLOCKED, leaseOwner))) {
+      coordinationBuffer.getAndAddLong(PREALLOCATOR_HEARTBEAT_OFFSET, 1);
+      return true;
+    }
+    final long heartbeat = coordinationBuffer.getLongVolatile(PREALLOCATOR_HEARTBEAT_OFFSET);
+    final long now = System.nanoTime();
+    if(owner != observedPreallocatorOwner || heartbeat != observedPreallocatorHeartbeat) {
+      // the leader is alive, restart the lease timer
+      observedPreallocatorOwner = owner;
+      observedPreallocatorHeartbeat = heartbeat;
+      observedPreallocatorSinceNanos = now;
+      return false;
+    }
+    if(owner != UNLOCKED && now - observedPreallocatorSinceNanos >= leaseTimeoutNanos
+            && coordinationBuffer.compareAndSetLong(PREALLOCATOR_OWNER_OFFSET, owner, leaseOwner)) {
+      // the leader stopped checking in for the entire lease timeout -> it is assumed to be dead, and this process takes over
+      coordinationBuffer.getAndAddLong(PREALLOCATOR_HEARTBEAT_OFFSET, 1);
+      return true;
     }
-    coordinationBuffer.putByteVolatile(CONTENTS_OFFSET + contents.length(), NULL_TERMINATOR);
+    return false;
+  }
+
+  /**
+   * Give up the preallocator lease, if this process holds it, so another process can take over without waiting for the lease timeout
+   */
+  public void releasePreallocatorLease() {
+    coordinationBuffer.compareAndSetLong(PREALLOCATOR_OWNER_OFFSET, leaseOwner, UNLOCKED);
+  }
+
+  /**
+   * Announce that the given file has been created and may be mapped by any process
+   *
+   * @param fileId The id of the file
+   */
+  public void markReady(final long fileId) {
+    coordinationBuffer.putLongVolatile(READY_FILE_ID_OFFSET, fileId);
+  }
+
+  /**
+   * Check if the given file has been announced by the preallocation leader
+   *
+   * @param fileId The id of the file
+   * @return true if the file has been created
+   */
+  public boolean isReady(final long fileId) {
+    return coordinationBuffer.getLongVolatile(READY_FILE_ID_OFFSET) >= fileId;
+  }
+
+  /**
+   * Request that the preallocation leader advances past the given generation, since this process has rolled away from its current file
+   *
+   * @param generation The generation whose current file is full
+   */
+  public void requestRoll(final Generation generation) {
+    long requested;
+    do {
+      requested = coordinationBuffer.getLongVolatile(ROLL_REQUESTED_OFFSET);
+      if(requested >= generation.number())
+        return;
+    } while(!coordinationBuffer.compareAndSetLong(ROLL_REQUESTED_OFFSET, requested, generation.number()));
+  }
+
+  /**
+   * Check if any process has requested to advance past the given generation
+   *
+   * @param generation The generation to check
+   * @return true if the generation's current file is full
+   */
+  public boolean isRollRequested(final Generation generation) {
+    return coordinationBuffer.getLongVolatile(ROLL_REQUESTED_OFFSET) >= generation.number();
+  }
+
+  private long allocateFileId(final File file) {
+    final byte[] path = file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+    if(path.length > PATH_SLOT_SIZE - BitUtil.SIZE_OF_INT)
+      throw new IllegalArgumentException("Path exceeds " + (PATH_SLOT_SIZE - BitUtil.SIZE_OF_INT) + " bytes: " + file.getAbsolutePath());
+    final long fileId = coordinationBuffer.getLongVolatile(LAST_FILE_ID_OFFSET) + 1;
+    final int slotOffset = pathSlotOffset(fileId);
+    coordinationBuffer.putBytes(slotOffset + BitUtil.SIZE_OF_INT, path);
+    coordinationBuffer.putIntVolatile(slotOffset, path.length);
+    coordinationBuffer.putLongVolatile(LAST_FILE_ID_OFFSET, fileId);
+    heartbeat();
+    return fileId;
+  }
+
+  private File readPath(final long fileId) {
+    if(fileId == NULL_FILE_ID)
+      return null;
+    final int slotOffset = pathSlotOffset(fileId);
+    final int length = coordinationBuffer.getIntVolatile(slotOffset);
+    return new File(coordinationBuffer.getStringWithoutLengthUtf8(slotOffset + BitUtil.SIZE_OF_INT, length));
+  }
+
+  private static int pathSlotOffset(final long fileId) {
+    return PATH_SLOTS_OFFSET + (int)(fileId % NUM_PATH_SLOTS) * PATH_SLOT_SIZE;
   }
 
   private void lockFile() {
-    while(!coordinationBuffer.compareAndSetInt(LOCK_OFFSET, UNLOCKED, LOCKED)) {
-      if(yieldOnFileContention)
-        Thread.yield();
+    final Object event = FlightRecorderEvents.begin(FlightRecorderEvents.LOCK);
+    long observedOwner = UNLOCKED;
+    long observedHeartbeat = 0;
+    long observedSinceNanos = 0;
+    IdleStrategy idleStrategy = null;
+    while(!coordinationBuffer.compareAndSetLong(LEASE_OWNER_OFFSET, UNLOCKED, leaseOwner)) {
+      final long owner = coordinationBuffer.getLongVolatile(LEASE_OWNER_OFFSET);
+      final long heartbeat = coordinationBuffer.getLongVolatile(LEASE_HEARTBEAT_OFFSET);
+      final long now = System.nanoTime();
+      if(owner != observedOwner || heartbeat != observedHeartbeat) {
+        // the owner is making progress, restart the lease timer
+        observedOwner = owner;
+        observedHeartbeat = heartbeat;
+        observedSinceNanos = now;
+      } else if(owner != UNLOCKED && now - observedSinceNanos >= leaseTimeoutNanos
+              && coordinationBuffer.compareAndSetLong(LEASE_OWNER_OFFSET, owner, leaseOwner)) {
+        // the owner stopped making progress for the entire lease timeout -> it is assumed to be dead, and this process reclaimed the lease
+        break;
+      }
+      idleStrategy = idle(idleStrategy);
+    }
+    heartbeat();
+    FlightRecorderEvents.commit(event, file, coordinationFileSize);
+  }
+
+  private IdleStrategy idle(IdleStrategy idleStrategy) {
+    // the strategy is only created once a wait is contended
+    if(idleStrategy == null) {
+      idleStrategy = idleStrategySupplier.get();
+      idleStrategy.reset();
     }
+    idleStrategy.idle();
+    return idleStrategy;
+  }
+
+  private void heartbeat() {
+    coordinationBuffer.getAndAddLong(LEASE_HEARTBEAT_OFFSET, 1);
   }
 
   private void unlockFile() {
-    coordinationBuffer.putIntVolatile(LOCK_OFFSET, UNLOCKED);
+    // this fails if the lease was reclaimed by another process, which can only happen if this process stalled for longer than the lease timeout
+    coordinationBuffer.compareAndSetLong(LEASE_OWNER_OFFSET, leaseOwner, UNLOCKED);
+  }
+
+  private static long newLeaseOwner() {
+    long pid;
+    try {
+      final String name = ManagementFactory.getRuntimeMXBean().getName();
+      pid = Long.parseLong(name.substring(0, name.indexOf('@')));
+    } catch(RuntimeException e) {
+      pid = ThreadLocalRandom.current().nextInt(1, Integer.MAX_VALUE);
+    }
+    // the random instance id distinguishes multiple coordinators in the same process, and processes on other hosts sharing the file
+    return (pid << 32) | (ThreadLocalRandom.current().nextInt() & 0xFFFFFFFFL);
+  }
+
+  /**
+   * A snapshot of the files referenced by a single generation of the coordination file
+   */
+  static final class Generation {
+    private final long number;
+    private final long curFileId;
+    private final File curFile;
+    private final long preallocatedFileId;
+    private final File preallocatedFile;
+
+    Generation(final long number, final long curFileId, final File curFile, final long preallocatedFileId, final File preallocatedFile) {
+      this.number = number;
+      this.curFileId = curFileId;
+      this.curFile = curFile;
+      this.preallocatedFileId = preallocatedFileId;
+      this.preallocatedFile = preallocatedFile;
+    }
+
+    long number() {
+      return number;
+    }
+
+    long curFileId() {
+      return curFileId;
+    }
+
+    File curFile() {
+      return curFile;
+    }
+
+    long preallocatedFileId() {
+      return preallocatedFileId;
+    }
+
+    File preallocatedFile() {
+      return preallocatedFile;
+    }
   }
 
 }
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.AtomicCounter;
+import org.agrona.concurrent.status.ConcurrentCountersManager;
+import org.agrona.concurrent.status.CountersManager;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A memory-mapped file of Agrona counters, which other processes can read with a {@link CountersReader} while they are being written. The file holds the
+ * counter metadata followed by the counter values, and its length determines the maximum number of counters. Pass a file created with {@link
+ * CountersFile#create(File, int)} to {@link ConcurrentFileMapper#counters(CountersFile)} to publish write-path counters, and read it from any process with
+ * {@link CountersFile#open(File)}. Each counter is labelled with the location of the file it counts, and its type id identifies what it counts.
+ *
+ * @author Eric Thill
+ */
+public class CountersFile implements AutoCloseable {
+
+  /**
+   * Type id of the counters of successful writes, one per writing thread
+   */
+  public static final int WRITES_TYPE_ID = 1;
+  /**
+   * Type id of the counters of bytes successfully written, excluding frame headers, one per writing thread
+   */
+  public static final int BYTES_WRITTEN_TYPE_ID = 2;
+  /**
+   * Type id of the counters of writes that returned {@link io.thill.jacoio.ConcurrentFile#NULL_OFFSET}, one per writing thread
+   */
+  public static final int NULL_OFFSETS_TYPE_ID = 3;
+  /**
+   * Type id of the counters of failed compare-and-set attempts while reserving space, one per writing thread
+   */
+  public static final int RESERVE_RETRIES_TYPE_ID = 4;
+  /**
+   * Type id of the counter of files rolled
+   */
+  public static final int ROLLS_TYPE_ID = 5;
+  /**
+   * Type id of the counter of total nanoseconds writers spent waiting for a roll
+   */
+  public static final int ROLL_STALL_NANOS_TYPE_ID = 6;
+  /**
+   * Type id of the counter of rolls that found no preallocated file ready
+   */
+  public static final int PREALLOCATION_MISSES_TYPE_ID = 7;
+  /**
+   * Type id of the gauge of rolled files waiting to be closed
+   */
+  public static final int PENDING_CLOSES_TYPE_ID = 8;
+
+  /**
+   * Create and map a new counters file, replacing any existing file
+   *
+   * @param file        the file to create
+   * @param maxCounters the maximum number of counters the file can hold
+   * @return the counters file
+   * @throws IOException if the file could not be created
+   */
+  public static CountersFile create(File file, int maxCounters) throws IOException {
+    if(maxCounters <= 0)
+      throw new IllegalArgumentException("maxCounters must be positive");
+    final long length = (long)maxCounters * (CountersReader.METADATA_LENGTH + CountersReader.COUNTER_LENGTH);
+    if(length > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("maxCounters is too large");
+    final MappedByteBuffer mappedBuffer = IoUtil.mapNewFile(file, length, true);
+    return new CountersFile(file, mappedBuffer, maxCounters, true);
+  }
+
+  /**
+   * Map an existing counters file to read its counters
+   *
+   * @param file the file to map
+   * @return the counters file, which cannot allocate counters
+   * @throws IOException if the file could not be mapped
+   */
+  public static CountersFile open(File file) throws IOException {
+    final long length = file.length();
+    if(length == 0 || length % (CountersReader.METADATA_LENGTH + CountersReader.COUNTER_LENGTH) != 0)
+      throw new IOException("Not a counters file: " + file.getAbsolutePath());
+    final MappedByteBuffer mappedBuffer = IoUtil.mapExistingFile(file, MapMode.READ_ONLY, file.getName());
+    return new CountersFile(file, mappedBuffer, (int)(length / (CountersReader.METADATA_LENGTH + CountersReader.COUNTER_LENGTH)), false);
+  }
+
+  private final File file;
+  private final MappedByteBuffer mappedBuffer;
+  private final CountersReader reader;
+  private final CountersManager manager;
+
+  private CountersFile(File file, MappedByteBuffer mappedBuffer, int maxCounters, boolean writable) {
+    this.file = file;
+    this.mappedBuffer = mappedBuffer;
+    final int metaDataLength = maxCounters * CountersReader.METADATA_LENGTH;
+    final UnsafeBuffer metaDataBuffer = new UnsafeBuffer(mappedBuffer, 0, metaDataLength);
+    final UnsafeBuffer valuesBuffer = new UnsafeBuffer(mappedBuffer, metaDataLength, maxCounters * CountersReader.COUNTER_LENGTH);
+    this.manager = writable ? new ConcurrentCountersManager(metaDataBuffer, valuesBuffer) : null;
+    this.reader = writable ? manager : new CountersReader(metaDataBuffer, valuesBuffer);
+  }
+
+  /**
+   * Get the underlying {@link File}
+   *
+   * @return the underlying file
+   */
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Get a {@link CountersReader} over this file
+   *
+   * @return the reader
+   */
+  public CountersReader reader() {
+    return reader;
+  }
+
+  /**
+   * Sum the values of every allocated counter with the given type id, such as the bytes written by all threads
+   *
+   * @param typeId the type id
+   * @return the sum
+   */
+  public long sum(int typeId) {
+    final long[] sum = { 0 };
+    reader.forEach((counterId, counterTypeId, keyBuffer, label) -> {
+      if(counterTypeId == typeId)
+        sum[0] += reader.getCounterValue(counterId);
+    });
+    return sum[0];
+  }
+
+  /**
+   * Allocate a counter, which is freed by {@link AtomicCounter#close()}
+   *
+   * @param label  the label of the counter, which is truncated to {@link CountersReader#MAX_LABEL_LENGTH}
+   * @param typeId the type id of the counter
+   * @return the counter, or null if the file is full
+   */
+  AtomicCounter newCounter(String label, int typeId) {
+    if(manager == null)
+      throw new IllegalStateException("Counters cannot be allocated in a file that was opened for reading");
+    try {
+      return manager.newCounter(label.length() > CountersReader.MAX_LABEL_LENGTH ? label.substring(0, CountersReader.MAX_LABEL_LENGTH) : label, typeId);
+    } catch(IllegalStateException e) {
+      // the file is full
+      return null;
+    }
+  }
+
+  @Override
+  public void close() {
+    IoUtil.unmap(mappedBuffer);
+  }
+}
@@ -0,0 +1,668 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.BitUtil;
+import org.agrona.BufferUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.ManyToManyConcurrentArrayQueue;
+import org.agrona.concurrent.ManyToOneConcurrentArrayQueue;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.OpenOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Extends {@link ConcurrentFile} to provide single-process writing with direct I/O, bypassing the page cache. Offsets are reserved exactly like {@link
+ * SingleProcessConcurrentFile}, but the file is split into chunks that are staged in block-aligned direct buffers. A chunk is assigned a staging buffer the
+ * first time a write reaches it, and as soon as every byte in it has been written it is handed to a background flusher thread, which writes the whole chunk
+ * to the file opened with {@code ExtendedOpenOption.DIRECT} and returns the buffer to the pool. Writers only wait when every staging buffer is still being
+ * flushed.
+ * <p>
+ * Direct I/O requires aligned positions, lengths, and buffer addresses, so the last chunk is written rounded up to {@link DirectConcurrentFile#BLOCK_SIZE}
+ * and the file is truncated back to its size on close. Files are never filled with zeros, since that would go through the page cache. A write that straddles
+ * two chunks is staged in a thread-local buffer and copied into both chunks, and since there is no buffer spanning the entire file, this file cannot be
+ * wrapped by a {@link FramedConcurrentFile} or registered with a {@link PageToucher}. {@code ExtendedOpenOption.DIRECT} is looked up reflectively, since it
+ * only exists on JDK 10 and later.
+ *
+ * @author Eric Thill
+ */
+class DirectConcurrentFile implements MappedConcurrentFile {
+
+  static final int BLOCK_SIZE = 4096;
+  static final int MAX_CHUNK_SIZE = 1024 * 1024;
+  static final int NUM_STAGING_BUFFERS = 4;
+
+  private static final OpenOption DIRECT = directOpenOption();
+  private static final Chunk RETIRED = new Chunk(0, 0, null, null);
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+  private static final long FLUSHER_IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static OpenOption directOpenOption() {
+    try {
+      final Class<?> extendedOpenOption = Class.forName("com.sun.nio.file.ExtendedOpenOption");
+      for(Object option : extendedOpenOption.getEnumConstants()) {
+        if("DIRECT".equals(((Enum<?>)option).name()))
+          return (OpenOption)option;
+      }
+    } catch(ClassNotFoundException e) {
+      // not a JDK that provides extended open options
+    }
+    return null;
+  }
+
+  /**
+   * Check if the running JDK supports direct I/O
+   *
+   * @return true if direct I/O is supported
+   */
+  static boolean isSupported() {
+    return DIRECT != null;
+  }
+
+  /**
+   * Create a new file
+   *
+   * @param file     the file to create
+   * @param capacity the capacity of the file
+   * @return the file
+   * @throws IOException
+   */
+  static DirectConcurrentFile map(File file, int capacity) throws IOException {
+    if(!isSupported())
+      throw new UnsupportedOperationException("Direct I/O requires JDK 10 or later");
+    if(file.exists())
+      throw new IOException("File Exists. DirectConcurrentFile cannot modify an existing getFile.");
+    // size the file sparsely, without writing through the page cache
+    try(RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(capacity);
+    }
+    final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, DIRECT);
+    final int chunkSize = Math.min(MAX_CHUNK_SIZE, BitUtil.findNextPositivePowerOfTwo(Math.max(capacity, BLOCK_SIZE)));
+    return new DirectConcurrentFile(file, fileChannel, capacity, chunkSize);
+  }
+
+  private final AtomicLong nextWriteOffset = new AtomicLong(0);
+  private final AtomicLong writeComplete = new AtomicLong(0);
+  private final AtomicLong finalFileSize = new AtomicLong(-1);
+  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+  private final Object chunkLock = new Object();
+  private final File file;
+  private final FileChannel fileChannel;
+  private final long fileSize;
+  private final int chunkSize;
+  private final int chunkShift;
+  private final int maxWriteLength;
+  private final AtomicReferenceArray<Chunk> chunks;
+  private final AtomicIntegerArray chunkBytesComplete;
+  private final ManyToManyConcurrentArrayQueue<ByteBuffer> freeBuffers = new ManyToManyConcurrentArrayQueue<>(NUM_STAGING_BUFFERS);
+  private final ManyToOneConcurrentArrayQueue<Chunk> completedChunks = new ManyToOneConcurrentArrayQueue<>(NUM_STAGING_BUFFERS);
+  private final Thread flusherThread;
+  private volatile IOException flushFailure;
+  private int nextChunkToStage;
+
+  DirectConcurrentFile(File file, FileChannel fileChannel, int fileSize, int chunkSize) {
+    this.file = file;
+    this.fileChannel = fileChannel;
+    this.fileSize = fileSize;
+    this.chunkSize = chunkSize;
+    this.chunkShift = Integer.numberOfTrailingZeros(chunkSize);
+    // a write may span at most every staging buffer, or it could wait forever for a buffer held by its own earlier chunks
+    this.maxWriteLength = (NUM_STAGING_BUFFERS - 1) * chunkSize + 1;
+    final int numChunks = (int)(((long)fileSize + chunkSize - 1) >> chunkShift);
+    this.chunks = new AtomicReferenceArray<>(numChunks);
+    this.chunkBytesComplete = new AtomicIntegerArray(numChunks);
+    for(int i = 0; i < NUM_STAGING_BUFFERS; i++)
+      freeBuffers.offer(BufferUtil.allocateDirectAligned(chunkSize, BLOCK_SIZE));
+    this.flusherThread = new Thread(this::flushLoop, getClass().getSimpleName() + "-Flusher-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.flusherThread.setDaemon(true);
+    this.flusherThread.start();
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(fileChannel.isOpen() && isPending())
+      throw new IOException("There are pending writes");
+    // the flusher drains every completed chunk before it exits, and is never interrupted since that would close the channel
+    if(keepRunning.compareAndSet(true, false)) {
+      LockSupport.unpark(flusherThread);
+      try {
+        flusherThread.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    synchronized(chunkLock) {
+      if(fileChannel.isOpen()) {
+        // partially written chunks are flushed last, rounded up to the block size
+        for(int i = 0; i < chunks.length(); i++) {
+          final Chunk chunk = chunks.getAndSet(i, RETIRED);
+          if(chunk != null && chunk != RETIRED)
+            flushChunk(chunk);
+        }
+        fileChannel.truncate(finalFileSize.get() >= 0 ? finalFileSize.get() : fileSize);
+        fileChannel.close();
+      }
+    }
+    if(flushFailure != null)
+      throw flushFailure;
+  }
+
+  @Override
+  public void flush() {
+    // durability is not supported by direct files
+  }
+
+  @Override
+  public long durablePosition() {
+    return 0;
+  }
+
+  @Override
+  public Durability durability() {
+    return Durability.NONE;
+  }
+
+  @Override
+  public boolean isPending() {
+    return nextWriteOffset.get() != writeComplete.get();
+  }
+
+  @Override
+  public void finish() {
+    // this will happen automatically if we reserve more bytes than can fit in the int32 (minus header) worth of data
+    reserve(Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isFinished() {
+    final long writeComplete = this.writeComplete.get();
+    final long nextOffset = this.nextWriteOffset.get();
+    return writeComplete == nextOffset && writeComplete >= fileSize && finalFileSize.get() > 0;
+  }
+
+  @Override
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcBytes, srcOffset, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcBuffer, srcOffset, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    final int length = srcByteBuffer.remaining();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcByteBuffer, srcByteBuffer.position(), length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    final int length = srcCharSequence.length();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        final char c = srcCharSequence.charAt(i);
+        cursor.buffer.putByte(cursor.index + i, c > 127 ? (byte)'?' : (byte)c);
+      }
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, ByteOrder byteOrder) throws IOException {
+    final int length = srcCharSequence.length() * 2;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        cursor.buffer.putChar(cursor.index + (i * 2), srcCharSequence.charAt(i), byteOrder);
+      }
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter1, parameter2);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter1, parameter2, parameter3);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    final int length = 8;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    final int length = 16;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    final int length = 24;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      cursor.buffer.putLong(cursor.index + 16, value3, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    final int length = 32;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      cursor.buffer.putLong(cursor.index + 16, value3, byteOrder);
+      cursor.buffer.putLong(cursor.index + 24, value4, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public AtomicBuffer getBuffer() {
+    throw new UnsupportedOperationException("DirectConcurrentFile does not map a single buffer");
+  }
+
+  @Override
+  public int reserve(int length) {
+    long offset;
+    do {
+      offset = nextWriteOffset.get();
+      if(offset >= fileSize) {
+        // offset exceeded capacity field, do not attempt to increment nextWriteOffset field, nothing more can ever be written
+        return NULL_OFFSET;
+      }
+      if(length > maxWriteLength && offset + length <= fileSize)
+        throw new IllegalArgumentException("length " + length + " exceeds the maximum direct write length of " + maxWriteLength);
+    } while(!nextWriteOffset.compareAndSet(offset, offset + length));
+
+    if(offset + length > fileSize) {
+      // first message that will not fit
+      // set final getFile size
+      finalFileSize.set(offset);
+      // the bytes up to capacity will never be written, so count them as complete to flush the last chunks
+      wrote(offset, length);
+      return NULL_OFFSET;
+    }
+
+    // return offset to write bytes
+    return (int)offset;
+  }
+
+  @Override
+  public void wrote(int length) {
+    throw new UnsupportedOperationException("DirectConcurrentFile must be told the offset of each write");
+  }
+
+  @Override
+  public void wrote(final int offset, final int length) {
+    wrote((long)offset, length);
+  }
+
+  private void wrote(final long offset, final int length) {
+    // count the bytes as complete in every chunk they overlap, submitting each chunk that is now entirely written
+    final long end = Math.min(offset + length, fileSize);
+    long chunkOffset = offset;
+    while(chunkOffset < end) {
+      final int chunkIndex = (int)(chunkOffset >> chunkShift);
+      final long chunkEnd = Math.min((long)(chunkIndex + 1) << chunkShift, fileSize);
+      final int numBytes = (int)(Math.min(end, chunkEnd) - chunkOffset);
+      final int chunkLength = (int)(chunkEnd - ((long)chunkIndex << chunkShift));
+      if(chunkBytesComplete.addAndGet(chunkIndex, numBytes) == chunkLength)
+        submit(chunkIndex);
+      chunkOffset += numBytes;
+    }
+
+    long lastVal;
+    do {
+      lastVal = writeComplete.get();
+    } while(!writeComplete.compareAndSet(lastVal, lastVal + length));
+  }
+
+  private Cursor open(final long offset, final int length) throws IOException {
+    final Cursor cursor = cursors.get();
+    final Chunk chunk = chunk((int)(offset >> chunkShift));
+    final long index = offset - chunk.offset;
+    cursor.offset = offset;
+    cursor.length = length;
+    if(index + length <= chunk.length) {
+      cursor.buffer = chunk.buffer;
+      cursor.index = (int)index;
+      cursor.staged = false;
+    } else {
+      // the write straddles chunks, so it is staged and copied into each chunk on commit
+      if(cursor.staging.capacity() < length)
+        cursor.staging.wrap(new byte[Math.max(length, cursor.staging.capacity() * 2)]);
+      cursor.buffer = cursor.staging;
+      cursor.index = 0;
+      cursor.staged = true;
+    }
+    return cursor;
+  }
+
+  private void commit(final Cursor cursor) throws IOException {
+    if(!cursor.staged)
+      return;
+    long offset = cursor.offset;
+    int stagingIndex = 0;
+    while(stagingIndex < cursor.length) {
+      final Chunk chunk = chunk((int)(offset >> chunkShift));
+      final int index = (int)(offset - chunk.offset);
+      final int numBytes = Math.min(cursor.length - stagingIndex, chunk.length - index);
+      chunk.buffer.putBytes(index, cursor.staging, stagingIndex, numBytes);
+      stagingIndex += numBytes;
+      offset += numBytes;
+    }
+  }
+
+  private Chunk chunk(final int chunkIndex) throws IOException {
+    Chunk chunk = chunks.get(chunkIndex);
+    if(chunk == null) {
+      synchronized(chunkLock) {
+        // chunks are staged in order, so the lowest staged chunk can always complete and free its buffer
+        while(nextChunkToStage <= chunkIndex) {
+          if(chunks.get(nextChunkToStage) == null)
+            stageChunk(nextChunkToStage);
+          nextChunkToStage++;
+        }
+        chunk = chunks.get(chunkIndex);
+      }
+    }
+    if(chunk == RETIRED)
+      throw new IllegalStateException("Chunk " + chunkIndex + " was already flushed");
+    return chunk;
+  }
+
+  private void stageChunk(final int chunkIndex) throws IOException {
+    ByteBuffer byteBuffer;
+    while((byteBuffer = freeBuffers.poll()) == null) {
+      // every staging buffer is waiting to be flushed
+      if(flushFailure != null)
+        throw flushFailure;
+      Thread.yield();
+    }
+    final long chunkOffset = (long)chunkIndex << chunkShift;
+    final int chunkLength = (int)Math.min(chunkSize, fileSize - chunkOffset);
+    final UnsafeBuffer buffer = new UnsafeBuffer(byteBuffer);
+    // a recycled buffer still holds the previous chunk, which must not leak into unwritten bytes
+    buffer.setMemory(0, chunkSize, (byte)0);
+    chunks.set(chunkIndex, new Chunk(chunkOffset, chunkLength, byteBuffer, buffer));
+  }
+
+  private void submit(final int chunkIndex) {
+    // no write can still reference the chunk, since every byte in it has been written
+    final Chunk chunk = chunks.getAndSet(chunkIndex, RETIRED);
+    if(chunk != null && chunk != RETIRED) {
+      // the queue holds every staging buffer, so it can never be full
+      completedChunks.offer(chunk);
+      LockSupport.unpark(flusherThread);
+    }
+  }
+
+  private void flushLoop() {
+    while(keepRunning.get() || !completedChunks.isEmpty()) {
+      final Chunk chunk = completedChunks.poll();
+      if(chunk == null) {
+        LockSupport.parkNanos(FLUSHER_IDLE_NANOS);
+        continue;
+      }
+      try {
+        flushChunk(chunk);
+      } catch(IOException e) {
+        flushFailure = e;
+      }
+      freeBuffers.offer(chunk.byteBuffer);
+    }
+  }
+
+  private void flushChunk(final Chunk chunk) throws IOException {
+    final ByteBuffer byteBuffer = chunk.byteBuffer;
+    byteBuffer.clear();
+    byteBuffer.limit(BitUtil.align(chunk.length, BLOCK_SIZE));
+    while(byteBuffer.hasRemaining())
+      fileChannel.write(byteBuffer, chunk.offset + byteBuffer.position());
+  }
+
+  int numStagedChunks() {
+    int numStaged = 0;
+    for(int i = 0; i < chunks.length(); i++) {
+      final Chunk chunk = chunks.get(i);
+      if(chunk != null && chunk != RETIRED)
+        numStaged++;
+    }
+    return numStaged;
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return nextWriteOffset.get();
+  }
+
+  @Override
+  public int capacity() {
+    return (int)fileSize;
+  }
+
+  @Override
+  public boolean hasAvailableCapacity() {
+    return nextWriteOffset.get() < fileSize;
+  }
+
+  private static final class Chunk {
+    private final long offset;
+    private final int length;
+    private final ByteBuffer byteBuffer;
+    private final AtomicBuffer buffer;
+
+    Chunk(final long offset, final int length, final ByteBuffer byteBuffer, final AtomicBuffer buffer) {
+      this.offset = offset;
+      this.length = length;
+      this.byteBuffer = byteBuffer;
+      this.buffer = buffer;
+    }
+  }
+
+  private static final class Cursor {
+    private final UnsafeBuffer staging = new UnsafeBuffer(new byte[64]);
+    private AtomicBuffer buffer;
+    private int index;
+    private long offset;
+    private int length;
+    private boolean staged;
+  }
+}
@@ -0,0 +1,39 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+
+/**
+ * Determines when written data is forced to the underlying storage device
+ *
+ * @author Eric Thill
+ */
+public enum Durability {
+  /**
+   * Data is never forced. It becomes durable whenever the operating system decides to write it back. {@link ConcurrentFile#flush()} does nothing.
+   */
+  NONE,
+  /**
+   * Data is forced when {@link ConcurrentFile#flush()} is called, and when a file is closed.
+   */
+  ON_DEMAND,
+  /**
+   * Data is forced periodically from a background thread, when {@link ConcurrentFile#flush()} is called, and when a file is closed.
+   */
+  PERIODIC,
+  /**
+   * Data is forced from a background thread as soon as a writeDurable call is waiting, batching every writeDurable call that arrives while the previous force is
+   * in progress. Also behaves as {@link Durability#PERIODIC} for regular writes.
+   */
+  GROUP_COMMIT
+}
@@ -0,0 +1,175 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.DurableWriteListener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A reusable completion handle for a single {@link ConcurrentFile} writeDurable call. The handle is completed by whichever thread forces the write to the
+ * underlying storage device, after which it may be passed to another writeDurable call. A handle may only be used for one write at a time.
+ * <p>
+ * Completion may be observed by polling {@link DurableWrite#isDurable()}, blocking in {@link DurableWrite#await()}, or by providing a {@link
+ * DurableWriteListener}, which is called from the thread that completed the handle.
+ *
+ * @author Eric Thill
+ */
+public final class DurableWrite {
+
+  private static final int IDLE = 0;
+  private static final int PENDING = 1;
+  private static final int DURABLE = 2;
+  private static final int FAILED = 3;
+
+  private final DurableWriteListener listener;
+  private volatile int state = IDLE;
+  private volatile Thread waiter;
+  private long position;
+  private IOException failure;
+
+  /**
+   * Create a {@link DurableWrite} that must be polled or awaited for completion
+   */
+  public DurableWrite() {
+    this(null);
+  }
+
+  /**
+   * Create a {@link DurableWrite} that calls the given listener on completion
+   *
+   * @param listener the listener to call when the write is durable or has failed
+   */
+  public DurableWrite(final DurableWriteListener listener) {
+    this.listener = listener;
+  }
+
+  /**
+   * Check if the write is still waiting to be forced
+   *
+   * @return true if the write is not yet complete
+   */
+  public boolean isPending() {
+    return state == PENDING;
+  }
+
+  /**
+   * Check if the write has been forced to the underlying storage device
+   *
+   * @return true if the write is durable
+   */
+  public boolean isDurable() {
+    return state == DURABLE;
+  }
+
+  /**
+   * Get the offset in the underlying file immediately after the last written byte
+   *
+   * @return the end position of the last write
+   */
+  public long position() {
+    return position;
+  }
+
+  /**
+   * Get the exception that prevented the write from being forced
+   *
+   * @return the failure, or null if the write did not fail
+   */
+  public IOException failure() {
+    return state == FAILED ? failure : null;
+  }
+
+  /**
+   * Block until the write has been forced to the underlying storage device
+   *
+   * @throws IOException if the write could not be forced, or if the calling thread was interrupted
+   */
+  public void await() throws IOException {
+    waiter = Thread.currentThread();
+    try {
+      while(state == PENDING) {
+        LockSupport.park(this);
+        checkInterrupted();
+      }
+    } finally {
+      waiter = null;
+    }
+    checkFailed();
+  }
+
+  /**
+   * Block until the write has been forced to the underlying storage device or the given timeout has elapsed
+   *
+   * @param timeout the maximum time to wait
+   * @param unit    the unit of the timeout
+   * @return true if the write is durable, false if the timeout elapsed first
+   * @throws IOException if the write could not be forced, or if the calling thread was interrupted
+   */
+  public boolean await(final long timeout, final TimeUnit unit) throws IOException {
+    final long deadline = System.nanoTime() + unit.toNanos(timeout);
+    waiter = Thread.currentThread();
+    try {
+      long remaining;
+      while(state == PENDING) {
+        if((remaining = deadline - System.nanoTime()) <= 0)
+          return false;
+        LockSupport.parkNanos(this, remaining);
+        checkInterrupted();
+      }
+    } finally {
+      waiter = null;
+    }
+    checkFailed();
+    return true;
+  }
+
+  void pending(final long position) {
+    if(state == PENDING)
+      throw new IllegalStateException("DurableWrite is already pending");
+    this.position = position;
+    this.failure = null;
+    this.state = PENDING;
+  }
+
+  void durable() {
+    complete(DURABLE);
+  }
+
+  void failed(final IOException failure) {
+    this.failure = failure;
+    complete(FAILED);
+  }
+
+  private void complete(final int state) {
+    this.state = state;
+    final Thread waiter = this.waiter;
+    if(waiter != null)
+      LockSupport.unpark(waiter);
+    if(listener != null)
+      listener.onComplete(this);
+  }
+
+  private void checkInterrupted() throws InterruptedIOException {
+    if(Thread.currentThread().isInterrupted())
+      throw new InterruptedIOException("Interrupted while waiting for durable write");
+  }
+
+  private void checkFailed() throws IOException {
+    if(state == FAILED)
+      throw new IOException("Durable write failed", failure);
+  }
+}
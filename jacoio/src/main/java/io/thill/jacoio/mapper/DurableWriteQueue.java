@@ -0,0 +1,83 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.concurrent.ManyToOneConcurrentArrayQueue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Collects {@link DurableWrite} handles from many writers, so they can be completed in batches by the thread that forces the file. Offering is lock-free and
+ * allocation-free. All other methods must be called while holding the file's flush lock.
+ *
+ * @author Eric Thill
+ */
+final class DurableWriteQueue {
+
+  static final int DEFAULT_CAPACITY = 4096;
+
+  private final List<DurableWrite> batch = new ArrayList<>();
+  private final Consumer<DurableWrite> batchAdder = batch::add;
+  private final ManyToOneConcurrentArrayQueue<DurableWrite> queue;
+
+  DurableWriteQueue(final int capacity) {
+    this.queue = new ManyToOneConcurrentArrayQueue<>(capacity);
+  }
+
+  /**
+   * Offer a pending handle
+   *
+   * @param durableWrite the handle
+   * @return true if it was queued, false if the queue is full
+   */
+  boolean offer(final DurableWrite durableWrite) {
+    return queue.offer(durableWrite);
+  }
+
+  /**
+   * Move all queued handles into the current batch
+   *
+   * @return the largest position of all handles in the batch, or 0 if the batch is empty
+   */
+  long drain() {
+    queue.drain(batchAdder);
+    long position = 0;
+    for(int i = 0; i < batch.size(); i++) {
+      position = Math.max(position, batch.get(i).position());
+    }
+    return position;
+  }
+
+  /**
+   * Complete all handles in the current batch as durable
+   */
+  void complete() {
+    // handles are removed before they are completed, since a listener may immediately reuse its handle
+    while(!batch.isEmpty()) {
+      batch.remove(batch.size() - 1).durable();
+    }
+  }
+
+  /**
+   * Complete all handles in the current batch as failed
+   *
+   * @param failure the reason the batch could not be forced
+   */
+  void fail(final IOException failure) {
+    while(!batch.isEmpty()) {
+      batch.remove(batch.size() - 1).failed(failure);
+    }
+  }
+}
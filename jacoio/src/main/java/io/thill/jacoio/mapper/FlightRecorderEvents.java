@@ -0,0 +1,85 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import java.io.File;
+
+/**
+ * Emits Java Flight Recorder events around the places writers and background threads can lose time. This implementation emits nothing, since the JFR API is
+ * not part of JDK 8. A multi-release implementation for JDK 11 and later, under src/main/java11, emits an event with its duration, file name, and capacity,
+ * but only when the event type is enabled in a running recording. Both implementations must keep the same package-private API.
+ *
+ * @author Eric Thill
+ */
+final class FlightRecorderEvents {
+
+  /**
+   * A thread that won a roll, closing the full file and swapping in the next one
+   */
+  static final int ROLL = 0;
+  /**
+   * A thread waiting for another thread's roll to complete
+   */
+  static final int ROLL_WAIT = 1;
+  /**
+   * A roll waiting for the preallocation thread to provide the next file
+   */
+  static final int PREALLOCATION_WAIT = 2;
+  /**
+   * Creating and mapping a new file
+   */
+  static final int MAP = 3;
+  /**
+   * A close task waiting for the pending writes of a rolled file to complete
+   */
+  static final int CLOSE_PENDING = 4;
+  /**
+   * Unmapping and truncating a file
+   */
+  static final int CLOSE = 5;
+  /**
+   * Taking the lease of a multi-process coordination file
+   */
+  static final int LOCK = 6;
+
+  /**
+   * Check if events can be emitted by the running JDK
+   *
+   * @return true if events are supported
+   */
+  static boolean isSupported() {
+    return false;
+  }
+
+  /**
+   * Start timing an event
+   *
+   * @param type the event type
+   * @return the event to pass to {@link FlightRecorderEvents#commit(Object, File, long)}, or null if the event type is not being recorded
+   */
+  static Object begin(final int type) {
+    return null;
+  }
+
+  /**
+   * Stop timing an event and emit it if it meets the threshold of the recording
+   *
+   * @param event    the event returned by {@link FlightRecorderEvents#begin(int)}, which may be null
+   * @param file     the file the event applies to
+   * @param capacity the capacity of the file
+   */
+  static void commit(final Object event, final File file, final long capacity) {
+  }
+
+  private FlightRecorderEvents() {
+  }
+}
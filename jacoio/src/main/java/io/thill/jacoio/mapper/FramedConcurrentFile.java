@@ -13,17 +13,25 @@ import java.nio.ByteOrder;
 /**
  * An implementation of {@link ConcurrentFile} that wraps an underlying {@link ConcurrentFile} to provide write framing. Each write will be prepended with a
  * 32-bit length field. The length field is populated after the corresponding write. This allows concurrent readers to be able to read the getFile by waiting
- * for the length field of each frame to be populated before reading the corresponding data.
+ * for the length field of each frame to be populated before reading the corresponding data. A timestamped file follows the length field with a 64-bit
+ * little-endian timestamp from {@link Frames#timestampNanos()}, which is populated immediately before the length field.
  *
  * @author Eric Thill
  */
 public class FramedConcurrentFile implements MappedConcurrentFile {
 
-  private static final int FRAME_HEADER_SIZE = 4;
   private final MappedConcurrentFile underlyingFile;
+  private final boolean timestamped;
+  private final int headerSize;
 
   FramedConcurrentFile(MappedConcurrentFile underlyingFile) {
+    this(underlyingFile, false);
+  }
+
+  FramedConcurrentFile(MappedConcurrentFile underlyingFile, boolean timestamped) {
     this.underlyingFile = underlyingFile;
+    this.timestamped = timestamped;
+    this.headerSize = timestamped ? Frames.TIMESTAMPED_HEADER_SIZE : Frames.HEADER_SIZE;
   }
 
   @Override
@@ -51,16 +59,26 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
     return underlyingFile.getFile();
   }
 
+  @Override
+  public void flush() throws IOException {
+    underlyingFile.flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return underlyingFile.durablePosition();
+  }
+
   @Override
   public int write(final byte[] srcBytes, final int srcOffset, final int srcLength) {
-    final int length = FRAME_HEADER_SIZE + srcLength;
+    final int length = headerSize + srcLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putBytes(offset + FRAME_HEADER_SIZE, srcBytes, srcOffset, srcLength);
-        getBuffer().putInt(offset, length);
+        getBuffer().putBytes(offset + headerSize, srcBytes, srcOffset, srcLength);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -68,14 +86,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int write(final DirectBuffer srcBuffer, final int srcOffset, final int srcLength) {
-    final int length = FRAME_HEADER_SIZE + srcLength;
+    final int length = headerSize + srcLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putBytes(offset + FRAME_HEADER_SIZE, srcBuffer, srcOffset, srcLength);
-        getBuffer().putInt(offset, length);
+        getBuffer().putBytes(offset + headerSize, srcBuffer, srcOffset, srcLength);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -83,14 +101,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int write(final ByteBuffer srcByteBuffer) {
-    final int length = FRAME_HEADER_SIZE + srcByteBuffer.remaining();
+    final int length = headerSize + srcByteBuffer.remaining();
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putBytes(offset + FRAME_HEADER_SIZE, srcByteBuffer, srcByteBuffer.position(), srcByteBuffer.remaining());
-        getBuffer().putInt(offset, length);
+        getBuffer().putBytes(offset + headerSize, srcByteBuffer, srcByteBuffer.position(), srcByteBuffer.remaining());
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -98,17 +116,17 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeAscii(final CharSequence srcCharSequence) {
-    final int length = FRAME_HEADER_SIZE + srcCharSequence.length();
+    final int length = headerSize + srcCharSequence.length();
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
         for(int i = 0; i < srcCharSequence.length(); i++) {
           final char c = srcCharSequence.charAt(i);
-          getBuffer().putByte(FRAME_HEADER_SIZE + offset + i, c > 127 ? (byte)'?' : (byte)c);
+          getBuffer().putByte(headerSize + offset + i, c > 127 ? (byte)'?' : (byte)c);
         }
-        getBuffer().putInt(offset, length);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -116,16 +134,16 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeChars(final CharSequence srcCharSequence, final ByteOrder byteOrder) {
-    final int length = FRAME_HEADER_SIZE + srcCharSequence.length();
+    final int length = headerSize + (srcCharSequence.length() * 2);
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
         for(int i = 0; i < srcCharSequence.length(); i++) {
-          getBuffer().putChar(FRAME_HEADER_SIZE + offset + (i * 2), srcCharSequence.charAt(i), byteOrder);
+          getBuffer().putChar(headerSize + offset + (i * 2), srcCharSequence.charAt(i), byteOrder);
         }
-        getBuffer().putInt(offset, length);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -133,14 +151,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int write(final int dataLength, final WriteFunction writeFunction) {
-    final int length = FRAME_HEADER_SIZE + dataLength;
+    final int length = headerSize + dataLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        writeFunction.write(getBuffer(), offset + FRAME_HEADER_SIZE, dataLength);
-        getBuffer().putInt(offset, length);
+        writeFunction.write(getBuffer(), offset + headerSize, dataLength);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -148,14 +166,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public <P> int write(final int dataLength, final P parameter, final ParametizedWriteFunction<P> writeFunction) {
-    final int length = FRAME_HEADER_SIZE + dataLength;
+    final int length = headerSize + dataLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        writeFunction.write(getBuffer(), offset + FRAME_HEADER_SIZE, dataLength, parameter);
-        getBuffer().putInt(offset, length);
+        writeFunction.write(getBuffer(), offset + headerSize, dataLength, parameter);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -163,14 +181,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public <P1, P2> int write(final int dataLength, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) {
-    final int length = FRAME_HEADER_SIZE + dataLength;
+    final int length = headerSize + dataLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        writeFunction.write(getBuffer(), offset + FRAME_HEADER_SIZE, dataLength, parameter1, parameter2);
-        getBuffer().putInt(offset, length);
+        writeFunction.write(getBuffer(), offset + headerSize, dataLength, parameter1, parameter2);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -178,14 +196,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public <P1, P2, P3> int write(final int dataLength, final P1 parameter1, final P2 parameter2, P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) {
-    final int length = FRAME_HEADER_SIZE + dataLength;
+    final int length = headerSize + dataLength;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        writeFunction.write(getBuffer(), offset + FRAME_HEADER_SIZE, dataLength, parameter1, parameter2, parameter3);
-        getBuffer().putInt(offset, length);
+        writeFunction.write(getBuffer(), offset + headerSize, dataLength, parameter1, parameter2, parameter3);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -193,14 +211,14 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeLong(final long value, final ByteOrder byteOrder) {
-    final int length = FRAME_HEADER_SIZE + 8;
+    final int length = headerSize + 8;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE, value, byteOrder);
-        getBuffer().putInt(offset, length);
+        getBuffer().putLong(offset + headerSize, value, byteOrder);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -208,16 +226,16 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) {
-    final int length = FRAME_HEADER_SIZE + 16;
+    final int length = headerSize + 16;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
 
       try {
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE, value1, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 8, value2, byteOrder);
-        getBuffer().putInt(offset, length);
+        getBuffer().putLong(offset + headerSize, value1, byteOrder);
+        getBuffer().putLong(offset + headerSize + 8, value2, byteOrder);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -225,16 +243,16 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) {
-    final int length = FRAME_HEADER_SIZE + 16;
+    final int length = headerSize + 24;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE, value1, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 8, value2, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 16, value3, byteOrder);
-        getBuffer().putInt(offset, length);
+        getBuffer().putLong(offset + headerSize, value1, byteOrder);
+        getBuffer().putLong(offset + headerSize + 8, value2, byteOrder);
+        getBuffer().putLong(offset + headerSize + 16, value3, byteOrder);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -242,17 +260,17 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) {
-    final int length = FRAME_HEADER_SIZE + 16;
+    final int length = headerSize + 32;
     final int offset = reserve(length);
     if(offset != ConcurrentFile.NULL_OFFSET) {
       try {
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE, value1, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 8, value2, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 16, value3, byteOrder);
-        getBuffer().putLong(offset + FRAME_HEADER_SIZE + 24, value4, byteOrder);
-        getBuffer().putInt(offset, length);
+        getBuffer().putLong(offset + headerSize, value1, byteOrder);
+        getBuffer().putLong(offset + headerSize + 8, value2, byteOrder);
+        getBuffer().putLong(offset + headerSize + 16, value3, byteOrder);
+        getBuffer().putLong(offset + headerSize + 24, value4, byteOrder);
+        complete(offset, length);
       } finally {
-        wrote(length);
+        wrote(offset, length);
       }
     }
     return offset;
@@ -273,6 +291,16 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
     underlyingFile.wrote(length);
   }
 
+  @Override
+  public void wrote(int offset, int length) {
+    underlyingFile.wrote(offset, length);
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return underlyingFile.nextWriteOffset();
+  }
+
   @Override
   public int capacity() {
     return underlyingFile.capacity();
@@ -282,4 +310,35 @@ public class FramedConcurrentFile implements MappedConcurrentFile {
   public boolean hasAvailableCapacity() {
     return underlyingFile.hasAvailableCapacity();
   }
+
+  @Override
+  public Durability durability() {
+    return underlyingFile.durability();
+  }
+
+  @Override
+  public void requestDurable(final DurableWrite durableWrite, final long position) throws IOException {
+    underlyingFile.requestDurable(durableWrite, position);
+  }
+
+  @Override
+  public void durableRequestStarted() {
+    underlyingFile.durableRequestStarted();
+  }
+
+  @Override
+  public void durableRequestFinished() {
+    underlyingFile.durableRequestFinished();
+  }
+
+  @Override
+  public int reservedLength(final int length) {
+    return headerSize + length;
+  }
+
+  private void complete(final int offset, final int length) {
+    if(timestamped)
+      getBuffer().putLong(offset + Frames.HEADER_SIZE, Frames.timestampNanos(), ByteOrder.LITTLE_ENDIAN);
+    getBuffer().putIntOrdered(offset, length);
+  }
 }
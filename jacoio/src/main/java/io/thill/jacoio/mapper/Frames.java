@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.concurrent.AtomicBuffer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Utilities to read data written by a {@link FramedConcurrentFile}. Every frame starts with a 4-byte header containing the length of the frame, including the
+ * header. The header is written with ordered semantics after the frame contents, so a non-zero header means the entire frame has been written. A negative
+ * header marks a padding frame of the absolute length, written in place of a reservation that was never completed. Timestamped frames follow the length with
+ * an 8-byte little-endian timestamp, which is counted in the frame length like the rest of the header.
+ *
+ * @author Eric Thill
+ */
+final class Frames {
+
+  static final int HEADER_SIZE = 4;
+  static final int TIMESTAMPED_HEADER_SIZE = HEADER_SIZE + 8;
+
+  // System.nanoTime() is monotonic across threads, so it is anchored to the wall clock once instead of reading the wall clock for every frame
+  private static final long EPOCH_NANOS_OFFSET = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis()) - System.nanoTime();
+
+  private Frames() {
+  }
+
+  /**
+   * Get the timestamp written to timestamped frames
+   *
+   * @return nanoseconds since the epoch, with the precision of {@link System#nanoTime()}
+   */
+  static long timestampNanos() {
+    return EPOCH_NANOS_OFFSET + System.nanoTime();
+  }
+
+  /**
+   * Scan forward over completely written frames and padding frames
+   *
+   * @param buffer the buffer to scan
+   * @param offset the offset of the first frame to scan
+   * @param limit  the offset at which to stop scanning
+   * @return the offset immediately following the last completely written frame
+   */
+  static long scan(final AtomicBuffer buffer, long offset, final long limit) {
+    while(offset + HEADER_SIZE <= limit) {
+      final int header = buffer.getIntVolatile((int)offset);
+      final int frameLength = header < 0 ? -header : header;
+      if(frameLength < HEADER_SIZE || offset + frameLength > limit)
+        break;
+      offset += frameLength;
+    }
+    return offset;
+  }
+
+  /**
+   * Write a padding frame over a reservation that was never completed. Fails if a header was written to the given offset in the meantime.
+   *
+   * @param buffer the buffer to write to
+   * @param offset the offset of the reservation
+   * @param length the length of the padding frame, including the header
+   * @return true if the padding frame was written by this call or an identical one was already present
+   */
+  static boolean pad(final AtomicBuffer buffer, final long offset, final int length) {
+    return buffer.compareAndSetInt((int)offset, 0, -length) || buffer.getIntVolatile((int)offset) == -length;
+  }
+}
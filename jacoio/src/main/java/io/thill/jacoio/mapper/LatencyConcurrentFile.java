@@ -0,0 +1,253 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wraps the {@link ConcurrentFile} returned by {@link ConcurrentFileMapper#map()} to record the end-to-end latency of every write method in {@link
+ * WriteLatency#write()}, including any time spent waiting for a roll.
+ *
+ * @author Eric Thill
+ */
+class LatencyConcurrentFile implements ConcurrentFile {
+
+  private final ConcurrentFile underlying;
+  private final LatencyHistogram write;
+
+  LatencyConcurrentFile(final ConcurrentFile underlying, final LatencyHistogram write) {
+    this.underlying = underlying;
+    this.write = write;
+  }
+
+  @Override
+  public void close() throws IOException {
+    underlying.close();
+  }
+
+  @Override
+  public boolean isPending() {
+    return underlying.isPending();
+  }
+
+  @Override
+  public boolean isFinished() {
+    return underlying.isFinished();
+  }
+
+  @Override
+  public void finish() {
+    underlying.finish();
+  }
+
+  @Override
+  public File getFile() {
+    return underlying.getFile();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    underlying.flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return underlying.durablePosition();
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(srcBytes, srcOffset, length);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(srcBuffer, srcOffset, length);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(srcByteBuffer);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeAscii(srcCharSequence);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, final ByteOrder byteOrder) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeChars(srcCharSequence, byteOrder);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(length, writeFunction);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(length, parameter, writeFunction);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(length, parameter1, parameter2, writeFunction);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, final P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.write(length, parameter1, parameter2, parameter3, writeFunction);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeLong(value, byteOrder);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeLongs(value1, value2, byteOrder);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeLongs(value1, value2, value3, byteOrder);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeLongs(value1, value2, value3, value4, byteOrder);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final byte[] srcBytes, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeDurable(srcBytes, srcOffset, length, durableWrite);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final DirectBuffer srcBuffer, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeDurable(srcBuffer, srcOffset, length, durableWrite);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final ByteBuffer srcByteBuffer, final DurableWrite durableWrite) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeDurable(srcByteBuffer, durableWrite);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final int length, final WriteFunction writeFunction, final DurableWrite durableWrite) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeDurable(length, writeFunction, durableWrite);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public <P> int writeDurable(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction, final DurableWrite durableWrite) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.writeDurable(length, parameter, writeFunction, durableWrite);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final byte[] srcBytes, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.tryWrite(srcBytes, srcOffset, length, deadlineNanos);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final DirectBuffer srcBuffer, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.tryWrite(srcBuffer, srcOffset, length, deadlineNanos);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final ByteBuffer srcByteBuffer, final long deadlineNanos) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.tryWrite(srcByteBuffer, deadlineNanos);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final int length, final WriteFunction writeFunction, final long deadlineNanos) throws IOException {
+    final long startNanos = System.nanoTime();
+    final int offset = underlying.tryWrite(length, writeFunction, deadlineNanos);
+    write.record(System.nanoTime() - startNanos);
+    return offset;
+  }
+
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appends a line with the current time and a snapshot of every histogram of a {@link WriteLatency} to a file at a fixed interval from a background thread. A
+ * final line is appended on close.
+ *
+ * @author Eric Thill
+ */
+public class LatencyDumper implements AutoCloseable {
+
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+
+  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final WriteLatency latency;
+  private final File file;
+  private final long intervalNanos;
+  private final Thread thread;
+
+  LatencyDumper(final WriteLatency latency, final File file, final long intervalMillis) {
+    this.latency = latency;
+    this.file = file;
+    this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+    this.thread = new Thread(this::dumpLoop, getClass().getSimpleName() + "-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void close() {
+    if(keepRunning.compareAndSet(true, false)) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void dumpLoop() {
+    while(keepRunning.get()) {
+      final long deadline = System.nanoTime() + intervalNanos;
+      long remaining;
+      while(keepRunning.get() && (remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remaining);
+      }
+      if(keepRunning.get())
+        dump();
+    }
+    // written after close() was called, so a periodic dump that raced with it can never be the last line
+    dump();
+  }
+
+  private void dump() {
+    try(FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write((System.currentTimeMillis() + " " + latency + "\n").getBytes(StandardCharsets.UTF_8));
+    } catch(IOException e) {
+      e.printStackTrace();
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of nanosecond latencies. Values are counted in log-linear buckets: every power of two is split into {@link
+ * LatencyHistogram#SUB_BUCKET_COUNT} linear buckets, so a recorded value is reported with a relative error of at most 1/{@value #SUB_BUCKET_COUNT}. Each
+ * recording thread gets its own recorder the first time it records, and only that thread ever writes to it, so recording is an ordered single-writer
+ * increment with no allocation and no contention. Recorders are merged by {@link LatencyHistogram#snapshot()}. Counts are cumulative for the life of the
+ * histogram.
+ *
+ * @author Eric Thill
+ */
+public class LatencyHistogram {
+
+  private static final int SUB_BUCKET_BITS = 5;
+  /**
+   * The number of linear buckets in every power of two
+   */
+  public static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+  private final CopyOnWriteArrayList<Recorder> recorders = new CopyOnWriteArrayList<>();
+  private final ThreadLocal<Recorder> threadRecorder = ThreadLocal.withInitial(() -> {
+    final Recorder recorder = new Recorder();
+    recorders.add(recorder);
+    return recorder;
+  });
+
+  /**
+   * Record a latency from the calling thread
+   *
+   * @param nanos the latency in nanoseconds, where negative values are recorded as 0
+   */
+  public void record(final long nanos) {
+    threadRecorder.get().record(nanos);
+  }
+
+  /**
+   * Mark the start of a latency measured by the calling thread, to be recorded by {@link LatencyHistogram#recordSinceStart()}
+   */
+  void start() {
+    threadRecorder.get().startNanos = System.nanoTime();
+  }
+
+  /**
+   * Record the time since the calling thread last called {@link LatencyHistogram#start()}. Does nothing if it has not been called since the last recording.
+   */
+  void recordSinceStart() {
+    final Recorder recorder = threadRecorder.get();
+    if(recorder.startNanos != 0) {
+      recorder.record(System.nanoTime() - recorder.startNanos);
+      recorder.startNanos = 0;
+    }
+  }
+
+  /**
+   * Merge the recorders of every thread. Recording may continue while this runs, so a snapshot may include some of the recordings made concurrently with it.
+   *
+   * @return the merged snapshot
+   */
+  public Snapshot snapshot() {
+    final long[] counts = new long[BUCKET_COUNT];
+    long max = 0;
+    for(Recorder recorder : recorders) {
+      for(int i = 0; i < BUCKET_COUNT; i++)
+        counts[i] += recorder.counts.get(i);
+      max = Math.max(max, recorder.max.get());
+    }
+    return new Snapshot(counts, max);
+  }
+
+  static int bucketIndex(final long nanos) {
+    if(nanos < SUB_BUCKET_COUNT)
+      return nanos < 0 ? 0 : (int)nanos;
+    final int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+    final int shift = exponent - SUB_BUCKET_BITS;
+    // the top SUB_BUCKET_BITS+1 bits of the value, which are in [SUB_BUCKET_COUNT, 2*SUB_BUCKET_COUNT)
+    final int mantissa = (int)(nanos >>> shift);
+    return (shift + 1) * SUB_BUCKET_COUNT + mantissa - SUB_BUCKET_COUNT;
+  }
+
+  static long highestValueInBucket(final int index) {
+    if(index < SUB_BUCKET_COUNT)
+      return index;
+    final int shift = index / SUB_BUCKET_COUNT - 1;
+    final long mantissa = index % SUB_BUCKET_COUNT + SUB_BUCKET_COUNT;
+    return ((mantissa + 1) << shift) - 1;
+  }
+
+  private static final class Recorder {
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong max = new AtomicLong();
+    private long startNanos;
+
+    private void record(final long nanos) {
+      final int index = bucketIndex(nanos);
+      // only the owning thread writes, so ordered writes are enough for readers to see complete values
+      counts.lazySet(index, counts.get(index) + 1);
+      if(nanos > max.get())
+        max.lazySet(nanos);
+    }
+  }
+
+  /**
+   * A merged, immutable view of a {@link LatencyHistogram}
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long max;
+    private final long count;
+
+    private Snapshot(final long[] counts, final long max) {
+      this.counts = counts;
+      this.max = max;
+      long count = 0;
+      for(long c : counts)
+        count += c;
+      this.count = count;
+    }
+
+    /**
+     * Get the number of recorded values
+     *
+     * @return the count
+     */
+    public long count() {
+      return count;
+    }
+
+    /**
+     * Get the largest recorded value
+     *
+     * @return the max in nanoseconds, or 0 if nothing was recorded
+     */
+    public long max() {
+      return max;
+    }
+
+    /**
+     * Get the value that the given percentage of recorded values are less than or equal to, within the precision of the buckets
+     *
+     * @param percentile the percentile, from 0 to 100
+     * @return the value in nanoseconds, or 0 if nothing was recorded
+     */
+    public long valueAtPercentile(final double percentile) {
+      if(count == 0)
+        return 0;
+      final long target = Math.max(1, (long)Math.ceil(Math.min(percentile, 100) / 100 * count));
+      long seen = 0;
+      for(int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if(seen >= target)
+          return Math.min(highestValueInBucket(i), max);
+      }
+      return max;
+    }
+
+    @Override
+    public String toString() {
+      return "count=" + count + " p50=" + valueAtPercentile(50) + "ns p99=" + valueAtPercentile(99) + "ns p99.9=" + valueAtPercentile(99.9) + "ns max=" + max
+              + "ns";
+    }
+  }
+}
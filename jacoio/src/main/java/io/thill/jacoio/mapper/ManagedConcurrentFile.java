@@ -0,0 +1,191 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Wraps a {@link ConcurrentFile} that has a {@link ConcurrentFileMXBean} registered with the platform {@link MBeanServer}, unregistering it when the file is
+ * closed. Every other method is passed straight through.
+ *
+ * @author Eric Thill
+ */
+class ManagedConcurrentFile implements ConcurrentFile {
+
+  private final ConcurrentFile underlying;
+  private final ObjectName objectName;
+
+  ManagedConcurrentFile(final ConcurrentFile underlying, final ObjectName objectName) {
+    this.underlying = underlying;
+    this.objectName = objectName;
+  }
+
+  @Override
+  public void close() throws IOException {
+    // unregister first, so the file is not read after it has been closed
+    ConcurrentFileMonitor.unregister(objectName);
+    underlying.close();
+  }
+
+  @Override
+  public boolean isPending() {
+    return underlying.isPending();
+  }
+
+  @Override
+  public boolean isFinished() {
+    return underlying.isFinished();
+  }
+
+  @Override
+  public void finish() {
+    underlying.finish();
+  }
+
+  @Override
+  public File getFile() {
+    return underlying.getFile();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    underlying.flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return underlying.durablePosition();
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    return underlying.write(srcBytes, srcOffset, length);
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    return underlying.write(srcBuffer, srcOffset, length);
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    return underlying.write(srcByteBuffer);
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    return underlying.writeAscii(srcCharSequence);
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, final ByteOrder byteOrder) throws IOException {
+    return underlying.writeChars(srcCharSequence, byteOrder);
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    return underlying.write(length, writeFunction);
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    return underlying.write(length, parameter, writeFunction);
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    return underlying.write(length, parameter1, parameter2, writeFunction);
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, final P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    return underlying.write(length, parameter1, parameter2, parameter3, writeFunction);
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    return underlying.writeLong(value, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    return underlying.writeLongs(value1, value2, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    return underlying.writeLongs(value1, value2, value3, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    return underlying.writeLongs(value1, value2, value3, value4, byteOrder);
+  }
+
+  @Override
+  public int writeDurable(final byte[] srcBytes, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    return underlying.writeDurable(srcBytes, srcOffset, length, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final DirectBuffer srcBuffer, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    return underlying.writeDurable(srcBuffer, srcOffset, length, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final ByteBuffer srcByteBuffer, final DurableWrite durableWrite) throws IOException {
+    return underlying.writeDurable(srcByteBuffer, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final int length, final WriteFunction writeFunction, final DurableWrite durableWrite) throws IOException {
+    return underlying.writeDurable(length, writeFunction, durableWrite);
+  }
+
+  @Override
+  public <P> int writeDurable(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction, final DurableWrite durableWrite) throws IOException {
+    return underlying.writeDurable(length, parameter, writeFunction, durableWrite);
+  }
+
+  @Override
+  public int tryWrite(final byte[] srcBytes, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    return underlying.tryWrite(srcBytes, srcOffset, length, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final DirectBuffer srcBuffer, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    return underlying.tryWrite(srcBuffer, srcOffset, length, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final ByteBuffer srcByteBuffer, final long deadlineNanos) throws IOException {
+    return underlying.tryWrite(srcByteBuffer, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final int length, final WriteFunction writeFunction, final long deadlineNanos) throws IOException {
+    return underlying.tryWrite(length, writeFunction, deadlineNanos);
+  }
+
+}
@@ -12,8 +12,14 @@
 package io.thill.jacoio.mapper;
 
 import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
 import org.agrona.concurrent.AtomicBuffer;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 /**
  * Used internally for direct buffer access. This is package-only, as all public API calls must be atomic.
  *
@@ -44,6 +50,24 @@ interface MappedConcurrentFile extends ConcurrentFile {
    */
   void wrote(int length);
 
+  /**
+   * Finish writing bytes that were reserved in a {@link MappedConcurrentFile#reserve(int)} call, for implementations that need to know where the completed
+   * bytes are, such as {@link MirroredConcurrentFile}. Wrappers must call this rather than {@link MappedConcurrentFile#wrote(int)}.
+   *
+   * @param offset The offset returned by {@link MappedConcurrentFile#reserve(int)}
+   * @param length The number of bytes that were reserved for writing. This must be the same value that was passed to {@link MappedConcurrentFile#reserve(int)}
+   */
+  default void wrote(int offset, int length) {
+    wrote(length);
+  }
+
+  /**
+   * Get the offset in the buffer at which the next reservation will start. This may exceed the buffer capacity when the file is full.
+   *
+   * @return the next write offset
+   */
+  long nextWriteOffset();
+
   /**
    * Return the total write capacity of the mapper, not including any mapper headers
    *
@@ -58,4 +82,114 @@ interface MappedConcurrentFile extends ConcurrentFile {
    */
   boolean hasAvailableCapacity();
 
+  /**
+   * Get the {@link Durability} mode this file was mapped with
+   *
+   * @return the durability mode
+   */
+  Durability durability();
+
+  /**
+   * Queue the given {@link DurableWrite} to be completed once all bytes up to the given position have been forced
+   *
+   * @param durableWrite the handle to complete
+   * @param position     the offset immediately after the last byte of the completed write
+   */
+  default void requestDurable(DurableWrite durableWrite, long position) throws IOException {
+    throw new UnsupportedOperationException("writeDurable is not supported by " + getClass().getSimpleName());
+  }
+
+  /**
+   * Get the number of bytes that are reserved in the buffer to write the given number of bytes
+   *
+   * @param length the number of bytes being written
+   * @return the number of bytes reserved in the buffer
+   */
+  default int reservedLength(int length) {
+    return length;
+  }
+
+  @Override
+  default int writeDurable(byte[] srcBytes, int srcOffset, int length, DurableWrite durableWrite) throws IOException {
+    checkDurable(durableWrite);
+    durableRequestStarted();
+    try {
+      return requestDurable(write(srcBytes, srcOffset, length), length, durableWrite);
+    } finally {
+      durableRequestFinished();
+    }
+  }
+
+  @Override
+  default int writeDurable(DirectBuffer srcBuffer, int srcOffset, int length, DurableWrite durableWrite) throws IOException {
+    checkDurable(durableWrite);
+    durableRequestStarted();
+    try {
+      return requestDurable(write(srcBuffer, srcOffset, length), length, durableWrite);
+    } finally {
+      durableRequestFinished();
+    }
+  }
+
+  @Override
+  default int writeDurable(ByteBuffer srcByteBuffer, DurableWrite durableWrite) throws IOException {
+    checkDurable(durableWrite);
+    final int length = srcByteBuffer.remaining();
+    durableRequestStarted();
+    try {
+      return requestDurable(write(srcByteBuffer), length, durableWrite);
+    } finally {
+      durableRequestFinished();
+    }
+  }
+
+  @Override
+  default int writeDurable(int length, WriteFunction writeFunction, DurableWrite durableWrite) throws IOException {
+    checkDurable(durableWrite);
+    durableRequestStarted();
+    try {
+      return requestDurable(write(length, writeFunction), length, durableWrite);
+    } finally {
+      durableRequestFinished();
+    }
+  }
+
+  @Override
+  default <P> int writeDurable(int length, P parameter, ParametizedWriteFunction<P> writeFunction, DurableWrite durableWrite) throws IOException {
+    checkDurable(durableWrite);
+    durableRequestStarted();
+    try {
+      return requestDurable(write(length, parameter, writeFunction), length, durableWrite);
+    } finally {
+      durableRequestFinished();
+    }
+  }
+
+  /**
+   * Mark a writeDurable call as in flight until its handle has been queued, keeping {@link ConcurrentFile#isPending()} true. Otherwise a rolled file could be
+   * closed after the write completes but before its handle is queued, and the handle would never be completed.
+   */
+  default void durableRequestStarted() {
+  }
+
+  /**
+   * Mark a writeDurable call started by {@link MappedConcurrentFile#durableRequestStarted()} as no longer in flight
+   */
+  default void durableRequestFinished() {
+  }
+
+  default void checkDurable(DurableWrite durableWrite) {
+    // checked before writing, so a rejected call never leaves data behind
+    if(durability() == Durability.NONE)
+      throw new IllegalStateException("writeDurable requires a Durability other than NONE");
+    if(durableWrite.isPending())
+      throw new IllegalStateException("DurableWrite is already pending");
+  }
+
+  default int requestDurable(int offset, int length, DurableWrite durableWrite) throws IOException {
+    if(offset != NULL_OFFSET)
+      requestDurable(durableWrite, offset + reservedLength(length));
+    return offset;
+  }
+
 }
@@ -22,6 +22,15 @@ import java.io.IOException;
 interface MappedFileProvider extends AutoCloseable {
   MappedConcurrentFile nextFile() throws IOException;
 
+  /**
+   * Check if the file that will be returned by the next call to {@link MappedFileProvider#nextFile()} has already been created and mapped
+   *
+   * @return true if the next file is ready
+   */
+  default boolean isNextFilePreallocated() {
+    return false;
+  }
+
   @Override
   default void close() throws IOException {
   }
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A mapped range of a file, used to map, unmap, and atomically access the header fields of a file independently of the {@link Backend}. This implementation
+ * only supports {@link Backend#MMAP}. A multi-release implementation for JDK 22 and later, under src/main/java22, also supports {@link Backend#SEGMENT}.
+ * Both implementations must keep the same package-private API.
+ *
+ * @author Eric Thill
+ */
+final class MappedRegion {
+
+  /**
+   * Check if the running JDK supports {@link Backend#SEGMENT}
+   *
+   * @return true if segments are supported
+   */
+  static boolean isSegmentSupported() {
+    return false;
+  }
+
+  /**
+   * Map a range of the given file channel
+   *
+   * @param fileChannel the file channel to map
+   * @param offset      the offset of the range in the file
+   * @param length      the length of the range
+   * @param backend     the backend to map the range with
+   * @return the mapped region
+   * @throws IOException
+   */
+  static MappedRegion map(final FileChannel fileChannel, final long offset, final int length, final Backend backend) throws IOException {
+    if(backend == Backend.SEGMENT)
+      throw new UnsupportedOperationException("The " + backend + " backend requires JDK 22 or later");
+    if(backend != Backend.MMAP)
+      throw new UnsupportedOperationException("The " + backend + " backend does not map files");
+    final long address = IoUtil.map(fileChannel, MapMode.READ_WRITE, offset, length);
+    return new MappedRegion(fileChannel, new UnsafeBuffer(address, length));
+  }
+
+  private final FileChannel fileChannel;
+  private final AtomicBuffer buffer;
+
+  private MappedRegion(final FileChannel fileChannel, final AtomicBuffer buffer) {
+    this.fileChannel = fileChannel;
+    this.buffer = buffer;
+  }
+
+  AtomicBuffer buffer() {
+    return buffer;
+  }
+
+  long getLongVolatile(final int index) {
+    return buffer.getLongVolatile(index);
+  }
+
+  void putLongVolatile(final int index, final long value) {
+    buffer.putLongVolatile(index, value);
+  }
+
+  boolean compareAndSetLong(final int index, final long expectedValue, final long updateValue) {
+    return buffer.compareAndSetLong(index, expectedValue, updateValue);
+  }
+
+  void unmap() {
+    IoUtil.unmap(fileChannel, buffer.addressOffset(), buffer.capacity());
+  }
+}
@@ -0,0 +1,410 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * An implementation of {@link ConcurrentFile} that keeps a byte-identical copy of an underlying single-process file in a second mapping, typically on another
+ * device. Each write makes a single reservation in the underlying file, encodes into the underlying buffer, and then copies the reserved range to the same
+ * offset of the mirror before the write is completed. Write functions are therefore only ever run once. The mirror is written with plain copies, so it is meant
+ * for redundancy rather than for concurrent readers. A reservation completed with {@link MirroredConcurrentFile#wrote(int)} has no offset to copy, so the
+ * mirror is brought up to date by the next {@link MirroredConcurrentFile#flush()} or {@link MirroredConcurrentFile#close()} instead.
+ *
+ * @author Eric Thill
+ */
+class MirroredConcurrentFile implements MappedConcurrentFile {
+
+  /**
+   * Create and map a mirror for the given file
+   *
+   * @param underlyingFile the newly mapped single-process file to mirror
+   * @param mirrorFile     the mirror file to create
+   * @param fillWithZeros  true to fill the mirror file with zeros
+   * @return the mirrored file
+   * @throws IOException if the mirror could not be created, in which case the underlying file is closed and deleted
+   */
+  static MirroredConcurrentFile map(MappedConcurrentFile underlyingFile, File mirrorFile, boolean fillWithZeros) throws IOException {
+    try {
+      if(mirrorFile.exists())
+        throw new IOException("File Exists. MirroredConcurrentFile cannot modify an existing mirror file.");
+      final FileChannel mirrorChannel = IoUtil.createEmptyFile(mirrorFile, underlyingFile.capacity(), fillWithZeros);
+      final MappedRegion mirrorRegion = MappedRegion.map(mirrorChannel, 0, underlyingFile.capacity(), Backend.MMAP);
+      return new MirroredConcurrentFile(underlyingFile, mirrorFile, mirrorChannel, mirrorRegion);
+    } catch(IOException | RuntimeException e) {
+      underlyingFile.close();
+      underlyingFile.getFile().delete();
+      throw e;
+    }
+  }
+
+  private final Object closeLock = new Object();
+  private final MappedConcurrentFile underlyingFile;
+  private final AtomicBuffer buffer;
+  private final File mirrorFile;
+  private final FileChannel mirrorChannel;
+  private final MappedRegion mirrorRegion;
+  private final AtomicBuffer mirrorBuffer;
+  private volatile boolean resyncRequired;
+
+  MirroredConcurrentFile(MappedConcurrentFile underlyingFile, File mirrorFile, FileChannel mirrorChannel, MappedRegion mirrorRegion) {
+    this.underlyingFile = underlyingFile;
+    this.buffer = underlyingFile.getBuffer();
+    this.mirrorFile = mirrorFile;
+    this.mirrorChannel = mirrorChannel;
+    this.mirrorRegion = mirrorRegion;
+    this.mirrorBuffer = mirrorRegion.buffer();
+  }
+
+  /**
+   * Get the mirror {@link File}
+   *
+   * @return the mirror file
+   */
+  File getMirrorFile() {
+    return mirrorFile;
+  }
+
+  @Override
+  public void close() throws IOException {
+    synchronized(closeLock) {
+      // the underlying buffer is unmapped once the underlying file is closed
+      if(mirrorChannel.isOpen())
+        resync();
+    }
+    underlyingFile.close();
+    synchronized(closeLock) {
+      if(mirrorChannel.isOpen()) {
+        // match the length of the underlying file, which is truncated on close if a write did not fit
+        final long length = underlyingFile.getFile().length();
+        if(length < underlyingFile.capacity())
+          mirrorChannel.truncate(length);
+        mirrorChannel.close();
+        mirrorRegion.unmap();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    underlyingFile.flush();
+    synchronized(closeLock) {
+      if(mirrorChannel.isOpen())
+        resync();
+    }
+  }
+
+  private void resync() {
+    // a write completed with wrote(length) was never copied, so copy everything reserved so far. Writes still in flight copy their own range when completed.
+    if(resyncRequired) {
+      resyncRequired = false;
+      mirrorBuffer.putBytes(0, buffer, 0, (int)Math.min(underlyingFile.nextWriteOffset(), underlyingFile.capacity()));
+    }
+  }
+
+  @Override
+  public long durablePosition() {
+    return underlyingFile.durablePosition();
+  }
+
+  @Override
+  public Durability durability() {
+    return underlyingFile.durability();
+  }
+
+  @Override
+  public boolean isPending() {
+    return underlyingFile.isPending();
+  }
+
+  @Override
+  public void finish() {
+    underlyingFile.finish();
+  }
+
+  @Override
+  public boolean isFinished() {
+    return underlyingFile.isFinished();
+  }
+
+  @Override
+  public File getFile() {
+    return underlyingFile.getFile();
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putBytes(dstOffset, srcBytes, srcOffset, length);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putBytes(dstOffset, srcBuffer, srcOffset, length);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) {
+    final int length = srcByteBuffer.remaining();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putBytes(dstOffset, srcByteBuffer, srcByteBuffer.position(), srcByteBuffer.remaining());
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) {
+    final int length = srcCharSequence.length();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        final char c = srcCharSequence.charAt(i);
+        buffer.putByte(dstOffset + i, c > 127 ? (byte)'?' : (byte)c);
+      }
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, ByteOrder byteOrder) {
+    final int length = srcCharSequence.length() * 2;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        buffer.putChar(dstOffset + (i * 2), srcCharSequence.charAt(i), byteOrder);
+      }
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      writeFunction.write(buffer, dstOffset, length);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      writeFunction.write(buffer, dstOffset, length, parameter);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      writeFunction.write(buffer, dstOffset, length, parameter1, parameter2);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      writeFunction.write(buffer, dstOffset, length, parameter1, parameter2, parameter3);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) {
+    final int length = 8;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putLong(dstOffset, value, byteOrder);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) {
+    final int length = 16;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putLong(dstOffset, value1, byteOrder);
+      buffer.putLong(dstOffset + 8, value2, byteOrder);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) {
+    final int length = 24;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putLong(dstOffset, value1, byteOrder);
+      buffer.putLong(dstOffset + 8, value2, byteOrder);
+      buffer.putLong(dstOffset + 16, value3, byteOrder);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) {
+    final int length = 32;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      buffer.putLong(dstOffset, value1, byteOrder);
+      buffer.putLong(dstOffset + 8, value2, byteOrder);
+      buffer.putLong(dstOffset + 16, value3, byteOrder);
+      buffer.putLong(dstOffset + 24, value4, byteOrder);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public AtomicBuffer getBuffer() {
+    return buffer;
+  }
+
+  @Override
+  public int reserve(int length) {
+    return underlyingFile.reserve(length);
+  }
+
+  @Override
+  public void wrote(int length) {
+    // the mirror cannot be updated without the offset of the reservation, so it is brought up to date on the next flush or close
+    resyncRequired = true;
+    underlyingFile.wrote(length);
+  }
+
+  @Override
+  public void wrote(int offset, int length) {
+    try {
+      mirrorBuffer.putBytes(offset, buffer, offset, length);
+    } finally {
+      underlyingFile.wrote(length);
+    }
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return underlyingFile.nextWriteOffset();
+  }
+
+  @Override
+  public int capacity() {
+    return underlyingFile.capacity();
+  }
+
+  @Override
+  public boolean hasAvailableCapacity() {
+    return underlyingFile.hasAvailableCapacity();
+  }
+}
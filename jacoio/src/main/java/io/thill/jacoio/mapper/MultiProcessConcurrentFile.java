@@ -16,18 +16,20 @@ import io.thill.jacoio.function.BiParametizedWriteFunction;
 import io.thill.jacoio.function.ParametizedWriteFunction;
 import io.thill.jacoio.function.TriParametizedWriteFunction;
 import io.thill.jacoio.function.WriteFunction;
+import org.agrona.BitUtil;
 import org.agrona.DirectBuffer;
 import org.agrona.IoUtil;
 import org.agrona.concurrent.AtomicBuffer;
-import org.agrona.concurrent.UnsafeBuffer;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
 import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
@@ -46,77 +48,289 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
   private static final int OFFSET_WRITE_COMPLETE = 24;
 
   static MultiProcessConcurrentFile map(File file, int capacity, boolean fillWithZeros) throws IOException {
+    return map(file, capacity, fillWithZeros, false, 0, Durability.NONE, 0, 0, Backend.MMAP);
+  }
+
+  /**
+   * Map the given file, creating it if it does not exist
+   *
+   * @param file                  the file to map
+   * @param capacity              the capacity of the file, not including the header, if it needs to be created
+   * @param fillWithZeros         true to fill a newly created file with zeros
+   * @param framed                true if the file will be wrapped by a {@link FramedConcurrentFile}
+   * @param hugePageSize          the huge page size of the hugetlbfs mount the file resides on, or 0 if it is not on hugetlbfs
+   * @param durability            the {@link Durability} mode
+   * @param flushIntervalMillis   the flush interval when using {@link Durability#PERIODIC} or {@link Durability#GROUP_COMMIT}
+   * @param recoveryTimeoutMillis the time writes must be stalled before they are assumed to belong to a dead process and are recovered, or 0 to never recover.
+   *                              See {@link MultiProcessConcurrentFile#recoverStalledWrites()} for what happens to a live writer that stalls for longer.
+   * @param backend               the {@link Backend} used to map the file
+   * @return the mapped file
+   * @throws IOException
+   */
+  static MultiProcessConcurrentFile map(File file, int capacity, boolean fillWithZeros, boolean framed, int hugePageSize, Durability durability,
+                                        long flushIntervalMillis, long recoveryTimeoutMillis, Backend backend) throws IOException {
+    final MultiProcessConcurrentFile mappedFile;
     if(file.exists()) {
-      return mapExistingFile(file);
+      mappedFile = mapExistingFile(file, framed, hugePageSize, durability, backend);
     } else {
-      return mapNewFile(file, capacity, fillWithZeros);
+      mappedFile = mapNewFile(file, capacity, fillWithZeros, framed, hugePageSize, durability, backend);
     }
+    mappedFile.recoveryTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(recoveryTimeoutMillis);
+    // start the stall timer for any gap left behind before this process opened the file
+    mappedFile.recoverStalledWrites();
+    if(durability == Durability.PERIODIC || durability == Durability.GROUP_COMMIT)
+      mappedFile.periodicFlusher = new PeriodicFlusher(mappedFile, flushIntervalMillis);
+    return mappedFile;
   }
 
-  private static MultiProcessConcurrentFile mapExistingFile(File file) throws IOException {
+  private static MultiProcessConcurrentFile mapExistingFile(File file, boolean framed, int hugePageSize, Durability durability, Backend backend)
+          throws IOException {
     final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
     final int fileSize = (int)fileChannel.size();
-    final long address = IoUtil.map(fileChannel, MapMode.READ_WRITE, 0, fileSize);
-    final AtomicBuffer buffer = new UnsafeBuffer();
-    buffer.wrap(address, fileSize);
-    return new MultiProcessConcurrentFile(file, fileChannel, buffer, fileSize);
+    final MappedRegion region = MappedRegion.map(fileChannel, 0, fileSize, backend);
+    return new MultiProcessConcurrentFile(file, fileChannel, region, fileSize, framed, hugePageSize == 0, durability);
   }
 
-  private static MultiProcessConcurrentFile mapNewFile(File file, int capacity, boolean fillWithZeros) {
-    final int fileSize = HEADER_SIZE + capacity;
-    final FileChannel fileChannel = IoUtil.createEmptyFile(file, fileSize, fillWithZeros);
-    final long address = IoUtil.map(fileChannel, MapMode.READ_WRITE, 0, fileSize);
-    final AtomicBuffer buffer = new UnsafeBuffer();
-    buffer.wrap(address, fileSize);
+  private static MultiProcessConcurrentFile mapNewFile(File file, int capacity, boolean fillWithZeros, boolean framed, int hugePageSize,
+                                                       Durability durability, Backend backend) throws IOException {
+    // hugetlbfs requires the entire file, including the header, to be a multiple of the huge page size
+    final int fileSize = hugePageSize > 0 ? BitUtil.align(HEADER_SIZE + capacity, hugePageSize) : HEADER_SIZE + capacity;
+    final Object event = FlightRecorderEvents.begin(FlightRecorderEvents.MAP);
+    // hugetlbfs does not support write(2), and the kernel zeroes huge pages on first touch anyway
+    final FileChannel fileChannel = IoUtil.createEmptyFile(file, fileSize, fillWithZeros && hugePageSize == 0);
+    final MappedRegion region = MappedRegion.map(fileChannel, 0, fileSize, backend);
+    FlightRecorderEvents.commit(event, file, fileSize);
 
     // ensure getFile header is filled with zeros
     if(!fillWithZeros) {
-      buffer.putLongVolatile(OFFSET_DATA_START, 0);
-      buffer.putLongVolatile(OFFSET_FILE_SIZE, 0);
-      buffer.putLongVolatile(OFFSET_NEXT_WRITE, 0);
-      buffer.putLongVolatile(OFFSET_WRITE_COMPLETE, 0);
+      region.putLongVolatile(OFFSET_DATA_START, 0);
+      region.putLongVolatile(OFFSET_FILE_SIZE, 0);
+      region.putLongVolatile(OFFSET_NEXT_WRITE, 0);
+      region.putLongVolatile(OFFSET_WRITE_COMPLETE, 0);
     }
 
-    return new MultiProcessConcurrentFile(file, fileChannel, buffer, fileSize);
+    return new MultiProcessConcurrentFile(file, fileChannel, region, fileSize, framed, hugePageSize == 0, durability);
   }
 
   private final AtomicLong numLocalWrites = new AtomicLong(0);
   private final AtomicLong numLocalWritesComplete = new AtomicLong(0);
+  private final AtomicLong durableRequestsInFlight = new AtomicLong(0);
   private final AtomicLong truncateSize = new AtomicLong(-1);
+  private final AtomicLong durablePosition = new AtomicLong(HEADER_SIZE);
+  private final Object flushLock = new Object();
   private final File file;
   private final FileChannel fileChannel;
+  private final MappedRegion region;
   private final AtomicBuffer buffer;
   private final long fileSize;
-
-  MultiProcessConcurrentFile(File file, FileChannel fileChannel, AtomicBuffer buffer, int fileSize) {
+  private final boolean framed;
+  private final boolean truncateOnClose;
+  private final Durability durability;
+  private final DurableWriteQueue durableWrites;
+  private PeriodicFlusher periodicFlusher;
+  private WriteCounters counters;
+  private LatencyHistogram reserveToCommit;
+  private long recoveryTimeoutNanos;
+  private long stalledWriteComplete = -1;
+  private long stalledNextWriteOffset = -1;
+  private long stalledSinceNanos;
+
+  MultiProcessConcurrentFile(File file, FileChannel fileChannel, MappedRegion region, int fileSize, boolean framed, boolean truncateOnClose,
+                             Durability durability) {
     this.file = file;
     this.fileChannel = fileChannel;
-    this.buffer = buffer;
+    this.region = region;
+    this.buffer = region.buffer();
     this.fileSize = fileSize;
+    this.framed = framed;
+    this.truncateOnClose = truncateOnClose;
+    this.durability = durability;
+    this.durableWrites = durability == Durability.NONE ? null : new DurableWriteQueue(DurableWriteQueue.DEFAULT_CAPACITY);
 
     // populate header as needed
-    if(buffer.compareAndSetLong(OFFSET_DATA_START, 0, HEADER_SIZE)) {
-      if(buffer.compareAndSetLong(OFFSET_NEXT_WRITE, 0, HEADER_SIZE)) {
-        buffer.compareAndSetLong(OFFSET_WRITE_COMPLETE, 0, HEADER_SIZE);
+    if(region.compareAndSetLong(OFFSET_DATA_START, 0, HEADER_SIZE)) {
+      if(region.compareAndSetLong(OFFSET_NEXT_WRITE, 0, HEADER_SIZE)) {
+        region.compareAndSetLong(OFFSET_WRITE_COMPLETE, 0, HEADER_SIZE);
       }
     }
   }
 
   @Override
   public void close() throws IOException {
-    if(fileChannel.isOpen()) {
-      if(isPending())
-        throw new IOException("There are pending writes");
-      if(truncateSize.get() >= 0)
-        fileChannel.truncate(truncateSize.get());
-      fileChannel.close();
-      IoUtil.unmap(fileChannel, buffer.addressOffset(), fileSize);
+    if(fileChannel.isOpen() && isPending())
+      throw new IOException("There are pending writes");
+    // stop the flusher thread before taking the lock it flushes under
+    if(periodicFlusher != null)
+      periodicFlusher.close();
+    synchronized(flushLock) {
+      if(fileChannel.isOpen()) {
+        // force remaining writes before the file is truncated
+        if(durability != Durability.NONE)
+          forceCompletedWrites();
+        // hugetlbfs rejects sizes that are not aligned to the huge page size, rely on the fileSize header field instead
+        if(truncateOnClose && truncateSize.get() >= 0)
+          fileChannel.truncate(truncateSize.get());
+        fileChannel.close();
+        region.unmap();
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if(durability != Durability.NONE) {
+      synchronized(flushLock) {
+        if(fileChannel.isOpen())
+          forceCompletedWrites();
+      }
     }
   }
 
+  @Override
+  public long durablePosition() {
+    return durablePosition.get();
+  }
+
+  @Override
+  public Durability durability() {
+    return durability;
+  }
+
+  @Override
+  public void requestDurable(final DurableWrite durableWrite, final long position) throws IOException {
+    durableWrite.pending(position);
+    while(!durableWrites.offer(durableWrite)) {
+      if(!fileChannel.isOpen()) {
+        // flushing a closed file does nothing, so the queue would never drain
+        final IOException failure = new IOException("File is closed");
+        durableWrite.failed(failure);
+        throw failure;
+      }
+      // the queue is full, so force from this thread to drain it
+      flush();
+    }
+    if(durability == Durability.GROUP_COMMIT)
+      periodicFlusher.wake();
+  }
+
+  @Override
+  public void durableRequestStarted() {
+    durableRequestsInFlight.incrementAndGet();
+  }
+
+  @Override
+  public void durableRequestFinished() {
+    durableRequestsInFlight.decrementAndGet();
+  }
+
+  private void forceCompletedWrites() throws IOException {
+    final long fromOffset = durablePosition.get();
+    final long completedOffset = completedOffset(fromOffset);
+    // writes with a DurableWrite handle have completed, so they may be forced even while earlier writes are still in flight
+    // another process may have already truncated the file, and mapping past the end of the file would grow it again
+    final long toOffset = Math.min(Math.max(completedOffset, durableWrites.drain()), fileChannel.size());
+    if(toOffset > fromOffset) {
+      // map only the dirty range, so only that range is synced
+      try {
+        final MappedByteBuffer range = fileChannel.map(MapMode.READ_WRITE, fromOffset, toOffset - fromOffset);
+        try {
+          range.force();
+        } finally {
+          IoUtil.unmap(range);
+        }
+      } catch(IOException e) {
+        durableWrites.fail(e);
+        throw e;
+      }
+      durablePosition.set(Math.max(fromOffset, Math.min(completedOffset, toOffset)));
+    }
+    durableWrites.complete();
+  }
+
+  private long completedOffset(final long fromOffset) {
+    // writeComplete must be read first: if it matches nextWriteOffset, no writes were in flight when it was read
+    final long writeComplete = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+    final long nextWriteOffset = region.getLongVolatile(OFFSET_NEXT_WRITE);
+    if(writeComplete == nextWriteOffset)
+      return Math.min(writeComplete, fileSize);
+    // writes are in flight, or were left behind by a dead process
+    if(recoverStalledWrites())
+      return completedOffset(fromOffset);
+    // framed files can still be scanned up to the first incomplete frame
+    if(framed)
+      return Frames.scan(buffer, fromOffset, Math.min(nextWriteOffset, fileSize));
+    return fromOffset;
+  }
+
+  /**
+   * Recover from a process that died between {@link MappedConcurrentFile#reserve(int)} and {@link MappedConcurrentFile#wrote(int)}. Such a process leaves a
+   * gap between the writeComplete and nextWriteOffset header fields that never closes, so the file can never be finished. Once the gap has not changed for the
+   * recovery timeout and this process has no writes in flight, the gap is assumed to be dead. Framed files mark the dead reservation with a padding frame
+   * before writeComplete is moved up to nextWriteOffset. This is safe to run from many processes at once.
+   * <p>
+   * Liveness is only judged by the header not changing, so a writer in another process that is stalled for longer than the timeout is indistinguishable from a
+   * dead one. A recovered file is finished, so no reservation can follow the recovered ones, and {@link MultiProcessConcurrentFile#wrote(int)} refuses to count
+   * a stalled writer that resumes afterwards. Its bytes have already been copied over the recovered gap by then, so an unframed file holds them without them
+   * being counted, and a framed file may show them in place of the padding or lose the frames after them to a torn padding frame.
+   *
+   * @return true if the gap was recovered by this call
+   */
+  synchronized boolean recoverStalledWrites() {
+    if(recoveryTimeoutNanos <= 0)
+      return false;
+    final long writeComplete = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+    final long nextWriteOffset = region.getLongVolatile(OFFSET_NEXT_WRITE);
+    final long now = System.nanoTime();
+    if(writeComplete != stalledWriteComplete || nextWriteOffset != stalledNextWriteOffset) {
+      // progress was made since the last check, restart the stall timer
+      stalledWriteComplete = writeComplete;
+      stalledNextWriteOffset = nextWriteOffset;
+      stalledSinceNanos = now;
+      return false;
+    }
+    if(writeComplete == nextWriteOffset || now - stalledSinceNanos < recoveryTimeoutNanos)
+      return false;
+    if(isPending()) {
+      // a local write is in flight, so this process is not in a position to judge the gap as dead
+      return false;
+    }
+    if(framed && !padStalledFrames(writeComplete, nextWriteOffset))
+      return false;
+    long finalNextWriteOffset = nextWriteOffset;
+    if(nextWriteOffset < fileSize) {
+      // finish the file like finish(), so a later reservation can never cover up a recovered writer that resumes and calls wrote()
+      finalNextWriteOffset = nextWriteOffset + Integer.MAX_VALUE;
+      if(!region.compareAndSetLong(OFFSET_NEXT_WRITE, nextWriteOffset, finalNextWriteOffset))
+        return false;
+      truncateSize.set(nextWriteOffset);
+      region.putLongVolatile(OFFSET_FILE_SIZE, nextWriteOffset);
+    }
+    // nextWriteOffset can no longer move, so a write that completed since the gap was checked is absorbed along with the dead ones
+    long lastVal;
+    do {
+      lastVal = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+    } while(lastVal != finalNextWriteOffset && !region.compareAndSetLong(OFFSET_WRITE_COMPLETE, lastVal, finalNextWriteOffset));
+    return true;
+  }
+
+  private boolean padStalledFrames(final long writeComplete, final long nextWriteOffset) {
+    // the reservation that overflowed the file is never written, frames end where it started
+    final long finalFileSize = region.getLongVolatile(OFFSET_FILE_SIZE);
+    final long limit = finalFileSize > 0 ? finalFileSize : nextWriteOffset;
+    final long holeOffset = Frames.scan(buffer, HEADER_SIZE, limit);
+    if(limit - holeOffset < Frames.HEADER_SIZE)
+      return true;
+    // a single dead reservation is exactly the size of the gap, so every frame written after it can be kept
+    final long gap = nextWriteOffset - writeComplete;
+    if(holeOffset + gap <= limit && Frames.scan(buffer, holeOffset + gap, limit) == limit)
+      return Frames.pad(buffer, holeOffset, (int)gap);
+    // otherwise there were many dead reservations, and everything after the last valid frame must be padded
+    return Frames.pad(buffer, holeOffset, (int)(limit - holeOffset));
+  }
+
   @Override
   public boolean isPending() {
-    return numLocalWritesComplete.get() != numLocalWrites.get();
+    return numLocalWritesComplete.get() != numLocalWrites.get() || durableRequestsInFlight.get() != 0;
   }
 
   @Override
@@ -127,10 +341,14 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public boolean isFinished() {
-    final long writeComplete = buffer.getLongVolatile(OFFSET_WRITE_COMPLETE);
-    final long nextOffset = buffer.getLongVolatile(OFFSET_NEXT_WRITE);
+    long writeComplete = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+    long nextOffset = region.getLongVolatile(OFFSET_NEXT_WRITE);
+    if(writeComplete != nextOffset && recoverStalledWrites()) {
+      writeComplete = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+      nextOffset = region.getLongVolatile(OFFSET_NEXT_WRITE);
+    }
     // check that writeComplete is caught up to nextOffset, that writeComplete exceeds the getFile size, and that the fileSize field is populated
-    return writeComplete == nextOffset && writeComplete >= fileSize && buffer.getLongVolatile(OFFSET_FILE_SIZE) > 0;
+    return writeComplete == nextOffset && writeComplete >= fileSize && region.getLongVolatile(OFFSET_FILE_SIZE) > 0;
   }
 
   @Override
@@ -356,20 +574,48 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
     return buffer;
   }
 
+  /**
+   * Count failed reservation attempts in the given {@link WriteCounters}. Must be called before the file is shared with writers.
+   *
+   * @param counters the counters, or null to not count
+   * @return this file
+   */
+  MultiProcessConcurrentFile counters(final WriteCounters counters) {
+    this.counters = counters;
+    return this;
+  }
+
+  /**
+   * Record the latency from each reservation until its write is complete in the given {@link LatencyHistogram}. Must be called before the file is shared with
+   * writers.
+   *
+   * @param reserveToCommit the histogram, or null to not record
+   * @return this file
+   */
+  MultiProcessConcurrentFile latency(final LatencyHistogram reserveToCommit) {
+    this.reserveToCommit = reserveToCommit;
+    return this;
+  }
+
   @Override
   public int reserve(int length) {
     numLocalWrites.incrementAndGet();
 
     long offset;
-    do {
-      offset = buffer.getLongVolatile(OFFSET_NEXT_WRITE);
+    while(true) {
+      offset = region.getLongVolatile(OFFSET_NEXT_WRITE);
       if(offset >= fileSize) {
         // offset exceeded capacity field, do not attempt to increment nextWriteOffset field, nothing more can ever be written
         // no outside write cycle, increment local writes complete now
         numLocalWritesComplete.incrementAndGet();
         return NULL_OFFSET;
       }
-    } while(!buffer.compareAndSetLong(OFFSET_NEXT_WRITE, offset, offset + length));
+      if(region.compareAndSetLong(OFFSET_NEXT_WRITE, offset, offset + length))
+        break;
+      // another writer reserved first
+      if(counters != null)
+        counters.reserveRetried();
+    }
 
     if(offset + length > fileSize) {
       // first message that will not fit
@@ -378,10 +624,12 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
       // set this instance to do the truncation since it did the last write
       truncateSize.set(offset);
       // set fileSize field
-      buffer.putLongVolatile(OFFSET_FILE_SIZE, offset);
+      region.putLongVolatile(OFFSET_FILE_SIZE, offset);
       return NULL_OFFSET;
     }
 
+    if(reserveToCommit != null)
+      reserveToCommit.start();
     // return offset to write bytes
     return (int)offset;
   }
@@ -390,9 +638,21 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
   public void wrote(int length) {
     long lastVal;
     do {
-      lastVal = buffer.getLongVolatile(OFFSET_WRITE_COMPLETE);
-    } while(!buffer.compareAndSetLong(OFFSET_WRITE_COMPLETE, lastVal, lastVal + length));
+      lastVal = region.getLongVolatile(OFFSET_WRITE_COMPLETE);
+      if(lastVal + length > region.getLongVolatile(OFFSET_NEXT_WRITE)) {
+        // an outstanding reservation always fits under nextWriteOffset, so this one was already recovered as dead and must not be counted twice
+        numLocalWritesComplete.incrementAndGet();
+        return;
+      }
+    } while(!region.compareAndSetLong(OFFSET_WRITE_COMPLETE, lastVal, lastVal + length));
     numLocalWritesComplete.incrementAndGet();
+    if(reserveToCommit != null)
+      reserveToCommit.recordSinceStart();
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return region.getLongVolatile(OFFSET_NEXT_WRITE);
   }
 
   @Override
@@ -402,7 +662,8 @@ class MultiProcessConcurrentFile implements MappedConcurrentFile {
 
   @Override
   public boolean hasAvailableCapacity() {
-    return buffer.getLongVolatile(OFFSET_NEXT_WRITE) < fileSize;
+    // the channel is closed before the region is unmapped, so a closed file is never asked for its header
+    return fileChannel.isOpen() && region.getLongVolatile(OFFSET_NEXT_WRITE) < fileSize;
   }
 
 }
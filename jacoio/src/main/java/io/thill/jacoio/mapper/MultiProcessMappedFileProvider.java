@@ -14,14 +14,22 @@ package io.thill.jacoio.mapper;
 import io.thill.jacoio.function.FileCreatedListener;
 import io.thill.jacoio.function.FileProvider;
 
+import org.agrona.concurrent.IdleStrategy;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 /**
  * A {@link MappedFileProvider} that uses a {@link CoordinationFile} to coordinate the next file to use
+ * <p>
+ * When leader-elected preallocation is enabled, only the process holding the preallocator lease advances the coordination file and creates the next file.
+ * Every other process reads the announced generation without taking the coordination lease, and only maps files once the leader has marked them ready, so
+ * the locking and file creation work done on every roll does not grow with the number of writer processes.
  *
  * @author Eric Thill
  */
@@ -30,57 +38,95 @@ class MultiProcessMappedFileProvider implements MappedFileProvider {
   private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
 
   private final AtomicBoolean keepRunning = new AtomicBoolean(true);
-  private final AtomicReference<String> curCoordinationContents = new AtomicReference<>();
+  private final AtomicReference<CoordinationFile.Generation> curGeneration = new AtomicReference<>();
   private final AtomicReference<MappedConcurrentFile> curFileRef = new AtomicReference<>();
   private final AtomicReference<MappedConcurrentFile> preallocatedFileRef = new AtomicReference<>();
+  private final BooleanSupplier isPreallocated = () -> preallocatedFileRef.get() != null;
 
   private final CoordinationFile coordinationFile;
   private final int fileCapacity;
   private final boolean fillWithZeros;
-  private final boolean yieldOnAllocateContention;
+  private final int hugePageSize;
+  private final boolean framed;
+  private final RollHandoff preallocatedHandoff;
   private final boolean preallocate;
   private final long preallocateCheckMillis;
+  private final boolean leaderPreallocation;
   private final FileCreatedListener fileCreatedListener;
+  private final Durability durability;
+  private final long flushIntervalMillis;
+  private final long recoveryTimeoutMillis;
+  private final Backend backend;
+  private final WriteCounters counters;
+  private final LatencyHistogram reserveToCommit;
   private final Thread preallocateThread;
 
   MultiProcessMappedFileProvider(final File coordinationFile,
                                  final int fileCapacity,
                                  final boolean fillWithZeros,
+                                 final int hugePageSize,
+                                 final boolean framed,
                                  final FileProvider underlyingFileProvider,
-                                 final boolean yieldOnAllocateContention,
+                                 final Supplier<IdleStrategy> idleStrategySupplier,
+                                 final boolean parkVirtualThreads,
                                  final boolean preallocate,
                                  final long preallocateCheckMillis,
-                                 final FileCreatedListener fileCreatedListener) throws IOException {
-    this.coordinationFile = new CoordinationFile(coordinationFile, underlyingFileProvider, preallocate, yieldOnAllocateContention);
+                                 final boolean leaderPreallocation,
+                                 final FileCreatedListener fileCreatedListener,
+                                 final Durability durability,
+                                 final long flushIntervalMillis,
+                                 final long recoveryTimeoutMillis,
+                                 final long coordinationLeaseTimeoutMillis,
+                                 final Backend backend,
+                                 final WriteCounters counters,
+                                 final WriteLatency latency) throws IOException {
+    this.coordinationFile = new CoordinationFile(coordinationFile, underlyingFileProvider, preallocate, idleStrategySupplier, hugePageSize,
+            coordinationLeaseTimeoutMillis);
     this.fileCapacity = fileCapacity;
     this.fillWithZeros = fillWithZeros;
-    this.yieldOnAllocateContention = yieldOnAllocateContention;
+    this.hugePageSize = hugePageSize;
+    this.framed = framed;
+    this.preallocatedHandoff = new RollHandoff(idleStrategySupplier, parkVirtualThreads);
     this.preallocate = preallocate;
     this.preallocateCheckMillis = preallocateCheckMillis;
+    this.leaderPreallocation = leaderPreallocation;
     this.fileCreatedListener = fileCreatedListener;
+    this.durability = durability;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.recoveryTimeoutMillis = recoveryTimeoutMillis;
+    this.backend = backend;
+    this.counters = counters;
+    this.reserveToCommit = latency == null ? null : latency.reserveToCommit();
 
-    final String coordinationContents = this.coordinationFile.next("");
-    final File initialCurFile = CoordinationFile.curFile(coordinationContents);
-    final File initialPreallocatedFile = CoordinationFile.curFile(coordinationContents);
+    final CoordinationFile.Generation generation = this.coordinationFile.next(null);
+    curGeneration.set(generation);
 
-    this.curFileRef.set(mapFile(initialCurFile));
-    if(initialPreallocatedFile != null)
-      this.preallocatedFileRef.set(mapFile(initialPreallocatedFile));
+    this.curFileRef.set(mapFile(generation.curFile()));
+    // with leader preallocation, the preallocated file may only be mapped once the leader has created it
+    if(generation.preallocatedFile() != null && (!leaderPreallocation || this.coordinationFile.isReady(generation.preallocatedFileId())))
+      this.preallocatedFileRef.set(mapFile(generation.preallocatedFile()));
 
     if(preallocate) {
-      preallocateThread = new Thread(this::preallocateLoop, getClass().getSimpleName() + "-Preallocator-" + THREADNAME_INSTANCE.getAndIncrement());
+      preallocateThread = new Thread(leaderPreallocation ? this::leaderPreallocateLoop : this::preallocateLoop, getClass().getSimpleName() + "-Preallocator-" + THREADNAME_INSTANCE.getAndIncrement());
       preallocateThread.start();
     } else {
       preallocateThread = null;
     }
   }
 
+  @Override
+  public boolean isNextFilePreallocated() {
+    return preallocatedFileRef.get() != null;
+  }
+
   @Override
   public void close() throws IOException {
     keepRunning.set(false);
     if(preallocate) {
       // kill the preallocation thread now
       preallocateThread.interrupt();
+      if(leaderPreallocation)
+        coordinationFile.releasePreallocatorLease();
 
       // close any reference to the preallocated file
       final MappedConcurrentFile preallocatedFile = preallocatedFileRef.getAndSet(null);
@@ -94,29 +140,41 @@ class MultiProcessMappedFileProvider implements MappedFileProvider {
   @Override
   public MappedConcurrentFile nextFile() throws IOException {
     MappedConcurrentFile curFile;
+    final File previousFile = curFileRef.get().getFile();
     if(preallocate) {
       // swap to preallocated file
       curFile = preallocatedFileRef.get();
-      while(curFile == null) {
-        // file is not preallocated yet, yield and try again
-        if(yieldOnAllocateContention)
-          Thread.yield();
-        curFile = preallocatedFileRef.get();
+      if(curFile == null) {
+        // file is not preallocated yet, wait for the preallocation thread and try again
+        if(counters != null)
+          counters.preallocationMissed();
+        final Object event = FlightRecorderEvents.begin(FlightRecorderEvents.PREALLOCATION_WAIT);
+        while((curFile = preallocatedFileRef.get()) == null)
+          preallocatedHandoff.await(isPreallocated, false, 0);
+        FlightRecorderEvents.commit(event, curFile.getFile(), curFile.capacity());
       }
     } else {
       // allocate inline
-      final String lastCoordinationContents = curCoordinationContents.get();
-      final String newCoordinationContents = coordinationFile.next(lastCoordinationContents);
-      curCoordinationContents.set(newCoordinationContents);
-      curFile = mapFile(CoordinationFile.curFile(newCoordinationContents));
+      final CoordinationFile.Generation generation = coordinationFile.next(curGeneration.get());
+      curGeneration.set(generation);
+      curFile = mapFile(generation.curFile());
     }
     curFileRef.set(curFile);
     preallocatedFileRef.set(null); // this must happen last, or else there can be race conditions with the preallocator
+    if(leaderPreallocation) {
+      // only request a roll when leaving the coordinated current file, not when catching up from an older file
+      final CoordinationFile.Generation generation = curGeneration.get();
+      if(previousFile.equals(generation.curFile()))
+        coordinationFile.requestRoll(generation);
+    }
     return curFile;
   }
 
   private MappedConcurrentFile mapFile(File file) throws IOException {
-    final MappedConcurrentFile mappedFile = MultiProcessConcurrentFile.map(file, fileCapacity, fillWithZeros);
+    MappedConcurrentFile mappedFile = MultiProcessConcurrentFile.map(file, fileCapacity, fillWithZeros, framed, hugePageSize, durability,
+            flushIntervalMillis, recoveryTimeoutMillis, backend).counters(counters).latency(reserveToCommit);
+    if(framed)
+      mappedFile = new FramedConcurrentFile(mappedFile);
     if(fileCreatedListener != null)
       fileCreatedListener.onCreated(mappedFile);
     return mappedFile;
@@ -128,26 +186,22 @@ class MultiProcessMappedFileProvider implements MappedFileProvider {
         if(preallocatedFileRef.get() == null) {
           final File curFile = curFileRef.get().getFile();
 
-          // read/update coordination file
-          final String lastCoordinationContents = curCoordinationContents.get();
-          final String newCoordinationContents = coordinationFile.next(lastCoordinationContents);
-
-          // update our local copy of coordination file contents
-          curCoordinationContents.set(newCoordinationContents);
+          // read/update coordination file, and update our local copy of the coordination file generation
+          final CoordinationFile.Generation generation = coordinationFile.next(curGeneration.get());
+          curGeneration.set(generation);
 
-          // parse coordination file contents
-          final File readCurFile = CoordinationFile.curFile(newCoordinationContents);
-          final File readPreallocatedFile = CoordinationFile.preallocatedFile(newCoordinationContents);
+          final File readCurFile = generation.curFile();
+          final File readPreallocatedFile = generation.preallocatedFile();
           // set preallocation based on coordination file contents
           if(readPreallocatedFile == null) {
             // another thread won and does preallocate -> set our local preallocation to the new allocation to be swapped
-            preallocatedFileRef.set(mapFile(readCurFile));
+            setPreallocatedFile(mapFile(readCurFile));
           } else if(!curFile.equals(readCurFile)) {
             // the read current file does not match the actual current file -> we are more than 1 file behind, set our local preallocation to the new current file to be swapped
-            preallocatedFileRef.set(mapFile(readCurFile));
+            setPreallocatedFile(mapFile(readCurFile));
           } else {
             // a new preallocation was set, and current files match -> preallocate the new coordinated preallocation file
-            preallocatedFileRef.set(mapFile(readPreallocatedFile));
+            setPreallocatedFile(mapFile(readPreallocatedFile));
           }
         } else {
           Thread.sleep(preallocateCheckMillis);
@@ -160,4 +214,66 @@ class MultiProcessMappedFileProvider implements MappedFileProvider {
     }
   }
 
+  private void leaderPreallocateLoop() {
+    while(keepRunning.get()) {
+      try {
+        boolean idle = true;
+        if(coordinationFile.tryAcquirePreallocatorLease())
+          idle = !preallocateAsLeader();
+        if(preallocatedFileRef.get() == null)
+          idle &= !mapAnnouncedFile();
+        if(idle)
+          Thread.sleep(preallocateCheckMillis);
+      } catch(Throwable t) {
+        if(keepRunning.get()) {
+          t.printStackTrace();
+        }
+      }
+    }
+  }
+
+  private boolean preallocateAsLeader() throws IOException {
+    CoordinationFile.Generation generation = coordinationFile.read();
+    boolean didWork = false;
+    if(coordinationFile.isRollRequested(generation) && coordinationFile.isReady(generation.preallocatedFileId())) {
+      // a process rolled to the preallocated file -> advance the coordination file, which allocates the next preallocated file
+      generation = coordinationFile.next(generation);
+      didWork = true;
+    }
+    if(!coordinationFile.isReady(generation.preallocatedFileId())) {
+      // create the preallocated file before announcing it, so no other process ever creates or fills a file
+      final MappedConcurrentFile createdFile = mapFile(generation.preallocatedFile());
+      coordinationFile.markReady(generation.preallocatedFileId());
+      curGeneration.set(generation);
+      if(preallocatedFileRef.get() == null && curFileRef.get().getFile().equals(generation.curFile()))
+        setPreallocatedFile(createdFile);
+      else
+        createdFile.close();
+      didWork = true;
+    }
+    return didWork;
+  }
+
+  private boolean mapAnnouncedFile() throws IOException {
+    final CoordinationFile.Generation generation = coordinationFile.read();
+    final File curFile = curFileRef.get().getFile();
+    if(!curFile.equals(generation.curFile())) {
+      // we are more than 1 file behind -> set our local preallocation to the announced current file to be swapped
+      curGeneration.set(generation);
+      setPreallocatedFile(mapFile(generation.curFile()));
+      return true;
+    } else if(coordinationFile.isReady(generation.preallocatedFileId())) {
+      // the leader created the next file -> map it, without creating or filling it
+      curGeneration.set(generation);
+      setPreallocatedFile(mapFile(generation.preallocatedFile()));
+      return true;
+    }
+    return false;
+  }
+
+  private void setPreallocatedFile(final MappedConcurrentFile file) {
+    preallocatedFileRef.set(file);
+    preallocatedHandoff.signal();
+  }
+
 }
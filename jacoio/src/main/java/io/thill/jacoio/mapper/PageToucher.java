@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.BitUtil;
+import org.agrona.concurrent.AtomicBuffer;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a single background thread that touches pages ahead of the write cursor of every registered file, so writers do not take the page fault on the first
+ * write to each page of a fresh mapping. A single instance is meant to be shared across many files by passing it to {@link
+ * ConcurrentFileMapper#pageToucher(PageToucher)}. Files register themselves when they are mapped and unregister before they are unmapped, which makes the
+ * toucher safe to use with rolling files.
+ * <p>
+ * Pages are touched using a compare-and-set of 0 to 0 on the first word of each page. This forces a write fault without ever modifying data, so it is safe even
+ * if a writer is concurrently writing to the same page.
+ * <p>
+ * The background thread is a daemon thread. Call {@link PageToucher#close()} to stop it.
+ *
+ * @author Eric Thill
+ */
+public class PageToucher implements AutoCloseable {
+
+  public static final int DEFAULT_PAGE_SIZE = 4096;
+  public static final long DEFAULT_IDLE_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+
+  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final List<Registration> registrations = new CopyOnWriteArrayList<>();
+  private final int pageSize;
+  private final int touchAheadBytes;
+  private final long idleNanos;
+  private final Thread thread;
+
+  /**
+   * Create a {@link PageToucher} using the {@link PageToucher#DEFAULT_PAGE_SIZE} and {@link PageToucher#DEFAULT_IDLE_NANOS}
+   *
+   * @param touchAheadBytes the number of bytes ahead of the write cursor to keep touched
+   */
+  public PageToucher(final int touchAheadBytes) {
+    this(DEFAULT_PAGE_SIZE, touchAheadBytes, DEFAULT_IDLE_NANOS);
+  }
+
+  /**
+   * Create a {@link PageToucher}
+   *
+   * @param pageSize        the page size of the underlying mappings. Must be a power of 2.
+   * @param touchAheadBytes the number of bytes ahead of the write cursor to keep touched
+   * @param idleNanos       the time to park the background thread when there was nothing to touch
+   */
+  public PageToucher(final int pageSize, final int touchAheadBytes, final long idleNanos) {
+    if(!BitUtil.isPowerOfTwo(pageSize))
+      throw new IllegalArgumentException("pageSize must be a power of 2");
+    if(touchAheadBytes <= 0)
+      throw new IllegalArgumentException("touchAheadBytes must be positive");
+    this.pageSize = pageSize;
+    this.touchAheadBytes = touchAheadBytes;
+    this.idleNanos = idleNanos;
+    this.thread = new Thread(this::touchLoop, getClass().getSimpleName() + "-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Stop the background thread. Registered files will no longer be touched, but can continue to be written to.
+   */
+  @Override
+  public void close() {
+    if(keepRunning.compareAndSet(true, false)) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Start touching pages for the given file. The returned {@link Registration} must be closed before the file is unmapped.
+   *
+   * @param file the file to touch
+   * @return the registration
+   */
+  Registration register(final MappedConcurrentFile file) {
+    final Registration registration = new Registration(file);
+    registrations.add(registration);
+    LockSupport.unpark(thread);
+    return registration;
+  }
+
+  int numRegistrations() {
+    return registrations.size();
+  }
+
+  private void touchLoop() {
+    while(keepRunning.get()) {
+      int numTouched = 0;
+      for(Registration registration : registrations) {
+        numTouched += registration.touch();
+      }
+      if(numTouched == 0) {
+        LockSupport.parkNanos(idleNanos);
+      }
+    }
+  }
+
+  /**
+   * A single file registered to a {@link PageToucher}
+   */
+  final class Registration implements AutoCloseable {
+    private final MappedConcurrentFile file;
+    private final AtomicBuffer buffer;
+    private final long limit;
+    private long touchedOffset;
+    private boolean closed = false;
+
+    private Registration(final MappedConcurrentFile file) {
+      this.file = file;
+      this.buffer = file.getBuffer();
+      this.limit = buffer.capacity() - BitUtil.SIZE_OF_INT;
+      this.touchedOffset = file.nextWriteOffset() & ~(pageSize - 1);
+    }
+
+    /**
+     * Touch all pages between the last touched page and the touch-ahead distance
+     *
+     * @return the number of pages that were touched
+     */
+    synchronized int touch() {
+      if(closed)
+        return 0;
+      final long target = Math.min(file.nextWriteOffset() + touchAheadBytes, limit);
+      int numTouched = 0;
+      while(touchedOffset < target) {
+        buffer.compareAndSetInt((int)touchedOffset, 0, 0);
+        touchedOffset += pageSize;
+        numTouched++;
+      }
+      return numTouched;
+    }
+
+    synchronized long touchedOffset() {
+      return touchedOffset;
+    }
+
+    /**
+     * Stop touching the file. Blocks while pages for this file are actively being touched, so the file may be safely unmapped once this returns.
+     */
+    @Override
+    public synchronized void close() {
+      closed = true;
+      registrations.remove(this);
+    }
+  }
+}
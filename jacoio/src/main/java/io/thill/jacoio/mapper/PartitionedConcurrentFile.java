@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Routes writes to one of many rolling {@link ConcurrentFile}s by key, so every record for a key is written to the same partition in the order it was written.
+ * Each partition rolls independently in a {@code partition-N} subdirectory of the location given to {@link ConcurrentFileMapper#location(File)}. The partition
+ * of a key only depends on the key and the number of partitions, so readers can use {@link PartitionedConcurrentFile#partitionLocation(File, int, long)} to
+ * find the only directory holding a key's records.
+ *
+ * @author Eric Thill
+ */
+public class PartitionedConcurrentFile implements AutoCloseable {
+
+  static final String PARTITION_DIRECTORY_PREFIX = "partition-";
+
+  private final ConcurrentFile[] partitions;
+  private final Preallocator preallocator;
+
+  PartitionedConcurrentFile(final ConcurrentFile[] partitions, final Preallocator preallocator) {
+    this.partitions = partitions;
+    this.preallocator = preallocator;
+  }
+
+  /**
+   * Get the partition index of a key
+   *
+   * @param key           the key
+   * @param numPartitions the number of partitions
+   * @return the partition index, from 0 to numPartitions-1
+   */
+  public static int partitionIndex(final long key, final int numPartitions) {
+    // mix the key so sequential ids are spread evenly over partitions
+    final long hash = key * 0x9E3779B97F4A7C15L;
+    return (int)((hash >>> 32) % numPartitions);
+  }
+
+  /**
+   * Get the partition index of a key. The hash of a {@link CharSequence} is computed from its chars, so it is stable across processes and implementations.
+   *
+   * @param key           the key
+   * @param numPartitions the number of partitions
+   * @return the partition index, from 0 to numPartitions-1
+   */
+  public static int partitionIndex(final CharSequence key, final int numPartitions) {
+    long hash = 0;
+    for(int i = 0; i < key.length(); i++)
+      hash = 31 * hash + key.charAt(i);
+    return partitionIndex(hash, numPartitions);
+  }
+
+  /**
+   * Get the directory holding every file written for the given key
+   *
+   * @param location      the location given to {@link ConcurrentFileMapper#location(File)}
+   * @param numPartitions the number of partitions the files were written with
+   * @param key           the key
+   * @return the partition directory
+   */
+  public static File partitionLocation(final File location, final int numPartitions, final long key) {
+    return new File(location, PARTITION_DIRECTORY_PREFIX + partitionIndex(key, numPartitions));
+  }
+
+  /**
+   * Get the directory holding every file written for the given key
+   *
+   * @param location      the location given to {@link ConcurrentFileMapper#location(File)}
+   * @param numPartitions the number of partitions the files were written with
+   * @param key           the key
+   * @return the partition directory
+   */
+  public static File partitionLocation(final File location, final int numPartitions, final CharSequence key) {
+    return new File(location, PARTITION_DIRECTORY_PREFIX + partitionIndex(key, numPartitions));
+  }
+
+  /**
+   * Get the number of partitions
+   *
+   * @return the number of partitions
+   */
+  public int numPartitions() {
+    return partitions.length;
+  }
+
+  /**
+   * Get the partition for the given key, to use any write method not provided by this class
+   *
+   * @param key the key
+   * @return the partition for the key
+   */
+  public ConcurrentFile partition(final long key) {
+    return partitions[partitionIndex(key, partitions.length)];
+  }
+
+  /**
+   * Get the partition for the given key, to use any write method not provided by this class
+   *
+   * @param key the key
+   * @return the partition for the key
+   */
+  public ConcurrentFile partition(final CharSequence key) {
+    return partitions[partitionIndex(key, partitions.length)];
+  }
+
+  /**
+   * Write to the partition for the given key. See {@link ConcurrentFile#write(byte[], int, int)}.
+   *
+   * @param key       the key
+   * @param srcBytes  the source byte[]
+   * @param srcOffset the offset in the source byte[]
+   * @param length    the number of bytes to write
+   * @return the offset in the partition's current file, or {@link ConcurrentFile#NULL_OFFSET} if the write failed
+   * @throws IOException if the partition could not roll
+   */
+  public int write(final long key, final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    return partition(key).write(srcBytes, srcOffset, length);
+  }
+
+  /**
+   * Write to the partition for the given key. See {@link ConcurrentFile#write(DirectBuffer, int, int)}.
+   *
+   * @param key       the key
+   * @param srcBuffer the source buffer
+   * @param srcOffset the offset in the source buffer
+   * @param length    the number of bytes to write
+   * @return the offset in the partition's current file, or {@link ConcurrentFile#NULL_OFFSET} if the write failed
+   * @throws IOException if the partition could not roll
+   */
+  public int write(final long key, final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    return partition(key).write(srcBuffer, srcOffset, length);
+  }
+
+  /**
+   * Write to the partition for the given key. See {@link ConcurrentFile#write(ByteBuffer)}.
+   *
+   * @param key           the key
+   * @param srcByteBuffer the source buffer
+   * @return the offset in the partition's current file, or {@link ConcurrentFile#NULL_OFFSET} if the write failed
+   * @throws IOException if the partition could not roll
+   */
+  public int write(final long key, final ByteBuffer srcByteBuffer) throws IOException {
+    return partition(key).write(srcByteBuffer);
+  }
+
+  /**
+   * Write to the partition for the given key. See {@link ConcurrentFile#write(int, WriteFunction)}.
+   *
+   * @param key           the key
+   * @param length        the number of bytes to write
+   * @param writeFunction the function that writes the bytes
+   * @return the offset in the partition's current file, or {@link ConcurrentFile#NULL_OFFSET} if the write failed
+   * @throws IOException if the partition could not roll
+   */
+  public int write(final long key, final int length, final WriteFunction writeFunction) throws IOException {
+    return partition(key).write(length, writeFunction);
+  }
+
+  /**
+   * Flush every partition
+   *
+   * @throws IOException if a partition could not be flushed
+   */
+  public void flush() throws IOException {
+    for(ConcurrentFile partition : partitions)
+      partition.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for(ConcurrentFile partition : partitions) {
+      try {
+        partition.close();
+      } catch(IOException e) {
+        // close every partition before reporting the first failure
+        if(failure == null)
+          failure = e;
+      }
+    }
+    // partitions unregister from the shared preallocator when they close
+    if(preallocator != null)
+      preallocator.close();
+    if(failure != null)
+      throw failure;
+  }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Calls {@link ConcurrentFile#flush()} at a fixed interval from a background thread, or immediately after {@link PeriodicFlusher#wake()} is called. The thread is parked rather than interrupted on close, since interrupting
+ * a thread that is performing {@link java.nio.channels.FileChannel} I/O would close the channel.
+ *
+ * @author Eric Thill
+ */
+class PeriodicFlusher implements AutoCloseable {
+
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+
+  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final ConcurrentFile file;
+  private final long flushIntervalNanos;
+  private final Thread thread;
+  private volatile boolean wakeRequested;
+
+  PeriodicFlusher(final ConcurrentFile file, final long flushIntervalMillis) {
+    this.file = file;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMillis);
+    this.thread = new Thread(this::flushLoop, getClass().getSimpleName() + "-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  @Override
+  public void close() {
+    if(keepRunning.compareAndSet(true, false)) {
+      LockSupport.unpark(thread);
+      if(Thread.currentThread() != thread) {
+        try {
+          thread.join();
+        } catch(InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    }
+  }
+
+  /**
+   * Flush as soon as possible. Calls made while a flush is in progress result in exactly one more flush, which is what batches group commits.
+   */
+  void wake() {
+    if(!wakeRequested) {
+      wakeRequested = true;
+      LockSupport.unpark(thread);
+    }
+  }
+
+  private void flushLoop() {
+    while(keepRunning.get()) {
+      final long deadline = System.nanoTime() + flushIntervalNanos;
+      long remaining;
+      while(keepRunning.get() && !wakeRequested && (remaining = deadline - System.nanoTime()) > 0) {
+        LockSupport.parkNanos(remaining);
+      }
+      wakeRequested = false;
+      if(keepRunning.get()) {
+        try {
+          file.flush();
+        } catch(Throwable t) {
+          t.printStackTrace();
+        }
+      }
+    }
+  }
+}
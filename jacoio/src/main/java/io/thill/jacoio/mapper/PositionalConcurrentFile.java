@@ -0,0 +1,456 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Extends {@link ConcurrentFile} to provide single-process writing without mapping the file. Offsets are reserved exactly like {@link
+ * SingleProcessConcurrentFile}, but each write is staged in a thread-local direct buffer and written with a positional {@link FileChannel#write(ByteBuffer,
+ * long)}, so writers never take page faults on the file and the kernel only writes back the pages that were written.
+ * <p>
+ * Staging buffers are pooled per thread and shared by every file that thread writes to, so rolling to a new file does not allocate. Writes larger than {@link
+ * PositionalConcurrentFile#MAX_POOLED_STAGING_CAPACITY} are staged in a buffer that is not kept. Since there is no mapped buffer, this file cannot be wrapped by
+ * a {@link FramedConcurrentFile} or registered with a {@link PageToucher}. A thread that is interrupted while writing closes the underlying {@link
+ * FileChannel}, so writer threads must not be interrupted.
+ *
+ * @author Eric Thill
+ */
+class PositionalConcurrentFile implements MappedConcurrentFile {
+
+  static final int MAX_POOLED_STAGING_CAPACITY = 1024 * 1024;
+  private static final int INITIAL_STAGING_CAPACITY = 4096;
+  private static final ThreadLocal<Staging> STAGING = ThreadLocal.withInitial(Staging::new);
+
+  /**
+   * Create a new file
+   *
+   * @param file          the file to create
+   * @param capacity      the capacity of the file
+   * @param fillWithZeros true to fill the file with zeros
+   * @return the file
+   * @throws IOException
+   */
+  static PositionalConcurrentFile map(File file, int capacity, boolean fillWithZeros) throws IOException {
+    if(file.exists())
+      throw new IOException("File Exists. PositionalConcurrentFile cannot modify an existing getFile.");
+    final FileChannel fileChannel = IoUtil.createEmptyFile(file, capacity, fillWithZeros);
+    return new PositionalConcurrentFile(file, fileChannel, capacity);
+  }
+
+  private final AtomicLong nextWriteOffset = new AtomicLong(0);
+  private final AtomicLong writeComplete = new AtomicLong(0);
+  private final AtomicLong finalFileSize = new AtomicLong(-1);
+  private final File file;
+  private final FileChannel fileChannel;
+  private final long fileSize;
+
+  PositionalConcurrentFile(File file, FileChannel fileChannel, int fileSize) {
+    this.file = file;
+    this.fileChannel = fileChannel;
+    this.fileSize = fileSize;
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    if(fileChannel.isOpen() && isPending())
+      throw new IOException("There are pending writes");
+    if(fileChannel.isOpen()) {
+      if(finalFileSize.get() >= 0)
+        fileChannel.truncate(finalFileSize.get());
+      fileChannel.close();
+    }
+  }
+
+  @Override
+  public void flush() {
+    // durability is not supported by positional files
+  }
+
+  @Override
+  public long durablePosition() {
+    return 0;
+  }
+
+  @Override
+  public Durability durability() {
+    return Durability.NONE;
+  }
+
+  @Override
+  public boolean isPending() {
+    return nextWriteOffset.get() != writeComplete.get();
+  }
+
+  @Override
+  public void finish() {
+    // this will happen automatically if we reserve more bytes than can fit in the int32 (minus header) worth of data
+    reserve(Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isFinished() {
+    final long writeComplete = this.writeComplete.get();
+    final long nextOffset = this.nextWriteOffset.get();
+    return writeComplete == nextOffset && writeComplete >= fileSize && finalFileSize.get() > 0;
+  }
+
+  @Override
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putBytes(0, srcBytes, srcOffset, length);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putBytes(0, srcBuffer, srcOffset, length);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    final int length = srcByteBuffer.remaining();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putBytes(0, srcByteBuffer, srcByteBuffer.position(), length);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    final int length = srcCharSequence.length();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        final char c = srcCharSequence.charAt(i);
+        buffer.putByte(i, c > 127 ? (byte)'?' : (byte)c);
+      }
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, ByteOrder byteOrder) throws IOException {
+    final int length = srcCharSequence.length() * 2;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        buffer.putChar((i * 2), srcCharSequence.charAt(i), byteOrder);
+      }
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      writeFunction.write(buffer, 0, length);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      writeFunction.write(buffer, 0, length, parameter);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      writeFunction.write(buffer, 0, length, parameter1, parameter2);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      writeFunction.write(buffer, 0, length, parameter1, parameter2, parameter3);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    final int length = 8;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putLong(0, value, byteOrder);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    final int length = 16;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putLong(0, value1, byteOrder);
+      buffer.putLong(8, value2, byteOrder);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    final int length = 24;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putLong(0, value1, byteOrder);
+      buffer.putLong(8, value2, byteOrder);
+      buffer.putLong(16, value3, byteOrder);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    final int length = 32;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Staging staging = STAGING.get();
+      final AtomicBuffer buffer = staging.open(length);
+      buffer.putLong(0, value1, byteOrder);
+      buffer.putLong(8, value2, byteOrder);
+      buffer.putLong(16, value3, byteOrder);
+      buffer.putLong(24, value4, byteOrder);
+      staging.write(fileChannel, dstOffset, length);
+    } finally {
+      wrote(length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public AtomicBuffer getBuffer() {
+    throw new UnsupportedOperationException("PositionalConcurrentFile is not mapped");
+  }
+
+  @Override
+  public int reserve(int length) {
+    long offset;
+    do {
+      offset = nextWriteOffset.get();
+      if(offset >= fileSize) {
+        // offset exceeded capacity field, do not attempt to increment nextWriteOffset field, nothing more can ever be written
+        return NULL_OFFSET;
+      }
+    } while(!nextWriteOffset.compareAndSet(offset, offset + length));
+
+    if(offset + length > fileSize) {
+      // first message that will not fit
+      // set final getFile size
+      finalFileSize.set(offset);
+      // increment writeComplete so it will still eventually match nextWriteOffset at exceeded capacity value
+      wrote(length);
+      return NULL_OFFSET;
+    }
+
+    // return offset to write bytes
+    return (int)offset;
+  }
+
+  @Override
+  public void wrote(int length) {
+    long lastVal;
+    do {
+      lastVal = writeComplete.get();
+    } while(!writeComplete.compareAndSet(lastVal, lastVal + length));
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return nextWriteOffset.get();
+  }
+
+  @Override
+  public int capacity() {
+    return (int)fileSize;
+  }
+
+  @Override
+  public boolean hasAvailableCapacity() {
+    return nextWriteOffset.get() < fileSize;
+  }
+
+  private static final class Staging {
+    private final UnsafeBuffer buffer = new UnsafeBuffer(ByteBuffer.allocateDirect(INITIAL_STAGING_CAPACITY));
+    private ByteBuffer byteBuffer = buffer.byteBuffer();
+    private ByteBuffer pooledByteBuffer = byteBuffer;
+
+    AtomicBuffer open(final int length) {
+      if(length > MAX_POOLED_STAGING_CAPACITY) {
+        // an oversized buffer is only used for this write, so one large write does not pin its memory to the thread
+        byteBuffer = ByteBuffer.allocateDirect(length);
+      } else {
+        if(pooledByteBuffer.capacity() < length)
+          pooledByteBuffer = ByteBuffer.allocateDirect(Math.min(MAX_POOLED_STAGING_CAPACITY, Math.max(length, pooledByteBuffer.capacity() * 2)));
+        byteBuffer = pooledByteBuffer;
+      }
+      buffer.wrap(byteBuffer);
+      return buffer;
+    }
+
+    void write(final FileChannel fileChannel, final long position, final int length) throws IOException {
+      byteBuffer.clear();
+      byteBuffer.limit(length);
+      while(byteBuffer.hasRemaining())
+        fileChannel.write(byteBuffer, position + byteBuffer.position());
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A single background thread that preallocates files for many {@link SingleProcessMappedFileProvider}s, so rolling files that are used together do not each
+ * need their own preallocation thread. Registered tasks are run in turn, and the thread parks for the check interval whenever a full pass did no work. The
+ * thread is parked rather than interrupted on close, since interrupting a thread that is mapping a file would close the underlying channel.
+ *
+ * @author Eric Thill
+ */
+class Preallocator implements AutoCloseable {
+
+  private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+
+  private final AtomicBoolean keepRunning = new AtomicBoolean(true);
+  private final CopyOnWriteArrayList<Registration> registrations = new CopyOnWriteArrayList<>();
+  private final long checkIntervalNanos;
+  private final Thread thread;
+
+  Preallocator(final long preallocateCheckMillis) {
+    this.checkIntervalNanos = TimeUnit.MILLISECONDS.toNanos(preallocateCheckMillis);
+    this.thread = new Thread(this::preallocateLoop, getClass().getSimpleName() + "-" + THREADNAME_INSTANCE.getAndIncrement());
+    this.thread.setDaemon(true);
+    this.thread.start();
+  }
+
+  /**
+   * Run the given task from the preallocation thread until it is unregistered
+   *
+   * @param task the task to run, which returns true if it did any work
+   * @return the registration to pass to {@link Preallocator#unregister(Object)}
+   */
+  Object register(final BooleanSupplier task) {
+    final Registration registration = new Registration(task);
+    registrations.add(registration);
+    LockSupport.unpark(thread);
+    return registration;
+  }
+
+  /**
+   * Stop running a task. Blocks while the task is running, so the task will never run again once this returns.
+   *
+   * @param registration the registration returned by {@link Preallocator#register(BooleanSupplier)}
+   */
+  void unregister(final Object registration) {
+    final Registration r = (Registration)registration;
+    synchronized(r) {
+      r.active = false;
+    }
+    registrations.remove(r);
+  }
+
+  @Override
+  public void close() {
+    if(keepRunning.compareAndSet(true, false)) {
+      LockSupport.unpark(thread);
+      try {
+        thread.join();
+      } catch(InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  private void preallocateLoop() {
+    while(keepRunning.get()) {
+      boolean worked = false;
+      for(Registration registration : registrations) {
+        synchronized(registration) {
+          if(registration.active && keepRunning.get())
+            worked |= registration.task.getAsBoolean();
+        }
+      }
+      if(!worked && keepRunning.get())
+        LockSupport.parkNanos(checkIntervalNanos);
+    }
+  }
+
+  private static class Registration {
+    private final BooleanSupplier task;
+    private boolean active = true;
+
+    Registration(final BooleanSupplier task) {
+      this.task = task;
+    }
+  }
+}
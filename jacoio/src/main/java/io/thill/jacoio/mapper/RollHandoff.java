@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Hands off a roll wait from the thread that is waiting to the thread that will make progress. Platform threads wait using the configured {@link
+ * IdleStrategy}. When parking virtual threads is enabled, a waiting virtual thread instead registers itself and parks until {@link RollHandoff#signal()} is
+ * called, so it unmounts from its carrier thread instead of spinning on it. {@code Thread.isVirtual()} is looked up reflectively, since it only exists in JDK
+ * 21 and later.
+ *
+ * @author Eric Thill
+ */
+final class RollHandoff {
+
+  private static final MethodHandle IS_VIRTUAL = isVirtualMethod();
+  // a missed signal can only delay a parked thread by this long
+  private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+  private static final long MIN_BACKOFF_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(1);
+  private static final long MAX_BACKOFF_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static MethodHandle isVirtualMethod() {
+    try {
+      return MethodHandles.publicLookup().findVirtual(Thread.class, "isVirtual", MethodType.methodType(boolean.class));
+    } catch(NoSuchMethodException | IllegalAccessException e) {
+      // not a JDK that provides virtual threads
+      return null;
+    }
+  }
+
+  /**
+   * Check if the given thread is a virtual thread
+   *
+   * @param thread the thread
+   * @return true if the running JDK supports virtual threads and the thread is virtual
+   */
+  static boolean isVirtual(final Thread thread) {
+    if(IS_VIRTUAL == null)
+      return false;
+    try {
+      return (boolean)IS_VIRTUAL.invokeExact(thread);
+    } catch(Throwable t) {
+      return false;
+    }
+  }
+
+  /**
+   * Wrap the given {@link IdleStrategy} supplier so virtual threads are given a strategy that parks. This is used by waits that are not signaled by a thread
+   * in this process, such as waiting on another process's coordination lease.
+   *
+   * @param idleStrategySupplier the supplier used for platform threads
+   * @return the wrapping supplier
+   */
+  static Supplier<IdleStrategy> parkVirtualThreads(final Supplier<IdleStrategy> idleStrategySupplier) {
+    return () -> isVirtual(Thread.currentThread())
+            ? new BackoffIdleStrategy(0, 0, MIN_BACKOFF_PARK_NANOS, MAX_BACKOFF_PARK_NANOS)
+            : idleStrategySupplier.get();
+  }
+
+  private final ConcurrentLinkedQueue<Thread> parkedThreads = new ConcurrentLinkedQueue<>();
+  private final Supplier<IdleStrategy> idleStrategySupplier;
+  private final boolean parkVirtualThreads;
+
+  RollHandoff(final Supplier<IdleStrategy> idleStrategySupplier, final boolean parkVirtualThreads) {
+    this.idleStrategySupplier = idleStrategySupplier;
+    this.parkVirtualThreads = parkVirtualThreads;
+  }
+
+  /**
+   * Wait until the given condition is true. The condition is checked again after every signal, and may have side effects such as acquiring a lock.
+   *
+   * @param condition     the condition to wait for
+   * @param bounded       true to give up at the deadline
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up when bounded
+   * @return true if the condition was met, false if the deadline passed
+   */
+  boolean await(final BooleanSupplier condition, final boolean bounded, final long deadlineNanos) {
+    if(condition.getAsBoolean())
+      return true;
+    final Thread thread = Thread.currentThread();
+    if(parkVirtualThreads && isVirtual(thread)) {
+      while(true) {
+        // register before checking again, so a signal between the check and the park is never lost
+        parkedThreads.add(thread);
+        if(condition.getAsBoolean())
+          return true;
+        long parkNanos = MAX_PARK_NANOS;
+        if(bounded) {
+          final long remainingNanos = deadlineNanos - System.nanoTime();
+          if(remainingNanos <= 0)
+            return false;
+          parkNanos = Math.min(parkNanos, remainingNanos);
+        }
+        LockSupport.parkNanos(this, parkNanos);
+      }
+    } else {
+      final IdleStrategy idleStrategy = idleStrategySupplier.get();
+      idleStrategy.reset();
+      while(!condition.getAsBoolean()) {
+        if(bounded && System.nanoTime() - deadlineNanos > 0)
+          return false;
+        idleStrategy.idle();
+      }
+      return true;
+    }
+  }
+
+  /**
+   * Wake every parked thread, so it checks its condition again. This must be called after the state a waiter is waiting on has changed.
+   */
+  void signal() {
+    Thread thread;
+    while((thread = parkedThreads.poll()) != null)
+      LockSupport.unpark(thread);
+  }
+
+}
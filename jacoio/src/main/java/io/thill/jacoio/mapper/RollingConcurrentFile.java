@@ -30,11 +30,13 @@ import java.util.concurrent.atomic.AtomicReference;
 class RollingConcurrentFile implements ConcurrentFile {
 
   private final RollingCoordinator rollingCoordinator;
-  private final int capacity;
+  private final int maxLength;
 
   RollingConcurrentFile(RollingCoordinator rollingCoordinator) throws IOException {
     this.rollingCoordinator = rollingCoordinator;
-    this.capacity = rollingCoordinator.currentFile().capacity();
+    // a framed file reserves a frame header with every write, so a longer write would not fit in any new file and would roll forever
+    final MappedConcurrentFile currentFile = rollingCoordinator.currentFile();
+    this.maxLength = currentFile.capacity() - currentFile.reservedLength(0);
   }
 
   @Override
@@ -59,6 +61,17 @@ class RollingConcurrentFile implements ConcurrentFile {
     return rollingCoordinator.currentFile().getFile();
   }
 
+  @Override
+  public void flush() throws IOException {
+    // previous files are forced when they are closed after rolling
+    rollingCoordinator.currentFile().flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return rollingCoordinator.currentFile().durablePosition();
+  }
+
   @Override
   public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
     checkLength(length);
@@ -189,9 +202,112 @@ class RollingConcurrentFile implements ConcurrentFile {
     return offset;
   }
 
+  @Override
+  public int tryWrite(final byte[] srcBytes, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      final MappedConcurrentFile file = rollingCoordinator.tryFileForWrite(deadlineNanos);
+      if(file == null)
+        return NULL_OFFSET;
+      offset = file.write(srcBytes, srcOffset, length);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final DirectBuffer srcBuffer, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      final MappedConcurrentFile file = rollingCoordinator.tryFileForWrite(deadlineNanos);
+      if(file == null)
+        return NULL_OFFSET;
+      offset = file.write(srcBuffer, srcOffset, length);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final ByteBuffer srcByteBuffer, final long deadlineNanos) throws IOException {
+    checkLength(srcByteBuffer.remaining());
+    int offset;
+    do {
+      final MappedConcurrentFile file = rollingCoordinator.tryFileForWrite(deadlineNanos);
+      if(file == null)
+        return NULL_OFFSET;
+      offset = file.write(srcByteBuffer);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int tryWrite(final int length, final WriteFunction writeFunction, final long deadlineNanos) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      final MappedConcurrentFile file = rollingCoordinator.tryFileForWrite(deadlineNanos);
+      if(file == null)
+        return NULL_OFFSET;
+      offset = file.write(length, writeFunction);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
   private void checkLength(int length) throws IOException {
-    if(length > capacity)
-      throw new IOException("length=" + length + " exceeds capacity=" + capacity);
+    if(length > maxLength)
+      throw new IOException("length=" + length + " exceeds maxLength=" + maxLength);
+  }
+
+  @Override
+  public int writeDurable(final byte[] srcBytes, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      offset = rollingCoordinator.fileForWrite().writeDurable(srcBytes, srcOffset, length, durableWrite);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final DirectBuffer srcBuffer, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      offset = rollingCoordinator.fileForWrite().writeDurable(srcBuffer, srcOffset, length, durableWrite);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final ByteBuffer srcByteBuffer, final DurableWrite durableWrite) throws IOException {
+    checkLength(srcByteBuffer.remaining());
+    int offset;
+    do {
+      offset = rollingCoordinator.fileForWrite().writeDurable(srcByteBuffer, durableWrite);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public int writeDurable(final int length, final WriteFunction writeFunction, final DurableWrite durableWrite) throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      offset = rollingCoordinator.fileForWrite().writeDurable(length, writeFunction, durableWrite);
+    } while(offset == NULL_OFFSET);
+    return offset;
+  }
+
+  @Override
+  public <P> int writeDurable(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction, final DurableWrite durableWrite)
+          throws IOException {
+    checkLength(length);
+    int offset;
+    do {
+      offset = rollingCoordinator.fileForWrite().writeDurable(length, parameter, writeFunction, durableWrite);
+    } while(offset == NULL_OFFSET);
+    return offset;
   }
 
   @Override
@@ -14,12 +14,18 @@ package io.thill.jacoio.mapper;
 import io.thill.jacoio.function.FileClosedListener;
 import io.thill.jacoio.function.FileCompleteListener;
 import io.thill.jacoio.function.FileMappedListener;
+import org.agrona.concurrent.IdleStrategy;
 
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
  * Coordinates rolling to a new file using the underling {@link MappedFileProvider}.
@@ -29,29 +35,43 @@ import java.util.concurrent.atomic.AtomicReference;
 class RollingCoordinator implements AutoCloseable {
 
   private static final AtomicLong THREADNAME_INSTANCE = new AtomicLong();
+  private static final int ROLL_HISTORY = 64;
+  private static final long ROLL_RATE_WINDOW_NANOS = TimeUnit.MINUTES.toNanos(1);
 
   private final AtomicBoolean allocating = new AtomicBoolean(false);
   private final AtomicReference<MappedConcurrentFile> curFileRef = new AtomicReference<>();
+  private final BooleanSupplier tryAllocateLock = () -> allocating.compareAndSet(false, true);
+  private final AtomicLong rollCount = new AtomicLong();
+  private final AtomicLongArray rollTimes = new AtomicLongArray(ROLL_HISTORY);
 
   private final MappedFileProvider mappedFileProvider;
   private final boolean asyncClose;
-  private final boolean yieldOnAllocateContention;
+  private final Supplier<IdleStrategy> idleStrategySupplier;
+  private final RollHandoff allocateHandoff;
   private final FileMappedListener fileMappedListener;
   private final FileCompleteListener fileCompleteListener;
   private final FileClosedListener fileClosedListener;
+  private final WriteCounters counters;
+  private final LatencyHistogram rollStall;
 
   RollingCoordinator(final MappedFileProvider mappedFileProvider,
-                     final boolean yieldOnAllocateContention,
+                     final Supplier<IdleStrategy> idleStrategySupplier,
+                     final boolean parkVirtualThreads,
                      final boolean asyncClose,
                      final FileMappedListener fileMappedListener,
                      final FileCompleteListener fileCompleteListener,
-                     final FileClosedListener fileClosedListener) throws IOException {
+                     final FileClosedListener fileClosedListener,
+                     final WriteCounters counters,
+                     final WriteLatency latency) throws IOException {
     this.mappedFileProvider = mappedFileProvider;
-    this.yieldOnAllocateContention = yieldOnAllocateContention;
+    this.idleStrategySupplier = idleStrategySupplier;
+    this.allocateHandoff = new RollHandoff(idleStrategySupplier, parkVirtualThreads);
     this.asyncClose = asyncClose;
     this.fileMappedListener = fileMappedListener;
     this.fileCompleteListener = fileCompleteListener;
     this.fileClosedListener = fileClosedListener;
+    this.counters = counters;
+    this.rollStall = latency == null ? null : latency.rollStall();
     this.curFileRef.set(mappedFileProvider.nextFile());
   }
 
@@ -65,60 +85,172 @@ class RollingCoordinator implements AutoCloseable {
     return curFileRef.get();
   }
 
+  /**
+   * Read from the current file while holding the allocate lock, so it cannot be rolled and closed while it is being read. A roll that starts during the read
+   * waits for it to complete.
+   *
+   * @param reader the function to read the current file with
+   * @param <T>    the type read
+   * @return the value read
+   */
+  public <T> T readCurrentFile(final Function<MappedConcurrentFile, T> reader) {
+    allocateLock(false, 0);
+    try {
+      return reader.apply(curFileRef.get());
+    } finally {
+      allocateUnlock();
+    }
+  }
+
+  /**
+   * Check if the next file has already been preallocated by the underlying {@link MappedFileProvider}
+   *
+   * @return true if the next roll will not need to create and map a file
+   */
+  public boolean isNextFilePreallocated() {
+    return mappedFileProvider.isNextFilePreallocated();
+  }
+
+  /**
+   * Get the number of rolls won by this process
+   *
+   * @return the roll count
+   */
+  public long rollCount() {
+    return rollCount.get();
+  }
+
+  /**
+   * Get the number of rolls won by this process over the last minute, extrapolated from the remembered rolls when all of them happened within the last minute
+   *
+   * @return the rolls per minute
+   */
+  public double rollsPerMinute() {
+    final long count = rollCount.get();
+    final long now = System.nanoTime();
+    final int remembered = (int)Math.min(count, ROLL_HISTORY);
+    int rollsInWindow = 0;
+    long oldestRollTime = now;
+    for(int i = 1; i <= remembered; i++) {
+      final long rollTime = rollTimes.get((int)((count - i) % ROLL_HISTORY));
+      if(now - rollTime > ROLL_RATE_WINDOW_NANOS)
+        break;
+      rollsInWindow++;
+      oldestRollTime = rollTime;
+    }
+    if(rollsInWindow < ROLL_HISTORY)
+      return rollsInWindow;
+    return (double)rollsInWindow * ROLL_RATE_WINDOW_NANOS / Math.max(1, now - oldestRollTime);
+  }
+
   public MappedConcurrentFile fileForWrite() throws IOException {
+    return fileForWrite(false, 0);
+  }
+
+  /**
+   * Get the file to write to like {@link RollingCoordinator#fileForWrite()}, but give up waiting for another thread's roll at the given deadline. The thread
+   * that wins the roll always completes it.
+   *
+   * @param deadlineNanos the {@link System#nanoTime()} after which to give up
+   * @return the file to write to, or null if the deadline passed
+   * @throws IOException
+   */
+  public MappedConcurrentFile tryFileForWrite(final long deadlineNanos) throws IOException {
+    if(System.nanoTime() - deadlineNanos > 0)
+      return null;
+    return fileForWrite(true, deadlineNanos);
+  }
+
+  private MappedConcurrentFile fileForWrite(final boolean bounded, final long deadlineNanos) throws IOException {
     final MappedConcurrentFile curFile = curFileRef.get();
     if(curFile.hasAvailableCapacity()) {
       return curFile;
+    } else if(counters == null && rollStall == null) {
+      return roll(curFile, bounded, deadlineNanos);
     } else {
-      allocateLock();
-      try {
-        if(curFileRef.get() == curFile) {
-          // expected current mapper is actual current mapper -> this thread wins, close current file and set new file
-          close(curFile, asyncClose);
-          final MappedConcurrentFile newFile = mappedFileProvider.nextFile();
-          if(fileMappedListener != null)
-            fileMappedListener.onMapped(newFile);
-          curFileRef.set(newFile);
-          return newFile;
-        } else {
-          // expected current mapper is not current mapper -> this thread did not win, return the updated curFileRef that has changed since the method was called
-          return curFileRef.get();
-        }
-      } finally {
-        allocateUnlock();
-      }
+      // time from finding the current file full until a file with capacity is available
+      final long stallStartNanos = System.nanoTime();
+      final MappedConcurrentFile newFile = roll(curFile, bounded, deadlineNanos);
+      final long stallNanos = System.nanoTime() - stallStartNanos;
+      if(counters != null)
+        counters.rollStalled(stallNanos);
+      if(rollStall != null)
+        rollStall.record(stallNanos);
+      return newFile;
     }
   }
 
-  private void allocateLock() {
-    while(!allocating.compareAndSet(false, true)) {
-      if(yieldOnAllocateContention) {
-        Thread.yield();
+  private MappedConcurrentFile roll(final MappedConcurrentFile curFile, final boolean bounded, final long deadlineNanos) throws IOException {
+    final Object waitEvent = FlightRecorderEvents.begin(FlightRecorderEvents.ROLL_WAIT);
+    if(!allocateLock(bounded, deadlineNanos)) {
+      FlightRecorderEvents.commit(waitEvent, curFile.getFile(), curFile.capacity());
+      return null;
+    }
+    try {
+      if(curFileRef.get() == curFile) {
+        // expected current mapper is actual current mapper -> this thread wins, set new file and close current file
+        final Object rollEvent = FlightRecorderEvents.begin(FlightRecorderEvents.ROLL);
+        final MappedConcurrentFile newFile = mappedFileProvider.nextFile();
+        if(fileMappedListener != null)
+          fileMappedListener.onMapped(newFile);
+        curFileRef.set(newFile);
+        // only close after the swap: a multi-process file reads its header from the mapped region, so writers still holding curFile must not find it unmapped
+        close(curFile, asyncClose);
+        // only the roll winner updates the history, so the time can be published before the count that makes it visible
+        final long count = rollCount.get();
+        rollTimes.lazySet((int)(count % ROLL_HISTORY), System.nanoTime());
+        rollCount.lazySet(count + 1);
+        if(counters != null)
+          counters.rolled();
+        FlightRecorderEvents.commit(rollEvent, newFile.getFile(), newFile.capacity());
+        return newFile;
+      } else {
+        // expected current mapper is not current mapper -> this thread did not win, return the updated curFileRef that has changed since the method was called
+        final MappedConcurrentFile newFile = curFileRef.get();
+        FlightRecorderEvents.commit(waitEvent, newFile.getFile(), newFile.capacity());
+        return newFile;
       }
+    } finally {
+      allocateUnlock();
     }
   }
 
+  private boolean allocateLock(final boolean bounded, final long deadlineNanos) {
+    return allocateHandoff.await(tryAllocateLock, bounded, deadlineNanos);
+  }
+
   private void allocateUnlock() {
     allocating.set(false);
+    allocateHandoff.signal();
   }
 
   private void close(final MappedConcurrentFile concurrentFile, final boolean async) {
     final Runnable closeTask = () -> {
       try {
-        while(concurrentFile.isPending()) {
-          if(yieldOnAllocateContention)
-            Thread.yield();
-        }
+        final File underlyingFile = concurrentFile.getFile();
+        final int capacity = concurrentFile.capacity();
+        final Object pendingEvent = FlightRecorderEvents.begin(FlightRecorderEvents.CLOSE_PENDING);
+        final IdleStrategy idleStrategy = idleStrategySupplier.get();
+        idleStrategy.reset();
+        while(concurrentFile.isPending())
+          idleStrategy.idle();
+        FlightRecorderEvents.commit(pendingEvent, underlyingFile, capacity);
         if(fileCompleteListener != null)
           fileCompleteListener.onComplete(concurrentFile);
-        final File underlyingFile = concurrentFile.getFile();
+        final Object closeEvent = FlightRecorderEvents.begin(FlightRecorderEvents.CLOSE);
         concurrentFile.close();
+        FlightRecorderEvents.commit(closeEvent, underlyingFile, capacity);
         if(fileClosedListener != null)
           fileClosedListener.onClosed(underlyingFile);
       } catch(Throwable t) {
         t.printStackTrace();
+      } finally {
+        if(counters != null)
+          counters.closeCompleted();
       }
     };
+    if(counters != null)
+      counters.closeScheduled();
     if(async) {
       new Thread(closeTask, getClass().getSimpleName() + "-Close-" + THREADNAME_INSTANCE.getAndIncrement()).start();
     } else {
@@ -0,0 +1,225 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An implementation of {@link ConcurrentFile} that spreads writers over many underlying files, so writers in different shards never share a write offset.
+ * Each thread is assigned a shard round-robin the first time it writes to this file, and all of its writes go to that shard. Offsets are offsets in the
+ * current file of the calling thread's shard, and {@link ShardedConcurrentFile#getFile()} and {@link ShardedConcurrentFile#durablePosition()} also apply to
+ * the calling thread's shard. All other methods apply to every shard.
+ *
+ * @author Eric Thill
+ */
+class ShardedConcurrentFile implements ConcurrentFile {
+
+  private final AtomicInteger nextShard = new AtomicInteger();
+  private final ConcurrentFile[] shards;
+  private final ThreadLocal<ConcurrentFile> threadShard;
+
+  ShardedConcurrentFile(final ConcurrentFile[] shards) {
+    this.shards = shards;
+    // the shared counter is only touched the first time each thread writes
+    this.threadShard = ThreadLocal.withInitial(() -> shards[(nextShard.getAndIncrement() & Integer.MAX_VALUE) % shards.length]);
+  }
+
+  /**
+   * Get the number of shards
+   *
+   * @return the number of shards
+   */
+  int numShards() {
+    return shards.length;
+  }
+
+  private ConcurrentFile shard() {
+    return threadShard.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    IOException failure = null;
+    for(ConcurrentFile shard : shards) {
+      try {
+        shard.close();
+      } catch(IOException e) {
+        // close every shard before reporting the first failure
+        if(failure == null)
+          failure = e;
+      }
+    }
+    if(failure != null)
+      throw failure;
+  }
+
+  @Override
+  public boolean isPending() {
+    for(ConcurrentFile shard : shards) {
+      if(shard.isPending())
+        return true;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean isFinished() {
+    for(ConcurrentFile shard : shards) {
+      if(!shard.isFinished())
+        return false;
+    }
+    return true;
+  }
+
+  @Override
+  public void finish() {
+    for(ConcurrentFile shard : shards)
+      shard.finish();
+  }
+
+  @Override
+  public File getFile() {
+    return shard().getFile();
+  }
+
+  @Override
+  public void flush() throws IOException {
+    for(ConcurrentFile shard : shards)
+      shard.flush();
+  }
+
+  @Override
+  public long durablePosition() {
+    return shard().durablePosition();
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    return shard().write(srcBytes, srcOffset, length);
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    return shard().write(srcBuffer, srcOffset, length);
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    return shard().write(srcByteBuffer);
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    return shard().writeAscii(srcCharSequence);
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, final ByteOrder byteOrder) throws IOException {
+    return shard().writeChars(srcCharSequence, byteOrder);
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    return shard().write(length, writeFunction);
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    return shard().write(length, parameter, writeFunction);
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    return shard().write(length, parameter1, parameter2, writeFunction);
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, final P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    return shard().write(length, parameter1, parameter2, parameter3, writeFunction);
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    return shard().writeLong(value, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    return shard().writeLongs(value1, value2, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    return shard().writeLongs(value1, value2, value3, byteOrder);
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    return shard().writeLongs(value1, value2, value3, value4, byteOrder);
+  }
+
+  @Override
+  public int writeDurable(final byte[] srcBytes, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    return shard().writeDurable(srcBytes, srcOffset, length, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final DirectBuffer srcBuffer, final int srcOffset, final int length, final DurableWrite durableWrite) throws IOException {
+    return shard().writeDurable(srcBuffer, srcOffset, length, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final ByteBuffer srcByteBuffer, final DurableWrite durableWrite) throws IOException {
+    return shard().writeDurable(srcByteBuffer, durableWrite);
+  }
+
+  @Override
+  public int writeDurable(final int length, final WriteFunction writeFunction, final DurableWrite durableWrite) throws IOException {
+    return shard().writeDurable(length, writeFunction, durableWrite);
+  }
+
+  @Override
+  public <P> int writeDurable(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction, final DurableWrite durableWrite) throws IOException {
+    return shard().writeDurable(length, parameter, writeFunction, durableWrite);
+  }
+
+  @Override
+  public int tryWrite(final byte[] srcBytes, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    return shard().tryWrite(srcBytes, srcOffset, length, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final DirectBuffer srcBuffer, final int srcOffset, final int length, final long deadlineNanos) throws IOException {
+    return shard().tryWrite(srcBuffer, srcOffset, length, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final ByteBuffer srcByteBuffer, final long deadlineNanos) throws IOException {
+    return shard().tryWrite(srcByteBuffer, deadlineNanos);
+  }
+
+  @Override
+  public int tryWrite(final int length, final WriteFunction writeFunction, final long deadlineNanos) throws IOException {
+    return shard().tryWrite(length, writeFunction, deadlineNanos);
+  }
+}
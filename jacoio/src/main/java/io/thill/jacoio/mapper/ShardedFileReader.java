@@ -0,0 +1,188 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.function.StripedFileProvider;
+import io.thill.jacoio.function.TimestampedFrameHandler;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Reads the frames written to a file mapped with {@link ConcurrentFileMapper#shards(int)} in timestamp order. Each shard's files are ordered by the timestamp of
+ * their first frame, and the shards are merged by the timestamp of their next frame. Frames written by a single thread are always delivered in the order they
+ * were written. Frames within a shard are delivered in the order they were reserved, so the merged view is only strictly time-ordered when there are no more
+ * writing threads than shards. The reader only sees frames that were completely written when it reaches them, so it should be used after the file has been closed.
+ *
+ * @author Eric Thill
+ */
+public class ShardedFileReader implements AutoCloseable {
+
+  private final PriorityQueue<ShardCursor> cursors = new PriorityQueue<>(Comparator.comparingLong(c -> c.timestampNanos));
+  private final List<ShardCursor> allCursors = new ArrayList<>();
+
+  /**
+   * Open the shards in the given directory
+   *
+   * @param location the location given to {@link ConcurrentFileMapper#location(File)} when the sharded file was mapped
+   * @throws IOException if the shards could not be read
+   */
+  public ShardedFileReader(final File location) throws IOException {
+    final File[] shardDirectories = location.listFiles(f -> f.isDirectory() && f.getName().startsWith("shard-"));
+    if(shardDirectories == null)
+      throw new IOException("Could not list " + location.getAbsolutePath());
+    for(File shardDirectory : shardDirectories) {
+      final ShardCursor cursor = new ShardCursor(orderedFiles(shardDirectory));
+      allCursors.add(cursor);
+      if(cursor.advance())
+        cursors.add(cursor);
+    }
+  }
+
+  /**
+   * Deliver the frame with the lowest timestamp that has not been read yet
+   *
+   * @param handler the handler to receive the frame contents, excluding the frame header
+   * @return true if a frame was delivered, false if every shard has been read
+   * @throws IOException if a file could not be mapped
+   */
+  public boolean read(final TimestampedFrameHandler handler) throws IOException {
+    final ShardCursor cursor = cursors.poll();
+    if(cursor == null)
+      return false;
+    handler.onFrame(cursor.timestampNanos, cursor.buffer, cursor.offset + Frames.TIMESTAMPED_HEADER_SIZE, cursor.frameLength - Frames.TIMESTAMPED_HEADER_SIZE);
+    cursor.offset += cursor.frameLength;
+    if(cursor.advance())
+      cursors.add(cursor);
+    return true;
+  }
+
+  @Override
+  public void close() {
+    for(ShardCursor cursor : allCursors)
+      cursor.unmap();
+    cursors.clear();
+  }
+
+  private static List<File> orderedFiles(final File shardDirectory) throws IOException {
+    // striped shards record where their files were placed, otherwise every file is in the shard directory
+    final File placementFile = new File(shardDirectory, StripedFileProvider.PLACEMENT_FILE_NAME);
+    final File[] files = placementFile.exists() ? StripedFileProvider.readPlacement(placementFile).toArray(new File[0]) : shardDirectory.listFiles(File::isFile);
+    final List<File> orderedFiles = new ArrayList<>();
+    final List<Long> timestamps = new ArrayList<>();
+    if(files != null) {
+      for(File file : files) {
+        final long timestamp = firstTimestamp(file);
+        if(timestamp != Long.MIN_VALUE) {
+          // few files per shard, so an insertion sort keeps each file paired with its timestamp
+          int idx = 0;
+          while(idx < timestamps.size() && timestamps.get(idx) <= timestamp)
+            idx++;
+          orderedFiles.add(idx, file);
+          timestamps.add(idx, timestamp);
+        }
+      }
+    }
+    return orderedFiles;
+  }
+
+  private static long firstTimestamp(final File file) throws IOException {
+    final ByteBuffer header = ByteBuffer.allocate(Frames.TIMESTAMPED_HEADER_SIZE);
+    try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      long position = 0;
+      while(position + Frames.TIMESTAMPED_HEADER_SIZE <= channel.size()) {
+        header.clear();
+        if(channel.read(header, position) < Frames.TIMESTAMPED_HEADER_SIZE)
+          break;
+        // frame headers are written in native order, timestamps are always little-endian
+        final int frameLength = header.order(ByteOrder.nativeOrder()).getInt(0);
+        if(frameLength < 0)
+          position -= frameLength;
+        else if(frameLength < Frames.TIMESTAMPED_HEADER_SIZE)
+          break;
+        else
+          return header.order(ByteOrder.LITTLE_ENDIAN).getLong(Frames.HEADER_SIZE);
+      }
+    }
+    return Long.MIN_VALUE;
+  }
+
+  private static class ShardCursor {
+    private final List<File> files;
+    private final UnsafeBuffer buffer = new UnsafeBuffer(new byte[0]);
+    private MappedByteBuffer mappedBuffer;
+    private int fileIdx = -1;
+    private int offset;
+    private int frameLength;
+    private long timestampNanos;
+
+    ShardCursor(final List<File> files) {
+      this.files = files;
+    }
+
+    /**
+     * Move to the next complete frame at or after the current offset, mapping the next file when the current one is exhausted
+     */
+    boolean advance() throws IOException {
+      while(true) {
+        if(mappedBuffer == null || offset + Frames.HEADER_SIZE > buffer.capacity()) {
+          if(!nextFile())
+            return false;
+          continue;
+        }
+        final int header = buffer.getIntVolatile(offset);
+        if(header < 0) {
+          offset -= header;
+        } else if(header < Frames.TIMESTAMPED_HEADER_SIZE || offset + header > buffer.capacity()) {
+          // an empty header is the end of the written frames in this file
+          if(!nextFile())
+            return false;
+        } else {
+          frameLength = header;
+          timestampNanos = buffer.getLong(offset + Frames.HEADER_SIZE, ByteOrder.LITTLE_ENDIAN);
+          return true;
+        }
+      }
+    }
+
+    private boolean nextFile() throws IOException {
+      unmap();
+      if(++fileIdx >= files.size())
+        return false;
+      final File file = files.get(fileIdx);
+      mappedBuffer = IoUtil.mapExistingFile(file, MapMode.READ_ONLY, file.getName());
+      buffer.wrap(mappedBuffer);
+      offset = 0;
+      return true;
+    }
+
+    void unmap() {
+      if(mappedBuffer != null) {
+        IoUtil.unmap(mappedBuffer);
+        mappedBuffer = null;
+        buffer.wrap(new byte[0]);
+      }
+    }
+  }
+}
@@ -16,67 +16,277 @@ import io.thill.jacoio.function.BiParametizedWriteFunction;
 import io.thill.jacoio.function.ParametizedWriteFunction;
 import io.thill.jacoio.function.TriParametizedWriteFunction;
 import io.thill.jacoio.function.WriteFunction;
+import org.agrona.BitUtil;
 import org.agrona.DirectBuffer;
 import org.agrona.IoUtil;
 import org.agrona.concurrent.AtomicBuffer;
-import org.agrona.concurrent.UnsafeBuffer;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * Extends {@link ConcurrentFile} to provide single-process writing. There is no getFile header, and a getFile cannot be reopened after it has been closed.
+ * Extends {@link ConcurrentFile} to provide single-process writing. There is no getFile header, so a getFile can only be reopened by scanning for
+ * its append position with {@link SingleProcessConcurrentFile#resume(File, int, boolean, boolean, PageToucher, Durability, long, Backend)}.
  *
  * @author Eric Thill
  */
 class SingleProcessConcurrentFile implements MappedConcurrentFile {
 
   static SingleProcessConcurrentFile map(File file, int capacity, boolean fillWithZeros) throws IOException {
+    return map(file, capacity, fillWithZeros, false, 0, null, Durability.NONE, 0, Backend.MMAP);
+  }
+
+  /**
+   * Create and map a new file
+   *
+   * @param file                the file to create
+   * @param capacity            the capacity of the file
+   * @param fillWithZeros       true to fill the file with zeros
+   * @param framed              true if the file will be wrapped by a {@link FramedConcurrentFile}
+   * @param hugePageSize        the huge page size of the hugetlbfs mount the file resides on, or 0 if it is not on hugetlbfs
+   * @param pageToucher         the optional {@link PageToucher} to register the file with
+   * @param durability          the {@link Durability} mode
+   * @param flushIntervalMillis the flush interval when using {@link Durability#PERIODIC} or {@link Durability#GROUP_COMMIT}
+   * @param backend             the {@link Backend} used to map the file
+   * @return the mapped file
+   * @throws IOException
+   */
+  static SingleProcessConcurrentFile map(File file, int capacity, boolean fillWithZeros, boolean framed, int hugePageSize, PageToucher pageToucher,
+                                         Durability durability, long flushIntervalMillis, Backend backend) throws IOException {
     if(file.exists())
       throw new IOException("File Exists. SingleProcessConcurrentFile cannot modify an existing getFile.");
-    final int fileSize = capacity;
-    final FileChannel fileChannel = IoUtil.createEmptyFile(file, fileSize, fillWithZeros);
-    final long address = IoUtil.map(fileChannel, MapMode.READ_WRITE, 0, fileSize);
-    final AtomicBuffer buffer = new UnsafeBuffer();
-    buffer.wrap(address, fileSize);
-    return new SingleProcessConcurrentFile(file, fileChannel, buffer, fileSize);
+    // hugetlbfs requires the file size to be a multiple of the huge page size
+    final int fileSize = hugePageSize > 0 ? BitUtil.align(capacity, hugePageSize) : capacity;
+    final Object event = FlightRecorderEvents.begin(FlightRecorderEvents.MAP);
+    // hugetlbfs does not support write(2), and the kernel zeroes huge pages on first touch anyway
+    final FileChannel fileChannel = IoUtil.createEmptyFile(file, fileSize, fillWithZeros && hugePageSize == 0);
+    final MappedRegion region = MappedRegion.map(fileChannel, 0, fileSize, backend);
+    FlightRecorderEvents.commit(event, file, fileSize);
+    final SingleProcessConcurrentFile mappedFile = new SingleProcessConcurrentFile(file, fileChannel, region, fileSize, framed, hugePageSize == 0, durability);
+    if(pageToucher != null)
+      mappedFile.pageToucherRegistration = pageToucher.register(mappedFile);
+    if(durability == Durability.PERIODIC || durability == Durability.GROUP_COMMIT)
+      mappedFile.periodicFlusher = new PeriodicFlusher(mappedFile, flushIntervalMillis);
+    return mappedFile;
+  }
+
+  /**
+   * Map an existing file to continue appending to it. A file shorter than the capacity was truncated when it was closed, so its length is the append
+   * position, and it is extended back to the capacity. Otherwise the append position is found by scanning: framed files walk the frame headers forward to the
+   * first incomplete frame, and unframed files are scanned backwards over trailing zeros, so unframed writes that end in zero bytes are indistinguishable from
+   * unwritten space.
+   *
+   * @param file                the file to resume
+   * @param capacity            the capacity of the file
+   * @param fillWithZeros       true to fill the extended part of a truncated file with zeros
+   * @param framed              true if the file will be wrapped by a {@link FramedConcurrentFile}
+   * @param pageToucher         the optional {@link PageToucher} to register the file with
+   * @param durability          the {@link Durability} mode
+   * @param flushIntervalMillis the flush interval when using {@link Durability#PERIODIC} or {@link Durability#GROUP_COMMIT}
+   * @param backend             the {@link Backend} used to map the file
+   * @return the mapped file
+   * @throws IOException
+   */
+  static SingleProcessConcurrentFile resume(File file, int capacity, boolean fillWithZeros, boolean framed, PageToucher pageToucher, Durability durability,
+                                            long flushIntervalMillis, Backend backend) throws IOException {
+    final FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+    final long length = fileChannel.size();
+    if(length > capacity) {
+      fileChannel.close();
+      throw new IOException("File is larger than capacity. Cannot resume " + file.getAbsolutePath());
+    }
+    if(length < capacity) {
+      if(fillWithZeros)
+        IoUtil.fill(fileChannel, length, capacity - length, (byte)0);
+      else
+        fileChannel.write(ByteBuffer.wrap(new byte[1]), capacity - 1);
+    }
+    final MappedRegion region = MappedRegion.map(fileChannel, 0, capacity, backend);
+    final AtomicBuffer buffer = region.buffer();
+
+    final long appendOffset;
+    if(length < capacity)
+      appendOffset = length;
+    else if(framed)
+      appendOffset = Frames.scan(buffer, 0, capacity);
+    else
+      appendOffset = scanBackwardsOverZeros(buffer, capacity);
+
+    final SingleProcessConcurrentFile mappedFile = new SingleProcessConcurrentFile(file, fileChannel, region, capacity, framed, true, durability);
+    mappedFile.nextWriteOffset.set(appendOffset);
+    mappedFile.writeComplete.set(appendOffset);
+    if(appendOffset >= capacity)
+      mappedFile.finalFileSize.set(capacity);
+    if(pageToucher != null)
+      mappedFile.pageToucherRegistration = pageToucher.register(mappedFile);
+    if(durability == Durability.PERIODIC || durability == Durability.GROUP_COMMIT)
+      mappedFile.periodicFlusher = new PeriodicFlusher(mappedFile, flushIntervalMillis);
+    return mappedFile;
+  }
+
+  private static long scanBackwardsOverZeros(final AtomicBuffer buffer, final long limit) {
+    long offset = limit;
+    // step over unaligned trailing bytes, then 8 bytes at a time, then back to bytes for the last word that contains data
+    while((offset & 7) != 0 && buffer.getByte((int)offset - 1) == 0)
+      offset--;
+    if((offset & 7) == 0) {
+      while(offset >= 8 && buffer.getLong((int)offset - 8) == 0)
+        offset -= 8;
+      while(offset > 0 && buffer.getByte((int)offset - 1) == 0)
+        offset--;
+    }
+    return offset;
   }
 
   private final AtomicLong nextWriteOffset = new AtomicLong(0);
   private final AtomicLong writeComplete = new AtomicLong(0);
+  private final AtomicLong durableRequestsInFlight = new AtomicLong(0);
   private final AtomicLong finalFileSize = new AtomicLong(-1);
+  private final AtomicLong durablePosition = new AtomicLong(0);
+  private final Object flushLock = new Object();
   private final File file;
   private final FileChannel fileChannel;
+  private final MappedRegion region;
   private final AtomicBuffer buffer;
   private final long fileSize;
-
-  SingleProcessConcurrentFile(File file, FileChannel fileChannel, AtomicBuffer buffer, int fileSize) {
+  private final boolean framed;
+  private final boolean truncateOnClose;
+  private final Durability durability;
+  private final DurableWriteQueue durableWrites;
+  private PageToucher.Registration pageToucherRegistration;
+  private PeriodicFlusher periodicFlusher;
+  private WriteCounters counters;
+  private LatencyHistogram reserveToCommit;
+
+  SingleProcessConcurrentFile(File file, FileChannel fileChannel, MappedRegion region, int fileSize, boolean framed, boolean truncateOnClose,
+                              Durability durability) {
     this.file = file;
     this.fileChannel = fileChannel;
-    this.buffer = buffer;
+    this.region = region;
+    this.buffer = region.buffer();
     this.fileSize = fileSize;
+    this.framed = framed;
+    this.truncateOnClose = truncateOnClose;
+    this.durability = durability;
+    this.durableWrites = durability == Durability.NONE ? null : new DurableWriteQueue(DurableWriteQueue.DEFAULT_CAPACITY);
   }
 
   @Override
   public void close() throws IOException {
-    if(fileChannel.isOpen()) {
-      if(isPending())
-        throw new IOException("There are pending writes");
-      if(finalFileSize.get() >= 0)
-        fileChannel.truncate(finalFileSize.get());
-      fileChannel.close();
-      IoUtil.unmap(fileChannel, buffer.addressOffset(), fileSize);
+    if(fileChannel.isOpen() && isPending())
+      throw new IOException("There are pending writes");
+    // stop the flusher thread before taking the lock it flushes under
+    if(periodicFlusher != null)
+      periodicFlusher.close();
+    synchronized(flushLock) {
+      if(fileChannel.isOpen()) {
+        // stop touching pages before the file is truncated or unmapped
+        if(pageToucherRegistration != null)
+          pageToucherRegistration.close();
+        // force remaining writes before the file is truncated
+        if(durability != Durability.NONE)
+          forceCompletedWrites();
+        // hugetlbfs rejects sizes that are not aligned to the huge page size
+        if(truncateOnClose && finalFileSize.get() >= 0)
+          fileChannel.truncate(finalFileSize.get());
+        fileChannel.close();
+        region.unmap();
+      }
     }
   }
 
+  @Override
+  public void flush() throws IOException {
+    if(durability != Durability.NONE) {
+      synchronized(flushLock) {
+        if(fileChannel.isOpen())
+          forceCompletedWrites();
+      }
+    }
+  }
+
+  @Override
+  public long durablePosition() {
+    return durablePosition.get();
+  }
+
+  @Override
+  public Durability durability() {
+    return durability;
+  }
+
+  @Override
+  public void requestDurable(final DurableWrite durableWrite, final long position) throws IOException {
+    durableWrite.pending(position);
+    while(!durableWrites.offer(durableWrite)) {
+      if(!fileChannel.isOpen()) {
+        // flushing a closed file does nothing, so the queue would never drain
+        final IOException failure = new IOException("File is closed");
+        durableWrite.failed(failure);
+        throw failure;
+      }
+      // the queue is full, so force from this thread to drain it
+      flush();
+    }
+    if(durability == Durability.GROUP_COMMIT)
+      periodicFlusher.wake();
+  }
+
+  @Override
+  public void durableRequestStarted() {
+    durableRequestsInFlight.incrementAndGet();
+  }
+
+  @Override
+  public void durableRequestFinished() {
+    durableRequestsInFlight.decrementAndGet();
+  }
+
+  private void forceCompletedWrites() throws IOException {
+    final long fromOffset = durablePosition.get();
+    final long completedOffset = completedOffset(fromOffset);
+    // writes with a DurableWrite handle have completed, so they may be forced even while earlier writes are still in flight
+    final long toOffset = Math.max(completedOffset, durableWrites.drain());
+    if(toOffset > fromOffset) {
+      // map only the dirty range, so only that range is synced
+      try {
+        final MappedByteBuffer range = fileChannel.map(MapMode.READ_WRITE, fromOffset, toOffset - fromOffset);
+        try {
+          range.force();
+        } finally {
+          IoUtil.unmap(range);
+        }
+      } catch(IOException e) {
+        durableWrites.fail(e);
+        throw e;
+      }
+      durablePosition.set(Math.max(fromOffset, Math.min(completedOffset, toOffset)));
+    }
+    durableWrites.complete();
+  }
+
+  private long completedOffset(final long fromOffset) {
+    // writeComplete must be read first: if it matches nextWriteOffset, no writes were in flight when it was read
+    final long writeComplete = this.writeComplete.get();
+    final long nextWriteOffset = this.nextWriteOffset.get();
+    if(writeComplete == nextWriteOffset)
+      return Math.min(writeComplete, fileSize);
+    // writes are in flight, framed files can still be scanned up to the first incomplete frame
+    if(framed)
+      return Frames.scan(buffer, fromOffset, Math.min(nextWriteOffset, fileSize));
+    return fromOffset;
+  }
+
   @Override
   public boolean isPending() {
-    return nextWriteOffset.get() != writeComplete.get();
+    return nextWriteOffset.get() != writeComplete.get() || durableRequestsInFlight.get() != 0;
   }
 
   @Override
@@ -315,17 +525,45 @@ class SingleProcessConcurrentFile implements MappedConcurrentFile {
     return buffer;
   }
 
+  /**
+   * Count failed reservation attempts in the given {@link WriteCounters}. Must be called before the file is shared with writers.
+   *
+   * @param counters the counters, or null to not count
+   * @return this file
+   */
+  SingleProcessConcurrentFile counters(final WriteCounters counters) {
+    this.counters = counters;
+    return this;
+  }
+
+  /**
+   * Record the latency from each reservation until its write is complete in the given {@link LatencyHistogram}. Must be called before the file is shared with
+   * writers.
+   *
+   * @param reserveToCommit the histogram, or null to not record
+   * @return this file
+   */
+  SingleProcessConcurrentFile latency(final LatencyHistogram reserveToCommit) {
+    this.reserveToCommit = reserveToCommit;
+    return this;
+  }
+
   @Override
   public int reserve(int length) {
     long offset;
-    do {
+    while(true) {
       offset = nextWriteOffset.get();
       if(offset >= fileSize) {
         // offset exceeded capacity field, do not attempt to increment nextWriteOffset field, nothing more can ever be written
         // no outside write cycle, increment local writes complete now
         return NULL_OFFSET;
       }
-    } while(!nextWriteOffset.compareAndSet(offset, offset + length));
+      if(nextWriteOffset.compareAndSet(offset, offset + length))
+        break;
+      // another writer reserved first
+      if(counters != null)
+        counters.reserveRetried();
+    }
 
     if(offset + length > fileSize) {
       // first message that will not fit
@@ -336,6 +574,8 @@ class SingleProcessConcurrentFile implements MappedConcurrentFile {
       return NULL_OFFSET;
     }
 
+    if(reserveToCommit != null)
+      reserveToCommit.start();
     // return offset to write bytes
     return (int)offset;
   }
@@ -346,6 +586,17 @@ class SingleProcessConcurrentFile implements MappedConcurrentFile {
     do {
       lastVal = writeComplete.get();
     } while(!writeComplete.compareAndSet(lastVal, lastVal + length));
+    if(reserveToCommit != null)
+      reserveToCommit.recordSinceStart();
+  }
+
+  PageToucher.Registration pageToucherRegistration() {
+    return pageToucherRegistration;
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return nextWriteOffset.get();
   }
 
   @Override
@@ -14,11 +14,15 @@ package io.thill.jacoio.mapper;
 import io.thill.jacoio.function.FileCreatedListener;
 import io.thill.jacoio.function.FileProvider;
 
+import org.agrona.concurrent.IdleStrategy;
+
 import java.io.File;
 import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 /**
  * A {@link MappedFileProvider} that uses the underling {@link FileProvider} to map each and every new file
@@ -32,45 +36,110 @@ class SingleProcessMappedFileProvider implements MappedFileProvider {
   private final AtomicBoolean keepRunning = new AtomicBoolean(true);
   private final AtomicReference<MappedConcurrentFile> curFileRef = new AtomicReference<>();
   private final AtomicReference<MappedConcurrentFile> preallocatedFileRef = new AtomicReference<>();
+  private final BooleanSupplier isPreallocated = () -> preallocatedFileRef.get() != null;
+  private final AtomicReference<MappedConcurrentFile> resumedFileRef = new AtomicReference<>();
 
   private final int fileCapacity;
   private final boolean fillWithZeros;
+  private final int hugePageSize;
+  private final boolean framed;
+  private final boolean timestampFrames;
   private final FileProvider underlyingFileProvider;
-  private final boolean yieldOnAllocateContention;
+  private final RollHandoff preallocatedHandoff;
   private final boolean preallocate;
   private final long preallocateCheckMillis;
   private final FileCreatedListener fileCreatedListener;
+  private final PageToucher pageToucher;
+  private final Durability durability;
+  private final long flushIntervalMillis;
+  private final int windowSize;
+  private final Backend backend;
+  private final File mirrorDirectory;
+  private final WriteCounters counters;
+  private final LatencyHistogram reserveToCommit;
+  private final Preallocator preallocator;
+  private final Object preallocatorRegistration;
   private final Thread preallocateThread;
 
   SingleProcessMappedFileProvider(final int fileCapacity,
                                   final boolean fillWithZeros,
+                                  final int hugePageSize,
+                                  final boolean framed,
+                                  final boolean timestampFrames,
                                   final FileProvider underlyingFileProvider,
-                                  final boolean yieldOnAllocateContention,
+                                  final Supplier<IdleStrategy> idleStrategySupplier,
+                                  final boolean parkVirtualThreads,
                                   final boolean preallocate,
                                   final long preallocateCheckMillis,
-                                  final FileCreatedListener fileCreatedListener) {
+                                  final Preallocator preallocator,
+                                  final FileCreatedListener fileCreatedListener,
+                                  final PageToucher pageToucher,
+                                  final Durability durability,
+                                  final long flushIntervalMillis,
+                                  final boolean resume,
+                                  final int windowSize,
+                                  final Backend backend,
+                                  final File mirrorDirectory,
+                                  final WriteCounters counters,
+                                  final WriteLatency latency) throws IOException {
     this.fileCapacity = fileCapacity;
     this.fillWithZeros = fillWithZeros;
+    this.hugePageSize = hugePageSize;
+    this.framed = framed;
+    this.timestampFrames = timestampFrames;
     this.underlyingFileProvider = underlyingFileProvider;
-    this.yieldOnAllocateContention = yieldOnAllocateContention;
+    this.preallocatedHandoff = new RollHandoff(idleStrategySupplier, parkVirtualThreads);
     this.preallocate = preallocate;
     this.preallocateCheckMillis = preallocateCheckMillis;
+    this.preallocator = preallocator;
     this.fileCreatedListener = fileCreatedListener;
+    this.pageToucher = pageToucher;
+    this.durability = durability;
+    this.flushIntervalMillis = flushIntervalMillis;
+    this.windowSize = windowSize;
+    this.backend = backend;
+    this.mirrorDirectory = mirrorDirectory;
+    this.counters = counters;
+    this.reserveToCommit = latency == null ? null : latency.reserveToCommit();
+    if(mirrorDirectory != null)
+      mirrorDirectory.mkdirs();
 
-    if(preallocate) {
+    if(resume) {
+      // the last file is handed out by the first call to nextFile, ahead of any preallocated file
+      final File lastFile = underlyingFileProvider.lastFile();
+      if(lastFile != null && lastFile.exists())
+        resumedFileRef.set(resumeFile(lastFile));
+    }
+
+    if(preallocate && preallocator != null) {
+      preallocatorRegistration = preallocator.register(this::preallocateOnce);
+      preallocateThread = null;
+    } else if(preallocate) {
+      preallocatorRegistration = null;
       preallocateThread = new Thread(this::preallocateLoop, getClass().getSimpleName() + "-Preallocator-" + THREADNAME_INSTANCE.getAndIncrement());
       preallocateThread.start();
     } else {
+      preallocatorRegistration = null;
       preallocateThread = null;
     }
   }
 
+  @Override
+  public boolean isNextFilePreallocated() {
+    return preallocatedFileRef.get() != null;
+  }
+
   @Override
   public void close() throws IOException {
     keepRunning.set(false);
     if(preallocate) {
-      // kill the preallocate thread immediately
-      preallocateThread.interrupt();
+      if(preallocateThread != null) {
+        // kill the preallocate thread immediately
+        preallocateThread.interrupt();
+      } else {
+        // a shared preallocator must not be interrupted, but will not run this provider again once unregistered
+        preallocator.unregister(preallocatorRegistration);
+      }
 
       // delete the preallocated file if it exists
       final MappedConcurrentFile preallocatedFile = preallocatedFileRef.getAndSet(null);
@@ -84,15 +153,23 @@ class SingleProcessMappedFileProvider implements MappedFileProvider {
 
   @Override
   public MappedConcurrentFile nextFile() throws IOException {
-    MappedConcurrentFile curFile;
+    // continue appending to the file left behind by the previous run first
+    MappedConcurrentFile curFile = resumedFileRef.getAndSet(null);
+    if(curFile != null) {
+      curFileRef.set(curFile);
+      return curFile;
+    }
     if(preallocate) {
       // swap to preallocated file
       curFile = preallocatedFileRef.getAndSet(null);
-      while(curFile == null) {
-        // file is not preallocated yet, yield and try again
-        if(yieldOnAllocateContention)
-          Thread.yield();
-        curFile = preallocatedFileRef.getAndSet(null);
+      if(curFile == null) {
+        // file is not preallocated yet, wait for the preallocation thread and try again
+        if(counters != null)
+          counters.preallocationMissed();
+        final Object event = FlightRecorderEvents.begin(FlightRecorderEvents.PREALLOCATION_WAIT);
+        while((curFile = preallocatedFileRef.getAndSet(null)) == null)
+          preallocatedHandoff.await(isPreallocated, false, 0);
+        FlightRecorderEvents.commit(event, curFile.getFile(), curFile.capacity());
       }
     } else {
       // allocate inline
@@ -103,33 +180,59 @@ class SingleProcessMappedFileProvider implements MappedFileProvider {
   }
 
   private MappedConcurrentFile mapFile(File file) throws IOException {
-    final MappedConcurrentFile mappedFile = SingleProcessConcurrentFile.map(file, fileCapacity, fillWithZeros);
+    MappedConcurrentFile mappedFile;
+    if(backend == Backend.PWRITE)
+      mappedFile = PositionalConcurrentFile.map(file, fileCapacity, fillWithZeros);
+    else if(backend == Backend.DIRECT)
+      mappedFile = DirectConcurrentFile.map(file, fileCapacity);
+    else if(windowSize > 0)
+      mappedFile = WindowedConcurrentFile.map(file, fileCapacity, fillWithZeros, windowSize, false);
+    else
+      mappedFile = SingleProcessConcurrentFile.map(file, fileCapacity, fillWithZeros, framed, hugePageSize, pageToucher, durability, flushIntervalMillis,
+              backend).counters(counters).latency(reserveToCommit);
+    if(mirrorDirectory != null)
+      mappedFile = MirroredConcurrentFile.map(mappedFile, new File(mirrorDirectory, file.getName()), fillWithZeros);
+    if(framed)
+      mappedFile = new FramedConcurrentFile(mappedFile, timestampFrames);
     if(fileCreatedListener != null)
       fileCreatedListener.onCreated(mappedFile);
     return mappedFile;
   }
 
+  private MappedConcurrentFile resumeFile(File file) throws IOException {
+    MappedConcurrentFile mappedFile = SingleProcessConcurrentFile.resume(file, fileCapacity, fillWithZeros, framed, pageToucher, durability,
+            flushIntervalMillis, backend).counters(counters).latency(reserveToCommit);
+    if(framed)
+      mappedFile = new FramedConcurrentFile(mappedFile, timestampFrames);
+    return mappedFile;
+  }
+
   private void preallocateLoop() {
     try {
       while(keepRunning.get()) {
-        if(preallocatedFileRef.get() == null) {
-          final File file = underlyingFileProvider.nextFile();
-          try {
-            final MappedConcurrentFile nextFile = mapFile(file);
-            preallocatedFileRef.set(nextFile);
-          } catch(Throwable t) {
-            if(keepRunning.get()) {
-              t.printStackTrace();
-            }
-            file.delete();
-          }
-        } else {
+        if(!preallocateOnce())
           Thread.sleep(preallocateCheckMillis);
-        }
       }
     } catch(InterruptedException e) {
       // ignore
     }
   }
 
+  private boolean preallocateOnce() {
+    if(preallocatedFileRef.get() != null)
+      return false;
+    final File file = underlyingFileProvider.nextFile();
+    try {
+      final MappedConcurrentFile nextFile = mapFile(file);
+      preallocatedFileRef.set(nextFile);
+      preallocatedHandoff.signal();
+    } catch(Throwable t) {
+      if(keepRunning.get()) {
+        t.printStackTrace();
+      }
+      file.delete();
+    }
+    return true;
+  }
+
 }
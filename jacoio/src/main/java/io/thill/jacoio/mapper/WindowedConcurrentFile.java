@@ -0,0 +1,584 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.BiParametizedWriteFunction;
+import io.thill.jacoio.function.ParametizedWriteFunction;
+import io.thill.jacoio.function.TriParametizedWriteFunction;
+import io.thill.jacoio.function.WriteFunction;
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Extends {@link ConcurrentFile} to provide single-process writing without mapping the entire file up front. The file is split into fixed-size windows that
+ * are mapped the first time a write reaches them, and unmapped as soon as every byte in them has been written, so the mapped memory of a file is bounded by the
+ * windows that still have writes in flight instead of by its capacity.
+ * <p>
+ * A growable file is never full until its offsets reach {@link Integer#MAX_VALUE}. Reservations only advance the write offset, without any capacity check
+ * or lock, and the file is extended by the first writer to reach a window that lies beyond the end of the file. The window after it is extended and mapped at
+ * the same time, so writers rarely wait on growth. A growable file is truncated to the bytes that were written when it is closed.
+ * <p>
+ * A write that straddles two windows is staged in a thread-local buffer and copied into both windows. Since there is no buffer spanning the entire file, this
+ * file cannot be wrapped by a {@link FramedConcurrentFile} or registered with a {@link PageToucher}.
+ *
+ * @author Eric Thill
+ */
+class WindowedConcurrentFile implements MappedConcurrentFile {
+
+  /**
+   * Create and map a new file
+   *
+   * @param file          the file to create
+   * @param capacity      the capacity of the file
+   * @param fillWithZeros true to fill the file with zeros
+   * @param windowSize    the size of each mapped window, which must be a power of 2 and a multiple of the page size
+   * @param growable      true to extend the file instead of failing writes once the capacity is exceeded, in which case the capacity is the initial size
+   * @return the mapped file
+   * @throws IOException
+   */
+  static WindowedConcurrentFile map(File file, int capacity, boolean fillWithZeros, int windowSize, boolean growable) throws IOException {
+    if(file.exists())
+      throw new IOException("File Exists. WindowedConcurrentFile cannot modify an existing getFile.");
+    final FileChannel fileChannel = IoUtil.createEmptyFile(file, capacity, fillWithZeros);
+    return new WindowedConcurrentFile(file, fileChannel, growable ? Integer.MAX_VALUE : capacity, windowSize, fillWithZeros, growable);
+  }
+
+  private static final Window RETIRED = new Window(0, 0, null);
+
+  private final AtomicLong nextWriteOffset = new AtomicLong(0);
+  private final AtomicLong writeComplete = new AtomicLong(0);
+  private final AtomicLong finalFileSize = new AtomicLong(-1);
+  private final ThreadLocal<Cursor> cursors = ThreadLocal.withInitial(Cursor::new);
+  private final Object mapLock = new Object();
+  private final File file;
+  private final FileChannel fileChannel;
+  private final long fileSize;
+  private final int windowSize;
+  private final boolean fillWithZeros;
+  private final boolean growable;
+  private final int windowShift;
+  private final AtomicReferenceArray<Window> windows;
+  private final AtomicIntegerArray windowBytesComplete;
+
+  WindowedConcurrentFile(File file, FileChannel fileChannel, int fileSize, int windowSize, boolean fillWithZeros, boolean growable) {
+    this.file = file;
+    this.fileChannel = fileChannel;
+    this.fileSize = fileSize;
+    this.windowSize = windowSize;
+    this.fillWithZeros = fillWithZeros;
+    this.growable = growable;
+    this.windowShift = Integer.numberOfTrailingZeros(windowSize);
+    final int numWindows = (int)(((long)fileSize + windowSize - 1) >> windowShift);
+    this.windows = new AtomicReferenceArray<>(numWindows);
+    this.windowBytesComplete = new AtomicIntegerArray(numWindows);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if(fileChannel.isOpen() && isPending())
+      throw new IOException("There are pending writes");
+    synchronized(mapLock) {
+      if(fileChannel.isOpen()) {
+        for(int i = 0; i < windows.length(); i++) {
+          final Window window = windows.getAndSet(i, RETIRED);
+          if(window != null && window != RETIRED)
+            window.unmap(fileChannel);
+        }
+        if(finalFileSize.get() >= 0)
+          fileChannel.truncate(finalFileSize.get());
+        else if(growable)
+          fileChannel.truncate(nextWriteOffset.get());
+        fileChannel.close();
+      }
+    }
+  }
+
+  @Override
+  public void flush() {
+    // durability is not supported by windowed files
+  }
+
+  @Override
+  public long durablePosition() {
+    return 0;
+  }
+
+  @Override
+  public Durability durability() {
+    return Durability.NONE;
+  }
+
+  @Override
+  public boolean isPending() {
+    return nextWriteOffset.get() != writeComplete.get();
+  }
+
+  @Override
+  public void finish() {
+    // this will happen automatically if we reserve more bytes than can fit in the int32 (minus header) worth of data
+    reserve(Integer.MAX_VALUE);
+  }
+
+  @Override
+  public boolean isFinished() {
+    final long writeComplete = this.writeComplete.get();
+    final long nextOffset = this.nextWriteOffset.get();
+    return writeComplete == nextOffset && writeComplete >= fileSize && finalFileSize.get() > 0;
+  }
+
+  @Override
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int write(final byte[] srcBytes, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcBytes, srcOffset, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final DirectBuffer srcBuffer, final int srcOffset, final int length) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcBuffer, srcOffset, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final ByteBuffer srcByteBuffer) throws IOException {
+    final int length = srcByteBuffer.remaining();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putBytes(cursor.index, srcByteBuffer, srcByteBuffer.position(), length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeAscii(final CharSequence srcCharSequence) throws IOException {
+    final int length = srcCharSequence.length();
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        final char c = srcCharSequence.charAt(i);
+        cursor.buffer.putByte(cursor.index + i, c > 127 ? (byte)'?' : (byte)c);
+      }
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeChars(final CharSequence srcCharSequence, ByteOrder byteOrder) throws IOException {
+    final int length = srcCharSequence.length() * 2;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      for(int i = 0; i < srcCharSequence.length(); i++) {
+        cursor.buffer.putChar(cursor.index + (i * 2), srcCharSequence.charAt(i), byteOrder);
+      }
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int write(final int length, final WriteFunction writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P> int write(final int length, final P parameter, final ParametizedWriteFunction<P> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2> int write(final int length, final P1 parameter1, final P2 parameter2, final BiParametizedWriteFunction<P1, P2> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter1, parameter2);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public <P1, P2, P3> int write(final int length, final P1 parameter1, final P2 parameter2, P3 parameter3, final TriParametizedWriteFunction<P1, P2, P3> writeFunction) throws IOException {
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      writeFunction.write(cursor.buffer, cursor.index, length, parameter1, parameter2, parameter3);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLong(final long value, final ByteOrder byteOrder) throws IOException {
+    final int length = 8;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final ByteOrder byteOrder) throws IOException {
+    final int length = 16;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final ByteOrder byteOrder) throws IOException {
+    final int length = 24;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      cursor.buffer.putLong(cursor.index + 16, value3, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public int writeLongs(final long value1, final long value2, final long value3, final long value4, final ByteOrder byteOrder) throws IOException {
+    final int length = 32;
+    final int dstOffset = reserve(length);
+    if(dstOffset < 0)
+      return NULL_OFFSET;
+
+    try {
+      final Cursor cursor = open(dstOffset, length);
+      cursor.buffer.putLong(cursor.index, value1, byteOrder);
+      cursor.buffer.putLong(cursor.index + 8, value2, byteOrder);
+      cursor.buffer.putLong(cursor.index + 16, value3, byteOrder);
+      cursor.buffer.putLong(cursor.index + 24, value4, byteOrder);
+      commit(cursor);
+    } finally {
+      wrote(dstOffset, length);
+    }
+
+    return dstOffset;
+  }
+
+  @Override
+  public AtomicBuffer getBuffer() {
+    throw new UnsupportedOperationException("WindowedConcurrentFile does not map a single buffer");
+  }
+
+  @Override
+  public int reserve(int length) {
+    long offset;
+    do {
+      offset = nextWriteOffset.get();
+      if(offset >= fileSize) {
+        // offset exceeded capacity field, do not attempt to increment nextWriteOffset field, nothing more can ever be written
+        return NULL_OFFSET;
+      }
+    } while(!nextWriteOffset.compareAndSet(offset, offset + length));
+
+    if(offset + length > fileSize) {
+      // first message that will not fit
+      // set final getFile size
+      finalFileSize.set(offset);
+      // the bytes up to capacity will never be written, so count them as complete to retire the last windows
+      wrote(offset, length);
+      return NULL_OFFSET;
+    }
+
+    // return offset to write bytes
+    return (int)offset;
+  }
+
+  @Override
+  public void wrote(int length) {
+    throw new UnsupportedOperationException("WindowedConcurrentFile must be told the offset of each write");
+  }
+
+  @Override
+  public void wrote(final int offset, final int length) {
+    wrote((long)offset, length);
+  }
+
+  private void wrote(final long offset, final int length) {
+    // count the bytes as complete in every window they overlap, retiring each window that is now entirely written
+    final long end = Math.min(offset + length, fileSize);
+    long windowOffset = offset;
+    while(windowOffset < end) {
+      final int windowIndex = (int)(windowOffset >> windowShift);
+      final long windowEnd = Math.min((long)(windowIndex + 1) << windowShift, fileSize);
+      final int numBytes = (int)(Math.min(end, windowEnd) - windowOffset);
+      final int windowLength = (int)(windowEnd - ((long)windowIndex << windowShift));
+      if(windowBytesComplete.addAndGet(windowIndex, numBytes) == windowLength)
+        retire(windowIndex);
+      windowOffset += numBytes;
+    }
+
+    long lastVal;
+    do {
+      lastVal = writeComplete.get();
+    } while(!writeComplete.compareAndSet(lastVal, lastVal + length));
+  }
+
+  private Cursor open(final long offset, final int length) throws IOException {
+    final Cursor cursor = cursors.get();
+    final Window window = window((int)(offset >> windowShift));
+    final long index = offset - window.offset;
+    cursor.offset = offset;
+    cursor.length = length;
+    if(index + length <= window.length) {
+      cursor.buffer = window.buffer;
+      cursor.index = (int)index;
+      cursor.staged = false;
+    } else {
+      // the write straddles windows, so it is staged and copied into each window on commit
+      if(cursor.staging.capacity() < length)
+        cursor.staging.wrap(new byte[Math.max(length, cursor.staging.capacity() * 2)]);
+      cursor.buffer = cursor.staging;
+      cursor.index = 0;
+      cursor.staged = true;
+    }
+    return cursor;
+  }
+
+  private void commit(final Cursor cursor) throws IOException {
+    if(!cursor.staged)
+      return;
+    long offset = cursor.offset;
+    int stagingIndex = 0;
+    while(stagingIndex < cursor.length) {
+      final Window window = window((int)(offset >> windowShift));
+      final int index = (int)(offset - window.offset);
+      final int numBytes = Math.min(cursor.length - stagingIndex, window.length - index);
+      window.buffer.putBytes(index, cursor.staging, stagingIndex, numBytes);
+      stagingIndex += numBytes;
+      offset += numBytes;
+    }
+  }
+
+  private Window window(final int windowIndex) throws IOException {
+    Window window = windows.get(windowIndex);
+    if(window == null) {
+      synchronized(mapLock) {
+        window = windows.get(windowIndex);
+        if(window == null) {
+          window = mapWindow(windowIndex);
+          // grow one window ahead, so the next writer to cross a window boundary does not wait for the file to be extended
+          if(growable && windowIndex + 1 < windows.length() && windows.get(windowIndex + 1) == null)
+            mapWindow(windowIndex + 1);
+        }
+      }
+    }
+    if(window == RETIRED)
+      throw new IllegalStateException("Window " + windowIndex + " was already retired");
+    return window;
+  }
+
+  private Window mapWindow(final int windowIndex) throws IOException {
+    final long windowOffset = (long)windowIndex << windowShift;
+    final int windowLength = (int)Math.min(windowSize, fileSize - windowOffset);
+    // nothing can have been written beyond the end of the file yet, since every window is extended before it is mapped
+    final long size = fileChannel.size();
+    final long windowEnd = windowOffset + windowLength;
+    if(size < windowEnd) {
+      if(fillWithZeros)
+        IoUtil.fill(fileChannel, size, windowEnd - size, (byte)0);
+      else
+        fileChannel.write(ByteBuffer.wrap(new byte[1]), windowEnd - 1);
+    }
+    final Window window = new Window(windowOffset, windowLength, new UnsafeBuffer(IoUtil.map(fileChannel, MapMode.READ_WRITE, windowOffset, windowLength),
+            windowLength));
+    windows.set(windowIndex, window);
+    return window;
+  }
+
+  private void retire(final int windowIndex) {
+    // no write can still reference the window, since every byte in it has been written
+    synchronized(mapLock) {
+      final Window window = windows.getAndSet(windowIndex, RETIRED);
+      if(window != null && window != RETIRED && fileChannel.isOpen())
+        window.unmap(fileChannel);
+    }
+  }
+
+  int numMappedWindows() {
+    int numMapped = 0;
+    for(int i = 0; i < windows.length(); i++) {
+      final Window window = windows.get(i);
+      if(window != null && window != RETIRED)
+        numMapped++;
+    }
+    return numMapped;
+  }
+
+  @Override
+  public long nextWriteOffset() {
+    return nextWriteOffset.get();
+  }
+
+  @Override
+  public int capacity() {
+    return (int)fileSize;
+  }
+
+  @Override
+  public boolean hasAvailableCapacity() {
+    return nextWriteOffset.get() < fileSize;
+  }
+
+  private static final class Window {
+    private final long offset;
+    private final int length;
+    private final AtomicBuffer buffer;
+
+    Window(final long offset, final int length, final AtomicBuffer buffer) {
+      this.offset = offset;
+      this.length = length;
+      this.buffer = buffer;
+    }
+
+    void unmap(final FileChannel fileChannel) {
+      IoUtil.unmap(fileChannel, buffer.addressOffset(), length);
+    }
+  }
+
+  private static final class Cursor {
+    private final UnsafeBuffer staging = new UnsafeBuffer(new byte[64]);
+    private AtomicBuffer buffer;
+    private int index;
+    private long offset;
+    private int length;
+    private boolean staged;
+  }
+}
@@ -0,0 +1,239 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.concurrent.status.AtomicCounter;
+
+import java.io.File;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The counters of a single file, allocated in a {@link CountersFile}. Each writing thread gets its own counters the first time it writes, so the write path
+ * only performs ordered single-writer increments that never contend with other threads. Threads that cannot get their own counters because the
+ * {@link CountersFile} is full share fallback counters that are incremented atomically. Once a thread has died and been garbage collected, its counts are
+ * added to the fallback counters and its own counters are freed for the next new thread, so a pool that keeps replacing its threads does not fill the
+ * {@link CountersFile}. Rolling, preallocation, and close counters are off the write path, so they are shared and incremented atomically. All counters are
+ * freed when this is closed.
+ *
+ * @author Eric Thill
+ */
+class WriteCounters implements AutoCloseable {
+
+  private final List<AtomicCounter> allocated = new ArrayList<>();
+  private final ReferenceQueue<Thread> deadThreads = new ReferenceQueue<>();
+  // keeps each thread's reference reachable until it is polled from deadThreads
+  private final Set<ThreadReference> liveThreads = ConcurrentHashMap.newKeySet();
+  private final CountersFile countersFile;
+  private final String labelPrefix;
+  private final AtomicCounter rolls;
+  private final AtomicCounter rollStallNanos;
+  private final AtomicCounter preallocationMisses;
+  private final AtomicCounter pendingCloses;
+  private final ThreadCounters sharedThreadCounters;
+  private final ThreadLocal<ThreadCounters> threadCounters;
+
+  WriteCounters(final CountersFile countersFile, final File location) {
+    this.countersFile = countersFile;
+    this.labelPrefix = location.getAbsolutePath() + " ";
+    try {
+      this.rolls = allocate("rolls", CountersFile.ROLLS_TYPE_ID);
+      this.rollStallNanos = allocate("rollStallNanos", CountersFile.ROLL_STALL_NANOS_TYPE_ID);
+      this.preallocationMisses = allocate("preallocationMisses", CountersFile.PREALLOCATION_MISSES_TYPE_ID);
+      this.pendingCloses = allocate("pendingCloses", CountersFile.PENDING_CLOSES_TYPE_ID);
+      this.sharedThreadCounters = newThreadCounters("thread=shared", true);
+    } catch(RuntimeException e) {
+      close();
+      throw e;
+    }
+    if(sharedThreadCounters == null) {
+      close();
+      throw new IllegalStateException("Counters file is full: " + countersFile.getFile().getAbsolutePath());
+    }
+    this.threadCounters = ThreadLocal.withInitial(() -> {
+      freeDeadThreadCounters();
+      final ThreadCounters counters = newThreadCounters("thread=" + Thread.currentThread().getName(), false);
+      if(counters == null)
+        return sharedThreadCounters;
+      liveThreads.add(new ThreadReference(Thread.currentThread(), counters, deadThreads));
+      return counters;
+    });
+  }
+
+  private void freeDeadThreadCounters() {
+    ThreadReference reference;
+    while((reference = (ThreadReference)deadThreads.poll()) != null) {
+      liveThreads.remove(reference);
+      final ThreadCounters counters = reference.counters;
+      synchronized(allocated) {
+        // the counters were already freed if this was closed
+        if(allocated.removeAll(counters.all)) {
+          counters.addTo(sharedThreadCounters);
+          counters.all.forEach(AtomicCounter::close);
+        }
+      }
+    }
+  }
+
+  private AtomicCounter allocate(final String name, final int typeId) {
+    final AtomicCounter counter = countersFile.newCounter(labelPrefix + name, typeId);
+    if(counter == null)
+      throw new IllegalStateException("Counters file is full: " + countersFile.getFile().getAbsolutePath());
+    synchronized(allocated) {
+      allocated.add(counter);
+    }
+    return counter;
+  }
+
+  private ThreadCounters newThreadCounters(final String suffix, final boolean shared) {
+    final List<AtomicCounter> counters = new ArrayList<>(4);
+    for(int typeId : new int[] { CountersFile.WRITES_TYPE_ID, CountersFile.BYTES_WRITTEN_TYPE_ID, CountersFile.NULL_OFFSETS_TYPE_ID,
+            CountersFile.RESERVE_RETRIES_TYPE_ID }) {
+      final AtomicCounter counter = countersFile.newCounter(labelPrefix + typeName(typeId) + " " + suffix, typeId);
+      if(counter == null) {
+        // the file is full, release the counters allocated so far
+        counters.forEach(AtomicCounter::close);
+        return null;
+      }
+      counters.add(counter);
+    }
+    synchronized(allocated) {
+      allocated.addAll(counters);
+    }
+    return new ThreadCounters(counters, shared);
+  }
+
+  private static String typeName(final int typeId) {
+    switch(typeId) {
+      case CountersFile.WRITES_TYPE_ID:
+        return "writes";
+      case CountersFile.BYTES_WRITTEN_TYPE_ID:
+        return "bytesWritten";
+      case CountersFile.NULL_OFFSETS_TYPE_ID:
+        return "nullOffsets";
+      default:
+        return "reserveRetries";
+    }
+  }
+
+  /**
+   * Count a write by the calling thread
+   *
+   * @param offset the offset returned by the write
+   * @param length the number of bytes written
+   * @return the given offset
+   */
+  int wrote(final int offset, final int length) {
+    threadCounters.get().wrote(offset, length);
+    return offset;
+  }
+
+  /**
+   * Count a failed compare-and-set attempt by the calling thread while reserving space
+   */
+  void reserveRetried() {
+    threadCounters.get().reserveRetried();
+  }
+
+  void rolled() {
+    rolls.increment();
+  }
+
+  void rollStalled(final long nanos) {
+    rollStallNanos.getAndAdd(nanos);
+  }
+
+  void preallocationMissed() {
+    preallocationMisses.increment();
+  }
+
+  void closeScheduled() {
+    pendingCloses.increment();
+  }
+
+  void closeCompleted() {
+    pendingCloses.getAndAdd(-1);
+  }
+
+  @Override
+  public void close() {
+    synchronized(allocated) {
+      allocated.forEach(AtomicCounter::close);
+      allocated.clear();
+    }
+  }
+
+  private static final class ThreadReference extends WeakReference<Thread> {
+    private final ThreadCounters counters;
+
+    private ThreadReference(final Thread thread, final ThreadCounters counters, final ReferenceQueue<Thread> queue) {
+      super(thread, queue);
+      this.counters = counters;
+    }
+  }
+
+  private static final class ThreadCounters {
+    private final List<AtomicCounter> all;
+    private final AtomicCounter writes;
+    private final AtomicCounter bytesWritten;
+    private final AtomicCounter nullOffsets;
+    private final AtomicCounter reserveRetries;
+    private final boolean shared;
+
+    private ThreadCounters(final List<AtomicCounter> all, final boolean shared) {
+      this.all = all;
+      this.writes = all.get(0);
+      this.bytesWritten = all.get(1);
+      this.nullOffsets = all.get(2);
+      this.reserveRetries = all.get(3);
+      this.shared = shared;
+    }
+
+    private void addTo(final ThreadCounters shared) {
+      // the owning thread is dead, so its ordered increments are complete
+      shared.writes.getAndAdd(writes.get());
+      shared.bytesWritten.getAndAdd(bytesWritten.get());
+      shared.nullOffsets.getAndAdd(nullOffsets.get());
+      shared.reserveRetries.getAndAdd(reserveRetries.get());
+    }
+
+    private void wrote(final int offset, final int length) {
+      if(shared) {
+        if(offset == ConcurrentFile.NULL_OFFSET) {
+          nullOffsets.increment();
+        } else {
+          writes.increment();
+          bytesWritten.getAndAdd(length);
+        }
+      } else {
+        if(offset == ConcurrentFile.NULL_OFFSET) {
+          nullOffsets.incrementOrdered();
+        } else {
+          writes.incrementOrdered();
+          bytesWritten.getAndAddOrdered(length);
+        }
+      }
+    }
+
+    private void reserveRetried() {
+      if(shared)
+        reserveRetries.increment();
+      else
+        reserveRetries.incrementOrdered();
+    }
+  }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+
+import java.io.File;
+
+/**
+ * The write latency histograms of a {@link ConcurrentFile}, recorded when passed to {@link ConcurrentFileMapper#latency(WriteLatency)}. Files mapped without
+ * it do not record anything.
+ *
+ * @author Eric Thill
+ */
+public class WriteLatency {
+
+  private final LatencyHistogram write = new LatencyHistogram();
+  private final LatencyHistogram reserveToCommit = new LatencyHistogram();
+  private final LatencyHistogram rollStall = new LatencyHistogram();
+
+  /**
+   * Get the histogram of end-to-end latencies of every write method, including time spent waiting for rolls
+   *
+   * @return the histogram
+   */
+  public LatencyHistogram write() {
+    return write;
+  }
+
+  /**
+   * Get the histogram of latencies from reserving space in a file until the write to that space is complete. Only recorded by the {@link Backend#MMAP} and
+   * {@link Backend#SEGMENT} backends without windowSize or growable.
+   *
+   * @return the histogram
+   */
+  public LatencyHistogram reserveToCommit() {
+    return reserveToCommit;
+  }
+
+  /**
+   * Get the histogram of time writers spent waiting for a full rolling file to be replaced
+   *
+   * @return the histogram
+   */
+  public LatencyHistogram rollStall() {
+    return rollStall;
+  }
+
+  /**
+   * Periodically append a snapshot of every histogram to the given file from a background thread
+   *
+   * @param file           the file to append to
+   * @param intervalMillis the interval between snapshots
+   * @return the dumper, which must be closed to stop dumping
+   */
+  public LatencyDumper dumpTo(File file, long intervalMillis) {
+    if(intervalMillis <= 0)
+      throw new IllegalArgumentException("intervalMillis must be positive");
+    return new LatencyDumper(this, file, intervalMillis);
+  }
+
+  @Override
+  public String toString() {
+    return "write: " + write.snapshot() + " | reserveToCommit: " + reserveToCommit.snapshot() + " | rollStall: " + rollStall.snapshot();
+  }
+}
@@ -0,0 +1,156 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.File;
+
+/**
+ * Emits Java Flight Recorder events around the places writers and background threads can lose time. This is the JDK 11 multi-release implementation. Every
+ * event type is disabled by default and must be enabled by name in the recording settings, such as {@code jdk.jfr.Enabled} for {@code io.thill.jacoio.Roll}.
+ * While an event type is not being recorded, {@link FlightRecorderEvents#begin(int)} only checks a flag and allocates nothing.
+ *
+ * @author Eric Thill
+ */
+final class FlightRecorderEvents {
+
+  static final int ROLL = 0;
+  static final int ROLL_WAIT = 1;
+  static final int PREALLOCATION_WAIT = 2;
+  static final int MAP = 3;
+  static final int CLOSE_PENDING = 4;
+  static final int CLOSE = 5;
+  static final int LOCK = 6;
+
+  private static final EventType[] EVENT_TYPES = {
+          EventType.getEventType(RollEvent.class),
+          EventType.getEventType(RollWaitEvent.class),
+          EventType.getEventType(PreallocationWaitEvent.class),
+          EventType.getEventType(MapEvent.class),
+          EventType.getEventType(ClosePendingEvent.class),
+          EventType.getEventType(CloseEvent.class),
+          EventType.getEventType(LockEvent.class)
+  };
+
+  static boolean isSupported() {
+    return true;
+  }
+
+  static Object begin(final int type) {
+    if(!EVENT_TYPES[type].isEnabled())
+      return null;
+    final FileEvent event;
+    switch(type) {
+      case ROLL:
+        event = new RollEvent();
+        break;
+      case ROLL_WAIT:
+        event = new RollWaitEvent();
+        break;
+      case PREALLOCATION_WAIT:
+        event = new PreallocationWaitEvent();
+        break;
+      case MAP:
+        event = new MapEvent();
+        break;
+      case CLOSE_PENDING:
+        event = new ClosePendingEvent();
+        break;
+      case CLOSE:
+        event = new CloseEvent();
+        break;
+      default:
+        event = new LockEvent();
+        break;
+    }
+    event.begin();
+    return event;
+  }
+
+  static void commit(final Object event, final File file, final long capacity) {
+    if(event == null)
+      return;
+    final FileEvent fileEvent = (FileEvent)event;
+    fileEvent.end();
+    if(fileEvent.shouldCommit()) {
+      fileEvent.file = file == null ? null : file.getAbsolutePath();
+      fileEvent.capacity = capacity;
+      fileEvent.commit();
+    }
+  }
+
+  private FlightRecorderEvents() {
+  }
+
+  @Category("jacoio")
+  @Enabled(false)
+  @StackTrace(false)
+  abstract static class FileEvent extends Event {
+    @Label("File")
+    String file;
+
+    @Label("Capacity")
+    @DataAmount
+    long capacity;
+  }
+
+  @Name("io.thill.jacoio.Roll")
+  @Label("Roll")
+  @Description("A thread that won a roll, closing the full file and swapping in the next one")
+  static class RollEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.RollWait")
+  @Label("Roll Wait")
+  @Description("A thread waiting for another thread's roll to complete")
+  static class RollWaitEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.PreallocationWait")
+  @Label("Preallocation Wait")
+  @Description("A roll waiting for the preallocation thread to provide the next file")
+  static class PreallocationWaitEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.Map")
+  @Label("Map")
+  @Description("Creating and mapping a new file")
+  static class MapEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.ClosePending")
+  @Label("Close Pending")
+  @Description("A close task waiting for the pending writes of a rolled file to complete")
+  static class ClosePendingEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.Close")
+  @Label("Close")
+  @Description("Unmapping and truncating a file")
+  static class CloseEvent extends FileEvent {
+  }
+
+  @Name("io.thill.jacoio.Lock")
+  @Label("Lock")
+  @Description("Taking the lease of a multi-process coordination file")
+  static class LockEvent extends FileEvent {
+  }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.VarHandle;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A mapped range of a file, used to map, unmap, and atomically access the header fields of a file independently of the {@link Backend}. This is the JDK 22
+ * multi-release implementation, which adds support for {@link Backend#SEGMENT}: the range is mapped into a {@link MemorySegment} owned by a shared {@link
+ * Arena}, so closing the arena unmaps it without relying on JDK internals, and header fields are accessed through {@link VarHandle} atomics on the segment.
+ * Only those header atomics go through the segment: the write paths are shared with {@link Backend#MMAP}, so they still write through an {@link UnsafeBuffer}
+ * over the segment's address, which relies on Unsafe.
+ *
+ * @author Eric Thill
+ */
+final class MappedRegion {
+
+  private static final VarHandle LONG_HANDLE = ValueLayout.JAVA_LONG.varHandle();
+
+  static boolean isSegmentSupported() {
+    return true;
+  }
+
+  static MappedRegion map(final FileChannel fileChannel, final long offset, final int length, final Backend backend) throws IOException {
+    if(backend == Backend.SEGMENT) {
+      final Arena arena = Arena.ofShared();
+      try {
+        final MemorySegment segment = fileChannel.map(MapMode.READ_WRITE, offset, length, arena);
+        return new MappedRegion(fileChannel, arena, segment, new UnsafeBuffer(segment.address(), length));
+      } catch(IOException | RuntimeException e) {
+        arena.close();
+        throw e;
+      }
+    }
+    if(backend != Backend.MMAP)
+      throw new UnsupportedOperationException("The " + backend + " backend does not map files");
+    final long address = IoUtil.map(fileChannel, MapMode.READ_WRITE, offset, length);
+    return new MappedRegion(fileChannel, null, null, new UnsafeBuffer(address, length));
+  }
+
+  private final FileChannel fileChannel;
+  private final Arena arena;
+  private final MemorySegment segment;
+  private final AtomicBuffer buffer;
+
+  private MappedRegion(final FileChannel fileChannel, final Arena arena, final MemorySegment segment, final AtomicBuffer buffer) {
+    this.fileChannel = fileChannel;
+    this.arena = arena;
+    this.segment = segment;
+    this.buffer = buffer;
+  }
+
+  AtomicBuffer buffer() {
+    return buffer;
+  }
+
+  long getLongVolatile(final int index) {
+    if(segment == null)
+      return buffer.getLongVolatile(index);
+    return (long)LONG_HANDLE.getVolatile(segment, (long)index);
+  }
+
+  void putLongVolatile(final int index, final long value) {
+    if(segment == null)
+      buffer.putLongVolatile(index, value);
+    else
+      LONG_HANDLE.setVolatile(segment, (long)index, value);
+  }
+
+  boolean compareAndSetLong(final int index, final long expectedValue, final long updateValue) {
+    if(segment == null)
+      return buffer.compareAndSetLong(index, expectedValue, updateValue);
+    return LONG_HANDLE.compareAndSet(segment, (long)index, expectedValue, updateValue);
+  }
+
+  void unmap() {
+    if(arena == null)
+      IoUtil.unmap(fileChannel, buffer.addressOffset(), buffer.capacity());
+    else
+      arena.close();
+  }
+}
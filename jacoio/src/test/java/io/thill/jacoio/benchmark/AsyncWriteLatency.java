@@ -0,0 +1,98 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Compares caller-side write latency of direct writes against {@code async(true)} writes. Files are not filled with zeros, so direct writers take the page
+ * faults of a fresh mapping while async writers only copy into the ring. Every write is timed individually, and writers pause between writes so the async
+ * drainer is not simply saturated. Rejected async writes are counted, but not timed.
+ * <p>
+ * Usage: AsyncWriteLatency [num threads] [writes per thread]
+ */
+public class AsyncWriteLatency {
+
+  private static final int WRITE_SIZE = 64;
+  private static final int RING_CAPACITY = 64 * 1024 * 1024;
+  private static final long PAUSE_NANOS = 1_000;
+
+  public static void main(String[] args) throws Exception {
+    final int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    final int writesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+    final File directory = new File("target/benchmark");
+    directory.mkdirs();
+
+    for(int i = 0; i < 3; i++) {
+      run(new File(directory, "latency.bin"), numThreads, writesPerThread, false);
+      run(new File(directory, "latency.bin"), numThreads, writesPerThread, true);
+    }
+  }
+
+  private static void run(File location, int numThreads, int writesPerThread, boolean async) throws Exception {
+    location.delete();
+    final long[][] latencies = new long[numThreads][writesPerThread];
+    final AtomicLong numRejected = new AtomicLong();
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(numThreads * writesPerThread * WRITE_SIZE)
+            .fillWithZeros(false)
+            .async(async)
+            .asyncRingCapacity(RING_CAPACITY)
+            .map()) {
+      final byte[] bytes = new byte[WRITE_SIZE];
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        final long[] threadLatencies = latencies[t];
+        threads.add(new Thread(() -> {
+          try {
+            for(int w = 0; w < writesPerThread; w++) {
+              final long start = System.nanoTime();
+              final int offset = file.write(bytes, 0, WRITE_SIZE);
+              threadLatencies[w] = System.nanoTime() - start;
+              if(offset == ConcurrentFile.NULL_OFFSET) {
+                threadLatencies[w] = -1;
+                numRejected.incrementAndGet();
+              }
+              LockSupport.parkNanos(PAUSE_NANOS);
+            }
+          } catch(IOException e) {
+            e.printStackTrace();
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    } finally {
+      location.delete();
+    }
+
+    final long[] sorted = Arrays.stream(latencies).flatMapToLong(Arrays::stream).filter(l -> l >= 0).sorted().toArray();
+    System.out.println((async ? "async " : "direct") + " - p50: " + percentile(sorted, 0.5) + " - p99: " + percentile(sorted, 0.99)
+            + " - p99.9: " + percentile(sorted, 0.999) + " - p99.99: " + percentile(sorted, 0.9999) + " - max: " + sorted[sorted.length - 1]
+            + " - rejected: " + numRejected.get());
+  }
+
+  private static long percentile(long[] sorted, double percentile) {
+    return sorted[(int)Math.min(sorted.length - 1, (long)(sorted.length * percentile))];
+  }
+
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.mapper.Backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares contended multi-process writes using {@link Backend#MMAP} and {@link Backend#SEGMENT}. Every write reserves its offset with a CAS on the file
+ * header, so throughput is dominated by the header atomics of the backend. {@link Backend#SEGMENT} is skipped when the running JDK does not support it.
+ * <p>
+ * Usage: BackendThroughput [num threads]
+ */
+public class BackendThroughput {
+
+  private static final int CAPACITY = 256 * 1024 * 1024;
+  private static final int WRITE_SIZE = 64;
+
+  public static void main(String[] args) throws Exception {
+    final int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+    final File directory = new File("target/benchmark");
+    directory.mkdirs();
+
+    for(int i = 0; i < 3; i++) {
+      for(Backend backend : Backend.values()) {
+        try {
+          run(backend, new File(directory, "backend.bin"), numThreads);
+        } catch(IllegalArgumentException e) {
+          System.out.println(backend + " - skipped: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+  private static void run(Backend backend, File location, int numThreads) throws Exception {
+    location.delete();
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(CAPACITY)
+            .multiProcess(true)
+            .fillWithZeros(false)
+            .backend(backend)
+            .map()) {
+      final byte[] bytes = new byte[WRITE_SIZE];
+      final AtomicLong numWrites = new AtomicLong();
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        threads.add(new Thread(() -> {
+          long count = 0;
+          try {
+            while(file.write(bytes, 0, WRITE_SIZE) != ConcurrentFile.NULL_OFFSET)
+              count++;
+          } catch(IOException e) {
+            e.printStackTrace();
+          }
+          numWrites.addAndGet(count);
+        }));
+      }
+
+      final long startTime = System.nanoTime();
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+      final long duration = System.nanoTime() - startTime;
+      System.out.println(backend + " - writes/second: " + (numWrites.get() * 1_000_000_000L / duration) + " - nanos/write: " + (duration / numWrites.get()));
+    } finally {
+      location.delete();
+    }
+  }
+
+}
@@ -13,12 +13,18 @@ import java.util.Random;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Measures rolling write throughput from an increasing number of writer threads.
+ * <p>
+ * Usage: ConcurrentFileThroughput [num shards]
+ */
 public class ConcurrentFileThroughput {
 
   public static void main(String[] args) throws Exception {
+    final int shards = args.length > 0 ? Integer.parseInt(args[0]) : 1;
     final File directory = new File("target/benchmark");
     IoUtil.delete(directory, true);
-    new ConcurrentFileThroughput(directory, 1024 * 1024 * 128, 128, 10).execute(1, 10);
+    new ConcurrentFileThroughput(directory, 1024 * 1024 * 128, 128, 10, shards).execute(1, 10);
     IoUtil.delete(directory, true);
   }
 
@@ -29,7 +35,7 @@ public class ConcurrentFileThroughput {
   private final ConcurrentFile concurrentFile;
   private volatile boolean keepRunning;
 
-  public ConcurrentFileThroughput(File directory, int fileSize, int writeSize, int runtimeSeconds) throws IOException {
+  public ConcurrentFileThroughput(File directory, int fileSize, int writeSize, int runtimeSeconds, int shards) throws IOException {
     this.writeSize = writeSize;
     this.runtimeSeconds = runtimeSeconds;
     this.concurrentFile = ConcurrentFile.map()
@@ -38,6 +44,7 @@ public class ConcurrentFileThroughput {
             .multiProcess(false)
             .fillWithZeros(false)
             .framed(false)
+            .shards(shards)
             .roll(r -> r
                     .enabled(true)
                     .asyncClose(true)
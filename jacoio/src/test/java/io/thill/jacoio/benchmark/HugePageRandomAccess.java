@@ -0,0 +1,81 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.WriteFunction;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Compares TLB-bound writes against a regular filesystem and a hugetlbfs mount. Every write reads a long from a random, previously written offset in the
+ * mapping and writes it back out, so throughput is dominated by TLB misses across the entire mapping.
+ * <p>
+ * Usage: HugePageRandomAccess [hugetlbfs directory] [huge page size]
+ */
+public class HugePageRandomAccess {
+
+  private static final int CAPACITY = 1024 * 1024 * 1024 - 1024 * 1024;
+  private static final int WRITE_SIZE = 8;
+  private static final int DATA_START = 32; // multi-process header size
+
+  public static void main(String[] args) throws Exception {
+    final File hugetlbfsDirectory = new File(args.length > 0 ? args[0] : "/dev/hugepages");
+    final int hugePageSize = args.length > 1 ? Integer.parseInt(args[1]) : 2 * 1024 * 1024;
+
+    final File regularDirectory = new File("target/benchmark");
+    regularDirectory.mkdirs();
+
+    for(int i = 0; i < 3; i++) {
+      run("regular", new File(regularDirectory, "random.bin"), 0);
+      run("hugetlbfs", new File(hugetlbfsDirectory, "random.bin"), hugePageSize);
+    }
+  }
+
+  private static void run(String name, File location, int hugePageSize) throws IOException {
+    location.delete();
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(CAPACITY)
+            .multiProcess(true)
+            .fillWithZeros(false)
+            .hugePageSize(hugePageSize)
+            .map()) {
+      final long startTime = System.nanoTime();
+      long numWrites = 0;
+      while(file.write(WRITE_SIZE, RANDOM_READ_WRITE_FUNCTION) != ConcurrentFile.NULL_OFFSET) {
+        numWrites++;
+      }
+      final long duration = System.nanoTime() - startTime;
+      System.out.println(name + " - writes/second: " + (numWrites * 1_000_000_000L / duration) + " - nanos/write: " + (duration / numWrites));
+    } finally {
+      location.delete();
+    }
+  }
+
+  private static final WriteFunction RANDOM_READ_WRITE_FUNCTION = (buffer, offset, length) -> {
+    // read from a random 8-byte aligned offset that has already been written
+    final int numWritten = (offset - DATA_START) / WRITE_SIZE;
+    final long value;
+    if(numWritten == 0) {
+      value = 0;
+    } else {
+      final int randomOffset = DATA_START + ThreadLocalRandom.current().nextInt(numWritten) * WRITE_SIZE;
+      value = buffer.getLong(randomOffset, ByteOrder.LITTLE_ENDIAN);
+    }
+    buffer.putLong(offset, value + 1, ByteOrder.LITTLE_ENDIAN);
+  };
+
+}
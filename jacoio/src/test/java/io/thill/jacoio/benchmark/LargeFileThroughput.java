@@ -0,0 +1,99 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.mapper.Backend;
+import org.agrona.IoUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares {@link Backend#MMAP}, {@link Backend#PWRITE}, and {@link Backend#DIRECT} when the total bytes written exceed RAM. Files roll every gigabyte and are
+ * kept until the run finishes, so the page cache fills and writers compete with writeback, which is where major faults on fresh mappings show up in the mmap
+ * numbers. Pass a total size of at least twice the host's RAM, and watch the page cache while {@link Backend#DIRECT} runs. {@link Backend#DIRECT} is skipped
+ * when the running JDK does not support it.
+ * <p>
+ * Usage: LargeFileThroughput [directory] [total gigabytes] [num threads]
+ */
+public class LargeFileThroughput {
+
+  private static final int FILE_SIZE = 1024 * 1024 * 1024;
+  private static final int WRITE_SIZE = 4096;
+
+  public static void main(String[] args) throws Exception {
+    final File directory = new File(args.length > 0 ? args[0] : "target/benchmark");
+    final long totalBytes = (args.length > 1 ? Long.parseLong(args[1]) : 64) * 1024 * 1024 * 1024;
+    final int numThreads = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+    for(Backend backend : new Backend[] { Backend.MMAP, Backend.PWRITE, Backend.DIRECT }) {
+      IoUtil.delete(directory, true);
+      try {
+        run(backend, directory, totalBytes, numThreads);
+      } catch(IllegalArgumentException e) {
+        System.out.println(backend + " - skipped: " + e.getMessage());
+      }
+    }
+    IoUtil.delete(directory, true);
+  }
+
+  private static void run(Backend backend, File directory, long totalBytes, int numThreads) throws Exception {
+    final long writesPerThread = totalBytes / WRITE_SIZE / numThreads;
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(directory)
+            .capacity(FILE_SIZE)
+            .fillWithZeros(false)
+            .backend(backend)
+            .roll(r -> r
+                    .enabled(true)
+                    .fileNamePrefix("large-")
+                    .fileNameSuffix(".bin")
+                    .yieldOnAllocateContention(true)
+                    .preallocate(true)
+                    .preallocateCheckMillis(10)
+            ).map()) {
+      final byte[] bytes = new byte[WRITE_SIZE];
+      final AtomicLong maxWriteNanos = new AtomicLong();
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        threads.add(new Thread(() -> {
+          long threadMaxWriteNanos = 0;
+          try {
+            for(long i = 0; i < writesPerThread; i++) {
+              final long startTime = System.nanoTime();
+              file.write(bytes, 0, WRITE_SIZE);
+              threadMaxWriteNanos = Math.max(threadMaxWriteNanos, System.nanoTime() - startTime);
+            }
+          } catch(IOException e) {
+            e.printStackTrace();
+          }
+          final long max = threadMaxWriteNanos;
+          maxWriteNanos.accumulateAndGet(max, Math::max);
+        }));
+      }
+
+      final long startTime = System.nanoTime();
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+      final long duration = System.nanoTime() - startTime;
+      final long bytesWritten = writesPerThread * numThreads * WRITE_SIZE;
+      System.out.println(backend + " - MB/second: " + (bytesWritten * 1_000_000_000L / duration / (1024 * 1024)) + " - max micros/write: "
+              + (maxWriteNanos.get() / 1000));
+    }
+  }
+
+}
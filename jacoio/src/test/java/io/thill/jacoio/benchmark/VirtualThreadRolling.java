@@ -0,0 +1,100 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.benchmark;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.mapper.Backend;
+import org.agrona.IoUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares rolling writes from many virtual threads with and without {@code parkVirtualThreads}. Small files make every writer contend on frequent rolls,
+ * which is where yielding waiters keep carrier threads busy. Requires JDK 21 or later. Files are written with {@link Backend#PWRITE}, since the mapping
+ * backends are not available on every JDK that provides virtual threads.
+ * <p>
+ * Usage: VirtualThreadRolling [num threads] [writes per thread]
+ */
+public class VirtualThreadRolling {
+
+  private static final int CAPACITY = 1024 * 1024;
+  private static final int WRITE_SIZE = 64;
+
+  public static void main(String[] args) throws Exception {
+    final int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+    final int writesPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 1_000;
+    final File directory = new File("target/benchmark/virtual");
+
+    for(int i = 0; i < 3; i++) {
+      run(directory, numThreads, writesPerThread, false);
+      run(directory, numThreads, writesPerThread, true);
+    }
+  }
+
+  private static void run(File directory, int numThreads, int writesPerThread, boolean parkVirtualThreads) throws Exception {
+    IoUtil.delete(directory, true);
+    directory.mkdirs();
+    final AtomicLong numRolls = new AtomicLong();
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(directory)
+            .capacity(CAPACITY)
+            .fillWithZeros(false)
+            .backend(Backend.PWRITE)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileProvider(() -> new File(directory, numRolls.incrementAndGet() + ".bin"))
+                    .preallocate(true)
+                    .preallocateCheckMillis(1)
+                    .asyncClose(true)
+                    .fileClosedListener(File::delete)
+                    .parkVirtualThreads(parkVirtualThreads)
+            ).map()) {
+      final byte[] bytes = new byte[WRITE_SIZE];
+      final List<Thread> threads = new ArrayList<>();
+      final long startTime = System.nanoTime();
+      for(int t = 0; t < numThreads; t++) {
+        threads.add(startVirtualThread(() -> {
+          try {
+            for(int w = 0; w < writesPerThread; w++)
+              file.write(bytes, 0, WRITE_SIZE);
+          } catch(IOException e) {
+            e.printStackTrace();
+          }
+        }));
+      }
+      for(Thread thread : threads)
+        thread.join();
+      final long duration = System.nanoTime() - startTime;
+      final long numWrites = (long)numThreads * writesPerThread;
+      System.out.println("parkVirtualThreads=" + parkVirtualThreads + " - rolls: " + numRolls.get()
+              + " - writes/second: " + (numWrites * 1_000_000_000L / duration) + " - nanos/write: " + (duration / numWrites));
+    } finally {
+      IoUtil.delete(directory, true);
+    }
+  }
+
+  private static Thread startVirtualThread(Runnable task) throws Exception {
+    final Method startVirtualThread;
+    try {
+      startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    } catch(NoSuchMethodException e) {
+      throw new UnsupportedOperationException("Virtual threads require JDK 21 or later");
+    }
+    return (Thread)startVirtualThread.invoke(null, task);
+  }
+
+}
@@ -0,0 +1,193 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class AsyncConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testConcurrentWritesAreDrained() throws Exception {
+    final int numThreads = 4;
+    final int numWrites = 10_000;
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).capacity(numThreads * numWrites * 8).async(true).map()) {
+      Assert.assertEquals(AsyncConcurrentFile.class, file.getClass());
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        final long threadId = t;
+        threads.add(new Thread(() -> {
+          try {
+            for(int i = 0; i < numWrites; i++) {
+              // the ring may briefly be full, but no record may ever be rejected for the file being full
+              while(file.writeLong((threadId << 32) | i, ByteOrder.LITTLE_ENDIAN) == ConcurrentFile.NULL_OFFSET)
+                Thread.yield();
+            }
+          } catch(IOException e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    }
+
+    final UnsafeBuffer buffer = new UnsafeBuffer(Files.readAllBytes(location.toPath()));
+    Assert.assertEquals(numThreads * numWrites * 8, buffer.capacity());
+    final Set<Long> values = new HashSet<>();
+    for(int offset = 0; offset < buffer.capacity(); offset += 8)
+      values.add(buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN));
+    Assert.assertEquals(numThreads * numWrites, values.size());
+  }
+
+  @Test
+  public void testFramedRecordsAreWrittenIndividually() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).capacity(1024).framed(true).async(true).map()) {
+      Assert.assertEquals(0, file.writeAscii("Hello"));
+      Assert.assertEquals(0, file.writeAscii("World"));
+    }
+    final byte[] bytes = Arrays.copyOf(Files.readAllBytes(location.toPath()), 18);
+    Assert.assertArrayEquals(new byte[] { 9, 0, 0, 0, 'H', 'e', 'l', 'l', 'o', 9, 0, 0, 0, 'W', 'o', 'r', 'l', 'd' }, bytes);
+  }
+
+  @Test
+  public void testFlushWaitsForDrainer() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(1024)
+            .async(true)
+            .map()) {
+      final byte[] bytes = new byte[100];
+      Arrays.fill(bytes, (byte)1);
+      file.write(bytes, 0, 100);
+      file.flush();
+      Assert.assertFalse(file.isPending());
+      Assert.assertArrayEquals(bytes, Arrays.copyOf(Files.readAllBytes(location.toPath()), 100));
+    }
+  }
+
+  @Test
+  public void testRecordsDroppedOnceFileIsFull() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(20).async(true).map()) {
+      Assert.assertEquals(0, file.write(new byte[8], 0, 8));
+      Assert.assertEquals(0, file.write(new byte[8], 0, 8));
+      Assert.assertEquals(0, file.write(new byte[8], 0, 8));
+      file.flush();
+      Assert.assertEquals(1, ((AsyncConcurrentFile)file).droppedRecords());
+      Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.write(new byte[1], 0, 1));
+    }
+  }
+
+  @Test
+  public void testRollingBatches() throws Exception {
+    final int numWrites = 10_000;
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(16 * 1024)
+            .async(true)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      for(int i = 0; i < numWrites; i++) {
+        while(file.writeLong(i + 1, ByteOrder.LITTLE_ENDIAN) == ConcurrentFile.NULL_OFFSET)
+          Thread.yield();
+      }
+    }
+
+    // the last file is not truncated, so only count the values that were written
+    final Set<Long> values = new HashSet<>();
+    for(File f : tmpDirectory.listFiles()) {
+      final UnsafeBuffer buffer = new UnsafeBuffer(Files.readAllBytes(f.toPath()));
+      for(int offset = 0; offset < buffer.capacity(); offset += 8) {
+        final long value = buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN);
+        if(value != 0)
+          Assert.assertTrue(values.add(value));
+      }
+    }
+    Assert.assertEquals(numWrites, values.size());
+  }
+
+  @Test(expected = IOException.class)
+  public void testRecordLongerThanMaxRecordLength() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(64).async(true).map()) {
+      file.write(new byte[65], 0, 65);
+    }
+  }
+
+  @Test
+  public void testFramedRollingRecordAtMaxRecordLength() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(64)
+            .framed(true)
+            .async(true)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      // the 4 byte frame header must fit in the file along with the record, or the drainer could never write it
+      Assert.assertEquals(0, file.write(new byte[60], 0, 60));
+      try {
+        file.write(new byte[61], 0, 61);
+        Assert.fail("Expected IOException");
+      } catch(IOException e) {
+        // expected
+      }
+      file.flush();
+      Assert.assertFalse(file.isPending());
+    }
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testWriteDurableNotSupported() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).async(true).map()) {
+      file.writeDurable(new byte[10], 0, 10, new DurableWrite());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testAsyncNotSupportedWithDurability() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).durability(Durability.ON_DEMAND).async(true).map();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testRingCapacityMustBePowerOfTwo() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).async(true).asyncRingCapacity(3000).map();
+  }
+}
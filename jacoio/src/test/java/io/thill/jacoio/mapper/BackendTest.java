@@ -0,0 +1,58 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+
+public class BackendTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testSegment() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    final ConcurrentFileMapper mapper = ConcurrentFile.map().location(location).capacity(1024).multiProcess(true).backend(Backend.SEGMENT);
+    if(!MappedRegion.isSegmentSupported()) {
+      try {
+        mapper.map();
+        Assert.fail("Expected IllegalArgumentException");
+      } catch(IllegalArgumentException e) {
+        // expected
+      }
+      return;
+    }
+    try(ConcurrentFile file = mapper.map()) {
+      Assert.assertEquals(MultiProcessConcurrentFile.HEADER_SIZE, file.write(new byte[100], 0, 100));
+    }
+    // reopening reads the header written through the segment
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).capacity(1024).multiProcess(true).backend(Backend.MMAP).map()) {
+      Assert.assertEquals(MultiProcessConcurrentFile.HEADER_SIZE + 100, file.write(new byte[100], 0, 100));
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSegmentNotSupportedWithWindows() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).windowSize(4096).backend(Backend.SEGMENT).map();
+  }
+
+}
@@ -0,0 +1,123 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+public class ConcurrentFileMonitorTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  private ConcurrentFileMXBean proxy(ObjectName objectName) {
+    Assert.assertTrue(mbeanServer.isRegistered(objectName));
+    return JMX.newMXBeanProxy(mbeanServer, objectName, ConcurrentFileMXBean.class);
+  }
+
+  @Test
+  public void testFixedFile() throws Exception {
+    final ObjectName objectName = new ObjectName("io.thill.jacoio:type=ConcurrentFile,name=\"fixed\"");
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).capacity(1024).jmxName("fixed").map()) {
+      final ConcurrentFileMXBean mbean = proxy(objectName);
+      for(int i = 0; i < 16; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+      Assert.assertEquals(location.getAbsolutePath(), mbean.getCurrentFile());
+      Assert.assertEquals(1024, mbean.getCapacity());
+      Assert.assertEquals(128, mbean.getNextWriteOffset());
+      Assert.assertEquals(12.5, mbean.getFillPercentage(), 0.0);
+      Assert.assertFalse(mbean.isPendingWrites());
+      Assert.assertFalse(mbean.isPreallocatedFileReady());
+      Assert.assertEquals(0, mbean.getRollCount());
+
+      try {
+        ConcurrentFile.map().location(new File(tmpDirectory, "other.bin")).capacity(1024).jmxName("fixed").map();
+        Assert.fail("Expected duplicate jmxName to fail");
+      } catch(IllegalArgumentException e) {
+        logger.info("Caught expected exception: {}", e.getMessage());
+      }
+    }
+    Assert.assertFalse(mbeanServer.isRegistered(objectName));
+  }
+
+  @Test
+  public void testRollingFile() throws Exception {
+    final ObjectName objectName = new ObjectName("io.thill.jacoio:type=ConcurrentFile,name=\"rolling\"");
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .jmxName("rolling")
+            .roll(roll -> roll
+                    .enabled(true)
+                    .preallocate(true)
+                    .preallocateCheckMillis(1)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      final ConcurrentFileMXBean mbean = proxy(objectName);
+      for(int i = 0; i < 128 * 10 + 8; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+      logger.info("Current file {} is {}% full after {} rolls", mbean.getCurrentFile(), mbean.getFillPercentage(), mbean.getRollCount());
+      Assert.assertEquals(file.getFile().getAbsolutePath(), mbean.getCurrentFile());
+      Assert.assertEquals(64, mbean.getNextWriteOffset());
+      Assert.assertEquals(6.25, mbean.getFillPercentage(), 0.0);
+      Assert.assertEquals(10, mbean.getRollCount());
+      Assert.assertEquals(10, mbean.getRollsPerMinute(), 0.0);
+      final long deadline = System.currentTimeMillis() + 10000;
+      while(!mbean.isPreallocatedFileReady() && System.currentTimeMillis() < deadline)
+        Thread.sleep(1);
+      Assert.assertTrue(mbean.isPreallocatedFileReady());
+
+      // more rolls than are remembered within a minute extrapolates the rate
+      for(int i = 0; i < 128 * 100; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+      Assert.assertEquals(110, mbean.getRollCount());
+      Assert.assertTrue(mbean.getRollsPerMinute() > 110);
+    }
+    Assert.assertFalse(mbeanServer.isRegistered(objectName));
+  }
+
+  @Test
+  public void testPartitionsAreRegisteredSeparately() throws Exception {
+    try(PartitionedConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .jmxName("partitioned")
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).mapPartitioned(2)) {
+      for(int i = 0; i < 2; i++) {
+        final ConcurrentFileMXBean mbean = proxy(new ObjectName("io.thill.jacoio:type=ConcurrentFile,name=\"partitioned\",part=\"partition-" + i + "\""));
+        Assert.assertEquals(0, mbean.getNextWriteOffset());
+      }
+    }
+    Assert.assertTrue(mbeanServer.queryNames(new ObjectName("io.thill.jacoio:type=ConcurrentFile,name=\"partitioned\",*"), null).isEmpty());
+  }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.function.FileProvider;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CoordinationFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private final AtomicInteger fileCounter = new AtomicInteger();
+  private File tmpDirectory;
+  private File file;
+  private FileProvider fileProvider;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+    file = new File(tmpDirectory, "roll.coordinator");
+    fileProvider = () -> new File(tmpDirectory, "file-" + fileCounter.incrementAndGet() + ".bin");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testGenerations() throws Exception {
+    try(CoordinationFile process1 = new CoordinationFile(file, fileProvider, true, YieldingIdleStrategy::new, 0, 1000);
+        CoordinationFile process2 = new CoordinationFile(file, fileProvider, true, YieldingIdleStrategy::new, 0, 1000)) {
+      final CoordinationFile.Generation initial1 = process1.next(null);
+      final CoordinationFile.Generation initial2 = process2.next(null);
+      Assert.assertEquals(1, initial1.number());
+      Assert.assertEquals(1, initial2.number());
+      Assert.assertEquals(new File(tmpDirectory, "file-1.bin").getAbsoluteFile(), initial2.curFile());
+      Assert.assertEquals(new File(tmpDirectory, "file-2.bin").getAbsoluteFile(), initial2.preallocatedFile());
+
+      // process1 wins the roll, the preallocated file becomes the current file
+      final CoordinationFile.Generation rolled1 = process1.next(initial1);
+      Assert.assertEquals(2, rolled1.number());
+      Assert.assertEquals(initial1.preallocatedFile(), rolled1.curFile());
+      Assert.assertEquals(new File(tmpDirectory, "file-3.bin").getAbsoluteFile(), rolled1.preallocatedFile());
+
+      // process2 loses the roll, and only reads the new generation
+      final CoordinationFile.Generation rolled2 = process2.next(initial2);
+      Assert.assertEquals(2, rolled2.number());
+      Assert.assertEquals(rolled1.curFile(), rolled2.curFile());
+      Assert.assertEquals(rolled1.preallocatedFile(), rolled2.preallocatedFile());
+      Assert.assertEquals(3, fileCounter.get());
+    }
+  }
+
+  @Test
+  public void testLeaseReclaimedFromDeadOwner() throws Exception {
+    try(CoordinationFile coordinationFile = new CoordinationFile(file, fileProvider, false, YieldingIdleStrategy::new, 0, 50)) {
+      // simulate a process that died while holding the lease
+      final MappedByteBuffer mappedByteBuffer = IoUtil.mapExistingFile(file, "coordination");
+      try {
+        new UnsafeBuffer(mappedByteBuffer).putLongVolatile(8, (12345L << 32) | 1);
+      } finally {
+        IoUtil.unmap(mappedByteBuffer);
+      }
+
+      final CoordinationFile.Generation generation = coordinationFile.next(null);
+      Assert.assertEquals(1, generation.number());
+      Assert.assertEquals(new File(tmpDirectory, "file-1.bin").getAbsoluteFile(), generation.curFile());
+    }
+  }
+
+  @Test
+  public void testPreallocatorLease() throws Exception {
+    try(CoordinationFile process1 = new CoordinationFile(file, fileProvider, true, YieldingIdleStrategy::new, 0, 50);
+        CoordinationFile process2 = new CoordinationFile(file, fileProvider, true, YieldingIdleStrategy::new, 0, 50)) {
+      final CoordinationFile.Generation initial = process1.next(null);
+      Assert.assertTrue(process1.tryAcquirePreallocatorLease());
+      Assert.assertFalse(process2.tryAcquirePreallocatorLease());
+      Assert.assertFalse(process2.isReady(initial.preallocatedFileId()));
+
+      // the leader announces the preallocated file, and advances once another process requests a roll
+      process1.markReady(initial.preallocatedFileId());
+      Assert.assertTrue(process2.isReady(initial.preallocatedFileId()));
+      Assert.assertFalse(process1.isRollRequested(initial));
+      process2.requestRoll(process2.read());
+      Assert.assertTrue(process1.isRollRequested(initial));
+      process1.next(initial);
+      Assert.assertEquals(initial.preallocatedFile(), process2.read().curFile());
+
+      // a leader that stops checking in loses the lease after the timeout
+      Assert.assertFalse(process2.tryAcquirePreallocatorLease());
+      Thread.sleep(100);
+      Assert.assertTrue(process2.tryAcquirePreallocatorLease());
+      Assert.assertFalse(process1.tryAcquirePreallocatorLease());
+    }
+  }
+
+}
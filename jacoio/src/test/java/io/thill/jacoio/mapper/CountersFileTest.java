@@ -0,0 +1,169 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CountersFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+  private File countersLocation;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+    countersLocation = new File(tmpDirectory, "counters.dat");
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testWritesAndBytesPerThread() throws Exception {
+    final int numThreads = 4;
+    final int numWrites = 10_000;
+    try(CountersFile counters = CountersFile.create(countersLocation, 64);
+        CountersFile reader = CountersFile.open(countersLocation)) {
+      try(ConcurrentFile file = ConcurrentFile.map()
+              .location(new File(tmpDirectory, "test.bin"))
+              .capacity(numThreads * numWrites * 8)
+              .counters(counters)
+              .map()) {
+        final List<Thread> threads = new ArrayList<>();
+        for(int t = 0; t < numThreads; t++) {
+          threads.add(new Thread(() -> {
+            try {
+              for(int i = 0; i < numWrites; i++)
+                file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+            } catch(IOException e) {
+              logger.error("Write failed", e);
+            }
+          }, "writer-" + t));
+        }
+        threads.forEach(Thread::start);
+        for(Thread thread : threads)
+          thread.join();
+
+        Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.writeLong(0, ByteOrder.LITTLE_ENDIAN));
+
+        // counters are read from a separate mapping, as another process would
+        Assert.assertEquals(numThreads * numWrites, reader.sum(CountersFile.WRITES_TYPE_ID));
+        Assert.assertEquals(numThreads * numWrites * 8, reader.sum(CountersFile.BYTES_WRITTEN_TYPE_ID));
+        Assert.assertEquals(1, reader.sum(CountersFile.NULL_OFFSETS_TYPE_ID));
+        final List<String> labels = new ArrayList<>();
+        reader.reader().forEach((counterId, label) -> labels.add(label));
+        Assert.assertTrue(labels.stream().anyMatch(label -> label.endsWith("writes thread=writer-0")));
+        logger.info("Reserve retries: {}", reader.sum(CountersFile.RESERVE_RETRIES_TYPE_ID));
+      }
+
+      // counters are freed when the file is closed
+      final int[] allocated = { 0 };
+      reader.reader().forEach((counterId, label) -> allocated[0]++);
+      Assert.assertEquals(0, allocated[0]);
+    }
+  }
+
+  @Test
+  public void testRollsAndPreallocationMisses() throws Exception {
+    try(CountersFile counters = CountersFile.create(countersLocation, 64)) {
+      try(ConcurrentFile file = ConcurrentFile.map()
+              .location(new File(tmpDirectory, "rolling"))
+              .capacity(1024)
+              .counters(counters)
+              .roll(roll -> roll
+                      .enabled(true)
+                      .preallocate(false)
+                      .fileNamePrefix("test-")
+                      .fileNameSuffix(".bin")
+              ).map()) {
+        for(int i = 0; i < 1000; i++)
+          file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+
+        Assert.assertEquals(1000, counters.sum(CountersFile.WRITES_TYPE_ID));
+        Assert.assertEquals(0, counters.sum(CountersFile.NULL_OFFSETS_TYPE_ID));
+        Assert.assertEquals((1000 * 8 + 1023) / 1024 - 1, counters.sum(CountersFile.ROLLS_TYPE_ID));
+        Assert.assertTrue(counters.sum(CountersFile.ROLL_STALL_NANOS_TYPE_ID) > 0);
+        Assert.assertEquals(0, counters.sum(CountersFile.PREALLOCATION_MISSES_TYPE_ID));
+        Assert.assertEquals(0, counters.sum(CountersFile.PENDING_CLOSES_TYPE_ID));
+      }
+    }
+  }
+
+  @Test
+  public void testFullCountersFileFallsBackToSharedCounters() throws Exception {
+    // room for the shared counters of one file and nothing else
+    try(CountersFile counters = CountersFile.create(countersLocation, 8)) {
+      try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).counters(counters).map()) {
+        file.writeLong(1, ByteOrder.LITTLE_ENDIAN);
+        final Thread thread = new Thread(() -> {
+          try {
+            file.writeLong(2, ByteOrder.LITTLE_ENDIAN);
+          } catch(IOException e) {
+            logger.error("Write failed", e);
+          }
+        });
+        thread.start();
+        thread.join();
+        Assert.assertEquals(2, counters.sum(CountersFile.WRITES_TYPE_ID));
+        Assert.assertEquals(16, counters.sum(CountersFile.BYTES_WRITTEN_TYPE_ID));
+      }
+    }
+  }
+
+  @Test
+  public void testDeadThreadCountersAreFreed() throws Exception {
+    // room for the shared counters of one file and the counters of a single thread
+    try(CountersFile counters = CountersFile.create(countersLocation, 12)) {
+      try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).counters(counters).map()) {
+        boolean ownCounters = false;
+        int numWrites = 0;
+        final long timeout = System.currentTimeMillis() + 10000;
+        while(!ownCounters) {
+          if(System.currentTimeMillis() > timeout)
+            Assert.fail("Timed out");
+          // each writer can only get its own counters once the previous writer's have been freed
+          final String name = "writer-" + numWrites;
+          final Thread thread = new Thread(() -> {
+            try {
+              file.writeLong(1, ByteOrder.LITTLE_ENDIAN);
+            } catch(IOException e) {
+              logger.error("Write failed", e);
+            }
+          }, name);
+          thread.start();
+          thread.join();
+          numWrites++;
+          Assert.assertEquals(numWrites, counters.sum(CountersFile.WRITES_TYPE_ID));
+          final List<String> labels = new ArrayList<>();
+          counters.reader().forEach((counterId, label) -> labels.add(label));
+          ownCounters = numWrites > 1 && labels.stream().anyMatch(label -> label.endsWith("writes thread=" + name));
+          System.gc();
+        }
+        Assert.assertEquals(numWrites * 8, counters.sum(CountersFile.BYTES_WRITTEN_TYPE_ID));
+      }
+    }
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testCountersFileTooSmall() throws Exception {
+    try(CountersFile counters = CountersFile.create(countersLocation, 4)) {
+      ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).counters(counters).map();
+    }
+  }
+}
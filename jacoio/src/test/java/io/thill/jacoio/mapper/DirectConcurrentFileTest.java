@@ -0,0 +1,91 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DirectConcurrentFileTest extends SingleProcessConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  @After
+  public void cleanup() throws Exception {
+    if(file != null) {
+      file.close();
+      file.getFile().delete();
+      file = null;
+    }
+  }
+
+  @Override
+  protected void createFile(int capacity, boolean fillWithZeros) throws Exception {
+    Assume.assumeTrue("Direct I/O requires JDK 10 or later", DirectConcurrentFile.isSupported());
+    if(file != null)
+      file.close();
+    // tmpfs does not support direct I/O, so files are created under the build directory instead of the temp directory
+    final File directory = new File("target/" + getClass().getSimpleName());
+    directory.mkdirs();
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin", directory);
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+    logger.info("Testing with mapper at {}", underlyingFile.getAbsolutePath());
+
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(capacity)
+            .fillWithZeros(fillWithZeros)
+            .multiProcess(false)
+            .backend(Backend.DIRECT)
+            .map();
+
+    Assert.assertEquals(DirectConcurrentFile.class, file.getClass());
+  }
+
+  @Override
+  protected void assertBytesAt(byte[] expected, int offset) throws IOException {
+    // partially written chunks are only flushed when the file is closed
+    file.close();
+    super.assertBytesAt(expected, offset);
+  }
+
+  @Test
+  public void testChunksFlushedInBackground() throws Exception {
+    final int chunkSize = DirectConcurrentFile.MAX_CHUNK_SIZE;
+    createFile(4 * DirectConcurrentFile.NUM_STAGING_BUFFERS * chunkSize + 100, false);
+    final DirectConcurrentFile directFile = (DirectConcurrentFile)file;
+
+    // writes straddle chunk boundaries, and cycle through every staging buffer several times
+    final byte[] writeBytes = new byte[1000];
+    final List<Integer> offsets = new ArrayList<>();
+    int offset;
+    int i = 0;
+    while((offset = file.write(fill(writeBytes, i++), 0, writeBytes.length)) != ConcurrentFile.NULL_OFFSET)
+      offsets.add(offset);
+    Assert.assertTrue(directFile.isFinished());
+    Assert.assertTrue(directFile.numStagedChunks() <= 1);
+
+    file.close();
+    Assert.assertEquals(offsets.size() * writeBytes.length, file.getFile().length());
+    final byte[] fileBytes = Files.readAllBytes(file.getFile().toPath());
+    for(i = 0; i < offsets.size(); i++)
+      Assert.assertArrayEquals(fill(writeBytes, i), Arrays.copyOfRange(fileBytes, offsets.get(i), offsets.get(i) + writeBytes.length));
+  }
+
+  private static byte[] fill(byte[] bytes, int value) {
+    for(int i = 0; i < bytes.length; i++)
+      bytes[i] = (byte)(value + i);
+    return bytes;
+  }
+
+}
@@ -0,0 +1,247 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class DurabilityTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testNoneNeverAdvances() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).map()) {
+      file.write(new byte[100], 0, 100);
+      file.flush();
+      Assert.assertEquals(0, file.durablePosition());
+    }
+  }
+
+  @Test
+  public void testOnDemandSingleProcess() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(1024)
+            .durability(Durability.ON_DEMAND)
+            .map()) {
+      file.write(new byte[100], 0, 100);
+      Assert.assertEquals(0, file.durablePosition());
+      file.flush();
+      Assert.assertEquals(100, file.durablePosition());
+      file.write(new byte[50], 0, 50);
+      file.flush();
+      Assert.assertEquals(150, file.durablePosition());
+    }
+  }
+
+  @Test
+  public void testOnDemandMultiProcess() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(1024)
+            .multiProcess(true)
+            .durability(Durability.ON_DEMAND)
+            .map()) {
+      Assert.assertEquals(32, file.durablePosition());
+      file.write(new byte[100], 0, 100);
+      file.flush();
+      Assert.assertEquals(132, file.durablePosition());
+    }
+  }
+
+  @Test
+  public void testFramedFlushStopsAtIncompleteFrame() throws Exception {
+    try(FramedConcurrentFile file = new FramedConcurrentFile(SingleProcessConcurrentFile.map(new File(tmpDirectory, "test.bin"), 1024, true, true, 0,
+            null, Durability.ON_DEMAND, 0, Backend.MMAP))) {
+      file.write(new byte[12], 0, 12);
+      final int pendingOffset = file.reserve(16);
+      file.write(new byte[12], 0, 12);
+      file.flush();
+      Assert.assertEquals(pendingOffset, file.durablePosition());
+
+      file.getBuffer().putIntOrdered(pendingOffset, 16);
+      file.wrote(16);
+      file.flush();
+      Assert.assertEquals(48, file.durablePosition());
+    }
+  }
+
+  @Test
+  public void testPeriodic() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(1024)
+            .durability(Durability.PERIODIC)
+            .flushIntervalMillis(10)
+            .map()) {
+      file.write(new byte[100], 0, 100);
+      final long timeout = System.currentTimeMillis() + 5000;
+      while(file.durablePosition() != 100) {
+        if(System.currentTimeMillis() > timeout)
+          Assert.fail("Timed out");
+        Thread.sleep(1);
+      }
+    }
+  }
+
+  @Test
+  public void testWriteDurableCompletesOnFlush() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(1024)
+            .framed(true)
+            .durability(Durability.ON_DEMAND)
+            .map()) {
+      final AtomicInteger numCompleted = new AtomicInteger();
+      final DurableWrite durableWrite = new DurableWrite(d -> numCompleted.incrementAndGet());
+      file.writeDurable(new byte[10], 0, 10, durableWrite);
+      Assert.assertTrue(durableWrite.isPending());
+      Assert.assertEquals(14, durableWrite.position());
+      file.flush();
+      Assert.assertTrue(durableWrite.isDurable());
+      Assert.assertEquals(1, numCompleted.get());
+      Assert.assertEquals(14, file.durablePosition());
+
+      // handles are reusable
+      file.writeDurable(new byte[10], 0, 10, durableWrite);
+      Assert.assertTrue(durableWrite.isPending());
+      file.flush();
+      durableWrite.await();
+      Assert.assertEquals(2, numCompleted.get());
+    }
+  }
+
+  @Test
+  public void testGroupCommit() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(64 * 1024)
+            .durability(Durability.GROUP_COMMIT)
+            .flushIntervalMillis(60000)
+            .roll(r -> r
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      final List<Thread> threads = new ArrayList<>();
+      final AtomicInteger numDurable = new AtomicInteger();
+      for(int t = 0; t < 4; t++) {
+        threads.add(new Thread(() -> {
+          final DurableWrite durableWrite = new DurableWrite();
+          try {
+            for(int i = 0; i < 1000; i++) {
+              file.writeDurable(new byte[100], 0, 100, durableWrite);
+              if(durableWrite.await(5, TimeUnit.SECONDS))
+                numDurable.incrementAndGet();
+            }
+          } catch(Exception e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+      Assert.assertEquals(4000, numDurable.get());
+    }
+  }
+
+  @Test
+  public void testWriteDurableCompletesAcrossRolls() throws Exception {
+    testWriteDurableCompletesAcrossRolls(false);
+  }
+
+  @Test
+  public void testMultiProcessWriteDurableCompletesAcrossRolls() throws Exception {
+    testWriteDurableCompletesAcrossRolls(true);
+  }
+
+  private void testWriteDurableCompletesAcrossRolls(final boolean multiProcess) throws Exception {
+    // every handle must be completed by the close of the file it was written to, even when the roll races with the writeDurable call
+    final int numThreads = 4;
+    final int numWrites = 2000;
+    final AtomicInteger numDurable = new AtomicInteger();
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .multiProcess(multiProcess)
+            .durability(Durability.ON_DEMAND)
+            .roll(r -> r
+                    .enabled(true)
+                    .asyncClose(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        threads.add(new Thread(() -> {
+          try {
+            for(int i = 0; i < numWrites; i++)
+              file.writeDurable(new byte[100], 0, 100, new DurableWrite(d -> numDurable.incrementAndGet()));
+          } catch(Exception e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    }
+    final long deadline = System.currentTimeMillis() + 10000;
+    while(numDurable.get() < numThreads * numWrites && System.currentTimeMillis() < deadline)
+      Thread.sleep(1);
+    Assert.assertEquals(numThreads * numWrites, numDurable.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testWriteDurableRequiresDurability() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).map()) {
+      file.writeDurable(new byte[10], 0, 10, new DurableWrite());
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testHugePagesNotSupported() throws Exception {
+    ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(1024)
+            .hugePageSize(2 * 1024 * 1024)
+            .durability(Durability.ON_DEMAND)
+            .map();
+  }
+}
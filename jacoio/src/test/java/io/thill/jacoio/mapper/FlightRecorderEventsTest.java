@@ -0,0 +1,59 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+public class FlightRecorderEventsTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testNothingIsCreatedWithoutRecording() {
+    logger.info("Flight recorder events supported: {}", FlightRecorderEvents.isSupported());
+    for(int type = FlightRecorderEvents.ROLL; type <= FlightRecorderEvents.LOCK; type++) {
+      final Object event = FlightRecorderEvents.begin(type);
+      Assert.assertNull(event);
+      FlightRecorderEvents.commit(event, new File(tmpDirectory, "test.bin"), 1024);
+    }
+  }
+
+  @Test
+  public void testMultiProcessRollingWithoutRecording() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .multiProcess(true)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .preallocate(true)
+                    .asyncClose(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      for(int i = 0; i < 1000; i++)
+        Assert.assertNotEquals(ConcurrentFile.NULL_OFFSET, file.writeLong(i, ByteOrder.LITTLE_ENDIAN));
+    }
+  }
+}
@@ -0,0 +1,116 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+public class LatencyHistogramTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testBucketsAreContiguousAndPrecise() {
+    for(long value : new long[] { 0, 1, 31, 32, 63, 64, 65, 1000, 123_456_789, Long.MAX_VALUE }) {
+      final long highest = LatencyHistogram.highestValueInBucket(LatencyHistogram.bucketIndex(value));
+      Assert.assertTrue(highest >= value);
+      Assert.assertTrue((double)(highest - value) / Math.max(1, value) <= 1.0 / LatencyHistogram.SUB_BUCKET_COUNT);
+    }
+    final int lastIndex = LatencyHistogram.bucketIndex(Long.MAX_VALUE);
+    for(int index = 0; index < lastIndex; index++) {
+      final long highest = LatencyHistogram.highestValueInBucket(index);
+      Assert.assertEquals(index, LatencyHistogram.bucketIndex(highest));
+      Assert.assertEquals(index + 1, LatencyHistogram.bucketIndex(highest + 1));
+    }
+    Assert.assertEquals(Long.MAX_VALUE, LatencyHistogram.highestValueInBucket(lastIndex));
+    Assert.assertEquals(0, LatencyHistogram.bucketIndex(-5));
+  }
+
+  @Test
+  public void testPercentilesMergedAcrossThreads() throws Exception {
+    final LatencyHistogram histogram = new LatencyHistogram();
+    final int numThreads = 4;
+    final List<Thread> threads = new ArrayList<>();
+    for(int t = 0; t < numThreads; t++) {
+      threads.add(new Thread(() -> {
+        for(int i = 1; i <= 1000; i++)
+          histogram.record(i * 1000);
+      }));
+    }
+    threads.forEach(Thread::start);
+    for(Thread thread : threads)
+      thread.join();
+
+    final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+    logger.info("Snapshot: {}", snapshot);
+    Assert.assertEquals(numThreads * 1000, snapshot.count());
+    Assert.assertEquals(1_000_000, snapshot.max());
+    assertWithinPrecision(500_000, snapshot.valueAtPercentile(50));
+    assertWithinPrecision(990_000, snapshot.valueAtPercentile(99));
+    assertWithinPrecision(999_000, snapshot.valueAtPercentile(99.9));
+    Assert.assertEquals(1_000_000, snapshot.valueAtPercentile(100));
+  }
+
+  private static void assertWithinPrecision(long expected, long actual) {
+    Assert.assertTrue("expected " + expected + " but was " + actual, actual >= expected && actual <= expected + expected / LatencyHistogram.SUB_BUCKET_COUNT);
+  }
+
+  @Test
+  public void testRollingFileRecordsLatencies() throws Exception {
+    final WriteLatency latency = new WriteLatency();
+    final File dumpFile = new File(tmpDirectory, "latency.log");
+    try(LatencyDumper dumper = latency.dumpTo(dumpFile, 10);
+        ConcurrentFile file = ConcurrentFile.map()
+                .location(new File(tmpDirectory, "rolling"))
+                .capacity(1024)
+                .framed(true)
+                .latency(latency)
+                .roll(roll -> roll
+                        .enabled(true)
+                        .fileNamePrefix("test-")
+                        .fileNameSuffix(".bin")
+                ).map()) {
+      for(int i = 0; i < 1000; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    logger.info("Latency: {}", latency);
+    Assert.assertEquals(1000, latency.write().snapshot().count());
+    Assert.assertEquals(1000, latency.reserveToCommit().snapshot().count());
+    Assert.assertTrue(latency.rollStall().snapshot().count() > 0);
+    final List<String> lines = Files.readAllLines(dumpFile.toPath(), StandardCharsets.UTF_8);
+    Assert.assertFalse(lines.isEmpty());
+    Assert.assertTrue(lines.get(lines.size() - 1).contains("write: count=1000 "));
+  }
+
+  @Test
+  public void testUninstrumentedFileIsNotWrapped() throws IOException {
+    try(ConcurrentFile file = ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).map()) {
+      Assert.assertEquals(SingleProcessConcurrentFile.class, file.getClass());
+    }
+  }
+}
@@ -0,0 +1,133 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class MirroredConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testWriteFunctionRunsOnceAndMirrorIsIdentical() throws Exception {
+    final int numThreads = 4;
+    final int numWrites = 10_000;
+    final File location = new File(tmpDirectory, "test.bin");
+    final File mirrorLocation = new File(tmpDirectory, "mirror.bin");
+    final AtomicLong numEncodings = new AtomicLong();
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).mirrorLocation(mirrorLocation).capacity(numThreads * numWrites * 8).map()) {
+      Assert.assertEquals(MirroredConcurrentFile.class, file.getClass());
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        final long threadId = t;
+        threads.add(new Thread(() -> {
+          try {
+            for(int i = 0; i < numWrites; i++) {
+              final long value = (threadId << 32) | i;
+              file.write(8, (buffer, offset, length) -> {
+                numEncodings.incrementAndGet();
+                buffer.putLong(offset, value, ByteOrder.LITTLE_ENDIAN);
+              });
+            }
+          } catch(IOException e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    }
+
+    Assert.assertEquals(numThreads * numWrites, numEncodings.get());
+    Assert.assertArrayEquals(Files.readAllBytes(location.toPath()), Files.readAllBytes(mirrorLocation.toPath()));
+  }
+
+  @Test
+  public void testRolledFramedFilesAreMirrored() throws Exception {
+    final File location = new File(tmpDirectory, "primary");
+    final File mirrorLocation = new File(tmpDirectory, "mirror");
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .mirrorLocation(mirrorLocation)
+            .capacity(1024)
+            .framed(true)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      for(int i = 0; i < 1000; i++)
+        file.writeAscii("Hello World " + i);
+    }
+
+    final File[] files = location.listFiles();
+    Assert.assertTrue(files.length > 1);
+    Assert.assertEquals(files.length, mirrorLocation.listFiles().length);
+    for(File f : files)
+      Assert.assertArrayEquals(Files.readAllBytes(f.toPath()), Files.readAllBytes(new File(mirrorLocation, f.getName()).toPath()));
+  }
+
+  @Test
+  public void testMirrorIsTruncatedWithUnderlyingFile() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    final File mirrorLocation = new File(tmpDirectory, "mirror.bin");
+    try(ConcurrentFile file = ConcurrentFile.map().location(location).mirrorLocation(mirrorLocation).capacity(20).map()) {
+      Assert.assertEquals(0, file.writeLong(1, ByteOrder.LITTLE_ENDIAN));
+      Assert.assertEquals(8, file.writeLong(2, ByteOrder.LITTLE_ENDIAN));
+      Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.writeLong(3, ByteOrder.LITTLE_ENDIAN));
+    }
+    Assert.assertEquals(16, location.length());
+    Assert.assertArrayEquals(Files.readAllBytes(location.toPath()), Files.readAllBytes(mirrorLocation.toPath()));
+  }
+
+  @Test
+  public void testWroteWithoutOffsetResyncsMirror() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    final File mirrorLocation = new File(tmpDirectory, "mirror.bin");
+    try(MirroredConcurrentFile file = (MirroredConcurrentFile)ConcurrentFile.map().location(location).mirrorLocation(mirrorLocation).capacity(16).map()) {
+      final int offset = file.reserve(8);
+      file.getBuffer().putLong(offset, 1234L);
+      file.wrote(8);
+      file.writeLong(5678L, ByteOrder.LITTLE_ENDIAN);
+    }
+    Assert.assertArrayEquals(Files.readAllBytes(location.toPath()), Files.readAllBytes(mirrorLocation.toPath()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMirrorNotSupportedWithDurability() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).mirrorLocation(new File(tmpDirectory, "mirror.bin")).capacity(1024)
+            .durability(Durability.ON_DEMAND).map();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMirrorNotSupportedForPositionalBackend() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).mirrorLocation(new File(tmpDirectory, "mirror.bin")).capacity(1024)
+            .backend(Backend.PWRITE).map();
+  }
+}
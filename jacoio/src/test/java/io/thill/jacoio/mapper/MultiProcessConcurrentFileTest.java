@@ -52,4 +52,95 @@ public class MultiProcessConcurrentFileTest extends SingleProcessConcurrentFileT
     assertBytesAt("Hello World!".getBytes(), file, HEADER_SIZE);
   }
 
+  @Test
+  public void testHugePageAlignment() throws Exception {
+    final int hugePageSize = 64 * 1024;
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(128)
+            .multiProcess(true)
+            .hugePageSize(hugePageSize)
+            .map();
+
+    // the header and capacity are aligned together to a single huge page
+    Assert.assertEquals(hugePageSize, underlyingFile.length());
+    Assert.assertEquals(hugePageSize - HEADER_SIZE, ((MappedConcurrentFile)file).capacity());
+
+    // the file must not be truncated on close
+    file.write(ByteBuffer.wrap("Hello World!".getBytes()));
+    file.finish();
+    file.close();
+    Assert.assertEquals(hugePageSize, underlyingFile.length());
+    assertBytesAt("Hello World!".getBytes(), HEADER_SIZE);
+  }
+
+  @Test
+  public void testRecoverWriteFromDeadProcess() throws Exception {
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+
+    final FramedConcurrentFile framedFile = new FramedConcurrentFile(MultiProcessConcurrentFile.map(underlyingFile, 128, true, true, 0, Durability.NONE, 0,
+            50, Backend.MMAP));
+    file = framedFile;
+    file.write(ByteBuffer.wrap("Hello".getBytes()));
+
+    // simulate a process that dies between reserve and wrote
+    final MultiProcessConcurrentFile deadProcess = MultiProcessConcurrentFile.map(underlyingFile, 128, false);
+    final int deadOffset = deadProcess.reserve(16);
+
+    file.write(ByteBuffer.wrap("World!".getBytes()));
+    file.finish();
+
+    final long timeout = System.currentTimeMillis() + 5000;
+    while(!file.isFinished()) {
+      if(System.currentTimeMillis() > timeout)
+        Assert.fail("Timed out");
+      Thread.sleep(10);
+    }
+
+    // the dead reservation is padded and the frame written after it is kept
+    Assert.assertEquals(-16, framedFile.getBuffer().getInt(deadOffset));
+    Assert.assertEquals(deadOffset + 16 + 10, Frames.scan(framedFile.getBuffer(), HEADER_SIZE, deadOffset + 16 + 10));
+    assertBytesAt("World!".getBytes(), deadOffset + 16 + 4);
+  }
+
+  @Test
+  public void testStalledWriterResumingAfterRecovery() throws Exception {
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+
+    final MultiProcessConcurrentFile recoveringProcess = MultiProcessConcurrentFile.map(underlyingFile, 128, true, false, 0, Durability.NONE, 0, 50,
+            Backend.MMAP);
+    file = recoveringProcess;
+    file.write(ByteBuffer.wrap("Hello".getBytes()));
+
+    // simulate a process that stalls between reserve and wrote for longer than the recovery timeout
+    try(MultiProcessConcurrentFile stalledProcess = MultiProcessConcurrentFile.map(underlyingFile, 128, false)) {
+      final int stalledOffset = stalledProcess.reserve(6);
+
+      final long timeout = System.currentTimeMillis() + 5000;
+      while(!file.isFinished()) {
+        if(System.currentTimeMillis() > timeout)
+          Assert.fail("Timed out");
+        Thread.sleep(10);
+      }
+      final long nextWriteOffset = recoveringProcess.nextWriteOffset();
+      Assert.assertFalse(recoveringProcess.hasAvailableCapacity());
+      Assert.assertEquals(-1, file.write(ByteBuffer.wrap("World!".getBytes())));
+
+      // the resumed write must not push writeComplete past nextWriteOffset
+      stalledProcess.getBuffer().putBytes(stalledOffset, "World!".getBytes());
+      stalledProcess.wrote(6);
+      Assert.assertFalse(stalledProcess.isPending());
+      Assert.assertEquals(nextWriteOffset, recoveringProcess.nextWriteOffset());
+      Assert.assertTrue(file.isFinished());
+    }
+  }
+
 }
@@ -73,6 +73,48 @@ public class MultiProcessRollingConcurrentFileTest extends SingleProcessRollingC
     assertBytesAt("Hello World!".getBytes(), file, HEADER_SIZE);
   }
 
+  @Test(timeout = 10000)
+  public void testLeaderPreallocation() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    final ConcurrentFile[] processes = new ConcurrentFile[2];
+    for(int i = 0; i < processes.length; i++) {
+      processes[i] = ConcurrentFile.map()
+              .location(tmpDirectory)
+              .capacity(HEADER_SIZE + 80)
+              .multiProcess(true)
+              .roll(roll -> roll
+                      .enabled(true)
+                      .fileNamePrefix("test-")
+                      .fileNameSuffix(".bin")
+                      .preallocate(true)
+                      .preallocateCheckMillis(1)
+                      .leaderPreallocation(true)
+              )
+              .map();
+    }
+    try {
+      // every file fits 2 records, so writers continuously roll into files created by the leader
+      for(int i = 0; i < 20; i++) {
+        final byte[] record = new byte[40];
+        record[0] = (byte)(i + 1);
+        processes[i % processes.length].write(record, 0, record.length);
+      }
+    } finally {
+      for(ConcurrentFile process : processes)
+        process.close();
+    }
+
+    int numRecords = 0;
+    for(File file : tmpDirectory.listFiles((dir, name) -> name.endsWith(".bin"))) {
+      final byte[] bytes = Files.readAllBytes(file.toPath());
+      for(int offset = HEADER_SIZE; offset + 40 <= bytes.length; offset += 40) {
+        if(bytes[offset] != 0)
+          numRecords++;
+      }
+    }
+    Assert.assertEquals(20, numRecords);
+  }
+
 
 
   @Override
@@ -80,4 +122,9 @@ public class MultiProcessRollingConcurrentFileTest extends SingleProcessRollingC
     return MultiProcessConcurrentFile.HEADER_SIZE;
   }
 
+  @Override
+  protected boolean multiProcess() {
+    return true;
+  }
+
 }
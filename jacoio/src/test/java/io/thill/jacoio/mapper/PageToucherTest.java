@@ -0,0 +1,102 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.function.BooleanSupplier;
+
+public class PageToucherTest {
+
+  private static final int PAGE_SIZE = 4096;
+  private static final int TOUCH_AHEAD = 4 * PAGE_SIZE;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private PageToucher pageToucher;
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    pageToucher = new PageToucher(PAGE_SIZE, TOUCH_AHEAD, 1000);
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    pageToucher.close();
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testTouchesAheadOfWriteCursor() throws Exception {
+    try(SingleProcessConcurrentFile file = SingleProcessConcurrentFile.map(new File(tmpDirectory, "test.bin"), 16 * PAGE_SIZE, false, false, 0, pageToucher,
+            Durability.NONE, 0, Backend.MMAP)) {
+      final PageToucher.Registration registration = file.pageToucherRegistration();
+      awaitTrue(() -> registration.touchedOffset() >= TOUCH_AHEAD);
+
+      file.write(new byte[5 * PAGE_SIZE], 0, 5 * PAGE_SIZE);
+      awaitTrue(() -> registration.touchedOffset() >= 5 * PAGE_SIZE + TOUCH_AHEAD);
+      Assert.assertEquals(1, pageToucher.numRegistrations());
+    }
+    Assert.assertEquals(0, pageToucher.numRegistrations());
+  }
+
+  @Test
+  public void testRollingFilesUnregisterOnClose() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(4 * PAGE_SIZE)
+            .fillWithZeros(false)
+            .pageToucher(pageToucher)
+            .roll(r -> r
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      final byte[] bytes = new byte[PAGE_SIZE];
+      for(int i = 0; i < 16; i++) {
+        file.write(bytes, 0, bytes.length);
+      }
+      Assert.assertEquals(1, pageToucher.numRegistrations());
+    }
+    Assert.assertEquals(0, pageToucher.numRegistrations());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiProcessNotSupported() throws Exception {
+    ConcurrentFile.map()
+            .location(new File(tmpDirectory, "test.bin"))
+            .capacity(PAGE_SIZE)
+            .multiProcess(true)
+            .pageToucher(pageToucher)
+            .map();
+  }
+
+  private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+    final long timeout = System.currentTimeMillis() + 5000;
+    while(!condition.getAsBoolean()) {
+      if(System.currentTimeMillis() > timeout)
+        Assert.fail("Timed out");
+      Thread.sleep(1);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class PartitionedConcurrentFileTest {
+
+  private static final int NUM_PARTITIONS = 4;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  private PartitionedConcurrentFile mapPartitioned() throws IOException {
+    return ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(4 * 1024)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test")
+                    .dateFormat((DateFormat)null)
+                    .fileNameSuffix(".bin")
+                    .preallocate(true)
+                    .preallocateCheckMillis(1)
+            ).mapPartitioned(NUM_PARTITIONS);
+  }
+
+  @Test
+  public void testRecordsForKeyAreInOnePartitionInOrder() throws Exception {
+    final int numThreads = 4;
+    final int keysPerThread = 8;
+    final int writesPerKey = 500;
+    try(PartitionedConcurrentFile file = mapPartitioned()) {
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        final int threadId = t;
+        threads.add(new Thread(() -> {
+          final UnsafeBuffer record = new UnsafeBuffer(new byte[16]);
+          try {
+            for(int i = 1; i <= writesPerKey; i++) {
+              for(int k = 0; k < keysPerThread; k++) {
+                final long key = threadId * keysPerThread + k;
+                record.putLong(0, key, ByteOrder.LITTLE_ENDIAN);
+                record.putLong(8, i, ByteOrder.LITTLE_ENDIAN);
+                file.write(key, record, 0, 16);
+              }
+            }
+          } catch(IOException e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    }
+
+    for(long key = 0; key < numThreads * keysPerThread; key++) {
+      // only the key's partition is read
+      final File partitionDirectory = PartitionedConcurrentFile.partitionLocation(tmpDirectory, NUM_PARTITIONS, key);
+      long expected = 1;
+      for(File f : filesInRollOrder(partitionDirectory)) {
+        final UnsafeBuffer buffer = new UnsafeBuffer(Files.readAllBytes(f.toPath()));
+        for(int offset = 0; offset + 16 <= buffer.capacity(); offset += 16) {
+          if(buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN) == key && buffer.getLong(offset + 8, ByteOrder.LITTLE_ENDIAN) != 0)
+            Assert.assertEquals(expected++, buffer.getLong(offset + 8, ByteOrder.LITTLE_ENDIAN));
+        }
+      }
+      Assert.assertEquals(writesPerKey + 1, expected);
+    }
+  }
+
+  @Test
+  public void testPartitionsSharePreallocationThread() throws Exception {
+    final long numThreadsBefore = numPreallocatorThreads();
+    try(PartitionedConcurrentFile file = mapPartitioned()) {
+      Assert.assertEquals(NUM_PARTITIONS, file.numPartitions());
+      Assert.assertEquals(numThreadsBefore + 1, numPreallocatorThreads());
+    }
+  }
+
+  private static long numPreallocatorThreads() {
+    return Thread.getAllStackTraces().keySet().stream().filter(t -> t.getName().contains("Preallocator")).count();
+  }
+
+  @Test
+  public void testPartitionIndexIsStable() {
+    Assert.assertEquals(PartitionedConcurrentFile.partitionIndex("AAPL", 16), PartitionedConcurrentFile.partitionIndex(new StringBuilder("AAPL"), 16));
+    final int[] counts = new int[NUM_PARTITIONS];
+    for(long key = 0; key < 1000; key++)
+      counts[PartitionedConcurrentFile.partitionIndex(key, NUM_PARTITIONS)]++;
+    for(int count : counts)
+      Assert.assertTrue(Arrays.toString(counts), count > 150);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testPartitionsRequireRolling() throws Exception {
+    ConcurrentFile.map().location(tmpDirectory).capacity(1024).mapPartitioned(NUM_PARTITIONS);
+  }
+
+  private static List<File> filesInRollOrder(File directory) {
+    // files are named test.bin, test-1.bin, test-2.bin, ... when no date format is used
+    final List<File> files = new ArrayList<>(Arrays.asList(directory.listFiles()));
+    files.sort(Comparator.comparingInt(f -> {
+      final String name = f.getName();
+      return name.equals("test.bin") ? 0 : Integer.parseInt(name.substring("test-".length(), name.length() - ".bin".length()));
+    }));
+    return files;
+  }
+}
@@ -0,0 +1,85 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+public class PositionalConcurrentFileTest extends SingleProcessConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  @After
+  public void cleanup() throws Exception {
+    if(file != null) {
+      file.close();
+      file.getFile().delete();
+      file = null;
+    }
+  }
+
+  @Override
+  protected void createFile(int capacity, boolean fillWithZeros) throws Exception {
+    if(file != null)
+      file.close();
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+    logger.info("Testing with mapper at {}", underlyingFile.getAbsolutePath());
+
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(capacity)
+            .fillWithZeros(fillWithZeros)
+            .multiProcess(false)
+            .backend(Backend.PWRITE)
+            .map();
+
+    Assert.assertEquals(PositionalConcurrentFile.class, file.getClass());
+  }
+
+  @Override
+  @Test
+  public void testBiParametizedWriteFunction() throws Exception {
+    createFile(128, false);
+
+    // only the reserved bytes are written to the file, so the reservation must include the int
+    byte[] writeBytes = "Hello World!".getBytes();
+    int offset = file.write(writeBytes.length + 4, 1000, writeBytes, (buffer, offset1, length, parameter1, parameter2) -> {
+      buffer.putInt(offset1, parameter1);
+      buffer.putBytes(offset1 + 4, parameter2);
+    });
+
+    Assert.assertEquals(startOffset(), offset);
+    assertBytesAt(new byte[] { -24, 3, 0, 0 }, offset);
+    assertBytesAt(writeBytes, offset + 4);
+  }
+
+  @Test
+  public void testWriteLargerThanPooledStaging() throws Exception {
+    final int length = PositionalConcurrentFile.MAX_POOLED_STAGING_CAPACITY + 1000;
+    createFile(2 * length, false);
+
+    final byte[] writeBytes = new byte[length];
+    for(int i = 0; i < writeBytes.length; i++)
+      writeBytes[i] = (byte)(i + 1);
+    Assert.assertEquals(0, file.write(writeBytes, 0, 100));
+    Assert.assertEquals(100, file.write(writeBytes, 0, length));
+    Assert.assertEquals(100 + length, file.write(writeBytes, 0, 100));
+
+    assertBytesAt(writeBytes, 100);
+    final byte[] smallBytes = new byte[100];
+    System.arraycopy(writeBytes, 0, smallBytes, 0, 100);
+    assertBytesAt(smallBytes, 100 + length);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFramedNotSupported() throws Exception {
+    ConcurrentFile.map().location(new File("positional.bin")).capacity(1024).framed(true).backend(Backend.PWRITE).map();
+  }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2019 Eric Thill
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this getFile except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR
+ * CONDITIONS OF ANY KIND, either express or implied. See the License for the specific language governing permissions and limitations under the License.
+ */
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+public class ResumeTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  private ConcurrentFile map(File location, boolean framed) throws Exception {
+    return ConcurrentFile.map().location(location).capacity(1024).framed(framed).resume(true).map();
+  }
+
+  @Test
+  public void testResumeUnframed() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = map(location, false)) {
+      Assert.assertEquals(0, file.write(new byte[] { 1, 2, 3 }, 0, 3));
+    }
+    try(ConcurrentFile file = map(location, false)) {
+      Assert.assertEquals(3, file.write(new byte[] { 4, 5 }, 0, 2));
+    }
+    final byte[] bytes = Files.readAllBytes(location.toPath());
+    Assert.assertEquals(1024, bytes.length);
+    Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4, 5, 0 }, Arrays.copyOf(bytes, 6));
+  }
+
+  @Test
+  public void testResumeFramedWithTrailingZeros() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = map(location, true)) {
+      // the payload ends with zero bytes, which the frame header still accounts for
+      Assert.assertEquals(0, file.write(new byte[] { 1, 0, 0, 0 }, 0, 4));
+    }
+    try(ConcurrentFile file = map(location, true)) {
+      Assert.assertEquals(8, file.write(new byte[] { 2 }, 0, 1));
+    }
+  }
+
+  @Test
+  public void testResumeTruncatedFile() throws Exception {
+    final File location = new File(tmpDirectory, "test.bin");
+    try(ConcurrentFile file = map(location, false)) {
+      file.write(new byte[1000], 0, 1000);
+      // does not fit, so the file is truncated to 1000 bytes on close
+      Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.write(new byte[100], 0, 100));
+    }
+    Assert.assertEquals(1000, location.length());
+    try(ConcurrentFile file = map(location, false)) {
+      Assert.assertEquals(1000, file.write(new byte[10], 0, 10));
+    }
+  }
+
+  @Test
+  public void testResumeRolling() throws Exception {
+    File lastFile;
+    try(ConcurrentFile file = mapRolling()) {
+      file.write(new byte[] { 1, 2, 3 }, 0, 3);
+      lastFile = file.getFile();
+    }
+    try(ConcurrentFile file = mapRolling()) {
+      Assert.assertEquals(lastFile, file.getFile());
+      Assert.assertEquals(3, file.write(new byte[] { 4 }, 0, 1));
+    }
+    Assert.assertEquals(1, tmpDirectory.listFiles().length);
+  }
+
+  @Test
+  public void testResumeRollingSkipsUnwrittenPreallocatedFile() throws Exception {
+    File lastFile;
+    try(ConcurrentFile file = mapRolling(false)) {
+      file.write(new byte[] { 1, 2, 3 }, 0, 3);
+      lastFile = file.getFile();
+    }
+    // an unclean shutdown leaves behind a preallocated file that is named and modified after the file that was being written
+    final String preallocatedName = "test-" + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS").format(new Date(System.currentTimeMillis() + 60_000)) + ".bin";
+    final File preallocatedFile = new File(tmpDirectory, preallocatedName);
+    try(RandomAccessFile raf = new RandomAccessFile(preallocatedFile, "rw")) {
+      raf.setLength(1024);
+    }
+    Assert.assertTrue(lastFile.setLastModified(preallocatedFile.lastModified() - 60_000));
+
+    try(ConcurrentFile file = mapRolling(true)) {
+      Assert.assertEquals(lastFile, file.getFile());
+      Assert.assertEquals(3, file.write(new byte[] { 4 }, 0, 1));
+    }
+    Assert.assertArrayEquals(new byte[] { 1, 2, 3, 4 }, Arrays.copyOf(Files.readAllBytes(lastFile.toPath()), 4));
+  }
+
+  private ConcurrentFile mapRolling() throws Exception {
+    return mapRolling(false);
+  }
+
+  private ConcurrentFile mapRolling(boolean preallocate) throws Exception {
+    return ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .resume(true)
+            .roll(r -> r
+                    .enabled(true)
+                    .preallocate(preallocate)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map();
+  }
+
+}
@@ -0,0 +1,70 @@
+package io.thill.jacoio.mapper;
+
+import org.agrona.concurrent.YieldingIdleStrategy;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RollHandoffTest {
+
+  private final RollHandoff handoff = new RollHandoff(YieldingIdleStrategy::new, true);
+
+  @Test
+  public void testPlatformThreadIsNotVirtual() {
+    Assert.assertFalse(RollHandoff.isVirtual(Thread.currentThread()));
+  }
+
+  @Test
+  public void testPlatformThreadDeadline() {
+    final long start = System.nanoTime();
+    Assert.assertFalse(handoff.await(() -> false, true, start + TimeUnit.MILLISECONDS.toNanos(10)));
+    Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10));
+    Assert.assertTrue(handoff.await(() -> true, true, start - 1));
+  }
+
+  @Test
+  public void testVirtualThreadParksUntilSignaled() throws Exception {
+    final AtomicBoolean ready = new AtomicBoolean();
+    final AtomicInteger numChecks = new AtomicInteger();
+    final Thread thread = startVirtualThread(() -> handoff.await(() -> {
+      numChecks.incrementAndGet();
+      return ready.get();
+    }, false, 0));
+    Assert.assertTrue(RollHandoff.isVirtual(thread));
+
+    // the waiting thread is parked, so it does not keep checking its condition
+    Thread.sleep(50);
+    Assert.assertTrue(thread.isAlive());
+    Assert.assertTrue(numChecks.get() <= 4);
+
+    ready.set(true);
+    handoff.signal();
+    thread.join(TimeUnit.SECONDS.toMillis(5));
+    Assert.assertFalse(thread.isAlive());
+  }
+
+  @Test
+  public void testVirtualThreadDeadline() throws Exception {
+    final AtomicBoolean result = new AtomicBoolean(true);
+    final Thread thread = startVirtualThread(() -> result.set(handoff.await(() -> false, true, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(10))));
+    thread.join(TimeUnit.SECONDS.toMillis(5));
+    Assert.assertFalse(thread.isAlive());
+    Assert.assertFalse(result.get());
+  }
+
+  private static Thread startVirtualThread(Runnable task) throws Exception {
+    final Method startVirtualThread;
+    try {
+      startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+    } catch(NoSuchMethodException e) {
+      Assume.assumeTrue("Virtual threads require JDK 21 or later", false);
+      throw e;
+    }
+    return (Thread)startVirtualThread.invoke(null, task);
+  }
+}
@@ -0,0 +1,45 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+/**
+ * Runs the multi-process tests against {@link Backend#SEGMENT}. Tests run against target/classes, which only holds the Java 8 {@link MappedRegion}, so this is
+ * skipped by the default test run and executed against the packaged multi-release jar by the jdk22 profile's multi-release-jar surefire execution.
+ */
+public class SegmentMultiProcessConcurrentFileTest extends MultiProcessConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  @Before
+  public void assumeSegmentSupported() {
+    Assume.assumeTrue("The SEGMENT backend requires the JDK 22 multi-release classes", MappedRegion.isSegmentSupported());
+  }
+
+  @Override
+  protected void createFile(int capacity, boolean fillWithZeros) throws Exception {
+    if(file != null)
+      file.close();
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+    logger.info("Testing with mapper at {}", underlyingFile.getAbsolutePath());
+
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(capacity)
+            .fillWithZeros(fillWithZeros)
+            .multiProcess(true)
+            .backend(Backend.SEGMENT)
+            .map();
+
+    Assert.assertEquals(MultiProcessConcurrentFile.class, file.getClass());
+  }
+
+}
@@ -0,0 +1,135 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.agrona.IoUtil;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ShardedConcurrentFileTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testMergedReadIsTimeOrdered() throws Exception {
+    final int numThreads = 4;
+    final int numWrites = 10_000;
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(64 * 1024)
+            .shards(numThreads)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            ).map()) {
+      Assert.assertEquals(ShardedConcurrentFile.class, file.getClass());
+      final List<Thread> threads = new ArrayList<>();
+      for(int t = 0; t < numThreads; t++) {
+        final long threadId = t;
+        threads.add(new Thread(() -> {
+          try {
+            for(int i = 0; i < numWrites; i++)
+              file.writeLong((threadId << 32) | i, ByteOrder.LITTLE_ENDIAN);
+          } catch(IOException e) {
+            logger.error("Write failed", e);
+          }
+        }));
+      }
+      threads.forEach(Thread::start);
+      for(Thread thread : threads)
+        thread.join();
+    }
+
+    for(int t = 0; t < numThreads; t++)
+      Assert.assertTrue(new File(tmpDirectory, "shard-" + t).isDirectory());
+
+    final Map<Long, Integer> nextValues = new HashMap<>();
+    final long[] lastTimestamp = { Long.MIN_VALUE };
+    int numRead = 0;
+    try(ShardedFileReader reader = new ShardedFileReader(tmpDirectory)) {
+      while(reader.read((timestampNanos, buffer, offset, length) -> {
+        Assert.assertEquals(8, length);
+        Assert.assertTrue(timestampNanos >= lastTimestamp[0]);
+        lastTimestamp[0] = timestampNanos;
+        // every thread's writes must be delivered in the order they were written
+        final long value = buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN);
+        final long threadId = value >>> 32;
+        final int expected = nextValues.getOrDefault(threadId, 0);
+        Assert.assertEquals(expected, (int)value);
+        nextValues.put(threadId, expected + 1);
+      }))
+        numRead++;
+    }
+    Assert.assertEquals(numThreads * numWrites, numRead);
+  }
+
+  @Test
+  public void testThreadStaysOnShard() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(1024)
+            .shards(2)
+            .roll(roll -> roll.enabled(true))
+            .map()) {
+      final File firstFile = file.getFile();
+      file.writeAscii("Hello");
+      file.writeAscii("World");
+      Assert.assertEquals(firstFile, file.getFile());
+      Assert.assertEquals("shard-0", firstFile.getParentFile().getName());
+    }
+  }
+
+  @Test
+  public void testWriteAtCapacityBoundary() throws Exception {
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(64)
+            .shards(2)
+            .roll(roll -> roll.enabled(true))
+            .map()) {
+      // the 12 byte timestamped frame header must fit in the file along with the write
+      Assert.assertNotEquals(ConcurrentFile.NULL_OFFSET, file.write(new byte[52], 0, 52));
+      try {
+        file.write(new byte[53], 0, 53);
+        Assert.fail("Expected IOException");
+      } catch(IOException e) {
+        // expected, instead of rolling forever
+      }
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShardsRequireRolling() throws Exception {
+    ConcurrentFile.map().location(new File(tmpDirectory, "test.bin")).capacity(1024).shards(2).map();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testShardsNotSupportedForMultiProcess() throws Exception {
+    ConcurrentFile.map().location(tmpDirectory).capacity(1024).shards(2).multiProcess(true).roll(roll -> roll.enabled(true)).map();
+  }
+}
@@ -2,6 +2,7 @@ package io.thill.jacoio.mapper;
 
 import io.thill.jacoio.ConcurrentFile;
 import org.agrona.IoUtil;
+import org.agrona.concurrent.BackoffIdleStrategy;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Test;
@@ -11,6 +12,9 @@ import org.slf4j.LoggerFactory;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SingleProcessRollingConcurrentFileTest extends SingleProcessConcurrentFileTest {
 
@@ -92,4 +96,103 @@ public class SingleProcessRollingConcurrentFileTest extends SingleProcessConcurr
     assertBytesAt(buffer3, offset3 + frameHeaderSize());
   }
 
+  protected boolean multiProcess() {
+    return false;
+  }
+
+  @Test
+  public void testFramedWriteAtCapacityBoundary() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(64)
+            .framed(true)
+            .multiProcess(multiProcess())
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            )
+            .map();
+
+    // the 4 byte frame header must fit in the file along with the write
+    Assert.assertNotEquals(ConcurrentFile.NULL_OFFSET, file.write(new byte[60], 0, 60));
+    try {
+      file.write(new byte[61], 0, 61);
+      Assert.fail("Expected IOException");
+    } catch(IOException e) {
+      // expected, instead of rolling forever
+    }
+  }
+
+  @Test
+  public void testFramedRolling() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(128)
+            .framed(true)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+            )
+            .map();
+
+    final int offset = file.write("Hello".getBytes(), 0, 5);
+    Assert.assertEquals(0, offset);
+    assertBytesAt(new byte[] { 9, 0, 0, 0, 'H', 'e', 'l', 'l', 'o' }, offset);
+  }
+
+  @Test
+  public void testTryWriteGivesUpWhileAnotherThreadRolls() throws Exception {
+    final AtomicInteger numMapped = new AtomicInteger();
+    final CountDownLatch rolling = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    file = ConcurrentFile.map()
+            .location(tmpDirectory)
+            .capacity(16)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+                    .asyncClose(false)
+                    .fileMappedListener(f -> {
+                      // hold the first roll open until released
+                      if(numMapped.incrementAndGet() == 1) {
+                        rolling.countDown();
+                        try {
+                          release.await();
+                        } catch(InterruptedException e) {
+                          Thread.currentThread().interrupt();
+                        }
+                      }
+                    })
+                    .idleStrategy(() -> new BackoffIdleStrategy(1, 1, 1000, 100_000))
+            )
+            .map();
+
+    Assert.assertEquals(0, file.tryWrite(new byte[16], 0, 16, System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+
+    final Thread roller = new Thread(() -> {
+      try {
+        file.write(new byte[8], 0, 8);
+      } catch(IOException e) {
+        logger.error("Write failed", e);
+      }
+    });
+    roller.start();
+    Assert.assertTrue(rolling.await(5, TimeUnit.SECONDS));
+
+    // the file is full and the roll is held by another thread
+    final long start = System.nanoTime();
+    Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.tryWrite(new byte[8], 0, 8, start + TimeUnit.MILLISECONDS.toNanos(10)));
+    Assert.assertEquals(ConcurrentFile.NULL_OFFSET, file.tryWrite(new byte[8], 0, 8, start - 1));
+
+    release.countDown();
+    roller.join();
+    Assert.assertEquals(8, file.tryWrite(new byte[8], 0, 8, System.nanoTime() + TimeUnit.SECONDS.toNanos(1)));
+  }
+
 }
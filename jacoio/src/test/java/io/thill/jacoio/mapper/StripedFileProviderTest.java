@@ -0,0 +1,109 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import io.thill.jacoio.function.StripedFileProvider;
+import io.thill.jacoio.function.StripedFileProvider.Placement;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.List;
+
+public class StripedFileProviderTest {
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+  private File tmpDirectory;
+  private File location;
+  private File[] stripes;
+
+  @Before
+  public void setup() throws Exception {
+    tmpDirectory = Files.createTempDirectory(getClass().getSimpleName()).toFile();
+    logger.info("Testing with directory at {}", tmpDirectory.getAbsolutePath());
+    location = new File(tmpDirectory, "location");
+    stripes = new File[] { new File(tmpDirectory, "stripe0"), new File(tmpDirectory, "stripe1"), new File(tmpDirectory, "stripe2") };
+  }
+
+  @After
+  public void cleanup() throws Exception {
+    IoUtil.delete(tmpDirectory, false);
+  }
+
+  @Test
+  public void testRoundRobinPlacementIsRecorded() throws Exception {
+    final int numWrites = 1000;
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(1024)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+                    .stripeLocations(stripes)
+            ).map()) {
+      for(long i = 1; i <= numWrites; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    final List<File> files = StripedFileProvider.readPlacement(new File(location, StripedFileProvider.PLACEMENT_FILE_NAME));
+    Assert.assertEquals((numWrites * 8 + 1023) / 1024, files.size());
+    long expected = 1;
+    for(int i = 0; i < files.size(); i++) {
+      Assert.assertEquals(stripes[i % stripes.length].getAbsoluteFile(), files.get(i).getParentFile());
+      final UnsafeBuffer buffer = new UnsafeBuffer(Files.readAllBytes(files.get(i).toPath()));
+      for(int offset = 0; offset < buffer.capacity(); offset += 8) {
+        final long value = buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN);
+        if(value != 0)
+          Assert.assertEquals(expected++, value);
+      }
+    }
+    Assert.assertEquals(numWrites + 1, expected);
+  }
+
+  @Test
+  public void testLeastFullPlacementUsesStripes() {
+    final StripedFileProvider provider = new StripedFileProvider(stripes, "test-", null, ".bin", Placement.LEAST_FULL, new File(location, "placement.log"));
+    final File file = provider.nextFile();
+    Assert.assertTrue(file.getParentFile().equals(stripes[0]) || file.getParentFile().equals(stripes[1]) || file.getParentFile().equals(stripes[2]));
+    Assert.assertNull(provider.lastFile());
+  }
+
+  @Test
+  public void testStripedShardsAreReadable() throws Exception {
+    final int numWrites = 1000;
+    try(ConcurrentFile file = ConcurrentFile.map()
+            .location(location)
+            .capacity(1024)
+            .shards(2)
+            .roll(roll -> roll
+                    .enabled(true)
+                    .fileNamePrefix("test-")
+                    .fileNameSuffix(".bin")
+                    .stripeLocations(stripes)
+            ).map()) {
+      for(long i = 0; i < numWrites; i++)
+        file.writeLong(i, ByteOrder.LITTLE_ENDIAN);
+    }
+
+    Assert.assertTrue(new File(stripes[0], "shard-0").isDirectory());
+    final long[] expected = { 0 };
+    try(ShardedFileReader reader = new ShardedFileReader(location)) {
+      while(reader.read((timestampNanos, buffer, offset, length) -> Assert.assertEquals(expected[0]++, buffer.getLong(offset, ByteOrder.LITTLE_ENDIAN))))
+        ;
+    }
+    Assert.assertEquals(numWrites, expected[0]);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testStripesNotSupportedForMultiProcess() throws Exception {
+    ConcurrentFile.map().location(location).capacity(1024).multiProcess(true).roll(roll -> roll.enabled(true).stripeLocations(stripes)).map();
+  }
+}
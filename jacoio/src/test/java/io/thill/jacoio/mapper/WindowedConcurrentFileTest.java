@@ -0,0 +1,93 @@
+package io.thill.jacoio.mapper;
+
+import io.thill.jacoio.ConcurrentFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+public class WindowedConcurrentFileTest extends SingleProcessConcurrentFileTest {
+
+  private static final int WINDOW_SIZE = 4096;
+
+  private final Logger logger = LoggerFactory.getLogger(getClass());
+
+  @After
+  public void cleanup() throws Exception {
+    if(file != null) {
+      file.close();
+      file.getFile().delete();
+      file = null;
+    }
+  }
+
+  @Override
+  protected void createFile(int capacity, boolean fillWithZeros) throws Exception {
+    if(file != null)
+      file.close();
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+    logger.info("Testing with mapper at {}", underlyingFile.getAbsolutePath());
+
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(capacity)
+            .fillWithZeros(fillWithZeros)
+            .multiProcess(false)
+            .windowSize(WINDOW_SIZE)
+            .map();
+
+    Assert.assertEquals(WindowedConcurrentFile.class, file.getClass());
+  }
+
+  @Test
+  public void testWritesStraddleWindows() throws Exception {
+    createFile(3 * WINDOW_SIZE, false);
+    final WindowedConcurrentFile windowedFile = (WindowedConcurrentFile)file;
+
+    final byte[] writeBytes = new byte[1000];
+    for(int i = 0; i < writeBytes.length; i++)
+      writeBytes[i] = (byte)(i + 1);
+    for(int i = 0; i < 12; i++) {
+      final int offset = file.write(writeBytes, 0, writeBytes.length);
+      Assert.assertEquals(i * writeBytes.length, offset);
+    }
+    // the first 2 windows are fully written and unmapped, only the window being written is still mapped
+    Assert.assertEquals(1, windowedFile.numMappedWindows());
+
+    for(int i = 0; i < 12; i++)
+      assertBytesAt(writeBytes, i * writeBytes.length);
+  }
+
+  @Test
+  public void testGrowable() throws Exception {
+    File underlyingFile = File.createTempFile(getClass().getSimpleName(), ".bin");
+    while(!underlyingFile.delete())
+      Thread.sleep(10);
+    file = ConcurrentFile.map()
+            .location(underlyingFile)
+            .capacity(WINDOW_SIZE)
+            .growable(true)
+            .map();
+
+    final byte[] writeBytes = new byte[1000];
+    for(int i = 0; i < writeBytes.length; i++)
+      writeBytes[i] = (byte)(i + 1);
+    for(int i = 0; i < 10; i++) {
+      final int offset = file.write(writeBytes, 0, writeBytes.length);
+      Assert.assertEquals(i * writeBytes.length, offset);
+    }
+    Assert.assertTrue(underlyingFile.length() > WINDOW_SIZE);
+    file.close();
+
+    // truncated to the written bytes on close
+    Assert.assertEquals(10 * writeBytes.length, underlyingFile.length());
+    for(int i = 0; i < 10; i++)
+      assertBytesAt(writeBytes, i * writeBytes.length);
+  }
+
+}